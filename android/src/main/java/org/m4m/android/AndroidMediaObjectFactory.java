@@ -37,6 +37,7 @@ import org.m4m.domain.IEffectorSurface;
 import org.m4m.domain.IEglContext;
 import org.m4m.domain.IFrameBuffer;
 import org.m4m.domain.IMediaFormatWrapper;
+import org.m4m.domain.IMediaMuxer;
 import org.m4m.domain.IMicrophoneSource;
 import org.m4m.domain.IPreview;
 import org.m4m.domain.ISurfaceWrapper;
@@ -45,6 +46,7 @@ import org.m4m.domain.MediaSource;
 import org.m4m.domain.MuxRender;
 import org.m4m.domain.ProgressTracker;
 import org.m4m.domain.Render;
+import org.m4m.domain.PolyphaseResampler;
 import org.m4m.domain.Resampler;
 import org.m4m.domain.VideoDecoder;
 import org.m4m.domain.VideoEffector;
@@ -54,6 +56,7 @@ import org.m4m.domain.VideoTimeScaler;
 import org.m4m.android.graphics.EglUtil;
 import org.m4m.android.graphics.FrameBuffer;
 import org.m4m.domain.graphics.IEglUtil;
+import org.m4m.domain.rtmp.RtmpMediaMuxer;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
@@ -119,7 +122,12 @@ public class AndroidMediaObjectFactory implements IAndroidMediaObjectFactory {
 
     @Override
     public Resampler createAudioResampler(AudioFormat audioFormat) {
-        return new ResamplerAndroid(audioFormat);
+        try {
+            return new ResamplerAndroid(audioFormat);
+        } catch (IllegalArgumentException e) {
+            // Native resampler library is not bundled, fall back to the Java one
+            return new PolyphaseResampler(audioFormat);
+        }
     }
 
     @Override
@@ -132,11 +140,16 @@ public class AndroidMediaObjectFactory implements IAndroidMediaObjectFactory {
         return null;
     }
 
+    @Override
+    public IMediaMuxer createMediaMuxer(String fileName, int orientationHint) throws IOException {
+        MediaMuxerPlugin muxer = new MediaMuxerPlugin(fileName, MediaMuxer.OutputFormat.MUXER_OUTPUT_MPEG_4);
+        muxer.setOrientationHint(orientationHint);
+        return muxer;
+    }
+
     @Override
     public Render createSink(StreamingParameters parameters, IProgressListener progressListener, ProgressTracker progressTracker) {
-        // Was disabled publishing
-        // return new MuxRender(new MediaStreamerInternal(parameters), progressListener, progressTracker);
-        throw new UnsupportedOperationException();
+        return new MuxRender(new RtmpMediaMuxer(parameters), progressListener, progressTracker);
     }
 
     @Override
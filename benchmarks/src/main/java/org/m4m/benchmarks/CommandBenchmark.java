@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.domain.Command;
+import org.m4m.domain.CommandHandlerFactory;
+import org.m4m.domain.CommandQueue;
+import org.m4m.domain.ICommandHandler;
+import org.m4m.domain.Pair;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the steps the command processor takes for every command: queueing and dequeueing it and looking up
+ * the handler of a command pair.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class CommandBenchmark {
+    private static final int TRACKS = 2;
+
+    private final CommandQueue commandQueue = new CommandQueue();
+    private final CommandHandlerFactory commandHandlerFactory = new CommandHandlerFactory();
+    private final SilentProgressListener progressListener = new SilentProgressListener();
+    private final Pair<Command, Integer> outputCommand = new Pair<Command, Integer>(Command.HasData, 0);
+    private final Pair<Command, Integer> inputCommand = new Pair<Command, Integer>(Command.NeedData, 0);
+    private int trackId = 0;
+
+    @Setup
+    public void setUp() {
+        ICommandHandler handler = new ICommandHandler() {
+            @Override
+            public void handle() {
+            }
+        };
+        Command[] outputCommands = {Command.HasData, Command.EndOfFile, Command.OutputFormatChanged};
+        Command[] inputCommands = {Command.NeedData, Command.NeedInputFormat};
+        for (int track = 0; track < TRACKS; track++) {
+            for (Command output : outputCommands) {
+                for (Command input : inputCommands) {
+                    commandHandlerFactory.register(new Pair<Command, Integer>(output, track), new Pair<Command, Integer>(input, track), handler);
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public Pair<Command, Integer> queueAndDequeue() {
+        commandQueue.queue(Command.HasData, trackId);
+        trackId = (trackId + 1) % TRACKS;
+        return commandQueue.dequeue();
+    }
+
+    @Benchmark
+    public ICommandHandler createHandler() {
+        trackId = (trackId + 1) % TRACKS;
+        outputCommand.right = trackId;
+        inputCommand.right = trackId;
+        return commandHandlerFactory.create(outputCommand, inputCommand, progressListener);
+    }
+}
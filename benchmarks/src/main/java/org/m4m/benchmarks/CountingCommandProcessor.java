@@ -0,0 +1,44 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.IProgressListener;
+import org.m4m.domain.Command;
+import org.m4m.domain.CommandHandlerFactory;
+import org.m4m.domain.CommandProcessor;
+import org.m4m.domain.Pair;
+
+/**
+ * Command processor counting the handled commands, to relate the processing time to a single command.
+ */
+class CountingCommandProcessor extends CommandProcessor {
+    private long commands = 0;
+
+    public CountingCommandProcessor(IProgressListener progressListener) {
+        super(progressListener);
+    }
+
+    @Override
+    protected void process(Pair<Command, Integer> outputCommand, Pair<Command, Integer> inputCommand, CommandHandlerFactory commandHandlerFactory) {
+        commands++;
+        super.process(outputCommand, inputCommand, commandHandlerFactory);
+    }
+
+    public long getCommands() {
+        return commands;
+    }
+}
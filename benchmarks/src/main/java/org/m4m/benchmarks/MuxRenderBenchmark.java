@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.domain.Frame;
+import org.m4m.domain.MuxRender;
+import org.m4m.domain.ProgressTracker;
+import org.m4m.domain.dsl.Father;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of pushing an encoded frame of one of two interleaved tracks into the muxer render.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class MuxRenderBenchmark {
+    private static final long FRAME_DURATION_US = 20000;
+
+    private final Father create = new Father();
+    private MuxRender render;
+    private Frame[] frames;
+    private long frameNumber = 0;
+
+    @Setup
+    public void setUp() {
+        render = new MuxRender(new CountingMuxer(), new SilentProgressListener(), new ProgressTracker());
+        render.configure();
+        render.configure();
+        render.setMediaFormat(create.videoFormat().construct());
+        render.setMediaFormat(create.audioFormat().construct());
+        render.start();
+
+        frames = new Frame[] {
+            new Frame(ByteBuffer.allocate(4096), 4096, 0, 0, 0, 0),
+            new Frame(ByteBuffer.allocate(512), 512, 0, 0, 0, 1)
+        };
+    }
+
+    @Benchmark
+    public void push() {
+        Frame frame = frames[(int) (frameNumber % frames.length)];
+        frame.setSampleTime(frameNumber / frames.length * FRAME_DURATION_US);
+        frameNumber++;
+
+        render.push(frame);
+        render.getInputCommandQueue().clear();
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.domain.Pipeline;
+import org.m4m.domain.dsl.Father;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Processes whole pipelines built of the test fakes. The score is the number of source frames processed per second,
+ * with the gc profiler gc.alloc.rate.norm is the number of bytes allocated per frame. The commands counter is the
+ * number of handled commands per second, its inverse is the processing time of a single command.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class PipelineBenchmark {
+    static final int FRAMES = 100;
+
+    private static final Logger logger = Logger.getLogger("AMP");
+
+    static {
+        // Frame allocations are logged per codec buffer, which would be measured otherwise
+        logger.setLevel(Level.WARNING);
+    }
+
+    @Param({"PASS_THROUGH", "TRANSCODE", "JOIN", "CUT", "AUDIO_EFFECTS"})
+    public PipelineScenario scenario;
+
+    private final Father create = new Father();
+    private CountingCommandProcessor commandProcessor;
+    private CountingMuxer muxer;
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long commands;
+        public long samples;
+
+        @Setup(org.openjdk.jmh.annotations.Level.Iteration)
+        public void reset() {
+            commands = 0;
+            samples = 0;
+        }
+    }
+
+    @Setup(org.openjdk.jmh.annotations.Level.Invocation)
+    public void setUp() {
+        muxer = new CountingMuxer();
+        commandProcessor = new CountingCommandProcessor(new SilentProgressListener());
+        Pipeline pipeline = scenario.create(create, commandProcessor, muxer, FRAMES);
+        pipeline.resolve();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(FRAMES)
+    public int process(Counters counters) {
+        commandProcessor.process();
+
+        counters.commands += commandProcessor.getCommands();
+        counters.samples += muxer.getSamples();
+        return muxer.getSamples();
+    }
+}
@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.IAudioEffect;
+import org.m4m.domain.AudioEffector;
+import org.m4m.domain.CommandProcessor;
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.MediaFormat;
+import org.m4m.domain.MediaFormatType;
+import org.m4m.domain.MediaSource;
+import org.m4m.domain.MultipleMediaSource;
+import org.m4m.domain.Pair;
+import org.m4m.domain.PassThroughPlugin;
+import org.m4m.domain.Pipeline;
+import org.m4m.domain.dsl.AudioDecoderFather;
+import org.m4m.domain.dsl.Father;
+import org.m4m.domain.dsl.MediaCodecFather;
+import org.m4m.domain.dsl.MediaSourceFather;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Pipelines measured by the benchmarks. Sources and codecs are the fakes of the domain tests, so a scenario
+ * runs without a device and measures the engine only: command processing, frame handling and muxing.
+ */
+public enum PipelineScenario {
+    PASS_THROUGH {
+        @Override
+        Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames) {
+            Pipeline pipeline = new Pipeline(commandProcessor);
+            pipeline.setMediaSource(create.multipleMediaSource()
+                    .with(create.mediaSource().with(frames).videoFrames().construct())
+                    .construct());
+            pipeline.addVideoDecoder(new PassThroughPlugin(1024, MediaFormatType.VIDEO));
+            pipeline.setSink(create.render().with(muxer).construct());
+            return pipeline;
+        }
+    },
+
+    TRANSCODE {
+        @Override
+        Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames) {
+            MultipleMediaSource mediaSource = create.multipleMediaSource()
+                    .with(create.mediaSource().with(frames).videoFrames().construct())
+                    .construct();
+            return createVideoPipeline(create, commandProcessor, mediaSource, muxer, frames);
+        }
+    },
+
+    JOIN {
+        @Override
+        Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames) {
+            MultipleMediaSource mediaSource = create.multipleMediaSource()
+                    .with(create.mediaSource().with(frames / 2).videoFrames().construct())
+                    .with(create.mediaSource().with(frames - frames / 2).videoFrames().construct())
+                    .construct();
+            return createVideoPipeline(create, commandProcessor, mediaSource, muxer, frames);
+        }
+    },
+
+    CUT {
+        @Override
+        Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames) {
+            MediaSourceFather sourceFather = create.mediaSource();
+            for (int i = 0; i < frames; i++) {
+                sourceFather.with(create.frame().withTimeStamp(i * FRAME_DURATION_US).withTrackId(0).construct());
+            }
+            MediaSource source = sourceFather.construct();
+            source.add(new Pair<Long, Long>(0L, frames / 4 * FRAME_DURATION_US));
+            source.add(new Pair<Long, Long>(frames / 2 * FRAME_DURATION_US, frames * 3 / 4 * FRAME_DURATION_US));
+            MultipleMediaSource mediaSource = create.multipleMediaSource().with(source).construct();
+            return createVideoPipeline(create, commandProcessor, mediaSource, muxer, frames);
+        }
+    },
+
+    AUDIO_EFFECTS {
+        @Override
+        Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames) {
+            Pipeline pipeline = new Pipeline(commandProcessor);
+            pipeline.setMediaSource(create.multipleMediaSource()
+                    .with(create.mediaSource().withAudioTrack(0).with(frames).audioFrames().construct())
+                    .construct());
+            pipeline.addAudioDecoder(((AudioDecoderFather) create.audioDecoder().with(createCodec(create, frames))).construct());
+
+            AudioEffector audioEffector = create.audioEffector().construct();
+            audioEffector.getAudioEffects().add(new InvertingAudioEffect(create.audioFormat().construct()));
+            pipeline.addAudioEffect(audioEffector);
+
+            pipeline.addAudioEncoder(create.audioEncoder().with(createEndingCodec(create, frames)).construct());
+            pipeline.setSink(create.render().with(muxer).construct());
+            return pipeline;
+        }
+    };
+
+    private static final long FRAME_DURATION_US = 33000;
+
+    abstract Pipeline create(Father create, CommandProcessor commandProcessor, IMediaMuxer muxer, int frames);
+
+    private static Pipeline createVideoPipeline(Father create, CommandProcessor commandProcessor, MultipleMediaSource mediaSource, IMediaMuxer muxer, int frames) {
+        Pipeline pipeline = new Pipeline(commandProcessor);
+        pipeline.setMediaSource(mediaSource);
+        pipeline.addVideoDecoder(create.videoDecoder().with(createCodec(create, frames)).construct());
+        pipeline.addVideoEncoder(create.videoEncoder().with(createCodec(create, frames)).construct());
+        pipeline.setSink(create.render().with(muxer).construct());
+        return pipeline;
+    }
+
+    /**
+     * Codec reporting an output format change followed by the given number of output frames. The end of
+     * stream is reported once the input stream is signalled to end.
+     */
+    private static IMediaCodec createCodec(Father create, int frames) {
+        MediaCodecFather mediaCodec = create.mediaCodec().withInputBuffer(ByteBuffer.allocate(4096));
+        int[] outputBufferIndexes = new int[frames + 1];
+        outputBufferIndexes[0] = IMediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        for (int i = 0; i < frames; i++) {
+            mediaCodec.withOutputBuffer(1, 2, 3, 4).withSampleTime((int) (i * FRAME_DURATION_US));
+            outputBufferIndexes[i + 1] = i;
+        }
+        mediaCodec.withOutputBuffer();
+        mediaCodec.withDequeueOutputBufferIndex(outputBufferIndexes);
+        return mediaCodec.construct();
+    }
+
+    /**
+     * Codec which output ends with an end of stream frame, as audio encoders do not get the input stream end signalled.
+     */
+    private static IMediaCodec createEndingCodec(Father create, int frames) {
+        MediaCodecFather mediaCodec = create.mediaCodec().withInputBuffer(ByteBuffer.allocate(4096));
+        int[] outputBufferIndexes = new int[frames + 2];
+        outputBufferIndexes[0] = IMediaCodec.INFO_OUTPUT_FORMAT_CHANGED;
+        for (int i = 0; i < frames; i++) {
+            mediaCodec.withOutputBuffer(1, 2, 3, 4).withSampleTime((int) (i * FRAME_DURATION_US));
+            outputBufferIndexes[i + 1] = i;
+        }
+        IMediaCodec.BufferInfo endOfStream = new IMediaCodec.BufferInfo();
+        endOfStream.flags = IMediaCodec.BUFFER_FLAG_END_OF_STREAM;
+        endOfStream.presentationTimeUs = frames * FRAME_DURATION_US;
+        mediaCodec.withOutputBuffer().withOutputBufferInfo(endOfStream);
+        outputBufferIndexes[frames + 1] = frames;
+        mediaCodec.withDequeueOutputBufferIndex(outputBufferIndexes);
+        return mediaCodec.construct();
+    }
+
+    private static class InvertingAudioEffect implements IAudioEffect {
+        private final MediaFormat mediaFormat;
+        private Pair<Long, Long> segment = null;
+
+        InvertingAudioEffect(MediaFormat mediaFormat) {
+            this.mediaFormat = mediaFormat;
+        }
+
+        @Override
+        public void setSegment(Pair<Long, Long> segment) {
+            this.segment = segment;
+        }
+
+        @Override
+        public Pair<Long, Long> getSegment() {
+            return segment;
+        }
+
+        @Override
+        public void applyEffect(ByteBuffer input, long timeProgress) {
+            for (int i = 0; i < input.limit(); i++) {
+                input.put(i, (byte) -input.get(i));
+            }
+        }
+
+        @Override
+        public MediaFormat getMediaFormat() {
+            return mediaFormat;
+        }
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.benchmarks;
+
+import org.m4m.AudioFormat;
+import org.m4m.domain.PolyphaseResampler;
+import org.m4m.domain.dsl.Father;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of the pure-Java resampler on 1024 sample PCM buffers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class ResamplerBenchmark {
+    private static final int SAMPLES = 1024;
+
+    @Param({"44100", "48000", "22050", "8000"})
+    public int inputSampleRate;
+
+    @Param({"48000", "44100"})
+    public int targetSampleRate;
+
+    @Param({"2"})
+    public int inputChannelCount;
+
+    @Param({"2", "1"})
+    public int targetChannelCount;
+
+    private final Father create = new Father();
+    private PolyphaseResampler resampler;
+    private ByteBuffer input;
+    private ByteBuffer buffer;
+
+    @Setup
+    public void setUp() {
+        AudioFormat target = create.audioFormat().withSampleRate(targetSampleRate).withChannelCount(targetChannelCount).construct();
+        AudioFormat source = create.audioFormat().withSampleRate(inputSampleRate).withChannelCount(inputChannelCount).construct();
+        resampler = new PolyphaseResampler(target);
+        resampler.setInputParameters(source);
+
+        int length = SAMPLES * inputChannelCount * 2;
+        input = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < SAMPLES * inputChannelCount; i++) {
+            input.putShort((short) (10000 * Math.sin(i * 0.05)));
+        }
+        buffer = ByteBuffer.allocate(Math.max(length, resampler.getMaxOutputLength(length))).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Benchmark
+    public int resampleBuffer() {
+        buffer.clear();
+        input.clear();
+        buffer.put(input);
+
+        resampler.resampleBuffer(buffer, input.capacity());
+        return buffer.limit();
+    }
+}
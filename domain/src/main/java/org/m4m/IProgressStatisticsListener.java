@@ -0,0 +1,30 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m;
+
+/**
+ * Progress listener that also receives throughput statistics. Statistics are delivered only when
+ * progress reporting runs at an interval, see {@link MediaComposer#setProgressInterval(long)}.
+ */
+public interface IProgressStatisticsListener extends IProgressListener {
+    /**
+     * Called to notify about current composing progress and throughput
+     *
+     * @param statistics current progress and throughput
+     */
+    public void onMediaStatistics(ProgressStatistics statistics);
+}
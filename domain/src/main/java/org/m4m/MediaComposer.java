@@ -19,16 +19,27 @@ package org.m4m;
 import org.m4m.domain.AudioEffector;
 import org.m4m.domain.AudioEncoder;
 import org.m4m.domain.CommandProcessor;
+import org.m4m.domain.DecodePlanner;
 import org.m4m.domain.FileSegment;
+import org.m4m.domain.GainEnvelope;
 import org.m4m.domain.IAndroidMediaObjectFactory;
+import org.m4m.domain.ICommandProcessor;
+import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.IPcmSource;
 import org.m4m.domain.MediaFormatType;
 import org.m4m.domain.MediaSource;
 import org.m4m.domain.MultipleMediaSource;
+import org.m4m.domain.MuxRender;
+import org.m4m.domain.ParallelCommandProcessor;
+import org.m4m.domain.PassThroughPlugin;
 import org.m4m.domain.Pipeline;
+import org.m4m.domain.PipelineMetrics;
+import org.m4m.domain.PipelineMetricsSnapshot;
 import org.m4m.domain.Plugin;
 import org.m4m.domain.ProgressTracker;
 import org.m4m.domain.Render;
 import org.m4m.domain.Resampler;
+import org.m4m.domain.SampleIndexCache;
 import org.m4m.domain.VideoEffector;
 import org.m4m.domain.VideoEncoder;
 import org.m4m.domain.VideoTimeScaler;
@@ -36,6 +47,7 @@ import org.m4m.domain.VideoTimeScaler;
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
@@ -43,6 +55,9 @@ import java.util.List;
  * This class implements functionality for simple video editing and transcoding, e.g. joining files, cutting segments from files, applying effects.
  */
 public class MediaComposer implements Serializable {
+    private static final int VIDEO_COPY_BUFFER_SIZE = 4 * 1024 * 1024;
+    private static final int AUDIO_COPY_BUFFER_SIZE = 64 * 1024;
+
     private IAndroidMediaObjectFactory factory;
     private MultipleMediaSource multipleMediaSource;
     private Plugin videoDecoder;
@@ -54,15 +69,61 @@ public class MediaComposer implements Serializable {
     private VideoTimeScaler videoTimeScaler;
     private AudioEffector audioEffector;
     private Pipeline pipeline;
-    private CommandProcessor commandProcessor;
+    private ICommandProcessor commandProcessor;
     private IProgressListener progressListener;
     private ProgressTracker progressTracker = new ProgressTracker();
     private AudioFormat audioFormat;
     private VideoFormat videoFormat;
     private Resampler resampler;
+    private SampleIndexCache sampleIndexCache = null;
 
     private int timeScale = 1;
+    private long idleTimeout = 0;
+    private boolean parallelProcessing = false;
+    private long progressInterval = 0;
+    private boolean metricsEnabled = false;
+    private boolean streamCopy = false;
+    private PipelineMetrics metrics = null;
     private FileSegment segment = new FileSegment(0l, 0l); // Whole stream by default
+    private final List<Rendition> renditions = new ArrayList<Rendition>();
+
+    private static class Rendition {
+        final Render sink;
+        final VideoFormat videoFormat;
+        final AudioFormat audioFormat;
+
+        Rendition(Render sink, VideoFormat videoFormat, AudioFormat audioFormat) {
+            this.sink = sink;
+            this.videoFormat = videoFormat;
+            this.audioFormat = audioFormat;
+        }
+    }
+
+    private static class RenditionProgressListener implements IProgressListener {
+        @Override
+        public void onMediaStart() {
+        }
+
+        @Override
+        public void onMediaProgress(float progress) {
+        }
+
+        @Override
+        public void onMediaDone() {
+        }
+
+        @Override
+        public void onMediaPause() {
+        }
+
+        @Override
+        public void onMediaStop() {
+        }
+
+        @Override
+        public void onError(Exception exception) {
+        }
+    }
 
     /**
      * Instantiates an object with Android base-layer.
@@ -86,7 +147,7 @@ public class MediaComposer implements Serializable {
      * @throws RuntimeException when the file validation fails, i.e. audio sample rate not supported.
      */
     public void addSourceFile(String fileName) throws IOException, RuntimeException {
-        MediaSource mediaSource = factory.createMediaSource(fileName);
+        MediaSource mediaSource = createMediaSource(fileName);
         MediaFile mediaFile = new MediaFile(mediaSource);
         multipleMediaSource.add(mediaFile);
     }
@@ -120,11 +181,29 @@ public class MediaComposer implements Serializable {
      * @throws IOException when the file name is invalid or the file can not be opened.
      */
     public void insertSourceFile(int index, String fileName) throws IOException {
-        MediaSource mediaSource = factory.createMediaSource(fileName);
+        MediaSource mediaSource = createMediaSource(fileName);
         MediaFile mediaFile = new MediaFile(mediaSource);
         multipleMediaSource.insertAt(index, mediaFile);
     }
 
+    /**
+     * Keeps sample indexes of the source files in the given directory, so files opened again skip
+     * the scan of their samples. Applies to files added by name after the call.
+     *
+     * @param cache Directory of saved sample indexes, null to open files without an index.
+     */
+    public void setSampleIndexCache(SampleIndexCache cache) {
+        this.sampleIndexCache = cache;
+    }
+
+    private MediaSource createMediaSource(String fileName) throws IOException {
+        MediaSource mediaSource = factory.createMediaSource(fileName);
+        if (sampleIndexCache != null) {
+            mediaSource.loadSampleIndex(sampleIndexCache);
+        }
+        return mediaSource;
+    }
+
     /**
      * Get the collection of input files.
      *
@@ -154,6 +233,35 @@ public class MediaComposer implements Serializable {
         this.sink = factory.createSink(fileName, orientationHint, progressListener, progressTracker);
     }
 
+    void setTargetMuxer(IMediaMuxer muxer) {
+        this.sink = new MuxRender(muxer, progressListener, progressTracker);
+    }
+
+    /**
+     * Adds one more output encoded from the same decoded frames as the target file, e.g. a lower resolution
+     * or bit rate version of it. The source files are decoded once and every frame is encoded for each output;
+     * the slowest encoder paces the decoder, and every encoder buffers at most its own input buffers.
+     * Video effects and time scaling apply to all outputs. Audio is not resampled, so the audio format of a
+     * rendition must have the sample rate and channel count of the source files. Progress is reported for
+     * the target file only. Must be called before start().
+     *
+     * @param fileName    Absolute path to the rendition file.
+     * @param videoFormat Video format of the rendition, null to leave out the video track.
+     * @param audioFormat Audio format of the rendition, null to leave out the audio track.
+     * @throws IOException when the file name is invalid or the file can not be opened.
+     * @throws IllegalArgumentException when the audio format does not match the source files added so far.
+     */
+    public void addRendition(String fileName, VideoFormat videoFormat, AudioFormat audioFormat) throws IOException {
+        if (videoFormat == null && audioFormat == null) {
+            throw new IllegalArgumentException("Rendition has neither video nor audio format.");
+        }
+        if (audioFormat != null) {
+            verifyRenditionAudioFormat(audioFormat);
+        }
+        Render renditionSink = factory.createSink(fileName, 0, new RenditionProgressListener(), new ProgressTracker());
+        renditions.add(new Rendition(renditionSink, videoFormat, audioFormat));
+    }
+
     /**
      * Returns the total duration of the collection of input files.
      *
@@ -267,17 +375,92 @@ public class MediaComposer implements Serializable {
         return (Collection<IAudioEffect>) audioEffector.getAudioEffects().clone();
     }
 
+    /**
+     * Mixes a PCM source, for example background music or a voice-over, into the audio track.
+     * The source should deliver PCM in the target audio format.
+     *
+     * @param source      PCM source to mix in.
+     * @param startTimeUs Time in microseconds of the target stream at which the source starts playing.
+     * @param gain        Gain envelope of the source, null for unity gain.
+     * @see org.m4m.domain.DecodedPcmSource
+     */
+    public void addAudioMixInput(IPcmSource source, long startTimeUs, GainEnvelope gain) {
+        if (audioEffector == null) {
+            audioEffector = factory.createAudioEffects();
+        }
+        audioEffector.getAudioMixer().addInput(source, startTimeUs, gain);
+    }
+
+    /**
+     * Sets the gain envelope of the original audio track, for example to lower it under a voice-over.
+     *
+     * @param gain Gain envelope of the original audio track.
+     */
+    public void setAudioMainGain(GainEnvelope gain) {
+        if (audioEffector == null) {
+            audioEffector = factory.createAudioEffects();
+        }
+        audioEffector.getAudioMixer().setMainGain(gain);
+    }
+
     /**
      * Starts processing.
      */
     public void start() {
 
         multipleMediaSource.verify();
+        for (Rendition rendition : renditions) {
+            if (rendition.audioFormat != null) {
+                verifyRenditionAudioFormat(rendition.audioFormat);
+            }
+        }
 
-        commandProcessor = new CommandProcessor(progressListener);
+        metrics = metricsEnabled ? new PipelineMetrics() : null;
+        if (parallelProcessing) {
+            ParallelCommandProcessor parallelCommandProcessor = new ParallelCommandProcessor(progressListener);
+            if (idleTimeout > 0) {
+                parallelCommandProcessor.setIdleTimeout(idleTimeout);
+            }
+            parallelCommandProcessor.setMetrics(metrics);
+            commandProcessor = parallelCommandProcessor;
+        } else {
+            CommandProcessor singleCommandProcessor = new CommandProcessor(progressListener);
+            singleCommandProcessor.setIdleTimeout(idleTimeout);
+            singleCommandProcessor.setMetrics(metrics);
+            commandProcessor = singleCommandProcessor;
+        }
         pipeline = new Pipeline(commandProcessor);
         pipeline.setMediaSource(multipleMediaSource);
 
+        if (streamCopy && canStreamCopy()) {
+            addStreamCopyPipes();
+        } else {
+            addTranscodingChains();
+        }
+
+        if (progressInterval > 0 && sink instanceof MuxRender) {
+            ((MuxRender) sink).setProgressInterval(progressInterval);
+        }
+        pipeline.setSink(sink);
+
+        startCommandsProcessingAsync();
+    }
+
+    private void addStreamCopyPipes() {
+        for (MediaFile mediaFile : multipleMediaSource.files()) {
+            mediaFile.getMediaSource().alignSegmentsToSyncSamples();
+        }
+        if (videoFormat != null && multipleMediaSource.hasTrack(MediaFormatType.VIDEO)) {
+            videoDecoder = new PassThroughPlugin(VIDEO_COPY_BUFFER_SIZE, MediaFormatType.VIDEO);
+            pipeline.addVideoDecoder(videoDecoder);
+        }
+        if (audioFormat != null && multipleMediaSource.hasTrack(MediaFormatType.AUDIO)) {
+            audioDecoder = new PassThroughPlugin(AUDIO_COPY_BUFFER_SIZE, MediaFormatType.AUDIO);
+            pipeline.addAudioDecoder(audioDecoder);
+        }
+    }
+
+    private void addTranscodingChains() {
         // Note: if the 1st (current) stream doesn't have video, there will be audio pipeline only.
         if (videoFormat != null && multipleMediaSource.hasTrack(MediaFormatType.VIDEO)) {
             videoDecoder = factory.createVideoDecoder(videoFormat);
@@ -287,6 +470,11 @@ public class MediaComposer implements Serializable {
         if (videoDecoder != null) pipeline.addVideoDecoder(videoDecoder);
         if (videoEncoder != null) pipeline.addVideoEncoder(videoEncoder);
 
+        // Renditions get their frames drawn by the effector
+        if (videoEncoder != null && hasVideoRenditions() && videoEffector == null) {
+            videoEffector = factory.createVideoEffector();
+        }
+
         if (videoEffector != null) {
             videoEffector.setTimeScale(timeScale);
             videoEffector.setTimeScalerSegment(segment);
@@ -296,6 +484,7 @@ public class MediaComposer implements Serializable {
         if (videoTimeScaler != null && videoEffector == null) {
             pipeline.addVideoTimeScaler(videoTimeScaler);
         }
+        planDecoding();
 
         // Note: if the 1st (current) stream doesn't have audio, there will be video pipeline only.
         if (audioFormat != null && multipleMediaSource.hasTrack(MediaFormatType.AUDIO)) {
@@ -314,9 +503,173 @@ public class MediaComposer implements Serializable {
             pipeline.addAudioEffect(audioEffector);
         }
 
-        pipeline.setSink(sink);
+        addRenditionEncoders();
+    }
 
-        startCommandsProcessingAsync();
+    /**
+     * Drops the frames of the time scaled segment before decoding, instead of after it.
+     */
+    private void planDecoding() {
+        if (timeScale <= 1 || videoDecoder == null) {
+            return;
+        }
+        multipleMediaSource.setDecodePlanner(new DecodePlanner(timeScale, segment));
+        if (videoEffector != null) {
+            videoEffector.setDecimateFrames(false);
+        } else if (videoTimeScaler != null) {
+            videoTimeScaler.setDecimateFrames(false);
+        }
+    }
+
+    private boolean hasVideoRenditions() {
+        for (Rendition rendition : renditions) {
+            if (rendition.videoFormat != null) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void verifyRenditionAudioFormat(AudioFormat renditionFormat) {
+        for (MediaFile mediaFile : multipleMediaSource.files()) {
+            AudioFormat sourceAudioFormat = mediaFile.getAudioFormat(0);
+            if (sourceAudioFormat != null
+                    && (sourceAudioFormat.getAudioSampleRateInHz() != renditionFormat.getAudioSampleRateInHz()
+                    || sourceAudioFormat.getAudioChannelCount() != renditionFormat.getAudioChannelCount())) {
+                throw new IllegalArgumentException("Rendition audio sample rate and channel count must match the source.");
+            }
+        }
+    }
+
+    private void addRenditionEncoders() {
+        for (Rendition rendition : renditions) {
+            if (videoEncoder != null && rendition.videoFormat != null) {
+                VideoEncoder encoder = factory.createVideoEncoder();
+                encoder.setMediaFormat(rendition.videoFormat);
+                videoEncoder.addRendition(encoder);
+                pipeline.addRendition(encoder, rendition.sink);
+            }
+            if (audioEncoder != null && rendition.audioFormat != null) {
+                AudioEncoder encoder = factory.createAudioEncoder(rendition.audioFormat.getAudioCodec());
+                encoder.setMediaFormat(rendition.audioFormat);
+                audioEncoder.addRendition(encoder);
+                pipeline.addRendition(encoder, rendition.sink);
+            }
+        }
+    }
+
+    /**
+     * Copies compressed samples from the source files to the target file instead of decoding and encoding
+     * them, when {@link #canStreamCopy()} allows it; otherwise the files are transcoded as usual. Segment
+     * starts are moved back to the preceding video sync samples, so cuts are not frame accurate.
+     * Target bit rates are ignored, the source bit rate is kept. Must be called before start().
+     *
+     * @param streamCopy true to copy samples whenever possible.
+     */
+    public void setStreamCopy(boolean streamCopy) {
+        this.streamCopy = streamCopy;
+    }
+
+    /**
+     * Checks whether samples can be copied without transcoding: no effects, time scaling or renditions are set,
+     * the codec, frame size, sample rate and channel count of every source file match the target formats, and
+     * all source files share codec specific data, so they are joined losslessly into single tracks.
+     *
+     * @return true if the source files can be copied.
+     */
+    public boolean canStreamCopy() {
+        if (videoEffector != null && !videoEffector.getVideoEffects().isEmpty()) return false;
+        if (audioEffector != null || videoTimeScaler != null) return false;
+        if (!renditions.isEmpty()) return false;
+        if (!multipleMediaSource.hasMatchingCodecParameters()) return false;
+
+        for (MediaFile mediaFile : multipleMediaSource.files()) {
+            VideoFormat sourceVideoFormat = mediaFile.getVideoFormat(0);
+            if (videoFormat != null && sourceVideoFormat != null && !canCopy(sourceVideoFormat, videoFormat)) {
+                return false;
+            }
+            AudioFormat sourceAudioFormat = mediaFile.getAudioFormat(0);
+            if (audioFormat != null && sourceAudioFormat != null && !canCopy(sourceAudioFormat, audioFormat)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean canCopy(VideoFormat source, VideoFormat target) {
+        return source.getMimeType().equals(target.getMimeType())
+                && source.getVideoFrameSize().equals(target.getVideoFrameSize());
+    }
+
+    private static boolean canCopy(AudioFormat source, AudioFormat target) {
+        return source.getMimeType().equals(target.getMimeType())
+                && source.getAudioSampleRateInHz() == target.getAudioSampleRateInHz()
+                && source.getAudioChannelCount() == target.getAudioChannelCount();
+    }
+
+    /**
+     * Lets the processing thread park while no codec has work, instead of polling all the time.
+     * Must be called before start().
+     *
+     * @param idleTimeoutMs Maximum time in milliseconds to wait for a new command. 0 disables parking, except in
+     *                      parallel processing, where the threads park for up to 10 ms.
+     */
+    public void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeout = idleTimeoutMs;
+    }
+
+    /**
+     * Processes video and audio tracks on separate threads, so the decoder and encoder of one track
+     * do not wait for the codecs of the other one. The video track stays on the thread that starts processing,
+     * which owns the EGL context. Idle threads park instead of polling, see {@link #setIdleTimeout(long)}.
+     * Must be called before start().
+     *
+     * @param parallelProcessing true to run every track on its own thread, false to process all tracks on one thread.
+     */
+    public void setParallelProcessing(boolean parallelProcessing) {
+        this.parallelProcessing = parallelProcessing;
+    }
+
+    /**
+     * Opens every next source file in background and reads its first samples in advance, so the
+     * switch between files does not stall the pipeline. Must be called before start().
+     *
+     * @param samples Number of samples to read ahead from the next file, 0 to open files on switch.
+     */
+    public void setNextFileReadAhead(int samples) {
+        multipleMediaSource.setReadAhead(samples);
+    }
+
+    /**
+     * Delivers progress at most once per interval from a separate thread, coalescing the samples written
+     * in between, instead of calling the listener after every sample. Listeners implementing
+     * {@link IProgressStatisticsListener} also receive throughput statistics. Must be called before start().
+     *
+     * @param intervalMs Minimum interval between progress notifications in milliseconds, 0 to report every sample.
+     */
+    public void setProgressInterval(long intervalMs) {
+        this.progressInterval = intervalMs;
+    }
+
+    /**
+     * Collects frames, bytes, command handler latency, command queue depth and codec stall metrics of every
+     * pipeline node. Disabled metrics cost nothing. Must be called before start().
+     *
+     * @param enabled true to collect metrics.
+     * @see #getMetrics()
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+    }
+
+    /**
+     * Returns current values of the pipeline metrics, may be called while processing.
+     *
+     * @return Metrics snapshot, null if metrics are disabled or processing is not started.
+     * @see PipelineMetricsSnapshot#toJson()
+     */
+    public PipelineMetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
     }
 
     public void setVideoTimeScale(int timeScale, FileSegment segment) {
@@ -20,16 +20,20 @@ import org.m4m.domain.Command;
 import org.m4m.domain.CommandQueue;
 import org.m4m.domain.Frame;
 import org.m4m.domain.IAndroidMediaObjectFactory;
+import org.m4m.domain.IMediaCodec;
 import org.m4m.domain.ISurfaceWrapper;
 import org.m4m.domain.MediaFormat;
 import org.m4m.domain.MediaFormatType;
 import org.m4m.domain.MediaSource;
 import org.m4m.domain.Pair;
+import org.m4m.domain.SampleIndexCache;
+import org.m4m.domain.ThumbnailCache;
 import org.m4m.domain.VideoDecoder;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.util.Arrays;
 
 /**
  * This class provides information about a media file and returns uncompressed video frame at a position selected.
@@ -45,6 +49,15 @@ public class MediaFileInfo {
     private ISurfaceWrapper outputSurface = null;
     private FileDescriptor fileDescriptor;
 
+    private static final long DEFAULT_THUMBNAIL_CACHE_SIZE = 32 * 1024 * 1024;
+    private static final long DECODER_WAIT_MS = 5;
+    private static final int MAX_IDLE_ITERATIONS = 400;
+    private final ThumbnailCache thumbnailCache = new ThumbnailCache(DEFAULT_THUMBNAIL_CACHE_SIZE);
+    private SampleIndexCache sampleIndexCache = null;
+    private long[] syncSampleTimes = null;
+    private long lastQueuedSampleTime = -1;
+    private boolean decoderEndOfStream = false;
+
     /**
      * Instantiates an object with Android base-layer.
      *
@@ -63,9 +76,22 @@ public class MediaFileInfo {
      */
     public void setFileName(String fileName) throws IOException {
         this.source = factory.createMediaSource(fileName);
+        if (sampleIndexCache != null) {
+            source.loadSampleIndex(sampleIndexCache);
+        }
         prepareMediaFile();
     }
 
+    /**
+     * Keeps sample indexes in the given directory, so files opened again skip the scan of their
+     * samples. Applies to files set by name after the call.
+     *
+     * @param cache Directory of saved sample indexes, null to open files without an index.
+     */
+    public void setSampleIndexCache(SampleIndexCache cache) {
+        this.sampleIndexCache = cache;
+    }
+
     /**
      * Sets input media file.
      *
@@ -177,6 +203,106 @@ public class MediaFileInfo {
      * @param buffer ByteByffer allocated by the user to receive the uncompressed frame.
      */
     public void getFrameAtPosition(long time, ByteBuffer buffer) throws IOException {
+        getFramesAtPositions(new long[]{time}, new ByteBuffer[]{buffer});
+    }
+
+    /**
+     * Returns uncompressed video frames for several time positions, for example for a timeline strip.
+     * One decoder is used for all positions. The source is only sought when a position lies beyond
+     * the group of pictures being decoded, otherwise decoding goes on forward. Frames are cached,
+     * see {@link #setThumbnailCacheSize(long)}.
+     *
+     * @param times   Time positions in microseconds, sorted in ascending order.
+     * @param buffers ByteBuffers allocated by the user to receive the uncompressed frames, one per position.
+     *                Each buffer is filled from its beginning up to its limit.
+     * @return Sample times of the returned frames, -1 for the positions past the end of the video.
+     */
+    public long[] getFramesAtPositions(long[] times, ByteBuffer[] buffers) throws IOException {
+        if (times.length != buffers.length) {
+            throw new IllegalArgumentException("Times and buffers should have the same length.");
+        }
+        for (int i = 1; i < times.length; i++) {
+            if (times[i] < times[i - 1]) {
+                throw new IllegalArgumentException("Times should be sorted in ascending order.");
+            }
+        }
+
+        long[] sampleTimes = new long[times.length];
+        Arrays.fill(sampleTimes, -1);
+        String sourceKey = getSourceKey();
+        boolean useCache = outputSurface == null;
+        boolean started = false;
+        int lastDecoded = -1;
+
+        try {
+            for (int i = 0; i < times.length; i++) {
+                if (useCache) {
+                    sampleTimes[i] = thumbnailCache.get(sourceKey, times[i], buffers[i]);
+                    if (sampleTimes[i] != -1) {
+                        continue;
+                    }
+                }
+
+                if (lastDecoded != -1 && times[i] <= sampleTimes[lastDecoded]) {
+                    // The frame decoded for the previous position is the closest one to this position too
+                    if (useCache) {
+                        copyFrame(buffers[lastDecoded], buffers[i]);
+                    }
+                    sampleTimes[i] = sampleTimes[lastDecoded];
+                } else {
+                    if (!started) {
+                        startDecoding(times[i], times.length > 1);
+                        started = true;
+                    } else if (needsSeek(times[i])) {
+                        source.seek(times[i]);
+                    }
+
+                    sampleTimes[i] = decodeFrame(times[i], buffers[i]);
+                    if (sampleTimes[i] == -1) {
+                        break;
+                    }
+                    lastDecoded = i;
+                }
+
+                if (useCache) {
+                    thumbnailCache.put(sourceKey, times[i], buffers[i], sampleTimes[i]);
+                }
+            }
+        } finally {
+            if (started) {
+                source.getOutputCommandQueue().clear();
+                videoDecoder.close();
+            }
+        }
+        return sampleTimes;
+    }
+
+    /**
+     * Sets the maximum total size in bytes of the frames cached by getFramesAtPositions().
+     * 0 disables the cache.
+     */
+    public void setThumbnailCacheSize(long maxSizeInBytes) {
+        thumbnailCache.setMaxSize(maxSizeInBytes);
+    }
+
+    public ThumbnailCache getThumbnailCache() {
+        return thumbnailCache;
+    }
+
+    private String getSourceKey() {
+        if (file == null) {
+            return "";
+        }
+        if (file.getFilePath() != null) {
+            return file.getFilePath();
+        }
+        if (file.getUri() != null) {
+            return file.getUri().getString();
+        }
+        return String.valueOf(file.getFileDescriptor());
+    }
+
+    private void startDecoding(long time, boolean indexSyncSamples) {
         videoDecoder = factory.createVideoDecoder(videoFormat);
         videoDecoder.setMediaFormat(videoFormat);
         videoDecoder.setOutputSurface(outputSurface);
@@ -188,74 +314,128 @@ public class MediaFileInfo {
             source.unselectTrack(source.getTrackIdByMediaType(MediaFormatType.AUDIO));
         }
 
+        syncSampleTimes = indexSyncSamples ? source.getSyncSampleTimes() : new long[0];
+        lastQueuedSampleTime = -1;
+        decoderEndOfStream = false;
+
         source.start();
         source.seek(time);
+    }
 
-        Frame frame = null;
-        Frame outputFrame = new Frame(buffer, 1920 * 1080 * 4, 0, 0, 0, 0);
-
-        final CommandQueue sourceOutputQueue = source.getOutputCommandQueue();
-
-
-        while (sourceOutputQueue.size() != 0) {
+    private boolean needsSeek(long time) {
+        if (decoderEndOfStream) {
+            return false;
+        }
 
-            Pair<Command, Integer> sourceOutputCommand = sourceOutputQueue.first();
+        int index = Arrays.binarySearch(syncSampleTimes, lastQueuedSampleTime + 1);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < syncSampleTimes.length && syncSampleTimes[index] <= time;
+    }
 
-            if (sourceOutputCommand == null || sourceOutputCommand.left == Command.EndOfFile) {
-                break;
-            }
+    private long decodeFrame(long time, ByteBuffer buffer) {
+        final CommandQueue sourceOutputQueue = source.getOutputCommandQueue();
+        final CommandQueue videoDecoderInputQueue = videoDecoder.getInputCommandQueue();
+        final CommandQueue videoDecoderOutputQueue = videoDecoder.getOutputCommandQueue();
+        int idleIterations = 0;
 
+        while (idleIterations < MAX_IDLE_ITERATIONS) {
             videoDecoder.fillCommandQueues();
 
-            final CommandQueue videoDecoderInputQueue = videoDecoder.getInputCommandQueue();
-            final Pair<Command, Integer> videoDecoderInputCommand = videoDecoderInputQueue.first();
-
-            if (videoDecoderInputQueue.size() == 0 || videoDecoderInputCommand == null) {
-                break;
-            } else {
-                if (videoDecoderInputCommand.left == Command.NeedData) {
-                    frame = videoDecoder.findFreeFrame();
-                } else if (videoDecoderInputCommand.left == Command.NeedInputFormat) {
-                    videoDecoderInputQueue.dequeue();
-                    videoDecoderInputQueue.queue(Command.NeedData, videoDecoder.getTrackId());
+            Pair<Command, Integer> videoDecoderOutputCommand = videoDecoderOutputQueue.first();
+            if (videoDecoderOutputCommand != null && videoDecoderOutputCommand.left != Command.HasData) {
+                // Output format changes and the like do not matter here
+                videoDecoderOutputQueue.dequeue();
+                continue;
+            }
+            if (videoDecoderOutputCommand != null) {
+                videoDecoderOutputQueue.dequeue();
+                Frame decoderFrame = videoDecoder.getFrame();
+                if (decoderFrame.equals(Frame.EOF())) {
+                    return -1;
+                }
+                if (decoderFrame == Frame.empty()) {
                     continue;
                 }
-            }
+                idleIterations = 0;
 
-            if (frame != null) {
-                source.pull(frame);
-                videoDecoder.push(frame);
+                long sampleTime = decoderFrame.getSampleTime();
+                if (sampleTime >= time && outputSurface == null) {
+                    copyFrame(decoderFrame, buffer);
+                }
+                videoDecoder.releaseOutputBuffer(decoderFrame.getBufferIndex());
+                if (sampleTime >= time) {
+                    return sampleTime;
+                }
+                continue;
+            }
 
-                sourceOutputQueue.dequeue();
+            Pair<Command, Integer> videoDecoderInputCommand = videoDecoderInputQueue.first();
+            if (videoDecoderInputCommand != null && videoDecoderInputCommand.left == Command.NeedInputFormat) {
                 videoDecoderInputQueue.dequeue();
-            } else {
-                try {
-                    Thread.sleep(500);
-                } catch (InterruptedException e) {
-                    e.printStackTrace();
-                }
+                videoDecoderInputQueue.queue(Command.NeedData, videoDecoder.getTrackId());
+                continue;
             }
 
-            final CommandQueue videoDecoderOutputQueue = videoDecoder.getOutputCommandQueue();
-            final Pair<Command, Integer> videoDecoderOutputCommand = videoDecoderOutputQueue.first();
+            Frame frame = decoderEndOfStream ? null : videoDecoder.findFreeFrame();
+            if (frame == null) {
+                idleIterations++;
+                waitForDecoder();
+                continue;
+            }
+            if (frame.equals(Frame.EOF())) {
+                decoderEndOfStream = true;
+                continue;
+            }
+            idleIterations = 0;
 
-            if (videoDecoderOutputQueue.size() != 0 && videoDecoderOutputCommand != null) {
-                if (videoDecoderOutputCommand.left == Command.HasData) {
-                    if (outputSurface != null) {
-                        Frame decoderFrame = videoDecoder.getFrame();
-                        videoDecoder.releaseOutputBuffer(decoderFrame.getBufferIndex());
-                    } else {
-                        videoDecoder.pull(outputFrame);
-                    }
-                    break;
-                } else if (videoDecoderOutputCommand.left == Command.OutputFormatChanged) {
-                    videoDecoderOutputQueue.dequeue();
-                }
+            Pair<Command, Integer> sourceOutputCommand = sourceOutputQueue.first();
+            if (sourceOutputCommand == null || sourceOutputCommand.left == Command.EndOfFile) {
+                // Let the decoder output the frames it still holds
+                frame.set(frame.getByteBuffer(), 0, lastQueuedSampleTime, frame.getBufferIndex(), IMediaCodec.BUFFER_FLAG_END_OF_STREAM, videoDecoder.getTrackId());
+                videoDecoder.push(frame);
+                decoderEndOfStream = true;
+                continue;
             }
+
+            source.pull(frame);
+            lastQueuedSampleTime = Math.max(lastQueuedSampleTime, frame.getSampleTime());
+            videoDecoder.push(frame);
+
+            sourceOutputQueue.dequeue();
+            videoDecoderInputQueue.dequeue();
         }
+        return -1;
+    }
 
-        sourceOutputQueue.clear();
-        videoDecoder.close();
+    private static void copyFrame(Frame frame, ByteBuffer destination) {
+        ByteBuffer source = frame.getByteBuffer();
+        int length = Math.min(frame.getLength(), destination.capacity());
+
+        source.limit(length);
+        source.position(0);
+        destination.clear();
+        destination.put(source);
+        destination.flip();
+        source.clear();
+    }
+
+    private static void copyFrame(ByteBuffer source, ByteBuffer destination) {
+        ByteBuffer view = source.duplicate();
+        view.position(0);
+        view.limit(Math.min(view.limit(), destination.capacity()));
+        destination.clear();
+        destination.put(view);
+        destination.flip();
+    }
+
+    private static void waitForDecoder() {
+        try {
+            Thread.sleep(DECODER_WAIT_MS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
     }
 
     /**
@@ -23,6 +23,8 @@ import org.m4m.domain.MediaSource;
 import org.m4m.domain.MultipleMediaSource;
 import org.m4m.domain.PassThroughPlugin;
 import org.m4m.domain.Pipeline;
+import org.m4m.domain.PipelineMetrics;
+import org.m4m.domain.PipelineMetricsSnapshot;
 import org.m4m.domain.ProgressTracker;
 import org.m4m.domain.Render;
 
@@ -45,6 +47,8 @@ public class MediaStreamer implements Serializable {
     private Pipeline pipeline;
     private CommandProcessor commandProcessor;
     private IProgressListener progressListener;
+    private boolean metricsEnabled = false;
+    private PipelineMetrics metrics = null;
 
     /**
      * Instantiates an object with Android base-layer.
@@ -88,11 +92,31 @@ public class MediaStreamer implements Serializable {
         this.sink = factory.createSink(parameters, progressListener, progressTracker);
     }
 
+    /**
+     * Collects metrics of every pipeline node while streaming. Must be called before start().
+     *
+     * @param enabled true to collect metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+    }
+
+    /**
+     * Returns current values of the pipeline metrics.
+     *
+     * @return Metrics snapshot, null if metrics are disabled or streaming is not started.
+     */
+    public PipelineMetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
     /**
      * Starts processing
      */
     public void start() {
         commandProcessor = new CommandProcessor(progressListener);
+        metrics = metricsEnabled ? new PipelineMetrics() : null;
+        commandProcessor.setMetrics(metrics);
         pipeline = new Pipeline(commandProcessor);
         videoPipe = new PassThroughPlugin(1000 * 1024, MediaFormatType.VIDEO);
         audioPipe = new PassThroughPlugin(10 * 1024, MediaFormatType.AUDIO);
@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m;
+
+/**
+ * Snapshot of the progress and throughput of composing.
+ */
+public class ProgressStatistics {
+    private final float progress;
+    private final long mediaTimeUs;
+    private final long elapsedTimeMs;
+    private final long framesCount;
+    private final long bytesCount;
+
+    public ProgressStatistics(float progress, long mediaTimeUs, long elapsedTimeMs, long framesCount, long bytesCount) {
+        this.progress = progress;
+        this.mediaTimeUs = mediaTimeUs;
+        this.elapsedTimeMs = elapsedTimeMs;
+        this.framesCount = framesCount;
+        this.bytesCount = bytesCount;
+    }
+
+    /**
+     * @return Progress as number [0, 1].
+     */
+    public float getProgress() {
+        return progress;
+    }
+
+    /**
+     * @return Presentation time of the latest written sample in microseconds.
+     */
+    public long getMediaTimeUs() {
+        return mediaTimeUs;
+    }
+
+    public long getElapsedTimeMs() {
+        return elapsedTimeMs;
+    }
+
+    /**
+     * @return Number of written video frames, or of written samples if there is no video track.
+     */
+    public long getFramesCount() {
+        return framesCount;
+    }
+
+    public long getBytesCount() {
+        return bytesCount;
+    }
+
+    public float getFramesPerSecond() {
+        return elapsedTimeMs == 0 ? 0 : framesCount * 1000f / elapsedTimeMs;
+    }
+
+    public float getBytesPerSecond() {
+        return elapsedTimeMs == 0 ? 0 : bytesCount * 1000f / elapsedTimeMs;
+    }
+
+    /**
+     * @return Media time processed per unit of wall clock time, greater than 1 when faster than real time.
+     */
+    public float getRealtimeFactor() {
+        return elapsedTimeMs == 0 ? 0 : mediaTimeUs / (elapsedTimeMs * 1000f);
+    }
+
+    /**
+     * @return Estimated time to finish in milliseconds, -1 while it can not be estimated.
+     */
+    public long getEstimatedTimeLeftMs() {
+        if (progress <= 0 || elapsedTimeMs == 0) {
+            return -1;
+        }
+        return (long) (elapsedTimeMs * (1 - Math.min(progress, 1)) / progress);
+    }
+}
@@ -0,0 +1,242 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m;
+
+import org.m4m.domain.FileSegment;
+import org.m4m.domain.IAndroidMediaObjectFactory;
+import org.m4m.domain.MediaSource;
+import org.m4m.domain.StitchingMuxer;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class transcodes a single file using several decoder and encoder pairs in parallel. The source is split
+ * into chunks starting at video sync samples, every chunk is transcoded by its own {@link MediaComposer}, and the
+ * encoded chunks are joined into the target file with continuous timestamps. Chunks finished ahead of the ones
+ * before them are kept in memory until they can be written, so a chunk only starts while it is less than the
+ * workers count ahead of the chunk being written.
+ */
+public class SegmentParallelComposer {
+    private static final long MAX_DEFAULT_CHUNK_DURATION_US = 10000000;
+
+    private final IAndroidMediaObjectFactory factory;
+    private final IProgressListener progressListener;
+    private String sourceFileName;
+    private String targetFileName;
+    private int orientationHint = 0;
+    private VideoFormat videoFormat;
+    private AudioFormat audioFormat;
+    private int workersCount = Runtime.getRuntime().availableProcessors();
+    private long chunkDurationUs = 0;
+
+    private StitchingMuxer stitchingMuxer;
+    private List<FileSegment> chunks = Collections.emptyList();
+    private final List<MediaComposer> composers = new ArrayList<MediaComposer>();
+    private float[] chunksProgress = new float[0];
+    private long totalDurationUs = 0;
+    private int startedChunks = 0;
+    private int finishedChunks = 0;
+    private boolean stopped = false;
+
+    private class ChunkProgressListener implements IProgressListener {
+        private final int chunk;
+
+        ChunkProgressListener(int chunk) {
+            this.chunk = chunk;
+        }
+
+        @Override
+        public void onMediaStart() {
+        }
+
+        @Override
+        public void onMediaProgress(float progress) {
+            onChunkProgress(chunk, progress);
+        }
+
+        @Override
+        public void onMediaDone() {
+            onChunkDone();
+        }
+
+        @Override
+        public void onMediaPause() {
+        }
+
+        @Override
+        public void onMediaStop() {
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            onChunkError(exception);
+        }
+    }
+
+    /**
+     * Instantiates an object with Android base-layer.
+     *
+     * @param factory          IAndroidMediaObjectFactory class object.
+     * @param progressListener Progress listener.
+     */
+    public SegmentParallelComposer(IAndroidMediaObjectFactory factory, IProgressListener progressListener) {
+        this.factory = factory;
+        this.progressListener = progressListener;
+    }
+
+    public void setSourceFile(String fileName) {
+        this.sourceFileName = fileName;
+    }
+
+    public void setTargetFile(String fileName) {
+        setTargetFile(fileName, 0);
+    }
+
+    public void setTargetFile(String fileName, int orientationHint) {
+        this.targetFileName = fileName;
+        this.orientationHint = orientationHint;
+    }
+
+    public void setTargetVideoFormat(VideoFormat mediaFormat) {
+        this.videoFormat = mediaFormat;
+    }
+
+    public void setTargetAudioFormat(AudioFormat mediaFormat) {
+        this.audioFormat = mediaFormat;
+    }
+
+    /**
+     * Sets the number of chunks transcoded at the same time. Must be called before start().
+     *
+     * @param workersCount Number of decoder and encoder pairs working in parallel, the number of processors by default.
+     */
+    public void setWorkersCount(int workersCount) {
+        this.workersCount = Math.max(workersCount, 1);
+    }
+
+    /**
+     * Sets the desired chunk duration. Must be called before start().
+     *
+     * @param chunkDurationUs Duration in microseconds, 0 to split the source into one chunk per worker, at most 10 s long.
+     */
+    public void setChunkDuration(long chunkDurationUs) {
+        this.chunkDurationUs = chunkDurationUs;
+    }
+
+    public synchronized List<FileSegment> getChunks() {
+        return chunks;
+    }
+
+    /**
+     * Starts processing.
+     *
+     * @throws IOException when the source or the target file can not be opened.
+     */
+    public void start() throws IOException {
+        MediaSource mediaSource = factory.createMediaSource(sourceFileName);
+        totalDurationUs = mediaSource.getDurationInMicroSec();
+        long duration = chunkDurationUs != 0
+                ? chunkDurationUs
+                : Math.min(totalDurationUs / workersCount, MAX_DEFAULT_CHUNK_DURATION_US);
+        List<FileSegment> sourceChunks = mediaSource.splitAtSyncSamples(Math.max(duration, 1));
+        mediaSource.close();
+
+        synchronized (this) {
+            stitchingMuxer = new StitchingMuxer(factory.createMediaMuxer(targetFileName, orientationHint));
+            chunks = sourceChunks;
+            chunksProgress = new float[chunks.size()];
+            for (int i = 0; i < chunks.size(); i++) {
+                MediaComposer composer = new MediaComposer(factory, new ChunkProgressListener(i));
+                composer.addSourceFile(sourceFileName);
+                composer.getSourceFiles().get(0).addSegment(chunks.get(i).pair);
+                composer.setTargetMuxer(stitchingMuxer.addChunk(chunks.get(i).left()));
+                if (videoFormat != null) composer.setTargetVideoFormat(videoFormat);
+                if (audioFormat != null) composer.setTargetAudioFormat(audioFormat);
+                composers.add(composer);
+            }
+
+            progressListener.onMediaStart();
+            progressListener.onMediaProgress(0);
+            startChunks();
+        }
+    }
+
+    /**
+     * Starts chunks while a worker is free, up to the workers count ahead of the chunk being written,
+     * which bounds the encoded data kept in memory.
+     */
+    private void startChunks() {
+        while (startedChunks < composers.size()
+                && startedChunks - finishedChunks < workersCount
+                && startedChunks < stitchingMuxer.getCurrentChunk() + workersCount) {
+            composers.get(startedChunks++).start();
+        }
+    }
+
+    /**
+     * Stops processing.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            for (int i = 0; i < startedChunks; i++) {
+                composers.get(i).stop();
+            }
+        }
+        progressListener.onMediaStop();
+    }
+
+    private synchronized void onChunkProgress(int chunk, float progress) {
+        chunksProgress[chunk] = progress;
+
+        if (totalDurationUs == 0) return;
+
+        float totalProgress = 0;
+        for (int i = 0; i < chunks.size(); i++) {
+            long chunkDuration = chunks.get(i).right() - chunks.get(i).left();
+            totalProgress += chunksProgress[i] * chunkDuration / totalDurationUs;
+        }
+        progressListener.onMediaProgress(Math.min(totalProgress, 1));
+    }
+
+    private synchronized void onChunkDone() {
+        finishedChunks++;
+        if (stopped) return;
+
+        startChunks();
+
+        if (finishedChunks == composers.size()) {
+            progressListener.onMediaProgress(1);
+            progressListener.onMediaDone();
+        }
+    }
+
+    private void onChunkError(Exception exception) {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            for (int i = 0; i < startedChunks; i++) {
+                composers.get(i).stop();
+            }
+        }
+        progressListener.onError(exception);
+    }
+}
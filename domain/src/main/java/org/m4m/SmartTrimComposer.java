@@ -0,0 +1,212 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m;
+
+import org.m4m.domain.IAndroidMediaObjectFactory;
+import org.m4m.domain.MediaSource;
+import org.m4m.domain.Pair;
+import org.m4m.domain.StitchingMuxer;
+import org.m4m.domain.TrimPlanner;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * This class cuts segments from a single file with frame accuracy while re-encoding as little as possible.
+ * Only the partial GOPs at the head and tail of every segment are transcoded, the complete GOPs between them are
+ * copied as compressed samples. The pieces are processed one after another, each by its own {@link MediaComposer},
+ * and joined into the target file with continuous timestamps.
+ * <p/>
+ * GOPs are copied only if the target video and audio formats match the source codec, frame size, sample rate and
+ * channel count, otherwise the copied pieces are transcoded as well. See {@link MediaComposer#setStreamCopy(boolean)}.
+ */
+public class SmartTrimComposer {
+    private final IAndroidMediaObjectFactory factory;
+    private final IProgressListener progressListener;
+    private String sourceFileName;
+    private String targetFileName;
+    private int orientationHint = 0;
+    private VideoFormat videoFormat;
+    private AudioFormat audioFormat;
+    private final List<Pair<Long, Long>> segments = new ArrayList<Pair<Long, Long>>();
+
+    private List<TrimPlanner.Piece> pieces = Collections.emptyList();
+    private final List<MediaComposer> composers = new ArrayList<MediaComposer>();
+    private long totalDurationUs = 0;
+    private long doneDurationUs = 0;
+    private int currentPiece = 0;
+    private boolean stopped = false;
+
+    private class PieceProgressListener implements IProgressListener {
+        @Override
+        public void onMediaStart() {
+        }
+
+        @Override
+        public void onMediaProgress(float progress) {
+            onPieceProgress(progress);
+        }
+
+        @Override
+        public void onMediaDone() {
+            onPieceDone();
+        }
+
+        @Override
+        public void onMediaPause() {
+        }
+
+        @Override
+        public void onMediaStop() {
+        }
+
+        @Override
+        public void onError(Exception exception) {
+            onPieceError(exception);
+        }
+    }
+
+    /**
+     * Instantiates an object with Android base-layer.
+     *
+     * @param factory          IAndroidMediaObjectFactory class object.
+     * @param progressListener Progress listener.
+     */
+    public SmartTrimComposer(IAndroidMediaObjectFactory factory, IProgressListener progressListener) {
+        this.factory = factory;
+        this.progressListener = progressListener;
+    }
+
+    public void setSourceFile(String fileName) {
+        this.sourceFileName = fileName;
+    }
+
+    public void setTargetFile(String fileName) {
+        setTargetFile(fileName, 0);
+    }
+
+    public void setTargetFile(String fileName, int orientationHint) {
+        this.targetFileName = fileName;
+        this.orientationHint = orientationHint;
+    }
+
+    public void setTargetVideoFormat(VideoFormat mediaFormat) {
+        this.videoFormat = mediaFormat;
+    }
+
+    public void setTargetAudioFormat(AudioFormat mediaFormat) {
+        this.audioFormat = mediaFormat;
+    }
+
+    /**
+     * Adds a segment to cut. Segments are written in the order they are added.
+     *
+     * @param segment Start and end time of the segment in microseconds.
+     */
+    public void addSegment(Pair<Long, Long> segment) {
+        segments.add(segment);
+    }
+
+    public synchronized List<TrimPlanner.Piece> getPieces() {
+        return pieces;
+    }
+
+    /**
+     * Starts processing.
+     *
+     * @throws IOException              when the source or the target file can not be opened.
+     * @throws IllegalArgumentException when no segment lies within the source.
+     */
+    public void start() throws IOException {
+        MediaSource mediaSource = factory.createMediaSource(sourceFileName);
+        TrimPlanner planner = new TrimPlanner(mediaSource.getSyncSampleTimes(), mediaSource.getDurationInMicroSec());
+        List<TrimPlanner.Piece> plannedPieces = planner.plan(segments);
+        mediaSource.close();
+        if (plannedPieces.isEmpty()) {
+            throw new IllegalArgumentException("No segment to cut from " + sourceFileName + ".");
+        }
+
+        StitchingMuxer stitchingMuxer = new StitchingMuxer(factory.createMediaMuxer(targetFileName, orientationHint));
+        synchronized (this) {
+            pieces = plannedPieces;
+            for (TrimPlanner.Piece piece : pieces) {
+                MediaComposer composer = new MediaComposer(factory, new PieceProgressListener());
+                composer.addSourceFile(sourceFileName);
+                composer.getSourceFiles().get(0).addSegment(piece.segment.pair);
+                composer.setTargetMuxer(stitchingMuxer.addChunk(piece.outputTimeUs));
+                composer.setStreamCopy(piece.streamCopy);
+                if (videoFormat != null) composer.setTargetVideoFormat(videoFormat);
+                if (audioFormat != null) composer.setTargetAudioFormat(audioFormat);
+                composers.add(composer);
+                totalDurationUs += piece.segment.getSegmentDuration();
+            }
+
+            progressListener.onMediaStart();
+            progressListener.onMediaProgress(0);
+            composers.get(0).start();
+        }
+    }
+
+    /**
+     * Stops processing.
+     */
+    public void stop() {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            if (currentPiece < composers.size()) {
+                composers.get(currentPiece).stop();
+            }
+        }
+        progressListener.onMediaStop();
+    }
+
+    private synchronized void onPieceProgress(float progress) {
+        if (totalDurationUs == 0 || currentPiece >= pieces.size()) return;
+
+        long pieceDuration = pieces.get(currentPiece).segment.getSegmentDuration();
+        progressListener.onMediaProgress(Math.min((doneDurationUs + progress * pieceDuration) / totalDurationUs, 1));
+    }
+
+    private synchronized void onPieceDone() {
+        doneDurationUs += pieces.get(currentPiece).segment.getSegmentDuration();
+        currentPiece++;
+        if (stopped) return;
+
+        if (currentPiece < composers.size()) {
+            composers.get(currentPiece).start();
+            return;
+        }
+
+        progressListener.onMediaProgress(1);
+        progressListener.onMediaDone();
+    }
+
+    private void onPieceError(Exception exception) {
+        synchronized (this) {
+            if (stopped) return;
+            stopped = true;
+            if (currentPiece < composers.size()) {
+                composers.get(currentPiece).stop();
+            }
+        }
+        progressListener.onError(exception);
+    }
+}
@@ -16,36 +16,35 @@
 
 package org.m4m.domain;
 
+import org.m4m.AudioFormat;
 import org.m4m.IAudioEffect;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Iterator;
+import java.util.ArrayDeque;
 import java.util.LinkedList;
 
 public class AudioEffector extends MediaCodecPlugin {
     private LinkedList<IAudioEffect> audioEffects = new LinkedList<IAudioEffect>();
+    private final AudioMixer audioMixer = new AudioMixer();
 
-    private LinkedList<Frame> framesPool = new LinkedList<Frame>();
-    private LinkedList<Frame> framesOutput = new LinkedList<Frame>();
+    private static final int FRAMES_COUNT = 3;
     private int capacity = 24 * 1024;
+    private final FramePool framesPool = new FramePool(capacity, FRAMES_COUNT);
+    private final ArrayDeque<Frame> framesOutput = new ArrayDeque<Frame>();
 
     public AudioEffector(IMediaCodec mediaCodec) {
         super(mediaCodec);
         initInputCommandQueue();
-
-        ByteBuffer buffer = ByteBuffer.allocate(capacity);
-        ByteBuffer buffer1 = ByteBuffer.allocate(capacity);
-        ByteBuffer buffer2 = ByteBuffer.allocate(capacity);
-        framesPool.add(new Frame(buffer, capacity, 0, 0, 0, 0));
-        framesPool.add(new Frame(buffer1, capacity, 0, 0, 0, 0));
-        framesPool.add(new Frame(buffer2, capacity, 0, 0, 0, 0));
     }
 
     public LinkedList<IAudioEffect> getAudioEffects() {
         return audioEffects;
     }
 
+    public AudioMixer getAudioMixer() {
+        return audioMixer;
+    }
+
     @Override
     protected void initInputCommandQueue() {
         feedMeIfNotDraining();
@@ -63,10 +62,14 @@ public class AudioEffector extends MediaCodecPlugin {
         super.push(frame);
 
         if (!frame.equals(Frame.empty()) && !frame.equals(Frame.EOF())) {
+            if (metrics != null) {
+                metrics.frameIn(frame.getLength());
+            }
             applyEffects(frame);
+            audioMixer.mix(frame);
         }
 
-        if (framesPool.size() > 0) {
+        if (framesPool.canAcquire()) {
             feedMeIfNotDraining();
         }
 
@@ -101,32 +104,34 @@ public class AudioEffector extends MediaCodecPlugin {
 
     @Override
     public Frame findFreeFrame() {
-        if (framesPool.size() > 0) {
-            Iterator<Frame> iterator = framesPool.iterator();
-            Frame frame = iterator.next();
+        Frame frame = framesPool.findFreeFrame();
+        if (frame != null) {
             framesOutput.add(frame);
-            iterator.remove();
-            return frame;
         }
-        return null;
+        return frame;
     }
 
     @Override
     public Frame getFrame() {
-        Frame frame = null;
-        if (framesOutput.size() > 0) {
-            Iterator<Frame> iterator = framesOutput.iterator();
-            frame = iterator.next();
-            framesPool.add(frame);
-            iterator.remove();
+        Frame frame = framesOutput.poll();
+        if (frame != null) {
+            // The consumer copies the frame right away, before the next one is taken from the pool
+            frame.release();
+            if (metrics != null) {
+                metrics.frameOut(frame.getLength());
+            }
         }
 
-        if (framesPool.size() > 0) {
+        if (framesPool.canAcquire()) {
             feedMeIfNotDraining();
         }
         return frame;
     }
 
+    public FramePool getFramesPool() {
+        return framesPool;
+    }
+
     private void outputFormatChanged() {
         getOutputCommandQueue().queue(Command.OutputFormatChanged, 0);
     }
@@ -155,6 +160,9 @@ public class AudioEffector extends MediaCodecPlugin {
     @Override
     public void setMediaFormat(MediaFormat mediaFormat) {
         this.mediaFormat = mediaFormat;
+        if (mediaFormat instanceof AudioFormat) {
+            audioMixer.setMediaFormat((AudioFormat) mediaFormat);
+        }
     }
 
     @Override
@@ -174,6 +182,7 @@ public class AudioEffector extends MediaCodecPlugin {
     @Override
     public void close() throws IOException {
         //TODO: remove mediacodec dependency since not used
+        audioMixer.close();
     }
 
     @Override
@@ -182,7 +191,7 @@ public class AudioEffector extends MediaCodecPlugin {
     }
 
     public void reInitInputCommandQueue() {
-        getInputCommandQueue().queue.clear();
+        getInputCommandQueue().clear();
         feedMeIfNotDraining();
     }
 
@@ -68,6 +68,7 @@ public class AudioEncoder extends Encoder {
         if (state != PluginState.Normal) return;
 
         super.drain(bufferIndex);
+        drainRenditions();
     }
 
     @Override
@@ -0,0 +1,253 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.AudioFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Mixes secondary PCM sources into the decoded frames of the main audio track.
+ * <p/>
+ * Every input starts at a given time of the target stream and is aligned to the
+ * main track by {@link Frame#getSampleTime()}: samples of a skipped part of the target
+ * stream are skipped in the input too. Inputs should deliver PCM in the format of the
+ * main track. Samples are scaled by the gain envelopes and summed with 16-bit saturation.
+ */
+public class AudioMixer {
+    private static final long MICROSECONDS = 1000000L;
+
+    private final List<Input> inputs = new ArrayList<Input>();
+    private GainEnvelope mainGain;
+    private int sampleRate;
+    private int channelCount;
+    private int[] accumulator = new int[0];
+
+    public static class Input {
+        private final IPcmSource source;
+        private final long startTimeUs;
+        private final GainEnvelope gain;
+        private short[] samples = new short[0];
+        private long position = 0;
+        private boolean ended = false;
+
+        Input(IPcmSource source, long startTimeUs, GainEnvelope gain) {
+            this.source = source;
+            this.startTimeUs = startTimeUs;
+            this.gain = gain;
+        }
+
+        public IPcmSource getSource() {
+            return source;
+        }
+
+        public long getStartTimeUs() {
+            return startTimeUs;
+        }
+
+        public GainEnvelope getGain() {
+            return gain;
+        }
+
+        /**
+         * Returns the number of frames read from the source so far, including skipped ones.
+         */
+        public long getPosition() {
+            return position;
+        }
+
+        public boolean isEnded() {
+            return ended;
+        }
+
+        private int read(int count, int channelCount) {
+            if (samples.length < count) {
+                samples = new short[count];
+            }
+
+            int total = 0;
+            while (total < count && !ended) {
+                int read = source.read(samples, total, count - total);
+                if (read < 0) {
+                    ended = true;
+                } else {
+                    total += read;
+                }
+            }
+            position += total / channelCount;
+            return total;
+        }
+
+        private void skip(long frames, int channelCount) {
+            while (frames > 0 && !ended) {
+                int count = (int) Math.min(frames * channelCount, Math.max(samples.length, 4096));
+                frames -= read(count, channelCount) / channelCount;
+            }
+        }
+    }
+
+    public void setMediaFormat(AudioFormat audioFormat) {
+        sampleRate = audioFormat.getAudioSampleRateInHz();
+        channelCount = audioFormat.getAudioChannelCount();
+    }
+
+    /**
+     * Adds a source to mix into the main track.
+     *
+     * @param source      PCM source in the format of the main track.
+     * @param startTimeUs Time in microseconds of the target stream at which the source starts playing.
+     * @param gain        Gain of the source, null for unity gain.
+     * @return The added input.
+     */
+    public Input addInput(IPcmSource source, long startTimeUs, GainEnvelope gain) {
+        Input input = new Input(source, startTimeUs, gain);
+        inputs.add(input);
+        return input;
+    }
+
+    public List<Input> getInputs() {
+        return Collections.unmodifiableList(inputs);
+    }
+
+    /**
+     * Sets the gain of the main track, for example to lower it while a voice-over plays.
+     */
+    public void setMainGain(GainEnvelope gain) {
+        mainGain = gain;
+    }
+
+    public boolean isEnabled() {
+        return !inputs.isEmpty() || mainGain != null;
+    }
+
+    /**
+     * Mixes the inputs into the frame in place.
+     */
+    public void mix(Frame frame) {
+        if (!isEnabled()) {
+            return;
+        }
+        if (channelCount == 0 || sampleRate == 0) {
+            throw new IllegalStateException("Audio mixer format is not set.");
+        }
+
+        int frames = frame.getLength() / 2 / channelCount;
+        int count = frames * channelCount;
+        if (frames == 0) {
+            return;
+        }
+        if (accumulator.length < count) {
+            accumulator = new int[count];
+        }
+
+        ByteBuffer buffer = frame.getByteBuffer();
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+
+        long startTimeUs = frame.getSampleTime();
+        long endTimeUs = startTimeUs + frames * MICROSECONDS / sampleRate;
+
+        float startGain = (mainGain == null) ? 1f : mainGain.getGain(startTimeUs);
+        float endGain = (mainGain == null) ? 1f : mainGain.getGain(endTimeUs);
+        if (startGain == 1f && endGain == 1f) {
+            for (int i = 0; i < count; i++) {
+                accumulator[i] = buffer.getShort(2 * i);
+            }
+        } else {
+            float step = (endGain - startGain) / frames;
+            float gain = startGain;
+            for (int i = 0; i < count; i += channelCount, gain += step) {
+                for (int channel = 0; channel < channelCount; channel++) {
+                    accumulator[i + channel] = (int) (buffer.getShort(2 * (i + channel)) * gain);
+                }
+            }
+        }
+
+        for (Input input : inputs) {
+            mixInput(input, startTimeUs, endTimeUs, frames);
+        }
+
+        for (int i = 0; i < count; i++) {
+            int sample = accumulator[i];
+            if (sample > Short.MAX_VALUE) {
+                sample = Short.MAX_VALUE;
+            } else if (sample < Short.MIN_VALUE) {
+                sample = Short.MIN_VALUE;
+            }
+            buffer.putShort(2 * i, (short) sample);
+        }
+
+        buffer.order(order);
+    }
+
+    private void mixInput(Input input, long startTimeUs, long endTimeUs, int frames) {
+        if (input.ended || endTimeUs <= input.startTimeUs) {
+            return;
+        }
+
+        long first = (startTimeUs - input.startTimeUs) * sampleRate / MICROSECONDS;
+        int offset = 0;
+        if (first < 0) {
+            offset = (int) -first;
+            first = 0;
+        }
+        if (offset >= frames) {
+            return;
+        }
+        // Skip the input when the target stream jumps ahead, a one frame gap is a rounding error
+        if (first - input.position > 1) {
+            input.skip(first - input.position, channelCount);
+        }
+
+        int read = input.read((frames - offset) * channelCount, channelCount);
+        read -= read % channelCount;
+        if (read == 0) {
+            return;
+        }
+
+        long offsetTimeUs = startTimeUs + offset * MICROSECONDS / sampleRate;
+        float startGain = (input.gain == null) ? 1f : input.gain.getGain(offsetTimeUs);
+        float endGain = (input.gain == null) ? 1f : input.gain.getGain(endTimeUs);
+        short[] samples = input.samples;
+        int base = offset * channelCount;
+
+        if (startGain == 1f && endGain == 1f) {
+            for (int i = 0; i < read; i++) {
+                accumulator[base + i] += samples[i];
+            }
+        } else {
+            float step = (endGain - startGain) / (frames - offset);
+            float gain = startGain;
+            for (int i = 0; i < read; i += channelCount, gain += step) {
+                for (int channel = 0; channel < channelCount; channel++) {
+                    accumulator[base + i + channel] += (int) (samples[i + channel] * gain);
+                }
+            }
+        }
+    }
+
+    public void close() throws IOException {
+        for (Input input : inputs) {
+            input.source.close();
+        }
+    }
+}
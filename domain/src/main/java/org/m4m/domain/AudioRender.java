@@ -20,34 +20,55 @@ package org.m4m.domain;
 import org.m4m.AudioFormat;
 
 import java.io.IOException;
-import java.util.LinkedList;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
-
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Plays decoded audio in sync with the video preview.
+ * <p/>
+ * Frames are copied into a preallocated {@link PcmRingBuffer}. A single playback thread
+ * drains it into the audio track in small chunks, paced off the monotonic clock
+ * against the sample time of the chunk. Seek and pause reset the ring in O(1).
+ */
 public class AudioRender extends Render {
+    private static final int SKIP_FRAME_DELTA = 100000;
+    private static final long BUFFER_DURATION_US = 2000000;
+    private static final long CHUNK_DURATION_US = 10000;
+
     private IAudioTrack audioPlayBack = null;
+    private IAudioTrack audioTrack = null;
     private MediaFormat mediaFormat = null;
 
-    private boolean isPaused = false;
+    private volatile boolean isPaused = false;
+    private volatile boolean isClosed = false;
 
     private long audioRealTimeOffset = 0l;
-    private long currentRealTime = 0l;
-    private long shiftedRealTime = 0l;
-    private long globalRealTimeOffset = 0l;
-    private static final int SKIP_FRAME_DELTA = 100000;
-
+    private volatile long globalRealTimeOffset = 0l;
 
     private long neededPosition = 0;
     private boolean inSkipState = false;
 
-    private ScheduledExecutorService playBackService = null;
-    private Object audioPlayBackSyncObject = new Object();
+    private PcmRingBuffer ringBuffer = null;
+    private int bytesPerSecond = 0;
+    private volatile long ringStartSampleTime = -1;
+    private volatile long ringStartPosition = 0;
+    // Set when a frame did not fit, the next frame written starts a new anchor
+    private boolean overrun = false;
+    private final AtomicLong bytesPlayed = new AtomicLong();
 
-    private LinkedList<AudioTask> queue = new LinkedList<AudioTask>();
+    private final AtomicLong underrunsCount = new AtomicLong();
+    private final AtomicLong overrunsCount = new AtomicLong();
+    private Thread playBackThread = null;
 
     public AudioRender() {
-        playBackService = Executors.newScheduledThreadPool(1);
+    }
+
+    /**
+     * Sets the audio track to play to, it is used by the next configure().
+     */
+    public void setAudioTrack(IAudioTrack audioTrack) {
+        this.audioTrack = audioTrack;
     }
 
     private IAudioTrack createAudioTrack() {
@@ -58,7 +79,6 @@ public class AudioRender extends Render {
         /// TODO: To build implement an apropriate factory
         //int bufferSize = IAudioTrack.getMinBufferSize(sampleRate, audioChannelConfig, audioFormat);
         //IAudioTrack audioTrack = new IAudioTrack(AudioManager.STREAM_MUSIC, sampleRate, audioChannelConfig, audioFormat, bufferSize, IAudioTrack.MODE_STREAM);
-        IAudioTrack audioTrack = null;
 
         return audioTrack;
     }
@@ -82,6 +102,13 @@ public class AudioRender extends Render {
 
         if(audioPlayBack != null) audioPlayBack.play();
         else throw new NullPointerException("AudioPlayBack is not initialized");
+
+        if (playBackThread == null) {
+            isClosed = false;
+            playBackThread = new Thread(new PlayBackLoop(), "AudioRender.playBack");
+            playBackThread.setDaemon(true);
+            playBackThread.start();
+        }
     }
 
 
@@ -90,6 +117,14 @@ public class AudioRender extends Render {
     public void configure() {
         if(mediaFormat != null) audioPlayBack = createAudioTrack();
         else throw new IllegalStateException("AudioRender mediaFormat is not initialized");
+
+        int frameSize = 2 * getChannelCount();
+        bytesPerSecond = getSampleRate() * frameSize;
+        int capacity = (int) (bytesPerSecond * BUFFER_DURATION_US / 1000000) / frameSize * frameSize;
+        if (ringBuffer == null || ringBuffer.capacity() != capacity) {
+            ringBuffer = new PcmRingBuffer(capacity);
+            resetRingBuffer();
+        }
     }
 
 
@@ -105,6 +140,17 @@ public class AudioRender extends Render {
 
     @Override
     public void close() throws IOException {
+        isClosed = true;
+        if (playBackThread != null) {
+            LockSupport.unpark(playBackThread);
+            try {
+                playBackThread.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            playBackThread = null;
+        }
+
         if (audioPlayBack != null) {
             audioPlayBack.stop();
             audioPlayBack.release();
@@ -131,12 +177,6 @@ public class AudioRender extends Render {
         getInputCommandQueue().clear();
     }
 
-    private boolean inputQueueIsEmpty() {
-        if(getInputCommandQueue().size() == 0) return true;
-        return false;
-    }
-
-
     @Override
     public void pushWithReleaser(Frame frame, IPluginOutput releaser) {
         if (isSkipPlayToWaitSamples(frame.getSampleTime())) {
@@ -146,47 +186,26 @@ public class AudioRender extends Render {
         }
 
         int frameLength = frame.getLength();
-        long sampleTime = frame.getSampleTime();
-        byte[] inputBytes = new byte[frameLength];
+        if (ringStartSampleTime < 0 || overrun) {
+            // Dropped bytes break the mapping from played bytes to sample times, so it restarts at this frame.
+            // The playback thread reads the sample time on both sides of the position to see a consistent pair.
+            ringStartSampleTime = -1;
+            ringStartPosition = bytesPlayed.get() + ringBuffer.available();
+            ringStartSampleTime = frame.getSampleTime();
+            overrun = false;
+        }
 
         frame.getByteBuffer().position(0);
-        frame.getByteBuffer().get(inputBytes, 0, frameLength);
-
-        if (globalRealTimeOffset == 0) {
-            queue.add(new AudioTask(inputBytes, sampleTime));
-
-            //Log.d("Render", "globalRealTimeOffset = " + globalRealTimeOffset);
-        } else {
-            //Log.e("Render", "queue.size() = " + queue.size());
-
-            currentRealTime = System.nanoTime() / 1000;
-            shiftedRealTime = currentRealTime - globalRealTimeOffset;
-
-            if (shiftedRealTime >= sampleTime) {
-                writeDataToAudioTrack(inputBytes, frameLength);
-            } else {
-                long audioPlayingDelay = sampleTime - shiftedRealTime;
-                playBackService.schedule(new AudioPlayingThread(inputBytes, frameLength, sampleTime, shiftedRealTime, globalRealTimeOffset),
-                        audioPlayingDelay,
-                        TimeUnit.MICROSECONDS);
-            }
+        int written = ringBuffer.write(frame.getByteBuffer(), frameLength);
+        if (written < frameLength) {
+            overrunsCount.incrementAndGet();
+            overrun = true;
         }
 
         if (!isPaused) feedMeIfNotDraining();
         releaser.releaseOutputBuffer(frame.getBufferIndex());
     }
 
-    private void writeDataToAudioTrack(byte[] audioData, int length) {
-        synchronized (audioPlayBackSyncObject) {
-            if (!isPaused) {
-                audioPlayBack.write(audioData, 0, length);
-            } else {
-                queue.add(new AudioTask(audioData, length));
-            }
-        }
-    }
-
-
     // TODO may be should pause the audioTrack
     public void pause() {
         isPaused = true;
@@ -202,6 +221,11 @@ public class AudioRender extends Render {
         globalRealTimeOffset = 0l;
     }
 
+    private void resetRingBuffer() {
+        ringStartSampleTime = -1;
+        ringBuffer.clear();
+    }
+
     private AudioFormat getAudioFormat() {
         return (AudioFormat) mediaFormat;
     }
@@ -214,6 +238,27 @@ public class AudioRender extends Render {
         return getAudioFormat().getAudioChannelCount();
     }
 
+    /**
+     * Returns how many times the playback thread ran out of data when a chunk was due.
+     */
+    public long getUnderrunsCount() {
+        return underrunsCount.get();
+    }
+
+    /**
+     * Returns how many frames did not fit into the ring buffer completely.
+     */
+    public long getOverrunsCount() {
+        return overrunsCount.get();
+    }
+
+    /**
+     * Returns the number of bytes waiting in the ring buffer.
+     */
+    public int getBufferedBytes() {
+        return ringBuffer == null ? 0 : ringBuffer.available();
+    }
+
     @Override
     public void setTrackId(int trackId) {
         this.trackId = trackId;
@@ -233,7 +278,7 @@ public class AudioRender extends Render {
     }
 
     public void seek(long position) {
-        queue.clear();
+        resetRingBuffer();
         resetGlobalRealTimeOffset();
         feedMeIfNotDraining();
 
@@ -241,42 +286,6 @@ public class AudioRender extends Render {
         this.neededPosition = position;
     }
 
-    public class AudioPlayingThread implements Runnable {
-
-        private byte[] audioData = null;
-        private int audioDataLength = 0;
-
-        private long sampleTime = 0l;
-        private long proposedTime = 0l;
-        private long gap = 0l;
-
-        public AudioPlayingThread(byte[] audioData, int audioDataLength, long sampleTime, long proposedTime, long gap) {
-            this.audioData = audioData;
-            this.audioDataLength = audioDataLength;
-            this.sampleTime = sampleTime;
-            this.proposedTime = proposedTime;
-            this.gap = gap;
-        }
-
-        @Override
-        public void run() {
-            /*synchronized (audioPlayBackSyncObject) {
-                if (!isPaused) {
-                    //Log.d("Render", "Time of real audio playing = " + String.valueOf(System.nanoTime() / 1000 - gap));
-                    audioPlayBack.write(audioData, 0, audioDataLength);
-                } else {
-                    queue.add(new AudioTask(audioData, audioDataLength));
-                }
-
-              *//*  Log.d("Render", "shiftedRealTime = " + String.valueOf(proposedTime));
-                Log.e("Render", "sampleTime = " + String.valueOf(sampleTime));*//*
-            }*/
-
-            writeDataToAudioTrack(audioData, audioDataLength);
-        }
-    }
-
-
     public void setRealTimeOffset(long offset){
         globalRealTimeOffset = offset;
     }
@@ -292,53 +301,54 @@ public class AudioRender extends Render {
         } else {
             globalRealTimeOffset = audioRealTimeOffset;
         }
-
-        submitBufferedData();
-    }
-
-
-    public class AudioTask {
-        private byte[] audioData = null;
-        private long pts = 0l;
-
-        public AudioTask(byte[] audioData, long pts) {
-            this.audioData = audioData;
-            this.pts = pts;
-        }
-
-        byte[] getAudioByteArray() {
-            return audioData;
-        }
-
-        long getAudioSampleTime() {
-            return pts;
-        }
-
-        int getAudioArrayLength() {
-            return audioData.length;
+        if (playBackThread != null) {
+            LockSupport.unpark(playBackThread);
         }
     }
 
-    private void submitBufferedData() {
-        if (queue.size() != 0) {
-            AudioTask headTask = queue.poll();
-            long headOffset = headTask.getAudioSampleTime();
+    private class PlayBackLoop implements Runnable {
+        private final long idleNanos = TimeUnit.MICROSECONDS.toNanos(CHUNK_DURATION_US);
 
-            playBackService.submit(new AudioPlayingThread(
-                    headTask.getAudioByteArray(),
-                    headTask.getAudioArrayLength(), 0, 0, 0));
+        @Override
+        public void run() {
+            int frameSize = 2 * getChannelCount();
+            byte[] chunk = new byte[(int) (bytesPerSecond * CHUNK_DURATION_US / 1000000) / frameSize * frameSize];
+            boolean starving = false;
+
+            while (!isClosed) {
+                long offset = globalRealTimeOffset;
+                long startSampleTime = ringStartSampleTime;
+                if (isPaused || offset == 0 || startSampleTime < 0) {
+                    LockSupport.parkNanos(idleNanos);
+                    continue;
+                }
 
-            for (AudioTask task : queue) {
-                long audioPlayingDelay = task.getAudioSampleTime() - headOffset;
+                long startPosition = ringStartPosition;
+                if (startSampleTime != ringStartSampleTime) {
+                    // The anchor moved while it was read
+                    continue;
+                }
 
-                playBackService.schedule(new AudioPlayingThread(
-                                task.getAudioByteArray(),
-                                task.getAudioArrayLength(),
-                    task.getAudioSampleTime(),
-                    shiftedRealTime, globalRealTimeOffset), audioPlayingDelay, TimeUnit.MICROSECONDS);
-            }
+                long chunkSampleTime = startSampleTime + (bytesPlayed.get() - startPosition) * 1000000 / bytesPerSecond;
+                long delay = chunkSampleTime - (System.nanoTime() / 1000 - offset);
+                if (delay > 0) {
+                    LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(Math.min(delay, CHUNK_DURATION_US)));
+                    continue;
+                }
 
-            queue.clear();
+                int read = ringBuffer.read(chunk, 0, chunk.length);
+                if (read == 0) {
+                    if (!starving) {
+                        underrunsCount.incrementAndGet();
+                        starving = true;
+                    }
+                    LockSupport.parkNanos(idleNanos);
+                    continue;
+                }
+                starving = false;
+                bytesPlayed.addAndGet(read);
+                audioPlayBack.write(chunk, 0, read);
+            }
         }
     }
 }
@@ -48,6 +48,8 @@ public abstract class CapturePipeline {
     private final Object untillDone = new Object();
     private int orientaionDegrees = 0;
     private VideoFormat mediaFormat;
+    private boolean metricsEnabled = false;
+    private PipelineMetrics metrics = null;
 
     /**
      * Constructor
@@ -141,6 +143,8 @@ public abstract class CapturePipeline {
      */
     public void start() {
         CommandProcessor commandProcessor = new CommandProcessor(progressListener);
+        metrics = metricsEnabled ? new PipelineMetrics() : null;
+        commandProcessor.setMetrics(metrics);
         pipeline = new Pipeline(commandProcessor);
         pools = Executors.newSingleThreadExecutor();
 
@@ -245,6 +249,24 @@ public abstract class CapturePipeline {
         started = false;
     }
 
+    /**
+     * Collects metrics of every pipeline node while capturing. Must be called before start().
+     *
+     * @param enabled true to collect metrics.
+     */
+    public void setMetricsEnabled(boolean enabled) {
+        this.metricsEnabled = enabled;
+    }
+
+    /**
+     * Returns current values of the pipeline metrics.
+     *
+     * @return Metrics snapshot, null if metrics are disabled or capturing is not started.
+     */
+    public PipelineMetricsSnapshot getMetrics() {
+        return metrics == null ? null : metrics.snapshot();
+    }
+
     public void setFillMode(TextureRenderer.FillMode fillMode) {
         this.fillMode = fillMode;
     }
@@ -19,18 +19,94 @@ package org.m4m.domain;
 import org.m4m.IProgressListener;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
+/**
+ * Maps (output command, input command) pairs to command handlers. Every registration is also compiled into a
+ * dispatch table indexed by (track, output command, input command), so steady-state lookup is a single array read.
+ * Registrations that cannot be indexed (different or negative track ids) are resolved by a linear scan.
+ */
 public class CommandHandlerFactory {
+    private static final int COMMANDS_COUNT = Command.values().length;
+
     List<entry> handlerCreators = new ArrayList<entry>();
+    private IHandlerCreator[] dispatchTable = new IHandlerCreator[0];
 
     public ICommandHandler create(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand, IProgressListener progressListener) {
-        IHandlerCreator handlerCreator = findHandlerCreator(lhsCommand, rhsCommand);
+        IHandlerCreator handlerCreator = lookup(lhsCommand, rhsCommand);
+        if (handlerCreator == null) {
+            handlerCreator = findHandlerCreator(lhsCommand, rhsCommand);
+        }
         return handlerCreator.create();
     }
 
     public void register(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand, IHandlerCreator handlerCreator) {
         handlerCreators.add(new entry(lhsCommand, rhsCommand, handlerCreator));
+        compile(lhsCommand, rhsCommand, handlerCreator);
+    }
+
+    /**
+     * Registers a stateless handler which is reused for every matching command pair instead of being created per frame.
+     */
+    public void register(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand, final ICommandHandler sharedHandler) {
+        register(lhsCommand, rhsCommand, new IHandlerCreator() {
+            @Override
+            public ICommandHandler create() {
+                return sharedHandler;
+            }
+        });
+    }
+
+    private IHandlerCreator lookup(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand) {
+        if (lhsCommand == null || rhsCommand == null || lhsCommand.left == null || rhsCommand.left == null) return null;
+        if (lhsCommand.right == null || rhsCommand.right == null) return null;
+
+        int trackId = lhsCommand.right;
+        if (trackId != rhsCommand.right) return null;
+
+        int index = indexOf(trackId, lhsCommand.left.ordinal(), rhsCommand.left.ordinal());
+        if (index < 0 || index >= dispatchTable.length) return null;
+        return dispatchTable[index];
+    }
+
+    private void compile(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand, IHandlerCreator handlerCreator) {
+        Integer trackId;
+        if (lhsCommand != null && rhsCommand != null) {
+            if (lhsCommand.right == null || !lhsCommand.right.equals(rhsCommand.right)) return;
+            trackId = lhsCommand.right;
+        } else if (lhsCommand != null) {
+            trackId = lhsCommand.right;
+        } else if (rhsCommand != null) {
+            trackId = rhsCommand.right;
+        } else {
+            return;
+        }
+        if (trackId == null || trackId < 0) return;
+
+        ensureTrack(trackId);
+        for (int output = 0; output < COMMANDS_COUNT; output++) {
+            if (lhsCommand != null && lhsCommand.left.ordinal() != output) continue;
+            for (int input = 0; input < COMMANDS_COUNT; input++) {
+                if (rhsCommand != null && rhsCommand.left.ordinal() != input) continue;
+                int index = indexOf(trackId, output, input);
+                // The first registration wins, as in the linear scan
+                if (dispatchTable[index] == null) {
+                    dispatchTable[index] = handlerCreator;
+                }
+            }
+        }
+    }
+
+    private void ensureTrack(int trackId) {
+        int requiredLength = (trackId + 1) * COMMANDS_COUNT * COMMANDS_COUNT;
+        if (dispatchTable.length < requiredLength) {
+            dispatchTable = Arrays.copyOf(dispatchTable, requiredLength);
+        }
+    }
+
+    private static int indexOf(int trackId, int outputCommand, int inputCommand) {
+        return (trackId * COMMANDS_COUNT + outputCommand) * COMMANDS_COUNT + inputCommand;
     }
 
     private IHandlerCreator findHandlerCreator(Pair<Command, Integer> lhsCommand, Pair<Command, Integer> rhsCommand) {
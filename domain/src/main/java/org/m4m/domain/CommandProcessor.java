@@ -20,16 +20,34 @@ import org.m4m.IProgressListener;
 
 import java.util.ArrayList;
 
-public class CommandProcessor implements ICommandProcessor {
+public class CommandProcessor implements ICommandProcessor, IOnCommandQueuedListener {
     //Logger log = Logger.getLogger(getClass().getSimpleName());
 
     private final ArrayList<OutputInputPair> pairs = new ArrayList<OutputInputPair>();
+    private final ArrayList<Object> joinLocks = new ArrayList<Object>();
     private final PairQueueSpecification pairQueueSpecification = new PairQueueSpecification(new MatchingCommands());
     private final IProgressListener progressListener;
     private volatile boolean isPaused = false;
 
     private static final MatchingCommands matchingCommands = new MatchingCommands();
-    private boolean stopped = false;
+    private volatile boolean stopped = false;
+
+    private final Object idleLock = new Object();
+    private long idleTimeout = 0;
+    private volatile boolean commandQueued = false;
+    private volatile boolean parked = false;
+    private volatile long idleCyclesAvoided = 0;
+
+    private PipelineMetrics metrics = null;
+    // Metrics of every pair, its output and its input node, null while metrics are disabled
+    private final ArrayList<NodeMetrics[]> pairMetrics = new ArrayList<NodeMetrics[]>();
+    private static final int PAIR = 0;
+    private static final int OUTPUT = 1;
+    private static final int INPUT = 2;
+
+    // Reused for every dispatched command pair, handlers must not keep references to them
+    private final Pair<Command, Integer> matchedOutputCommand = new Pair<Command, Integer>(null, null);
+    private final Pair<Command, Integer> matchedInputCommand = new Pair<Command, Integer>(null, null);
 
     public CommandProcessor(IProgressListener progressListener) {
         this.progressListener = progressListener;
@@ -37,79 +55,214 @@ public class CommandProcessor implements ICommandProcessor {
 
     @Override
     public void add(OutputInputPair pair) {
+        add(pair, null);
+    }
+
+    /**
+     * Adds a pair that touches a node shared with other command processors, e.g. the source or the muxer
+     * when every track chain runs on its own thread. All pairs added with the same lock are processed
+     * mutually exclusive, so the shared node and its command queues are never accessed concurrently.
+     *
+     * @param joinLock Lock shared by the pairs of all processors that touch the same node, null if not shared.
+     */
+    public void add(OutputInputPair pair, Object joinLock) {
         pairs.add(pair);
+        joinLocks.add(joinLock);
+        listenTo(pair.output.getOutputCommandQueue());
+        listenTo(pair.input.getInputCommandQueue());
+    }
+
+    private void listenTo(CommandQueue commandQueue) {
+        if (commandQueue != null) {
+            commandQueue.addOnCommandQueuedListener(this);
+        }
     }
 
     @Override
     public void stop() {
         stopped = true;
+        wakeUp();
+    }
+
+    /**
+     * Switches the processor to event-driven scheduling: when a full pass over all pairs handles no command,
+     * the processing thread parks until a command is queued or the timeout expires, instead of spinning.
+     *
+     * @param idleTimeoutMs Maximum time to park in milliseconds, usually the codec timeout. 0 keeps busy polling.
+     */
+    public void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeout = idleTimeoutMs;
+    }
+
+    /**
+     * Collects frame, command latency, queue depth and codec stall metrics of every pair and node
+     * into the registry. Must be called before process().
+     *
+     * @param metrics Registry to collect metrics into, null to disable metrics.
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the number of idle passes replaced by parking the processing thread.
+     */
+    public long getIdleCyclesAvoided() {
+        return idleCyclesAvoided;
+    }
+
+    @Override
+    public void onCommandQueued() {
+        commandQueued = true;
+        if (parked) {
+            wakeUp();
+        }
     }
 
     @Override
     public void process() {
-        for (OutputInputPair pair : pairs) {
-            pair.output.fillCommandQueues();
-            pair.input.fillCommandQueues();
+        resolveMetrics();
+        for (int i = 0; i < pairs.size(); i++) {
+            fillCommandQueues(pairs.get(i), joinLocks.get(i));
         }
 
         while (!stopped) {
-            for (OutputInputPair pair : pairs) {
-                processCommandPairs(pair);
+            commandQueued = false;
+            boolean handled = false;
+            for (int i = 0; i < pairs.size(); i++) {
+                handled |= processCommandPairs(pairs.get(i), joinLocks.get(i), metricsOf(i));
+            }
+            if (!handled && idleTimeout > 0) {
+                waitForCommands();
             }
         }
         //log.info("No pairs to process, exit.");
     }
 
-    private void processCommandPairs(OutputInputPair pair) {
+    private void resolveMetrics() {
+        pairMetrics.clear();
+        if (metrics == null) {
+            return;
+        }
+        for (OutputInputPair pair : pairs) {
+            pairMetrics.add(new NodeMetrics[]{metrics.getPair(pair), metrics.getNode(pair.output), metrics.getNode(pair.input)});
+        }
+    }
+
+    private NodeMetrics[] metricsOf(int pairIndex) {
+        return pairIndex < pairMetrics.size() ? pairMetrics.get(pairIndex) : null;
+    }
+
+    private void waitForCommands() {
+        synchronized (idleLock) {
+            parked = true;
+            try {
+                if (!commandQueued && !stopped) {
+                    idleLock.wait(idleTimeout);
+                    idleCyclesAvoided++;
+                }
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            } finally {
+                parked = false;
+            }
+        }
+    }
+
+    private void wakeUp() {
+        synchronized (idleLock) {
+            idleLock.notifyAll();
+        }
+    }
+
+    private void fillCommandQueues(OutputInputPair pair, Object joinLock) {
+        if (joinLock == null) {
+            pair.output.fillCommandQueues();
+            pair.input.fillCommandQueues();
+            return;
+        }
+        synchronized (joinLock) {
+            pair.output.fillCommandQueues();
+            pair.input.fillCommandQueues();
+        }
+    }
+
+    private boolean processCommandPairs(OutputInputPair pair, Object joinLock, NodeMetrics[] nodeMetrics) {
+        if (joinLock == null) {
+            return processCommandPairs(pair, nodeMetrics);
+        }
+        synchronized (joinLock) {
+            return processCommandPairs(pair, nodeMetrics);
+        }
+    }
+
+    private boolean processCommandPairs(OutputInputPair pair, NodeMetrics[] nodeMetrics) {
+        boolean handled = false;
         pair.output.fillCommandQueues();
         pair.input.fillCommandQueues();
         CommandQueue outputCommandQueue = pair.output.getOutputCommandQueue();
         CommandQueue inputCommandQueue = pair.input.getInputCommandQueue();
 
+        if (nodeMetrics != null) {
+            nodeMetrics[OUTPUT].queueDepth(outputCommandQueue.size());
+            nodeMetrics[INPUT].queueDepth(inputCommandQueue.size());
+        }
+
         while (pairQueueSpecification.satisfiedBy(outputCommandQueue, inputCommandQueue)) {
             checkIfPaused();
 
-            Pair<Command, Integer> outputCommand = outputCommandQueue.first();
-            Pair<Command, Integer> inputCommand = inputCommandQueue.first();
+            Command outputCommand = outputCommandQueue.firstCommand();
+            Command inputCommand = inputCommandQueue.firstCommand();
 
             if(outputCommand == null || inputCommand == null) continue;
 
-            if (inputCommand.left == Command.NextPair) {
-                inputCommandQueue.dequeue();
+            handled = true;
+            if (inputCommand == Command.NextPair) {
+                inputCommandQueue.removeFirst();
                 break;
             }
-            if (outputCommand.left == Command.NextPair) {
-                outputCommandQueue.dequeue();
+            if (outputCommand == Command.NextPair) {
+                outputCommandQueue.removeFirst();
                 break;
             }
-            process(outputCommandQueue, inputCommandQueue, pair.commandHandlerFactory);
+            if (nodeMetrics == null) {
+                process(outputCommandQueue, inputCommandQueue, pair.commandHandlerFactory);
+            } else {
+                long start = System.nanoTime();
+                process(outputCommandQueue, inputCommandQueue, pair.commandHandlerFactory);
+                nodeMetrics[PAIR].commandHandled(System.nanoTime() - start);
+            }
         }
+        return handled;
     }
 
     private void process(CommandQueue outputCommandQueue, CommandQueue inputCommandQueue, CommandHandlerFactory commandHandlerFactory) {
-        Pair<Pair<Command, Integer>, Pair<Command, Integer>> matchingCommands = dequeMatchingCommands(outputCommandQueue, inputCommandQueue);
-        Pair<Command, Integer> outputCommand = matchingCommands.left;
-        Pair<Command, Integer> inputCommand = matchingCommands.right;
-        process(outputCommand, inputCommand, commandHandlerFactory);
+        dequeMatchingCommands(outputCommandQueue, inputCommandQueue);
+        process(matchedOutputCommand, matchedInputCommand, commandHandlerFactory);
     }
 
-    private Pair<Pair<Command, Integer>, Pair<Command, Integer>> dequeMatchingCommands(CommandQueue outputCommandQueue, CommandQueue inputCommandQueue) {
-        Pair<Command, Integer> outputCommand;
-        Pair<Command, Integer> inputCommand;
-        for (Pair<Command, Command> matchingCommand : matchingCommands) {
-
-            outputCommand = outputCommandQueue.first();
-            inputCommand = inputCommandQueue.first();
+    private void dequeMatchingCommands(CommandQueue outputCommandQueue, CommandQueue inputCommandQueue) {
+        Command outputCommand = outputCommandQueue.firstCommand();
+        Command inputCommand = inputCommandQueue.firstCommand();
+        int outputTrackId = outputCommandQueue.firstTrackId();
+        int inputTrackId = inputCommandQueue.firstTrackId();
 
-            if(outputCommand == null || inputCommand == null) continue;
+        if (outputCommand != null && inputCommand != null) {
+            for (int i = 0; i < matchingCommands.size(); i++) {
+                Pair<Command, Command> matchingCommand = matchingCommands.get(i);
 
-            boolean match = (matchingCommand.left == null || matchingCommand.left == outputCommand.left) &&
-                            (matchingCommand.right == null || matchingCommand.right == inputCommand.left) &&
-                            (outputCommand.right == inputCommand.right);
-            if (match) {
-                if (matchingCommand.left != null) outputCommand = outputCommandQueue.dequeue();
-                if (matchingCommand.right != null) inputCommand = inputCommandQueue.dequeue();
-                return new Pair<Pair<Command, Integer>, Pair<Command, Integer>>(outputCommand, inputCommand);
+                boolean match = (matchingCommand.left == null || matchingCommand.left == outputCommand) &&
+                                (matchingCommand.right == null || matchingCommand.right == inputCommand) &&
+                                (outputTrackId == inputTrackId);
+                if (match) {
+                    if (matchingCommand.left != null) outputCommandQueue.removeFirst();
+                    if (matchingCommand.right != null) inputCommandQueue.removeFirst();
+                    matchedOutputCommand.left = outputCommand;
+                    matchedOutputCommand.right = outputTrackId;
+                    matchedInputCommand.left = inputCommand;
+                    matchedInputCommand.right = inputTrackId;
+                    return;
+                }
             }
         }
         // Cannot get here, because PairCommandSpecification.satisfiedBy handles the case
@@ -130,11 +283,13 @@ public class CommandProcessor implements ICommandProcessor {
         }
     }
 
+    @Override
     public void pause() {
         //log.info("### Pause ###");
         isPaused = true;
     }
 
+    @Override
     public synchronized void resume() {
         //log.info("### Resume ###");
         isPaused = false;
@@ -16,34 +16,113 @@
 
 package org.m4m.domain;
 
+import java.util.Arrays;
 import java.util.Iterator;
-import java.util.LinkedList;
-
+import java.util.NoSuchElementException;
 
+/**
+ * Ring buffer of (command, track id) pairs. Every entry is packed into a single long: command ordinal in the
+ * high 32 bits and track id in the low 32 bits, so queueing and dequeueing do not allocate. The buffer doubles
+ * its capacity only if it ever overflows.
+ */
 public class CommandQueue implements Iterable<Pair<Command, Integer>> {
-    protected LinkedList<Pair<Command, Integer>> queue = new LinkedList<Pair<Command, Integer>>();
+    private static final int DEFAULT_CAPACITY = 16;
+    private static final Command[] commands = Command.values();
+
+    private long[] entries;
+    private int mask;
+    private int head = 0;
+    private int size = 0;
+    private volatile IOnCommandQueuedListener[] onCommandQueuedListeners = new IOnCommandQueuedListener[0];
 
     public CommandQueue() {
+        this(DEFAULT_CAPACITY);
+    }
+
+    public CommandQueue(int capacity) {
+        int powerOfTwo = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+        entries = new long[powerOfTwo];
+        mask = powerOfTwo - 1;
     }
 
     public CommandQueue(CommandQueue commandQueue) {
+        this(commandQueue.entries.length);
         for (Pair<Command, Integer> pair : commandQueue) {
             queue(pair.left, pair.right);
         }
     }
 
     public void queue(Command command, Integer trackId) {
-        Pair<Command, Integer> pair = new Pair<Command, Integer>(command, trackId);
-        queue.add(pair);
+        if (size == entries.length) {
+            grow();
+        }
+        entries[(head + size) & mask] = encode(command, trackId);
+        size++;
+
+        for (IOnCommandQueuedListener listener : onCommandQueuedListeners) {
+            listener.onCommandQueued();
+        }
+    }
+
+    /**
+     * Subscribes a listener to queued commands. A queue shared by several command processors, e.g. the output
+     * queue of a source feeding more than one track chain, notifies all of them.
+     */
+    public synchronized void addOnCommandQueuedListener(IOnCommandQueuedListener listener) {
+        for (IOnCommandQueuedListener existing : onCommandQueuedListeners) {
+            if (existing == listener) {
+                return;
+            }
+        }
+        IOnCommandQueuedListener[] listeners = Arrays.copyOf(onCommandQueuedListeners, onCommandQueuedListeners.length + 1);
+        listeners[listeners.length - 1] = listener;
+        onCommandQueuedListeners = listeners;
     }
 
     public Pair<Command, Integer> dequeue() {
-        return queue.poll();
+        if (size == 0) {
+            return null;
+        }
+
+        Pair<Command, Integer> pair = first();
+        removeFirst();
+        return pair;
+    }
+
+    /**
+     * Removes the first command without creating a Pair for it.
+     */
+    public void removeFirst() {
+        if (size == 0) {
+            return;
+        }
+        head = (head + 1) & mask;
+        size--;
     }
 
     @Override
     public Iterator<Pair<Command, Integer>> iterator() {
-        return queue.iterator();
+        return new Iterator<Pair<Command, Integer>>() {
+            private int index = 0;
+
+            @Override
+            public boolean hasNext() {
+                return index < size;
+            }
+
+            @Override
+            public Pair<Command, Integer> next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return decode(entries[(head + index++) & mask]);
+            }
+
+            @Override
+            public void remove() {
+                throw new UnsupportedOperationException("Command queue iterator is read-only.");
+            }
+        };
     }
 
     public Pair<Command, Integer> first() {
@@ -51,19 +130,74 @@ public class CommandQueue implements Iterable<Pair<Command, Integer>> {
             return null;
         }
 
-        return queue.peek();
+        return decode(entries[head]);
     }
 
     public Pair<Command, Integer> last() {
         if (size() == 0) return null;
-        return queue.getLast();
+        return decode(entries[(head + size - 1) & mask]);
+    }
+
+    /**
+     * @return First command or null if the queue is empty. Does not allocate.
+     */
+    public Command firstCommand() {
+        if (size == 0) return null;
+        return commandOf(entries[head]);
+    }
+
+    /**
+     * @return Track id of the first command or -1 if the queue is empty. Does not allocate.
+     */
+    public int firstTrackId() {
+        if (size == 0) return -1;
+        return trackIdOf(entries[head]);
+    }
+
+    /**
+     * @return Last command or null if the queue is empty. Does not allocate.
+     */
+    public Command lastCommand() {
+        if (size == 0) return null;
+        return commandOf(entries[(head + size - 1) & mask]);
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
     }
 
     public void clear() {
-        queue.clear();
+        head = 0;
+        size = 0;
     }
 
     public int size() {
-        return queue.size();
+        return size;
+    }
+
+    private void grow() {
+        long[] grown = new long[entries.length * 2];
+        for (int i = 0; i < size; i++) {
+            grown[i] = entries[(head + i) & mask];
+        }
+        entries = grown;
+        mask = grown.length - 1;
+        head = 0;
+    }
+
+    private static long encode(Command command, int trackId) {
+        return ((long) command.ordinal() << 32) | (trackId & 0xFFFFFFFFL);
+    }
+
+    private static Command commandOf(long entry) {
+        return commands[(int) (entry >>> 32)];
+    }
+
+    private static int trackIdOf(long entry) {
+        return (int) entry;
+    }
+
+    private static Pair<Command, Integer> decode(long entry) {
+        return new Pair<Command, Integer>(commandOf(entry), trackIdOf(entry));
     }
 }
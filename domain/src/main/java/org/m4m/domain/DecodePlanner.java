@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+/**
+ * Picks the video frames of a time scaled segment that are kept, before they are decoded. Frames to drop
+ * are marked to be skipped, so their pictures are not rendered, and disposable ones are not decoded at
+ * all. On average one of every timeScale frames is kept, but a frame is kept early if it is a reference
+ * frame, which leaves the disposable frames to be dropped.
+ */
+public class DecodePlanner {
+    private final int timeScale;
+    private final FileSegment segment;
+    private String mimeType;
+    private long seenFrames = 0;
+    private long keptFrames = 0;
+
+    public DecodePlanner(int timeScale, FileSegment segment) {
+        this.timeScale = timeScale;
+        this.segment = segment;
+    }
+
+    public void setMimeType(String mimeType) {
+        this.mimeType = mimeType;
+    }
+
+    /**
+     * Marks the frame to be skipped if it is dropped by time scaling.
+     *
+     * @param frame Compressed video frame with its final presentation time.
+     */
+    public void plan(Frame frame) {
+        long time = frame.getSampleTime();
+        if (timeScale <= 1 || frame.getLength() <= 0 || time < segment.pair.left || time >= segment.pair.right) {
+            return;
+        }
+        if ((frame.getFlags() & (IMediaCodec.BUFFER_FLAG_END_OF_STREAM | IMediaCodec.BUFFER_FLAG_CODEC_CONFIG)) != 0) {
+            return;
+        }
+
+        seenFrames++;
+        long deficit = seenFrames - keptFrames * timeScale;
+        if (deficit >= timeScale || (deficit > 0 && !FrameDependency.isDisposable(frame, mimeType))) {
+            keptFrames++;
+        } else {
+            frame.toSkipFrame(true);
+        }
+    }
+
+    public long getKeptFramesCount() {
+        return keptFrames;
+    }
+
+    public long getDroppedFramesCount() {
+        return seenFrames - keptFrames;
+    }
+}
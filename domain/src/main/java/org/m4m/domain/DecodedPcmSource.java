@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.AudioFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * PCM source decoding the first audio track of a file. Decoded audio is converted
+ * to the given format with {@link PolyphaseResampler} if its sample rate or
+ * channel count differ.
+ */
+public class DecodedPcmSource implements IPcmSource {
+    private static final long TIMEOUT_US = 10000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final IMediaExtractor extractor;
+    private final IMediaCodec decoder;
+    private final AudioFormat targetFormat;
+    private final IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+
+    private PolyphaseResampler resampler;
+    private ByteBuffer pcm = ByteBuffer.allocate(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private boolean started = false;
+    private boolean inputEnded = false;
+    private boolean outputEnded = false;
+
+    /**
+     * @param extractor    Extractor of the file to decode.
+     * @param decoder      Audio decoder, configured and started by this source.
+     * @param targetFormat Format of the samples to deliver.
+     */
+    public DecodedPcmSource(IMediaExtractor extractor, IMediaCodec decoder, AudioFormat targetFormat) {
+        this.extractor = extractor;
+        this.decoder = decoder;
+        this.targetFormat = targetFormat;
+        pcm.limit(0);
+    }
+
+    @Override
+    public int read(short[] samples, int offset, int count) {
+        if (!started) {
+            start();
+        }
+
+        int total = 0;
+        while (total < count) {
+            if (!pcm.hasRemaining()) {
+                if (outputEnded) {
+                    break;
+                }
+                decode();
+                continue;
+            }
+
+            int available = Math.min(count - total, pcm.remaining() / 2);
+            if (available == 0) {
+                pcm.limit(pcm.position());
+                continue;
+            }
+            for (int i = 0; i < available; i++) {
+                samples[offset + total + i] = pcm.getShort();
+            }
+            total += available;
+        }
+        return (total == 0 && outputEnded) ? -1 : total;
+    }
+
+    private void start() {
+        AudioFormat trackFormat = null;
+        for (int i = 0; i < extractor.getTrackCount(); i++) {
+            MediaFormat format = extractor.getTrackFormat(i);
+            if (format instanceof AudioFormat) {
+                trackFormat = (AudioFormat) format;
+                extractor.selectTrack(i);
+                break;
+            }
+        }
+        if (trackFormat == null) {
+            throw new IllegalArgumentException("There is no audio track to decode.");
+        }
+
+        decoder.configure(trackFormat, null, 0);
+        decoder.start();
+        updateResampler(trackFormat);
+        started = true;
+    }
+
+    private void updateResampler(AudioFormat format) {
+        if (format.getAudioSampleRateInHz() == targetFormat.getAudioSampleRateInHz()
+                && format.getAudioChannelCount() == targetFormat.getAudioChannelCount()) {
+            resampler = null;
+            return;
+        }
+        if (resampler == null) {
+            resampler = new PolyphaseResampler(targetFormat);
+        }
+        resampler.setInputParameters(format);
+    }
+
+    private void decode() {
+        if (!inputEnded) {
+            feedDecoder();
+        }
+
+        int index = decoder.dequeueOutputBuffer(bufferInfo, TIMEOUT_US);
+        if (index == IMediaCodec.INFO_OUTPUT_FORMAT_CHANGED) {
+            MediaFormat format = decoder.getOutputFormat();
+            if (format instanceof AudioFormat) {
+                updateResampler((AudioFormat) format);
+            }
+        } else if (index >= 0) {
+            if (bufferInfo.size > 0) {
+                copyOutput(decoder.getOutputBuffers()[index]);
+            }
+            decoder.releaseOutputBuffer(index, false);
+            if (bufferInfo.isEof()) {
+                outputEnded = true;
+            }
+        }
+    }
+
+    private void feedDecoder() {
+        int index = decoder.dequeueInputBuffer(TIMEOUT_US);
+        if (index < 0) {
+            return;
+        }
+
+        ByteBuffer buffer = decoder.getInputBuffers()[index];
+        int size = extractor.readSampleData(buffer);
+        if (size < 0) {
+            decoder.queueInputBuffer(index, 0, 0, 0, IMediaCodec.BUFFER_FLAG_END_OF_STREAM);
+            inputEnded = true;
+            return;
+        }
+        decoder.queueInputBuffer(index, 0, size, extractor.getSampleTime(), 0);
+        extractor.advance();
+    }
+
+    private void copyOutput(ByteBuffer output) {
+        int length = bufferInfo.size;
+        int capacity = (resampler == null) ? length : Math.max(length, resampler.getMaxOutputLength(length));
+        if (pcm.capacity() < capacity) {
+            pcm = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+
+        output.limit(bufferInfo.offset + length);
+        output.position(bufferInfo.offset);
+
+        pcm.clear();
+        pcm.put(output);
+        if (resampler != null) {
+            resampler.resampleBuffer(pcm, length);
+        } else {
+            pcm.flip();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (started) {
+            decoder.stop();
+            decoder.release();
+        }
+        extractor.release();
+    }
+}
@@ -26,6 +26,7 @@ abstract class Decoder extends MediaCodecPlugin implements IFrameAllocator, ITra
     private ISurface outputSurface;
     private ISurfaceWrapper clearOutputSurface; // Wrapped android surface without any methods
     private ArrayList<Long> framesPTSToSkip = new ArrayList<Long>();
+    private long skippedFramesCount = 0;
 
     public Decoder(IMediaCodec mediaCodec, MediaFormatType mediaFormatType) {
         super(mediaCodec);
@@ -51,6 +52,15 @@ abstract class Decoder extends MediaCodecPlugin implements IFrameAllocator, ITra
     @Override
     public void push(Frame frame) {
         super.push(frame);
+
+        // A frame nothing refers to and whose picture is dropped anyway is not decoded at all
+        if (frame.isSkipFrame() && mediaFormat != null && FrameDependency.isDisposable(frame, mediaFormat.getMimeType())) {
+            inputBufferIndexes.add(frame.getBufferIndex());
+            skippedFramesCount++;
+            feedMeIfNotDraining();
+            return;
+        }
+
         //log.info("Decoder gets frame pts=" + frame.getSampleTime() + ", trackId=" + frame.getTrackId() + ", flags=" + frame.getFlags() + ", length=" + frame.getLength());
         mediaCodec.queueInputBuffer(frame.getBufferIndex(), 0, frame.getLength(), frame.getSampleTime(), frame.getFlags());
 
@@ -63,6 +73,14 @@ abstract class Decoder extends MediaCodecPlugin implements IFrameAllocator, ITra
         feedMeIfNotDraining();
     }
 
+    /**
+     * Returns the number of frames left out of decoding because nothing referred to them and their
+     * pictures were to be dropped.
+     */
+    public long getSkippedFramesCount() {
+        return skippedFramesCount;
+    }
+
     @Override
     public void pull(Frame frame) {
         IMediaCodec.BufferInfo info = new IMediaCodec.BufferInfo();
@@ -18,10 +18,12 @@ package org.m4m.domain;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 
 public abstract class Encoder extends MediaCodecPlugin implements ITransform, ISurfaceCreator {
     private ISurface surface;
     ArrayList<IOnSurfaceReady> listeners = new ArrayList();
+    private final ArrayList<Encoder> renditions = new ArrayList<Encoder>();
 
     public Encoder(IMediaCodec mediaCodec) {
         super(mediaCodec);
@@ -78,6 +80,24 @@ public abstract class Encoder extends MediaCodecPlugin implements ITransform, IS
         mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
     }
 
+    /**
+     * Adds an encoder fed with the same input as this one, so a single decoder serves several outputs.
+     * Renditions are drained together with this encoder.
+     */
+    public void addRendition(Encoder rendition) {
+        renditions.add(rendition);
+    }
+
+    public List<Encoder> getRenditions() {
+        return renditions;
+    }
+
+    protected void drainRenditions() {
+        for (Encoder rendition : renditions) {
+            rendition.drain(0);
+        }
+    }
+
     @Override
     public void setTrackId(int trackId) {
         this.trackId = trackId;
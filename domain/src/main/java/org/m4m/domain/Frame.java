@@ -26,6 +26,8 @@ public class Frame {
     protected int trackId;
     private int bufferIndex;
     private boolean skipFrame = false;
+    FramePool pool = null;
+    int references = 0;
 
     public Frame(ByteBuffer byteBuffer, int length, long sampleTime, int bufferIndex, int flags, int trackId) {
         this.byteBuffer = byteBuffer;
@@ -161,5 +163,23 @@ public class Frame {
     public boolean isSkipFrame() {
         return this.skipFrame;
     }
-}
 
+    /**
+     * Adds a reference to a pooled frame handed to one more consumer. Does nothing for frames not taken from a pool.
+     */
+    public Frame retain() {
+        if (pool != null) {
+            pool.retain(this);
+        }
+        return this;
+    }
+
+    /**
+     * Drops a reference to a pooled frame, the last one returns it to the pool. Does nothing for frames not taken from a pool.
+     */
+    public void release() {
+        if (pool != null) {
+            pool.release(this);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Tells from the compressed data of a video sample whether other frames may depend on it.
+ */
+public final class FrameDependency {
+    private static final String AVC = "video/avc";
+
+    private FrameDependency() {
+    }
+
+    /**
+     * Returns true when no other frame references the given sample, so it can be left out of decoding
+     * if its picture is not needed. Only H.264 samples with start codes are recognized: a sample is
+     * disposable when every slice in it has nal_ref_idc equal to 0. Samples of other codecs are never
+     * disposable.
+     *
+     * @param frame    Compressed sample, starting at position 0 of its buffer.
+     * @param mimeType Mime type of the video track.
+     */
+    public static boolean isDisposable(Frame frame, String mimeType) {
+        if (!AVC.equals(mimeType) || frame.getByteBuffer() == null || frame.getLength() <= 0) {
+            return false;
+        }
+        if ((frame.getFlags() & (IMediaCodec.BUFFER_FLAG_END_OF_STREAM | IMediaCodec.BUFFER_FLAG_CODEC_CONFIG)) != 0) {
+            return false;
+        }
+
+        ByteBuffer data = frame.getByteBuffer().duplicate();
+        data.limit(Math.min(frame.getLength(), data.capacity()));
+        data.position(0);
+        return isDisposable(data, mimeType);
+    }
+
+    /**
+     * Same as {@link #isDisposable(Frame, String)} for a sample between position and limit of the buffer.
+     */
+    public static boolean isDisposable(ByteBuffer data, String mimeType) {
+        if (!AVC.equals(mimeType)) {
+            return false;
+        }
+
+        int limit = data.limit();
+        boolean hasSlices = false;
+        int i = data.position();
+        while (i + 3 < limit) {
+            if (data.get(i) != 0 || data.get(i + 1) != 0 || data.get(i + 2) != 1) {
+                i++;
+                continue;
+            }
+            int header = data.get(i + 3) & 0xff;
+            int type = header & 0x1f;
+            if (type >= 1 && type <= 5) {
+                if ((header & 0x60) != 0) {
+                    return false;
+                }
+                hasSlices = true;
+            }
+            i += 4;
+        }
+        return hasSlices;
+    }
+}
@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+
+/**
+ * Pool of frames backed by heap buffers, grouped in power of two size classes. A frame is acquired with a
+ * reference count of one, every additional consumer of the same frame calls {@link Frame#retain()}, and the
+ * frame returns to the pool once each of them has called {@link Frame#release()}. This way one frame can be
+ * handed to several consumers without copying its data.
+ */
+public class FramePool implements IFrameAllocator {
+    private static final int MIN_SIZE_CLASS = 10; // 1 KB
+
+    private final ArrayList<ArrayDeque<Frame>> freeFrames = new ArrayList<ArrayDeque<Frame>>();
+    private final int frameCapacity;
+    private final int maxFrames;
+    private int acquiredFrames = 0;
+    private int highWaterMark = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * @param frameCapacity Capacity of frames returned by {@link #findFreeFrame()}.
+     */
+    public FramePool(int frameCapacity) {
+        this(frameCapacity, 0);
+    }
+
+    /**
+     * @param frameCapacity Capacity of frames returned by {@link #findFreeFrame()}.
+     * @param maxFrames     Maximum number of frames acquired at the same time, 0 for no limit.
+     */
+    public FramePool(int frameCapacity, int maxFrames) {
+        this.frameCapacity = frameCapacity;
+        this.maxFrames = maxFrames;
+    }
+
+    @Override
+    public Frame findFreeFrame() {
+        return acquire(frameCapacity);
+    }
+
+    /**
+     * Returns a frame which buffer holds at least the given number of bytes, or null if the maximum number
+     * of frames is acquired already.
+     */
+    public synchronized Frame acquire(int capacity) {
+        if (maxFrames > 0 && acquiredFrames >= maxFrames) {
+            return null;
+        }
+
+        int sizeClass = getSizeClass(capacity);
+        Frame frame = getFreeFrames(sizeClass).poll();
+        if (frame == null) {
+            misses++;
+            frame = new Frame(ByteBuffer.allocate(1 << sizeClass), capacity, 0, 0, 0, 0);
+            frame.pool = this;
+        } else {
+            hits++;
+            frame.set(frame.getByteBuffer(), capacity, 0, 0, 0, 0);
+            frame.toSkipFrame(false);
+        }
+        frame.getByteBuffer().clear();
+        frame.getByteBuffer().limit(capacity);
+        frame.references = 1;
+
+        acquiredFrames++;
+        highWaterMark = Math.max(highWaterMark, acquiredFrames);
+        return frame;
+    }
+
+    synchronized void retain(Frame frame) {
+        if (frame.references <= 0) {
+            throw new IllegalStateException("Cannot retain a frame which is not acquired.");
+        }
+        frame.references++;
+    }
+
+    synchronized void release(Frame frame) {
+        if (frame.references <= 0) {
+            throw new IllegalStateException("Frame is released more times than acquired.");
+        }
+        frame.references--;
+        if (frame.references == 0) {
+            acquiredFrames--;
+            getFreeFrames(getSizeClass(frame.getByteBuffer().capacity())).add(frame);
+        }
+    }
+
+    public synchronized boolean canAcquire() {
+        return maxFrames == 0 || acquiredFrames < maxFrames;
+    }
+
+    /**
+     * Returns the number of acquisitions served by a frame returned to the pool earlier.
+     */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /**
+     * Returns the number of acquisitions which had to allocate a new frame.
+     */
+    public synchronized long getMisses() {
+        return misses;
+    }
+
+    public synchronized int getAcquiredFrames() {
+        return acquiredFrames;
+    }
+
+    /**
+     * Returns the maximum number of frames acquired at the same time, that is the size the pool grew to.
+     */
+    public synchronized int getHighWaterMark() {
+        return highWaterMark;
+    }
+
+    private ArrayDeque<Frame> getFreeFrames(int sizeClass) {
+        while (freeFrames.size() <= sizeClass) {
+            freeFrames.add(new ArrayDeque<Frame>());
+        }
+        return freeFrames.get(sizeClass);
+    }
+
+    private static int getSizeClass(int capacity) {
+        int sizeClass = 32 - Integer.numberOfLeadingZeros(Math.max(capacity, 1) - 1);
+        return Math.max(sizeClass, MIN_SIZE_CLASS);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.util.Arrays;
+
+/**
+ * Piecewise linear gain over the time of the target stream. Before the first point
+ * and after the last one the gain stays at the value of that point.
+ */
+public class GainEnvelope {
+    private long[] times = new long[4];
+    private float[] gains = new float[4];
+    private int count = 0;
+
+    public GainEnvelope() {
+    }
+
+    public GainEnvelope(float gain) {
+        addPoint(0, gain);
+    }
+
+    /**
+     * Adds a point to the envelope.
+     *
+     * @param timeUs Time in microseconds in the target stream.
+     * @param gain   Linear gain, 1 keeps the level unchanged.
+     * @return This envelope.
+     */
+    public GainEnvelope addPoint(long timeUs, float gain) {
+        if (gain < 0) {
+            throw new IllegalArgumentException("Gain should not be negative.");
+        }
+        if (count == times.length) {
+            times = Arrays.copyOf(times, count * 2);
+            gains = Arrays.copyOf(gains, count * 2);
+        }
+
+        int index = Arrays.binarySearch(times, 0, count, timeUs);
+        if (index >= 0) {
+            gains[index] = gain;
+            return this;
+        }
+        index = -index - 1;
+        System.arraycopy(times, index, times, index + 1, count - index);
+        System.arraycopy(gains, index, gains, index + 1, count - index);
+        times[index] = timeUs;
+        gains[index] = gain;
+        count++;
+        return this;
+    }
+
+    public float getGain(long timeUs) {
+        if (count == 0) {
+            return 1f;
+        }
+        int index = Arrays.binarySearch(times, 0, count, timeUs);
+        if (index >= 0) {
+            return gains[index];
+        }
+        index = -index - 1;
+        if (index == 0) {
+            return gains[0];
+        }
+        if (index == count) {
+            return gains[count - 1];
+        }
+        float fraction = (float) (timeUs - times[index - 1]) / (times[index] - times[index - 1]);
+        return gains[index - 1] + (gains[index] - gains[index - 1]) * fraction;
+    }
+
+    public int getPointsCount() {
+        return count;
+    }
+}
@@ -46,6 +46,8 @@ public interface IAndroidMediaObjectFactory {
 
     Render createSink(StreamingParameters StreamingParams, IProgressListener progressListener, ProgressTracker progressTracker);
 
+    IMediaMuxer createMediaMuxer(String fileName, int orientationHint) throws IOException;
+
     ICaptureSource createCaptureSource();
 
     MediaFormat createVideoFormat(String mimeType, int width, int height);
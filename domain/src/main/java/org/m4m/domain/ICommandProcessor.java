@@ -22,4 +22,8 @@ public interface ICommandProcessor {
     void add(OutputInputPair pair);
 
     void stop();
+
+    void pause();
+
+    void resume();
 }
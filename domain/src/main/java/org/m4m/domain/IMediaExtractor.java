@@ -29,6 +29,8 @@ public interface IMediaExtractor {
     public static final int SEEK_TO_NEXT_SYNC = 1;
     public static final int SEEK_TO_CLOSEST_SYNC = 2;
 
+    public static final int SAMPLE_FLAG_SYNC = 1;
+
     int readSampleData(ByteBuffer inputBuffer);
 
     MediaFormat getTrackFormat(int i);
@@ -0,0 +1,34 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.io.Closeable;
+
+/**
+ * Source of interleaved 16-bit PCM samples mixed in by {@link AudioMixer}.
+ */
+public interface IPcmSource extends Closeable {
+    /**
+     * Reads next samples of the stream.
+     *
+     * @param samples Destination array.
+     * @param offset  Position in the destination array to write the first sample to.
+     * @param count   Maximum number of samples (not frames) to read.
+     * @return Number of samples read, -1 at the end of the stream.
+     */
+    int read(short[] samples, int offset, int count);
+}
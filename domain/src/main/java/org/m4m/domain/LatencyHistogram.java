@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with power of two microsecond buckets: bucket 0 counts durations
+ * below 1 us, bucket i counts durations in [2^(i-1), 2^i) us, the last bucket counts everything longer.
+ */
+public class LatencyHistogram {
+    static final int BUCKETS_COUNT = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS_COUNT);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong totalNs = new AtomicLong();
+    private final AtomicLong maxNs = new AtomicLong();
+
+    public void record(long durationNs) {
+        if (durationNs < 0) {
+            durationNs = 0;
+        }
+        buckets.incrementAndGet(bucketOf(durationNs / 1000));
+        count.incrementAndGet();
+        totalNs.addAndGet(durationNs);
+        long max = maxNs.get();
+        while (durationNs > max && !maxNs.compareAndSet(max, durationNs)) {
+            max = maxNs.get();
+        }
+    }
+
+    static int bucketOf(long durationUs) {
+        return Math.min(64 - Long.numberOfLeadingZeros(durationUs), BUCKETS_COUNT - 1);
+    }
+
+    /**
+     * @return Exclusive upper bound of the bucket in microseconds.
+     */
+    static long upperBoundUs(int bucket) {
+        return 1L << bucket;
+    }
+
+    public long getCount() {
+        return count.get();
+    }
+
+    public long getTotalNs() {
+        return totalNs.get();
+    }
+
+    public long getMaxNs() {
+        return maxNs.get();
+    }
+
+    public long[] getBuckets() {
+        long[] copy = new long[BUCKETS_COUNT];
+        for (int i = 0; i < BUCKETS_COUNT; i++) {
+            copy[i] = buckets.get(i);
+        }
+        return copy;
+    }
+}
@@ -26,7 +26,8 @@ import java.util.logging.Logger;
 public abstract class MediaCodecPlugin extends Plugin {
     protected int timeout = 10;
 
-    protected final IMediaCodec mediaCodec;
+    protected IMediaCodec mediaCodec;
+    protected NodeMetrics metrics = null;
     //protected final org.slf4j.Logger log = LoggerFactory.getLogger(getClass());
 
     protected Queue<Integer> outputBufferIndexes = new LinkedList<Integer>();
@@ -34,6 +35,7 @@ public abstract class MediaCodecPlugin extends Plugin {
     protected Queue<IMediaCodec.BufferInfo> outputBufferInfos = new LinkedList<IMediaCodec.BufferInfo>();
     protected MediaFormat outputMediaFormat = null;
     protected ByteBuffer[] inputBuffers = null;
+    private Frame[] inputFrames = new Frame[0];
     protected int outputTrackId;
 
     protected int frameCount;
@@ -49,6 +51,16 @@ public abstract class MediaCodecPlugin extends Plugin {
         getOutputBufferIndex();
     }
 
+    /**
+     * Counts the buffers passed through the codec and the codec calls returning without a buffer.
+     */
+    public void setMetrics(NodeMetrics metrics) {
+        this.metrics = metrics;
+        if (mediaCodec != null && !(mediaCodec instanceof MeteredMediaCodec)) {
+            mediaCodec = new MeteredMediaCodec(mediaCodec, metrics);
+        }
+    }
+
     @Override
     protected void feedMeIfNotDraining() {
         if (state != PluginState.Draining && state != PluginState.Drained) {
@@ -58,8 +70,7 @@ public abstract class MediaCodecPlugin extends Plugin {
                 super.feedMeIfNotDraining();
             } else {
                 if (inputBufferIndexes.size() > 0) {
-                    Pair<Command, Integer> command = getInputCommandQueue().first();
-                    if (command == null || command.left != Command.NeedData) {
+                    if (getInputCommandQueue().firstCommand() != Command.NeedData) {
                         super.feedMeIfNotDraining();
                     }
                 }
@@ -181,7 +192,20 @@ public abstract class MediaCodecPlugin extends Plugin {
             return null;
         }
         int inputBufferIndex = inputBufferIndexes.poll();
-        return new Frame(inputBuffers[inputBufferIndex], 0, 0, inputBufferIndex, 0, 0);
+        if (inputBufferIndex >= inputFrames.length) {
+            return new Frame(inputBuffers[inputBufferIndex], 0, 0, inputBufferIndex, 0, 0);
+        }
+
+        // Codec does not hand the same input buffer out again until the queued one is consumed
+        Frame frame = inputFrames[inputBufferIndex];
+        if (frame == null) {
+            frame = new Frame(inputBuffers[inputBufferIndex], 0, 0, inputBufferIndex, 0, 0);
+            inputFrames[inputBufferIndex] = frame;
+        } else {
+            frame.set(inputBuffers[inputBufferIndex], 0, 0, inputBufferIndex, 0, 0);
+            frame.toSkipFrame(false);
+        }
+        return frame;
     }
 
     @Override
@@ -208,6 +232,7 @@ public abstract class MediaCodecPlugin extends Plugin {
     public void start() {
         mediaCodec.start();
         inputBuffers = mediaCodec.getInputBuffers();
+        inputFrames = new Frame[inputBuffers != null ? inputBuffers.length : 0];
         setState(PluginState.Normal);
     }
 
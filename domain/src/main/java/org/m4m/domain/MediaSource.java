@@ -21,6 +21,7 @@ import org.m4m.VideoFormat;
 
 import java.io.FileDescriptor;
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class MediaSource implements IMediaSource {
@@ -33,6 +34,9 @@ public class MediaSource implements IMediaSource {
     private Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
     private long seekPosition = 0l;
     private boolean seekedOutsideNeededSegment = false;
+    private final ArrayDeque<Frame> readAheadFrames = new ArrayDeque<Frame>();
+    private SampleIndex sampleIndex = null;
+    private NodeMetrics metrics = null;
 
 
     public MediaSource(IMediaExtractor mediaExtractor) {
@@ -66,11 +70,35 @@ public class MediaSource implements IMediaSource {
 
     @Override
     public void close() throws IOException {
+        releaseReadAheadFrames();
         mediaExtractor.release();
     }
 
     @Override
     public void pull(Frame frame) {
+        Frame readAheadFrame = readAheadFrames.poll();
+        if (readAheadFrame != null) {
+            frame.copyDataFrom(readAheadFrame);
+            frame.getByteBuffer().position(0);
+            frame.toSkipFrame(readAheadFrame.isSkipFrame());
+            readAheadFrame.release();
+        } else {
+            pullFromExtractor(frame);
+        }
+
+        if (metrics != null && !frame.equals(Frame.EOF())) {
+            metrics.frameOut(frame.getLength());
+        }
+    }
+
+    /**
+     * Counts the frames read from the source.
+     */
+    public void setMetrics(NodeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    private void pullFromExtractor(Frame frame) {
         if (state != PluginState.Normal) {
             throw new IllegalStateException("Attempt to pull frame from not started media source or after EOF.");
         }
@@ -84,6 +112,54 @@ public class MediaSource implements IMediaSource {
         }
     }
 
+    /**
+     * Reads samples of a started source in advance, so the following pulls are served from memory
+     * and the command queue keeps announcing them as before. Stops at the end of the data, after the
+     * given number of samples or when the pool has no free frame left.
+     *
+     * @param maxSamples    Maximum number of samples to read ahead.
+     * @param maxSampleSize Maximum size of a single sample in bytes.
+     * @param framesPool    Pool to take the frames holding the read ahead samples from.
+     * @return Number of samples read ahead.
+     */
+    public int readAhead(int maxSamples, int maxSampleSize, FramePool framesPool) {
+        LinkedList<Pair<Command, Integer>> readAheadCommands = new LinkedList<Pair<Command, Integer>>();
+        Frame sample = new Frame(ByteBuffer.allocate(maxSampleSize), 0, 0, 0, 0, 0);
+
+        while (readAheadFrames.size() < maxSamples
+                && state == PluginState.Normal
+                && commandQueue.firstCommand() == Command.HasData
+                && framesPool.canAcquire()) {
+            readAheadCommands.add(commandQueue.dequeue());
+            pullFromExtractor(sample);
+
+            Frame readAheadFrame = framesPool.acquire(Math.max(sample.getLength(), 0));
+            readAheadFrame.copyDataFrom(sample);
+            readAheadFrame.toSkipFrame(sample.isSkipFrame());
+            readAheadFrames.add(readAheadFrame);
+        }
+
+        for (Pair<Command, Integer> command : commandQueue) {
+            readAheadCommands.add(command);
+        }
+        commandQueue.clear();
+        for (Pair<Command, Integer> command : readAheadCommands) {
+            commandQueue.queue(command.left, command.right);
+        }
+        return readAheadFrames.size();
+    }
+
+    public int getReadAheadSamplesCount() {
+        return readAheadFrames.size();
+    }
+
+    private void releaseReadAheadFrames() {
+        for (Frame frame : readAheadFrames) {
+            frame.release();
+        }
+        readAheadFrames.clear();
+    }
+
     private void readSampleData(Frame frame) {
         frame.setSampleTime(getSampleTime());
         frame.setTrackId(getTrackId());
@@ -117,7 +193,7 @@ public class MediaSource implements IMediaSource {
             drain();
             return;
         } else {
-            seek(segmentAfter.left);
+            seekExtractor(segmentAfter.left);
         }
 
     }
@@ -215,6 +291,12 @@ public class MediaSource implements IMediaSource {
 
     private long getMaxSelectedTracksDuration() {
         long maxDuration = 0;
+        if (sampleIndex != null) {
+            for (int trackIndex : selectedTracks) {
+                maxDuration = Math.max(maxDuration, sampleIndex.getDurationInMicroSec(trackIndex));
+            }
+            return maxDuration;
+        }
         for (int trackIndex : selectedTracks) {
             if (mediaExtractor.getTrackFormat(trackIndex) != null
             && (mediaExtractor.getTrackFormat(trackIndex).getDuration() > maxDuration)) {
@@ -226,6 +308,12 @@ public class MediaSource implements IMediaSource {
 
     private long getMaxAllTracksDuration() {
         long maxDuration = 0;
+        if (sampleIndex != null) {
+            for (int trackIndex = 0; trackIndex < sampleIndex.getTrackCount(); trackIndex++) {
+                maxDuration = Math.max(maxDuration, sampleIndex.getDurationInMicroSec(trackIndex));
+            }
+            return maxDuration;
+        }
         int i = 0;
         for (MediaFormat ignored : getMediaFormats()) {
             if (mediaExtractor.getTrackFormat(i).getDuration() > maxDuration) {
@@ -236,11 +324,220 @@ public class MediaSource implements IMediaSource {
         return maxDuration;
     }
 
+    /**
+     * Splits the stream into consecutive chunks starting at sync samples of the video track, so every
+     * chunk can be decoded independently. Segment ends are inclusive, so every chunk ends just before
+     * the sync sample the next chunk starts with. Must be called before start().
+     *
+     * @param chunkDurationUs Desired duration of a chunk in microseconds. Chunks get longer when the
+     *                        stream has no sync sample close to a chunk boundary.
+     * @return Chunks covering the whole stream.
+     */
+    public List<FileSegment> splitAtSyncSamples(long chunkDurationUs) {
+        int videoTrackId = getTrackIdByMediaType(MediaFormatType.VIDEO);
+        if (sampleIndex != null && videoTrackId != -1) {
+            return splitAtIndexedSyncSamples(chunkDurationUs, videoTrackId);
+        }
+        boolean selectVideoTrack = videoTrackId != -1 && !selectedTracks.contains(videoTrackId);
+        if (selectVideoTrack) {
+            mediaExtractor.selectTrack(videoTrackId);
+        }
+
+        long duration = getDurationInMicroSec();
+        List<FileSegment> chunks = new ArrayList<FileSegment>();
+        long chunkStart = 0;
+        for (long time = chunkDurationUs; time < duration; time += chunkDurationUs) {
+            long syncSampleTime = findSyncSample(time, videoTrackId);
+            if (syncSampleTime > chunkStart && syncSampleTime < duration) {
+                chunks.add(new FileSegment(chunkStart, syncSampleTime - 1));
+                chunkStart = syncSampleTime;
+            }
+        }
+        chunks.add(new FileSegment(chunkStart, duration));
+
+        if (selectVideoTrack) {
+            mediaExtractor.unselectTrack(videoTrackId);
+        }
+        mediaExtractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        return chunks;
+    }
+
+    private List<FileSegment> splitAtIndexedSyncSamples(long chunkDurationUs, int videoTrackId) {
+        long duration = getDurationInMicroSec();
+        List<FileSegment> chunks = new ArrayList<FileSegment>();
+        long chunkStart = 0;
+        for (long time = chunkDurationUs; time < duration; time += chunkDurationUs) {
+            long syncSampleTime = sampleIndex.getSyncSampleTimeBefore(videoTrackId, time);
+            if (syncSampleTime > chunkStart && syncSampleTime < duration) {
+                chunks.add(new FileSegment(chunkStart, syncSampleTime - 1));
+                chunkStart = syncSampleTime;
+            }
+        }
+        chunks.add(new FileSegment(chunkStart, duration));
+        return chunks;
+    }
+
+    /**
+     * Moves the start of every segment back to the closest video sync sample at or before it, so every
+     * segment can be copied without decoding. Must be called before start().
+     */
+    public void alignSegmentsToSyncSamples() {
+        int videoTrackId = getTrackIdByMediaType(MediaFormatType.VIDEO);
+        if (videoTrackId == -1 || segments.isEmpty()) {
+            return;
+        }
+        boolean selectVideoTrack = sampleIndex == null && !selectedTracks.contains(videoTrackId);
+        if (selectVideoTrack) {
+            mediaExtractor.selectTrack(videoTrackId);
+        }
+
+        List<Pair<Long, Long>> alignedSegments = new ArrayList<Pair<Long, Long>>();
+        for (Pair<Long, Long> segment : segments.asCollection()) {
+            long syncSampleTime = sampleIndex != null
+                    ? sampleIndex.getSyncSampleTimeBefore(videoTrackId, segment.left)
+                    : findSyncSample(segment.left, videoTrackId);
+            if (syncSampleTime < 0 || syncSampleTime > segment.left) {
+                syncSampleTime = segment.left;
+            }
+            alignedSegments.add(new Pair<Long, Long>(syncSampleTime, segment.right));
+        }
+        segments = new Segments(mergeOverlapping(alignedSegments));
+
+        if (selectVideoTrack) {
+            mediaExtractor.unselectTrack(videoTrackId);
+        }
+        if (sampleIndex == null) {
+            mediaExtractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        }
+    }
+
+    /**
+     * A segment starting in the GOP where the previous one ends overlaps it once moved back to the sync sample.
+     * Segments would clip it to start after the previous one, at a non-sync sample, so the two are joined instead.
+     */
+    private static List<Pair<Long, Long>> mergeOverlapping(List<Pair<Long, Long>> segments) {
+        List<Pair<Long, Long>> sorted = new ArrayList<Pair<Long, Long>>(segments);
+        Collections.sort(sorted, new Comparator<Pair<Long, Long>>() {
+            @Override
+            public int compare(Pair<Long, Long> lhs, Pair<Long, Long> rhs) {
+                return lhs.left.compareTo(rhs.left);
+            }
+        });
+
+        List<Pair<Long, Long>> merged = new ArrayList<Pair<Long, Long>>();
+        for (Pair<Long, Long> segment : sorted) {
+            Pair<Long, Long> last = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            if (last != null && segment.left <= last.right) {
+                merged.set(merged.size() - 1, new Pair<Long, Long>(last.left, Math.max(last.right, segment.right)));
+            } else {
+                merged.add(segment);
+            }
+        }
+        return merged;
+    }
+
+    private long findSyncSample(long time, int videoTrackId) {
+        mediaExtractor.seekTo(time, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        while (mediaExtractor.getSampleTrackIndex() != -1) {
+            if (videoTrackId == -1) {
+                return mediaExtractor.getSampleTime();
+            }
+            if (mediaExtractor.getSampleTrackIndex() == videoTrackId
+                    && (mediaExtractor.getSampleFlags() & IMediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                return mediaExtractor.getSampleTime();
+            }
+            mediaExtractor.advance();
+        }
+        return -1;
+    }
+
+    /**
+     * Returns presentation times of the video track sync samples in ascending order. Reads sample
+     * headers only. Must be called before start(), the read position is rewound to the beginning.
+     *
+     * @return Sync sample times in microseconds, empty if there is no video track.
+     */
+    public long[] getSyncSampleTimes() {
+        int videoTrackId = getTrackIdByMediaType(MediaFormatType.VIDEO);
+        if (videoTrackId == -1) {
+            return new long[0];
+        }
+        if (sampleIndex != null) {
+            return sampleIndex.getSyncSampleTimes(videoTrackId);
+        }
+        boolean selectVideoTrack = !selectedTracks.contains(videoTrackId);
+        if (selectVideoTrack) {
+            mediaExtractor.selectTrack(videoTrackId);
+        }
+
+        long[] times = new long[64];
+        int count = 0;
+        mediaExtractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        while (mediaExtractor.getSampleTrackIndex() != -1) {
+            if (mediaExtractor.getSampleTrackIndex() == videoTrackId
+                    && (mediaExtractor.getSampleFlags() & IMediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                if (count == times.length) {
+                    times = Arrays.copyOf(times, count * 2);
+                }
+                times[count++] = mediaExtractor.getSampleTime();
+            }
+            if (!mediaExtractor.advance()) {
+                break;
+            }
+        }
+
+        if (selectVideoTrack) {
+            mediaExtractor.unselectTrack(videoTrackId);
+        }
+        mediaExtractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        times = Arrays.copyOf(times, count);
+        Arrays.sort(times);
+        return times;
+    }
+
+    /**
+     * Loads the saved sample index of the file or builds a new one in a single pass over the sample
+     * headers and saves it. Durations, sync samples and chunk boundaries are then looked up in the
+     * index instead of the extractor. Must be called before start(). Sources without a file path
+     * are indexed but the index is not saved.
+     *
+     * @param cache Directory of saved sample indexes.
+     * @return Index of the source.
+     */
+    public SampleIndex loadSampleIndex(SampleIndexCache cache) {
+        String path = getFilePath();
+        SampleIndex index = cache.get(path);
+        if (index == null || index.getTrackCount() != mediaExtractor.getTrackCount()) {
+            index = SampleIndex.build(mediaExtractor, selectedTracks);
+            try {
+                cache.put(path, index);
+            } catch (IOException e) {
+                // The index still serves this source, it is only rebuilt on the next open.
+            }
+        }
+        sampleIndex = index;
+        return index;
+    }
+
+    public void setSampleIndex(SampleIndex sampleIndex) {
+        this.sampleIndex = sampleIndex;
+    }
+
+    public SampleIndex getSampleIndex() {
+        return sampleIndex;
+    }
+
     public Set<Integer> getSelectedTracks() {
         return selectedTracks;
     }
 
     public void seek(long seekPosition) {
+        releaseReadAheadFrames();
+        seekExtractor(seekPosition);
+    }
+
+    private void seekExtractor(long seekPosition) {
         mediaExtractor.seekTo(seekPosition, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
         commandQueue.clear();
 
@@ -274,6 +571,7 @@ public class MediaSource implements IMediaSource {
 
     @Override
     public void stop() {
+        releaseReadAheadFrames();
         drain();
     }
 
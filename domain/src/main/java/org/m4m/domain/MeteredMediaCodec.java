@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Codec decorator counting the buffers passed through the codec and the calls returning without a buffer.
+ */
+class MeteredMediaCodec implements IMediaCodec {
+    private final IMediaCodec mediaCodec;
+    private final NodeMetrics metrics;
+
+    MeteredMediaCodec(IMediaCodec mediaCodec, NodeMetrics metrics) {
+        this.mediaCodec = mediaCodec;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public void configure(MediaFormat mediaFormat, ISurfaceWrapper surface, int flags) {
+        mediaCodec.configure(mediaFormat, surface, flags);
+    }
+
+    @Override
+    public void start() {
+        mediaCodec.start();
+    }
+
+    @Override
+    public void releaseOutputBuffer(int bufferIndex, boolean render) {
+        mediaCodec.releaseOutputBuffer(bufferIndex, render);
+    }
+
+    @Override
+    public ISurface createInputSurface() {
+        return mediaCodec.createInputSurface();
+    }
+
+    @Override
+    public ISurface createSimpleInputSurface(IEglContext eglSharedContext) {
+        return mediaCodec.createSimpleInputSurface(eglSharedContext);
+    }
+
+    @Override
+    public ByteBuffer[] getInputBuffers() {
+        return mediaCodec.getInputBuffers();
+    }
+
+    @Override
+    public ByteBuffer[] getOutputBuffers() {
+        return mediaCodec.getOutputBuffers();
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mediaCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+        metrics.frameIn(size);
+    }
+
+    @Override
+    public int dequeueInputBuffer(long timeout) {
+        long start = System.nanoTime();
+        int index = mediaCodec.dequeueInputBuffer(timeout);
+        if (index == INFO_TRY_AGAIN_LATER) {
+            metrics.tryAgain(System.nanoTime() - start);
+        }
+        return index;
+    }
+
+    @Override
+    public int dequeueOutputBuffer(BufferInfo info, long timeout) {
+        long start = System.nanoTime();
+        int index = mediaCodec.dequeueOutputBuffer(info, timeout);
+        if (index >= 0) {
+            metrics.frameOut(info.size);
+        } else if (index == INFO_TRY_AGAIN_LATER) {
+            metrics.tryAgain(System.nanoTime() - start);
+        }
+        return index;
+    }
+
+    @Override
+    public MediaFormat getOutputFormat() {
+        return mediaCodec.getOutputFormat();
+    }
+
+    @Override
+    public void signalEndOfInputStream() {
+        mediaCodec.signalEndOfInputStream();
+    }
+
+    @Override
+    public void stop() {
+        mediaCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mediaCodec.release();
+    }
+
+    @Override
+    public void recreate() {
+        mediaCodec.recreate();
+    }
+}
@@ -21,19 +21,37 @@ import org.m4m.MediaFile;
 import org.m4m.VideoFormat;
 
 import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 public class MultipleMediaSource implements IMediaSource {
+    private static final int DEFAULT_MAX_SAMPLE_SIZE = 1024 * 1024;
+
     private LinkedList<MediaFile> mediaFiles = new LinkedList<MediaFile>();
     private Iterator<MediaFile> mediaFileIterator = null;
     private MediaFile currentMediaFile = null;
     private Hashtable<Integer, Long> sampleTimeOffsets = new Hashtable<Integer, Long>();
     private Hashtable<Integer, Long> currentSampleTimes = new Hashtable<Integer, Long>();
+    private Hashtable<Integer, Long> currentFileSampleTimes = new Hashtable<Integer, Long>();
+    private Hashtable<Integer, Long> sampleDurations = new Hashtable<Integer, Long>();
     private CommandQueue commandQueue = new CommandQueue();
     private boolean isLastFile = true;
     private int connectedPluginsCount = 0;
     private int nextFileRequest = 0;
+    private NodeMetrics metrics = null;
     private Dictionary<Integer, Integer> trackIdMap = new Hashtable<Integer, Integer>();
+    private int readAheadSamples = 0;
+    private int maxSampleSize = DEFAULT_MAX_SAMPLE_SIZE;
+    private FramePool readAheadFramesPool;
+    private MediaFile preparedMediaFile = null;
+    private Thread preparingThread = null;
+    private volatile RuntimeException preparingFailure = null;
+    private long lastSwitchStallTimeUs = 0;
+    private long switchStallTimeUs = 0;
+    private int switchesCount = 0;
+    private DecodePlanner decodePlanner = null;
+    private MediaFile plannedMediaFile = null;
+    private int plannedVideoTrackId = -1;
 
     @Override
     public CommandQueue getOutputCommandQueue() {
@@ -46,6 +64,7 @@ public class MultipleMediaSource implements IMediaSource {
 
     @Override
     public void close() throws IOException {
+        waitForPreparedFile();
         for (MediaFile mediaFile : mediaFiles) {
             mediaFile.getMediaSource().close();
         }
@@ -58,9 +77,13 @@ public class MultipleMediaSource implements IMediaSource {
         }
 
         pullFrameFromMediaSource(frame);
+        planDecoding(frame);
         hasData();
+        if (metrics != null && !frame.equals(Frame.EOF())) {
+            metrics.frameOut(frame.getLength());
+        }
 
-        currentSampleTimes.put(frame.getTrackId(), frame.getSampleTime());
+        trackSampleTime(frame.getTrackId(), frame.getSampleTime());
 
         if (isLastFrame() && !isLastFile()) {
             switchToNextFile();
@@ -96,6 +119,24 @@ public class MultipleMediaSource implements IMediaSource {
         }
     }
 
+    private void planDecoding(Frame frame) {
+        if (decodePlanner == null || frame.equals(Frame.EOF())) {
+            return;
+        }
+        if (plannedMediaFile != currentMediaFile) {
+            plannedMediaFile = currentMediaFile;
+            MediaSource mediaSource = currentMediaFile.getMediaSource();
+            int videoTrackId = mediaSource.getTrackIdByMediaType(MediaFormatType.VIDEO);
+            plannedVideoTrackId = videoTrackId == -1 ? -1 : mapTrackId(videoTrackId);
+            if (videoTrackId != -1) {
+                decodePlanner.setMimeType(mediaSource.getMediaFormatByType(MediaFormatType.VIDEO).getMimeType());
+            }
+        }
+        if (plannedVideoTrackId != -1 && frame.getTrackId() == plannedVideoTrackId) {
+            decodePlanner.plan(frame);
+        }
+    }
+
     private int mapTrackId(int sourceTrackId) {
         if (trackIdMap.get(sourceTrackId) != null) {
             return trackIdMap.get(sourceTrackId);
@@ -107,14 +148,101 @@ public class MultipleMediaSource implements IMediaSource {
         return value == null ? 0 : value;
     }
 
+    /**
+     * Keeps the latest sample time of every track and the shortest distance between its samples, which is
+     * the sample duration even when frames come in decoding order.
+     */
+    private void trackSampleTime(int trackId, long sampleTime) {
+        Long previousSampleTime = currentFileSampleTimes.get(trackId);
+        if (previousSampleTime != null && sampleTime > previousSampleTime) {
+            Long sampleDuration = sampleDurations.get(trackId);
+            if (sampleDuration == null || sampleTime - previousSampleTime < sampleDuration) {
+                sampleDurations.put(trackId, sampleTime - previousSampleTime);
+            }
+        }
+        if (previousSampleTime == null || sampleTime > previousSampleTime) {
+            currentFileSampleTimes.put(trackId, sampleTime);
+            currentSampleTimes.put(trackId, sampleTime);
+        }
+    }
+
+    /**
+     * Returns the time the next file starts at: the end of the last sample of the longest track, so the
+     * joined stream has neither gaps nor overlapping samples.
+     */
+    private long getNextFileTimeOffset() {
+        long offset = 0;
+        for (int trackId : currentSampleTimes.keySet()) {
+            long sampleDuration = sampleDurations.containsKey(trackId) ? sampleDurations.get(trackId) : 1;
+            offset = Math.max(offset, currentSampleTimes.get(trackId) + sampleDuration);
+        }
+        return offset;
+    }
+
     private void switchToNextFile() {
-        long maxCurrentTimeOffset = getMaxCurrentTimeOffset();
+        long nextFileTimeOffset = getNextFileTimeOffset();
         for (int key : currentSampleTimes.keySet()) {
-            sampleTimeOffsets.put(key, maxCurrentTimeOffset + 1);
+            sampleTimeOffsets.put(key, nextFileTimeOffset);
         }
+        currentFileSampleTimes.clear();
 
-        currentMediaFile = mediaFileIterator.next();
-        currentMediaFile.start();
+        long switchStartTime = System.nanoTime();
+
+        MediaFile nextMediaFile = mediaFileIterator.next();
+        if (nextMediaFile == preparedMediaFile) {
+            waitForPreparedFile();
+        } else {
+            nextMediaFile.start();
+        }
+        currentMediaFile = nextMediaFile;
+
+        lastSwitchStallTimeUs = (System.nanoTime() - switchStartTime) / 1000;
+        switchStallTimeUs += lastSwitchStallTimeUs;
+        switchesCount++;
+
+        prepareNextFile();
+    }
+
+    private void prepareNextFile() {
+        preparedMediaFile = null;
+        int nextIndex = mediaFiles.indexOf(currentMediaFile) + 1;
+        if (readAheadSamples == 0 || nextIndex >= mediaFiles.size()) return;
+
+        if (readAheadFramesPool == null) {
+            readAheadFramesPool = new FramePool(maxSampleSize, 2 * readAheadSamples);
+        }
+
+        final MediaFile mediaFile = mediaFiles.get(nextIndex);
+        preparedMediaFile = mediaFile;
+        preparingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    mediaFile.start();
+                    mediaFile.getMediaSource().readAhead(readAheadSamples, maxSampleSize, readAheadFramesPool);
+                } catch (RuntimeException e) {
+                    preparingFailure = e;
+                }
+            }
+        }, "MultipleMediaSource.prepareNextFile");
+        preparingThread.start();
+    }
+
+    private void waitForPreparedFile() {
+        if (preparingThread == null) return;
+
+        try {
+            preparingThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        preparingThread = null;
+
+        if (preparingFailure != null) {
+            RuntimeException failure = preparingFailure;
+            preparingFailure = null;
+            throw failure;
+        }
     }
 
     private boolean isLastFrame() {
@@ -140,6 +268,58 @@ public class MultipleMediaSource implements IMediaSource {
     public void start() {
         currentMediaFile.start();
         hasData();
+        prepareNextFile();
+    }
+
+    /**
+     * Counts the frames read from all files.
+     */
+    public void setMetrics(NodeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Opens the next file on a background thread while the current one is read, and reads the first
+     * samples of it in advance, so switching files does not stall the pipeline. Must be called before start().
+     *
+     * @param samples       Number of samples to read ahead from the next file, 0 to open files on switch.
+     * @param maxSampleSize Maximum size of a single sample in bytes.
+     */
+    public void setReadAhead(int samples, int maxSampleSize) {
+        this.readAheadSamples = samples;
+        this.maxSampleSize = maxSampleSize;
+    }
+
+    public void setReadAhead(int samples) {
+        setReadAhead(samples, DEFAULT_MAX_SAMPLE_SIZE);
+    }
+
+    /**
+     * Lets the planner pick the video frames kept by time scaling, with the times of the joined stream.
+     * Must be called before start().
+     *
+     * @param decodePlanner Planner to pass video frames to, null to pass all frames on.
+     */
+    public void setDecodePlanner(DecodePlanner decodePlanner) {
+        this.decodePlanner = decodePlanner;
+    }
+
+    /**
+     * Returns the time in microseconds the last switch to the next file blocked pulling.
+     */
+    public long getLastSwitchStallTimeUs() {
+        return lastSwitchStallTimeUs;
+    }
+
+    /**
+     * Returns the time in microseconds all switches to the next file blocked pulling.
+     */
+    public long getSwitchStallTimeUs() {
+        return switchStallTimeUs;
+    }
+
+    public int getSwitchesCount() {
+        return switchesCount;
     }
 
     public List<MediaFile> files() {
@@ -168,6 +348,60 @@ public class MultipleMediaSource implements IMediaSource {
         }
     }
 
+    /**
+     * Checks whether all files can be joined without transcoding: the video and audio tracks of every file
+     * have the same codec, frame size, sample rate, channel count and codec specific data, which carries the
+     * codec profile and level, as the tracks of the first file.
+     *
+     * @return true if compressed samples of all files can be written to a single track.
+     */
+    public boolean hasMatchingCodecParameters() {
+        if (mediaFiles.isEmpty()) return true;
+
+        MediaSource first = mediaFiles.getFirst().getMediaSource();
+        VideoFormat firstVideoFormat = (VideoFormat) first.getMediaFormatByType(MediaFormatType.VIDEO);
+        AudioFormat firstAudioFormat = (AudioFormat) first.getMediaFormatByType(MediaFormatType.AUDIO);
+        for (MediaFile mediaFile : mediaFiles) {
+            MediaSource mediaSource = mediaFile.getMediaSource();
+            VideoFormat videoFormat = (VideoFormat) mediaSource.getMediaFormatByType(MediaFormatType.VIDEO);
+            AudioFormat audioFormat = (AudioFormat) mediaSource.getMediaFormatByType(MediaFormatType.AUDIO);
+            if (!haveMatchingParameters(firstVideoFormat, videoFormat)
+                    || !haveMatchingParameters(firstAudioFormat, audioFormat)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean haveMatchingParameters(VideoFormat first, VideoFormat other) {
+        if (first == null || other == null) return first == other;
+        return first.getMimeType().equals(other.getMimeType())
+                && first.getVideoFrameSize().equals(other.getVideoFrameSize())
+                && haveMatchingCodecSpecificData(first, other);
+    }
+
+    private static boolean haveMatchingParameters(AudioFormat first, AudioFormat other) {
+        if (first == null || other == null) return first == other;
+        return first.getMimeType().equals(other.getMimeType())
+                && first.getAudioSampleRateInHz() == other.getAudioSampleRateInHz()
+                && first.getAudioChannelCount() == other.getAudioChannelCount()
+                && haveMatchingCodecSpecificData(first, other);
+    }
+
+    private static boolean haveMatchingCodecSpecificData(MediaFormat first, MediaFormat other) {
+        return equal(first.getByteBuffer("csd-0"), other.getByteBuffer("csd-0"))
+                && equal(first.getByteBuffer("csd-1"), other.getByteBuffer("csd-1"));
+    }
+
+    private static boolean equal(ByteBuffer first, ByteBuffer other) {
+        if (first == null || other == null) return first == other;
+        ByteBuffer firstData = first.duplicate();
+        ByteBuffer otherData = other.duplicate();
+        firstData.rewind();
+        otherData.rewind();
+        return firstData.equals(otherData);
+    }
+
     public long getMaxCurrentTimeOffset() {
         long max = 0;
         for (long currentTimeOffset : currentSampleTimes.values()) {
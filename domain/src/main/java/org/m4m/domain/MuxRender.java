@@ -21,9 +21,9 @@ import org.m4m.IProgressListener;
 import org.m4m.VideoFormat;
 
 import java.io.IOException;
-import java.util.ArrayList;
+import java.nio.ByteBuffer;
 
-public class MuxRender extends Render {
+public class MuxRender extends Render implements SampleInterleaver.ISampleWriter {
 
     private final IMediaMuxer notReadyMuxer;
     private IMediaMuxer muxer;
@@ -34,9 +34,10 @@ public class MuxRender extends Render {
     private int drainCount = 0;
     private int videoTrackId = -1;
     private int audioTrackId = -1;
-    private ArrayList<IPluginOutput> releasersList = new ArrayList();
     private FrameBuffer frameBuffer = new FrameBuffer(0);
+    private final SampleInterleaver interleaver = new SampleInterleaver();
     private boolean zeroFramesReceived = true;
+    private ProgressReporter progressReporter;
 
     public MuxRender(IMediaMuxer muxer, IProgressListener progressListener, ProgressTracker progressTracker) {
         super();
@@ -49,6 +50,27 @@ public class MuxRender extends Render {
     protected void initInputCommandQueue() {
     }
 
+    /**
+     * Bounds the interleaving buffer: a sample waiting for other tracks is written as soon as it is older than
+     * the newest sample by more than the time window, or the buffered samples take more than the given memory.
+     *
+     * @param timeWindowUs     Maximum presentation time span of buffered samples in microseconds.
+     * @param maxBufferedBytes Maximum memory taken by buffered samples in bytes.
+     */
+    public void setInterleaveWindow(long timeWindowUs, int maxBufferedBytes) {
+        interleaver.setWindow(timeWindowUs, maxBufferedBytes);
+    }
+
+    /**
+     * Reports progress at most once per interval from a separate thread instead of after every written sample,
+     * so the progress listener does not slow down muxing. Must be called before start().
+     *
+     * @param intervalMs Minimum interval between progress notifications in milliseconds, 0 to report every sample.
+     */
+    public void setProgressInterval(long intervalMs) {
+        progressReporter = intervalMs > 0 ? new ProgressReporter(progressListener, progressTracker, intervalMs) : null;
+    }
+
     @Override
     public void push(Frame frame) {
         //Logger.getLogger("AMP").info("Render frame presentationTimeUs = " + frame.getSampleTime());
@@ -58,64 +80,50 @@ public class MuxRender extends Render {
         }
 
         if (frameBuffer.areAllTracksConfigured()) {
-            writeBufferedFrames();
-            writeSampleData(frame);
+            interleaver.push(frame, this);
             feedMeIfNotDraining();
         } else {
-            frameBuffer.push(frame);
+            interleaver.push(frame, null);
             getInputCommandQueue().queue(Command.NeedInputFormat, 0);
         }
     }
 
 
     public void pushWithReleaser(Frame frame, IPluginOutput releaser) {
-        //Logger.getLogger("AMP").info("Render frame presentationTimeUs = " + frame.getSampleTime());
+        push(frame);
+        releaser.releaseOutputBuffer(frame.getBufferIndex());
+    }
 
-        if(zeroFramesReceived == true) {
-            zeroFramesReceived = false;
+    @Override
+    public void writeSample(int trackId, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo) {
+        muxer.writeSampleData(trackId, byteBuffer, bufferInfo);
+        if (metrics != null) {
+            metrics.frameIn(bufferInfo.size);
         }
 
-        if (frameBuffer.areAllTracksConfigured()) {
-            writeBufferedFrames();
-            writeSampleData(frame);
-            releaser.releaseOutputBuffer(frame.getBufferIndex());
-            feedMeIfNotDraining();
+        progressTracker.track(bufferInfo.presentationTimeUs);
+        if (progressReporter != null) {
+            progressTracker.trackSample(bufferInfo.size, videoTrackId == -1 || trackId == videoTrackId);
+            progressReporter.publish();
         } else {
-            frameBuffer.push(frame);
-            releasersList.add(releaser);
-            getInputCommandQueue().queue(Command.NeedInputFormat, 0);
+            progressListener.onMediaProgress(progressTracker.getProgress());
         }
     }
 
-    private void writeBufferedFrames() {
-        while (frameBuffer.canPull()) {
-            Frame bufferedFrame = frameBuffer.pull();
-            writeSampleData(bufferedFrame);
-            releasersList.get(0).releaseOutputBuffer(bufferedFrame.getBufferIndex());
-            releasersList.remove(0);
-        }
-    }
-
-    private void writeSampleData(Frame frame) {
-        IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
-        bufferInfo.flags = frame.getFlags();
-        bufferInfo.presentationTimeUs = frame.getSampleTime();
-        bufferInfo.size = frame.getLength();
-
-        muxer.writeSampleData(frame.getTrackId(), frame.getByteBuffer(), bufferInfo);
-
-        progressTracker.track(frame.getSampleTime());
-        progressListener.onMediaProgress(progressTracker.getProgress());
-    }
-
     @Override
     public void drain(int bufferIndex) {
         drainCount++;
 
         if (drainCount == connectedPluginsCount) {
 
+            if (muxer != null) {
+                interleaver.flush(this);
+            }
             closeRender();
 
+            if (progressReporter != null) {
+                progressReporter.stop();
+            }
             progressListener.onMediaStop();
             if (onStopListener != null) {
                 onStopListener.onStop();
@@ -143,6 +151,7 @@ public class MuxRender extends Render {
         int trackIndex = notReadyMuxer.addTrack(mediaFormat);
         if (mediaFormat instanceof VideoFormat) videoTrackId = trackIndex;
         if (mediaFormat instanceof AudioFormat) audioTrackId = trackIndex;
+        interleaver.addTrack(trackIndex);
 
         frameBuffer.configure(tracksCount);
         tracksCount++;
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counters of a single pipeline node or of a connection between two nodes. All counters are lock-free and
+ * may be updated from any processing thread.
+ */
+public class NodeMetrics {
+    private final String name;
+    private final AtomicLong framesIn = new AtomicLong();
+    private final AtomicLong framesOut = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+    private final AtomicLong tryAgainCount = new AtomicLong();
+    private final AtomicLong stallTimeNs = new AtomicLong();
+    private final AtomicLong queueDepth = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private final LatencyHistogram handlerLatency = new LatencyHistogram();
+
+    public NodeMetrics(String name) {
+        this.name = name;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public void frameIn(int size) {
+        framesIn.incrementAndGet();
+        bytesIn.addAndGet(Math.max(size, 0));
+    }
+
+    public void frameOut(int size) {
+        framesOut.incrementAndGet();
+        bytesOut.addAndGet(Math.max(size, 0));
+    }
+
+    /**
+     * Counts a codec call which returned without a buffer.
+     *
+     * @param waitNs Time spent waiting in the call.
+     */
+    public void tryAgain(long waitNs) {
+        tryAgainCount.incrementAndGet();
+        stallTimeNs.addAndGet(waitNs);
+    }
+
+    public void commandHandled(long durationNs) {
+        handlerLatency.record(durationNs);
+    }
+
+    public void queueDepth(int depth) {
+        queueDepth.set(depth);
+        long max = maxQueueDepth.get();
+        while (depth > max && !maxQueueDepth.compareAndSet(max, depth)) {
+            max = maxQueueDepth.get();
+        }
+    }
+
+    public NodeMetricsSnapshot snapshot() {
+        return new NodeMetricsSnapshot(name,
+                framesIn.get(), framesOut.get(), bytesIn.get(), bytesOut.get(),
+                tryAgainCount.get(), stallTimeNs.get(), queueDepth.get(), maxQueueDepth.get(),
+                handlerLatency.getCount(), handlerLatency.getTotalNs(), handlerLatency.getMaxNs(), handlerLatency.getBuckets());
+    }
+}
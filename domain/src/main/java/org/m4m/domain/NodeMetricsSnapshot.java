@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+/**
+ * Point-in-time values of {@link NodeMetrics}.
+ */
+public class NodeMetricsSnapshot {
+    private final String name;
+    private final long framesIn;
+    private final long framesOut;
+    private final long bytesIn;
+    private final long bytesOut;
+    private final long tryAgainCount;
+    private final long stallTimeNs;
+    private final long queueDepth;
+    private final long maxQueueDepth;
+    private final long commandsCount;
+    private final long handlerTimeNs;
+    private final long maxHandlerTimeNs;
+    private final long[] latencyBuckets;
+
+    NodeMetricsSnapshot(String name, long framesIn, long framesOut, long bytesIn, long bytesOut,
+                        long tryAgainCount, long stallTimeNs, long queueDepth, long maxQueueDepth,
+                        long commandsCount, long handlerTimeNs, long maxHandlerTimeNs, long[] latencyBuckets) {
+        this.name = name;
+        this.framesIn = framesIn;
+        this.framesOut = framesOut;
+        this.bytesIn = bytesIn;
+        this.bytesOut = bytesOut;
+        this.tryAgainCount = tryAgainCount;
+        this.stallTimeNs = stallTimeNs;
+        this.queueDepth = queueDepth;
+        this.maxQueueDepth = maxQueueDepth;
+        this.commandsCount = commandsCount;
+        this.handlerTimeNs = handlerTimeNs;
+        this.maxHandlerTimeNs = maxHandlerTimeNs;
+        this.latencyBuckets = latencyBuckets;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getFramesIn() {
+        return framesIn;
+    }
+
+    public long getFramesOut() {
+        return framesOut;
+    }
+
+    public long getBytesIn() {
+        return bytesIn;
+    }
+
+    public long getBytesOut() {
+        return bytesOut;
+    }
+
+    /**
+     * @return Number of codec calls which returned without a buffer.
+     */
+    public long getTryAgainCount() {
+        return tryAgainCount;
+    }
+
+    /**
+     * @return Time spent waiting in codec calls which returned without a buffer.
+     */
+    public long getStallTimeNs() {
+        return stallTimeNs;
+    }
+
+    public long getQueueDepth() {
+        return queueDepth;
+    }
+
+    public long getMaxQueueDepth() {
+        return maxQueueDepth;
+    }
+
+    /**
+     * @return Number of handled commands.
+     */
+    public long getCommandsCount() {
+        return commandsCount;
+    }
+
+    public long getHandlerTimeNs() {
+        return handlerTimeNs;
+    }
+
+    public long getMaxHandlerTimeNs() {
+        return maxHandlerTimeNs;
+    }
+
+    /**
+     * Returns the handler latency not exceeded by the given share of commands, with the resolution of
+     * the power of two histogram buckets.
+     *
+     * @param percentile Share of commands, [0, 100].
+     * @return Latency in microseconds.
+     */
+    public long getHandlerLatencyPercentileUs(double percentile) {
+        if (commandsCount == 0) {
+            return 0;
+        }
+        long rank = (long) Math.ceil(commandsCount * percentile / 100);
+        long seen = 0;
+        for (int i = 0; i < latencyBuckets.length; i++) {
+            seen += latencyBuckets[i];
+            if (seen >= rank && seen > 0) {
+                return Math.min(LatencyHistogram.upperBoundUs(i), maxHandlerTimeNs / 1000 + 1);
+            }
+        }
+        return maxHandlerTimeNs / 1000 + 1;
+    }
+
+    void appendJson(StringBuilder json) {
+        json.append('{');
+        json.append("\"name\":");
+        appendString(json, name);
+        json.append(",\"framesIn\":").append(framesIn);
+        json.append(",\"framesOut\":").append(framesOut);
+        json.append(",\"bytesIn\":").append(bytesIn);
+        json.append(",\"bytesOut\":").append(bytesOut);
+        json.append(",\"tryAgainCount\":").append(tryAgainCount);
+        json.append(",\"stallTimeNs\":").append(stallTimeNs);
+        json.append(",\"queueDepth\":").append(queueDepth);
+        json.append(",\"maxQueueDepth\":").append(maxQueueDepth);
+        json.append(",\"commands\":").append(commandsCount);
+        json.append(",\"handlerTimeNs\":").append(handlerTimeNs);
+        json.append(",\"handlerLatencyUs\":{");
+        json.append("\"p50\":").append(getHandlerLatencyPercentileUs(50));
+        json.append(",\"p90\":").append(getHandlerLatencyPercentileUs(90));
+        json.append(",\"p99\":").append(getHandlerLatencyPercentileUs(99));
+        json.append(",\"max\":").append(maxHandlerTimeNs / 1000);
+        json.append("}}");
+    }
+
+    static void appendString(StringBuilder json, String value) {
+        json.append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                json.append('\\').append(c);
+            } else if (c < 0x20) {
+                json.append(String.format("\\u%04x", (int) c));
+            } else {
+                json.append(c);
+            }
+        }
+        json.append('"');
+    }
+}
@@ -38,6 +38,22 @@ class PairCommandSpecification implements ISpecification<Command> {
         return false;
     }
 
+    public boolean satisfiedBy(Command source, int sourceTrackId, Command target, int targetTrackId) {
+        if (source == null || target == null || sourceTrackId != targetTrackId) return false;
+
+        for (int i = 0; i < matchingCommands.size(); i++) {
+            Pair<Command, Command> matchingCommand = matchingCommands.get(i);
+            if (matchingCommand.left != null && matchingCommand.left == source
+                && matchingCommand.right != null && matchingCommand.right == target)
+                return true;
+            if (matchingCommand.left == null && matchingCommand.right == target)
+                return true;
+            if (matchingCommand.right == null && matchingCommand.left == source)
+                return true;
+        }
+        return false;
+    }
+
     public boolean satisfiedBy(Pair<Command, Integer> sourcePair, Pair<Command, Integer> targetPair) {
         if (sourcePair == null || targetPair == null) return false;
 
@@ -27,12 +27,12 @@ class PairQueueSpecification implements ISpecification<CommandQueue> {
 
     @Override
     public boolean satisfiedBy(CommandQueue sourceQueue, CommandQueue targetQueue) {
-        Pair<Command, Integer> sourceCommand = sourceQueue.first();
-        Pair<Command, Integer> targetCommand = targetQueue.first();
+        Command targetCommand = targetQueue.firstCommand();
         if (targetCommand == null) return false;
-        if (targetCommand.left == Command.NextPair) return true;
+        if (targetCommand == Command.NextPair) return true;
+        Command sourceCommand = sourceQueue.firstCommand();
         if (sourceCommand == null) return false;
-        if (sourceCommand.left == Command.NextPair) return true;
-        return pairCommandSpecification.satisfiedBy(sourceCommand, targetCommand);
+        if (sourceCommand == Command.NextPair) return true;
+        return pairCommandSpecification.satisfiedBy(sourceCommand, sourceQueue.firstTrackId(), targetCommand, targetQueue.firstTrackId());
     }
 }
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.IProgressListener;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Runs every independent track chain of a pipeline, e.g. video and audio, on its own thread, so a codec
+ * waiting for a buffer in one chain does not stall the others. Nodes joining several chains, like the media
+ * source and the muxer, are accessed under a single lock shared by all pairs touching them.
+ * <p/>
+ * The video chain draws through the EGL context created while the pipeline is resolved, so it runs on the
+ * thread that calls process(); the other chains get threads of their own.
+ */
+public class ParallelCommandProcessor implements ICommandProcessor {
+    private final IProgressListener progressListener;
+    private final ArrayList<OutputInputPair> pairs = new ArrayList<OutputInputPair>();
+    private final ArrayList<CommandProcessor> workers = new ArrayList<CommandProcessor>();
+    // Workers share nodes, busy polling ones would keep competing for the join lock
+    private static final long DEFAULT_IDLE_TIMEOUT_MS = 10;
+
+    private final Object joinLock = new Object();
+    private long idleTimeout = DEFAULT_IDLE_TIMEOUT_MS;
+    private PipelineMetrics metrics = null;
+    private boolean paused = false;
+    private boolean stopped = false;
+    private RuntimeException failure;
+    private List<List<OutputInputPair>> chains = new ArrayList<List<OutputInputPair>>();
+
+    public ParallelCommandProcessor(IProgressListener progressListener) {
+        this.progressListener = progressListener;
+    }
+
+    @Override
+    public void add(OutputInputPair pair) {
+        pairs.add(pair);
+    }
+
+    /**
+     * Sets how long an idle worker parks, 10 ms by default.
+     *
+     * @see CommandProcessor#setIdleTimeout(long)
+     */
+    public void setIdleTimeout(long idleTimeoutMs) {
+        this.idleTimeout = idleTimeoutMs;
+    }
+
+    /**
+     * @see CommandProcessor#setMetrics(PipelineMetrics)
+     */
+    public void setMetrics(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    public synchronized long getIdleCyclesAvoided() {
+        long idleCyclesAvoided = 0;
+        for (CommandProcessor worker : workers) {
+            idleCyclesAvoided += worker.getIdleCyclesAvoided();
+        }
+        return idleCyclesAvoided;
+    }
+
+    public synchronized int getWorkersCount() {
+        return workers.size();
+    }
+
+    @Override
+    public void process() {
+        List<CommandProcessor> chainProcessors = createWorkers();
+        List<Thread> threads = new ArrayList<Thread>();
+        int callerChain = getSurfaceChain();
+
+        for (int i = 0; i < chainProcessors.size(); i++) {
+            if (i == callerChain) {
+                continue;
+            }
+            final CommandProcessor worker = chainProcessors.get(i);
+            Thread thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    runWorker(worker);
+                }
+            }, "CommandProcessor-" + i);
+            threads.add(thread);
+            thread.start();
+        }
+        if (!chainProcessors.isEmpty()) {
+            runWorker(chainProcessors.get(callerChain));
+        }
+
+        for (Thread thread : threads) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                e.printStackTrace();
+            }
+        }
+
+        synchronized (this) {
+            if (failure != null) {
+                throw failure;
+            }
+        }
+    }
+
+    /**
+     * Returns the index of the chain with surface based video nodes, the last chain if there is none.
+     */
+    private synchronized int getSurfaceChain() {
+        for (int i = 0; i < chains.size(); i++) {
+            for (OutputInputPair pair : chains.get(i)) {
+                if (usesSurface(pair.output) || usesSurface(pair.input)) {
+                    return i;
+                }
+            }
+        }
+        return chains.size() - 1;
+    }
+
+    private static boolean usesSurface(Object node) {
+        return node instanceof VideoDecoder || node instanceof VideoEffector || node instanceof VideoEncoder;
+    }
+
+    private synchronized List<CommandProcessor> createWorkers() {
+        chains = TopologySolver.partition(pairs);
+
+        IdentityHashMap<Object, Integer> chainsPerNode = new IdentityHashMap<Object, Integer>();
+        for (List<OutputInputPair> chain : chains) {
+            IdentityHashMap<Object, Boolean> nodes = new IdentityHashMap<Object, Boolean>();
+            for (OutputInputPair pair : chain) {
+                nodes.put(pair.output, Boolean.TRUE);
+                nodes.put(pair.input, Boolean.TRUE);
+            }
+            for (Object node : nodes.keySet()) {
+                Integer count = chainsPerNode.get(node);
+                chainsPerNode.put(node, count == null ? 1 : count + 1);
+            }
+        }
+
+        for (List<OutputInputPair> chain : chains) {
+            CommandProcessor worker = new CommandProcessor(progressListener);
+            worker.setIdleTimeout(idleTimeout);
+            worker.setMetrics(metrics);
+            for (OutputInputPair pair : chain) {
+                if (metrics != null) {
+                    // Attach metrics to the shared nodes before any worker runs
+                    metrics.getPair(pair);
+                }
+                boolean joins = chainsPerNode.get(pair.output) > 1 || chainsPerNode.get(pair.input) > 1;
+                worker.add(pair, joins ? joinLock : null);
+            }
+            if (paused) {
+                worker.pause();
+            }
+            if (stopped) {
+                worker.stop();
+            }
+            workers.add(worker);
+        }
+        return new ArrayList<CommandProcessor>(workers);
+    }
+
+    private void runWorker(CommandProcessor worker) {
+        try {
+            worker.process();
+        } catch (RuntimeException e) {
+            synchronized (this) {
+                if (failure == null) {
+                    failure = e;
+                }
+            }
+            stop();
+        }
+    }
+
+    @Override
+    public synchronized void stop() {
+        stopped = true;
+        for (CommandProcessor worker : workers) {
+            worker.stop();
+        }
+    }
+
+    @Override
+    public synchronized void pause() {
+        paused = true;
+        for (CommandProcessor worker : workers) {
+            worker.pause();
+        }
+    }
+
+    @Override
+    public synchronized void resume() {
+        paused = false;
+        for (CommandProcessor worker : workers) {
+            worker.resume();
+        }
+    }
+}
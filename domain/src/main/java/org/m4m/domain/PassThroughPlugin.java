@@ -57,6 +57,11 @@ public class PassThroughPlugin extends Plugin implements IFrameAllocator {
     @Override
     public void push(Frame frame) {
         super.push(frame);
+        if (frame.isSkipFrame()) {
+            // Frames before the seek position only serve decoding of the frames after it
+            feedMeIfNotDraining();
+            return;
+        }
         if (!frame.equals(Frame.EOF())) {
             frameDelivered = false;
             this.frame = frame;
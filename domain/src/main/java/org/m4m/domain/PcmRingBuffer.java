@@ -0,0 +1,113 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Preallocated ring buffer of PCM bytes for one producer and one consumer thread.
+ * <p/>
+ * Positions only grow, the producer advances the write position and the consumer
+ * the read one. {@link #clear()} may be called by the producer, a read overlapping
+ * with it returns no data.
+ */
+public class PcmRingBuffer {
+    private final byte[] buffer;
+    private final AtomicLong writePosition = new AtomicLong();
+    private final AtomicLong readPosition = new AtomicLong();
+
+    public PcmRingBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("Capacity should be positive.");
+        }
+        buffer = new byte[capacity];
+    }
+
+    public int capacity() {
+        return buffer.length;
+    }
+
+    /**
+     * Returns the number of bytes ready to be read.
+     */
+    public int available() {
+        return (int) (writePosition.get() - readPosition.get());
+    }
+
+    /**
+     * Returns the number of bytes that can be written without overwriting unread data.
+     */
+    public int remaining() {
+        return buffer.length - available();
+    }
+
+    /**
+     * Copies bytes from the current position of the source. Called by the producer.
+     *
+     * @return Number of bytes written, less than length if the buffer is full.
+     */
+    public int write(ByteBuffer source, int length) {
+        long position = writePosition.get();
+        int count = Math.min(length, buffer.length - (int) (position - readPosition.get()));
+        if (count <= 0) {
+            return 0;
+        }
+
+        int offset = (int) (position % buffer.length);
+        int first = Math.min(count, buffer.length - offset);
+        source.get(buffer, offset, first);
+        if (first < count) {
+            source.get(buffer, 0, count - first);
+        }
+
+        writePosition.lazySet(position + count);
+        return count;
+    }
+
+    /**
+     * Copies bytes to the destination. Called by the consumer.
+     *
+     * @return Number of bytes read, 0 if the buffer is empty or was cleared meanwhile.
+     */
+    public int read(byte[] destination, int offset, int length) {
+        long position = readPosition.get();
+        int count = (int) Math.min(length, writePosition.get() - position);
+        if (count <= 0) {
+            return 0;
+        }
+
+        int start = (int) (position % buffer.length);
+        int first = Math.min(count, buffer.length - start);
+        System.arraycopy(buffer, start, destination, offset, first);
+        if (first < count) {
+            System.arraycopy(buffer, 0, destination, offset + first, count - first);
+        }
+
+        if (!readPosition.compareAndSet(position, position + count)) {
+            return 0;
+        }
+        return count;
+    }
+
+    /**
+     * Drops all unread data. Called by the producer.
+     */
+    public void clear() {
+        readPosition.set(writePosition.get());
+    }
+}
@@ -22,16 +22,24 @@ import org.m4m.domain.pipeline.IOnStopListener;
 
 import java.io.Closeable;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class Pipeline {
 
     private final TopologySolver topologySolver = new TopologySolver();
     private final ICommandProcessor commandProcessor;
+    private final List<Pair<Encoder, Render>> renditions = new ArrayList<Pair<Encoder, Render>>();
+    private final List<Render> renditionSinks = new ArrayList<Render>();
+    private final AtomicInteger runningSinks = new AtomicInteger();
     private IOnStopListener onStopListener = new IOnStopListener() {
         @Override
         public void onStop() {
-            commandProcessor.stop();
+            if (runningSinks.decrementAndGet() <= 0) {
+                commandProcessor.stop();
+            }
         }
     };
 
@@ -89,7 +97,26 @@ public class Pipeline {
 
     public void setSink(Render sink) {
         topologySolver.add(sink);
-        if (sink != null) sink.addOnStopListener(onStopListener);
+        if (sink != null) {
+            sink.addOnStopListener(onStopListener);
+            runningSinks.incrementAndGet();
+        }
+    }
+
+    /**
+     * Connects an encoder added as a rendition of a pipeline encoder to its own sink. Processing stops
+     * once the main sink and every rendition sink are drained.
+     *
+     * @param encoder Rendition encoder, see {@link Encoder#addRendition(Encoder)}.
+     * @param sink    Sink of the rendition, shared by the video and audio rendition encoders of one output.
+     */
+    public void addRendition(Encoder encoder, Render sink) {
+        renditions.add(new Pair<Encoder, Render>(encoder, sink));
+        if (!renditionSinks.contains(sink)) {
+            renditionSinks.add(sink);
+            sink.addOnStopListener(onStopListener);
+            runningSinks.incrementAndGet();
+        }
     }
 
     public void resolve() {
@@ -107,6 +134,10 @@ public class Pipeline {
             connectorFactory.connect(rawPair.left, rawPair.right);
         }
 
+        for (Pair<Encoder, Render> rendition : renditions) {
+            connectorFactory.connect(rendition.left, rendition.right);
+        }
+
         startSource();
     }
 
@@ -150,5 +181,9 @@ public class Pipeline {
         for (IInputRaw node : topologySolver.getSinks()) {
             ((Closeable) node).close();
         }
+
+        for (Render sink : renditionSinks) {
+            sink.close();
+        }
     }
 }
@@ -0,0 +1,98 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Registry of the metrics of every node of a pipeline and of every connection between two nodes.
+ * Command processors look the metrics up once when they start, the counters are updated lock-free afterwards.
+ * Nothing is measured unless a registry is passed to the command processor.
+ */
+public class PipelineMetrics {
+    private final IdentityHashMap<Object, NodeMetrics> metrics = new IdentityHashMap<Object, NodeMetrics>();
+    private final List<NodeMetrics> ordered = new ArrayList<NodeMetrics>();
+    private final Map<String, Integer> namesCount = new HashMap<String, Integer>();
+    private final long startTimeNs = System.nanoTime();
+
+    /**
+     * Returns metrics of a node, registers the node and attaches the metrics to it on first call.
+     */
+    public synchronized NodeMetrics getNode(Object node) {
+        NodeMetrics nodeMetrics = metrics.get(node);
+        if (nodeMetrics == null) {
+            nodeMetrics = register(node, nameOf(node));
+            attach(node, nodeMetrics);
+        }
+        return nodeMetrics;
+    }
+
+    /**
+     * Returns metrics of a connection between two nodes, the latency of its command handlers among them.
+     */
+    public synchronized NodeMetrics getPair(OutputInputPair pair) {
+        NodeMetrics pairMetrics = metrics.get(pair);
+        if (pairMetrics == null) {
+            String name = getNode(pair.output).getName() + " -> " + getNode(pair.input).getName();
+            pairMetrics = register(pair, name);
+        }
+        return pairMetrics;
+    }
+
+    private NodeMetrics register(Object key, String name) {
+        NodeMetrics nodeMetrics = new NodeMetrics(uniqueName(name));
+        metrics.put(key, nodeMetrics);
+        ordered.add(nodeMetrics);
+        return nodeMetrics;
+    }
+
+    private String uniqueName(String name) {
+        Integer count = namesCount.get(name);
+        count = count == null ? 1 : count + 1;
+        namesCount.put(name, count);
+        return count == 1 ? name : name + "#" + count;
+    }
+
+    private static String nameOf(Object node) {
+        String name = node.getClass().getSimpleName();
+        return name.isEmpty() ? node.getClass().getName() : name;
+    }
+
+    private static void attach(Object node, NodeMetrics nodeMetrics) {
+        if (node instanceof MediaCodecPlugin) {
+            ((MediaCodecPlugin) node).setMetrics(nodeMetrics);
+        } else if (node instanceof MultipleMediaSource) {
+            ((MultipleMediaSource) node).setMetrics(nodeMetrics);
+        } else if (node instanceof MediaSource) {
+            ((MediaSource) node).setMetrics(nodeMetrics);
+        } else if (node instanceof Render) {
+            ((Render) node).setMetrics(nodeMetrics);
+        }
+    }
+
+    public synchronized PipelineMetricsSnapshot snapshot() {
+        List<NodeMetricsSnapshot> nodes = new ArrayList<NodeMetricsSnapshot>(ordered.size());
+        for (NodeMetrics nodeMetrics : ordered) {
+            nodes.add(nodeMetrics.snapshot());
+        }
+        return new PipelineMetricsSnapshot((System.nanoTime() - startTimeNs) / 1000000, nodes);
+    }
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Point-in-time values of all {@link PipelineMetrics}, in the order the nodes were registered.
+ */
+public class PipelineMetricsSnapshot {
+    private final long elapsedTimeMs;
+    private final List<NodeMetricsSnapshot> nodes;
+
+    PipelineMetricsSnapshot(long elapsedTimeMs, List<NodeMetricsSnapshot> nodes) {
+        this.elapsedTimeMs = elapsedTimeMs;
+        this.nodes = Collections.unmodifiableList(nodes);
+    }
+
+    public long getElapsedTimeMs() {
+        return elapsedTimeMs;
+    }
+
+    public List<NodeMetricsSnapshot> getNodes() {
+        return nodes;
+    }
+
+    /**
+     * @return Metrics of the node or connection with the given name, null if there is no such.
+     */
+    public NodeMetricsSnapshot getNode(String name) {
+        for (NodeMetricsSnapshot node : nodes) {
+            if (node.getName().equals(name)) {
+                return node;
+            }
+        }
+        return null;
+    }
+
+    public String toJson() {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"elapsedTimeMs\":").append(elapsedTimeMs);
+        json.append(",\"nodes\":[");
+        for (int i = 0; i < nodes.size(); i++) {
+            if (i > 0) {
+                json.append(',');
+            }
+            nodes.get(i).appendJson(json);
+        }
+        json.append("]}");
+        return json.toString();
+    }
+
+    @Override
+    public String toString() {
+        return toJson();
+    }
+}
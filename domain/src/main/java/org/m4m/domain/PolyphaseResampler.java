@@ -0,0 +1,332 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.AudioFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * Pure-Java streaming resampler for 16-bit little-endian PCM.
+ * <p/>
+ * Converts between any two {@link SampleRate} values with a polyphase
+ * windowed-sinc filter and mixes mono/stereo up or down. The filter table
+ * is built once per input/target configuration and the sample history is
+ * carried over between calls, so steady-state resampling does not allocate.
+ * Samples are written back in place, the buffer must have room for the
+ * resampled audio.
+ */
+public class PolyphaseResampler extends Resampler {
+    private static final int HALF_TAPS = 16;
+    private static final int TAPS = 2 * HALF_TAPS;
+    private static final double KAISER_BETA = 8.0;
+    private static final double ROLLOFF = 0.95;
+    private static final int INITIAL_HISTORY_CAPACITY = 4096;
+
+    private int upFactor = 1;
+    private int downFactor = 1;
+    private float[] coefficients = new float[0];
+
+    private float[][] history = new float[0][0];
+    private int historyLength;
+    private int position;
+    private int phase;
+
+    private int configuredInputChannelCount;
+    private int configuredInputSampleRate;
+    private int configuredTargetChannelCount;
+    private int configuredTargetSampleRate;
+
+    public PolyphaseResampler(AudioFormat audioFormat) {
+        super(audioFormat);
+    }
+
+    @Override
+    protected void allocateInitInternalBuffers() {
+        configure();
+        super.allocateInitInternalBuffers();
+    }
+
+    @Override
+    public void resampleFrame(Frame frame) {
+        super.resampleFrame(frame);
+
+        if (resamplingRequired()) {
+            ByteBuffer buffer = frame.getByteBuffer();
+            int outputLength = resample(buffer, frame.getLength());
+
+            frame.setLength(outputLength);
+            buffer.limit(buffer.capacity());
+            buffer.position(0);
+        }
+    }
+
+    @Override
+    public void resampleBuffer(ByteBuffer frameBuffer, int bufferLenght) {
+        super.resampleBuffer(frameBuffer, bufferLenght);
+
+        if (resamplingRequired()) {
+            int outputLength = resample(frameBuffer, bufferLenght);
+
+            frameBuffer.limit(outputLength);
+            frameBuffer.position(0);
+        }
+    }
+
+    /**
+     * Drops the buffered sample history, the next call starts a new stream.
+     */
+    public void reset() {
+        for (float[] channel : history) {
+            Arrays.fill(channel, 0, Math.min(channel.length, HALF_TAPS), 0f);
+        }
+        historyLength = (upFactor == downFactor) ? 0 : HALF_TAPS - 1;
+        position = 0;
+        phase = 0;
+    }
+
+    /**
+     * Returns the maximum number of bytes produced from the given number of input bytes.
+     */
+    public int getMaxOutputLength(int inputLength) {
+        configureIfChanged();
+        long inputFrames = inputLength / 2 / inputChannelCount + TAPS;
+        long outputFrames = (inputFrames * upFactor) / downFactor + 1;
+        return (int) (outputFrames * targetChannelCount * 2);
+    }
+
+    /**
+     * Returns the number of input samples per channel held back for the filter window.
+     */
+    public int getBufferedSamplesCount() {
+        return historyLength - position;
+    }
+
+    private int resample(ByteBuffer buffer, int length) {
+        configureIfChanged();
+
+        ByteOrder order = buffer.order();
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        try {
+            append(buffer, length / 2 / inputChannelCount);
+            buffer.limit(buffer.capacity());
+
+            int outputFrames;
+            if (upFactor == downFactor) {
+                outputFrames = copyHistory(buffer);
+            } else {
+                outputFrames = filterHistory(buffer);
+            }
+            return outputFrames * targetChannelCount * 2;
+        } finally {
+            buffer.order(order);
+        }
+    }
+
+    private void append(ByteBuffer buffer, int frames) {
+        ensureHistoryCapacity(historyLength + frames);
+
+        if (inputChannelCount == targetChannelCount) {
+            for (int channel = 0; channel < targetChannelCount; channel++) {
+                float[] samples = history[channel];
+                for (int i = 0; i < frames; i++) {
+                    samples[historyLength + i] = buffer.getShort(2 * (i * inputChannelCount + channel));
+                }
+            }
+        } else if (inputChannelCount == 2) {
+            float[] samples = history[0];
+            for (int i = 0; i < frames; i++) {
+                samples[historyLength + i] = (buffer.getShort(4 * i) + buffer.getShort(4 * i + 2)) * 0.5f;
+            }
+        } else {
+            float[] left = history[0];
+            float[] right = history[1];
+            for (int i = 0; i < frames; i++) {
+                float sample = buffer.getShort(2 * i);
+                left[historyLength + i] = sample;
+                right[historyLength + i] = sample;
+            }
+        }
+        historyLength += frames;
+    }
+
+    private int copyHistory(ByteBuffer buffer) {
+        checkCapacity(buffer, historyLength);
+
+        for (int channel = 0; channel < targetChannelCount; channel++) {
+            float[] samples = history[channel];
+            for (int i = 0; i < historyLength; i++) {
+                buffer.putShort(2 * (i * targetChannelCount + channel), clip(samples[i]));
+            }
+        }
+        int outputFrames = historyLength;
+        historyLength = 0;
+        return outputFrames;
+    }
+
+    private int filterHistory(ByteBuffer buffer) {
+        int outputFrames = 0;
+
+        while (position + TAPS <= historyLength) {
+            checkCapacity(buffer, outputFrames + 1);
+
+            int base = phase * TAPS;
+            for (int channel = 0; channel < targetChannelCount; channel++) {
+                float[] samples = history[channel];
+                float sum = 0;
+                for (int tap = 0; tap < TAPS; tap++) {
+                    sum += samples[position + tap] * coefficients[base + tap];
+                }
+                buffer.putShort(2 * (outputFrames * targetChannelCount + channel), clip(sum));
+            }
+            outputFrames++;
+
+            phase += downFactor;
+            position += phase / upFactor;
+            phase %= upFactor;
+        }
+
+        int consumed = Math.min(position, historyLength);
+        for (float[] samples : history) {
+            System.arraycopy(samples, consumed, samples, 0, historyLength - consumed);
+        }
+        historyLength -= consumed;
+        position -= consumed;
+        return outputFrames;
+    }
+
+    private void checkCapacity(ByteBuffer buffer, int frames) {
+        if (frames * targetChannelCount * 2 > buffer.capacity()) {
+            throw new IllegalStateException("Buffer is too small for resampled audio.");
+        }
+    }
+
+    private void ensureHistoryCapacity(int frames) {
+        if (history.length > 0 && history[0].length >= frames) {
+            return;
+        }
+        int capacity = Math.max(INITIAL_HISTORY_CAPACITY, history.length > 0 ? history[0].length : 0);
+        while (capacity < frames) {
+            capacity *= 2;
+        }
+        for (int channel = 0; channel < history.length; channel++) {
+            float[] samples = new float[capacity];
+            System.arraycopy(history[channel], 0, samples, 0, historyLength);
+            history[channel] = samples;
+        }
+    }
+
+    private void configureIfChanged() {
+        if (configuredInputChannelCount != inputChannelCount
+                || configuredInputSampleRate != inputSampleRate
+                || configuredTargetChannelCount != targetChannelCount
+                || configuredTargetSampleRate != targetSampleRate) {
+            configure();
+        }
+    }
+
+    private void configure() {
+        int divisor = gcd(inputSampleRate, targetSampleRate);
+        upFactor = targetSampleRate / divisor;
+        downFactor = inputSampleRate / divisor;
+
+        coefficients = (upFactor == downFactor) ? new float[0] : createCoefficients(upFactor, downFactor);
+        history = new float[targetChannelCount][INITIAL_HISTORY_CAPACITY];
+
+        configuredInputChannelCount = inputChannelCount;
+        configuredInputSampleRate = inputSampleRate;
+        configuredTargetChannelCount = targetChannelCount;
+        configuredTargetSampleRate = targetSampleRate;
+
+        reset();
+    }
+
+    /**
+     * Builds one row of TAPS coefficients per phase. Row p interpolates the point
+     * p / upFactor input samples after the start of the window center.
+     */
+    private static float[] createCoefficients(int upFactor, int downFactor) {
+        double cutoff = ROLLOFF * Math.min(1.0, (double) upFactor / downFactor);
+        double windowNorm = besselI0(KAISER_BETA);
+        float[] table = new float[upFactor * TAPS];
+
+        for (int phase = 0; phase < upFactor; phase++) {
+            double sum = 0;
+            for (int tap = 0; tap < TAPS; tap++) {
+                double distance = (tap - HALF_TAPS + 1) - (double) phase / upFactor;
+                double value = cutoff * sinc(cutoff * distance) * kaiser(distance / HALF_TAPS, windowNorm);
+                table[phase * TAPS + tap] = (float) value;
+                sum += value;
+            }
+            for (int tap = 0; tap < TAPS; tap++) {
+                table[phase * TAPS + tap] /= sum;
+            }
+        }
+        return table;
+    }
+
+    private static double sinc(double x) {
+        if (x == 0) {
+            return 1.0;
+        }
+        double arg = Math.PI * x;
+        return Math.sin(arg) / arg;
+    }
+
+    private static double kaiser(double x, double norm) {
+        if (x < -1 || x > 1) {
+            return 0;
+        }
+        return besselI0(KAISER_BETA * Math.sqrt(1 - x * x)) / norm;
+    }
+
+    private static double besselI0(double x) {
+        double sum = 1.0;
+        double term = 1.0;
+        double halfX = x / 2;
+        for (int k = 1; k < 50; k++) {
+            term *= (halfX / k) * (halfX / k);
+            sum += term;
+            if (term < 1e-12 * sum) {
+                break;
+            }
+        }
+        return sum;
+    }
+
+    private static int gcd(int a, int b) {
+        while (b != 0) {
+            int t = a % b;
+            a = b;
+            b = t;
+        }
+        return a;
+    }
+
+    private static short clip(float sample) {
+        int value = Math.round(sample);
+        if (value > Short.MAX_VALUE) {
+            return Short.MAX_VALUE;
+        }
+        if (value < Short.MIN_VALUE) {
+            return Short.MIN_VALUE;
+        }
+        return (short) value;
+    }
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.IProgressListener;
+import org.m4m.IProgressStatisticsListener;
+import org.m4m.ProgressStatistics;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Delivers progress to a listener at most once per interval on a separate dispatcher, so a slow
+ * listener never holds up the thread writing samples. Progress published while the listener is
+ * busy is coalesced, only the latest snapshot is delivered.
+ */
+public class ProgressReporter {
+    private static final long STOP_TIMEOUT_MS = 1000;
+
+    private final IProgressListener progressListener;
+    private final ProgressTracker progressTracker;
+    private final long intervalNs;
+    private final Executor dispatcher;
+    private final ExecutorService ownDispatcher;
+    private final AtomicReference<ProgressStatistics> pending = new AtomicReference<ProgressStatistics>();
+    private final AtomicBoolean scheduled = new AtomicBoolean(false);
+    private long lastPublishTimeNs = 0;
+    private boolean published = false;
+
+    private final Runnable delivery = new Runnable() {
+        @Override
+        public void run() {
+            scheduled.set(false);
+            ProgressStatistics statistics = pending.getAndSet(null);
+            if (statistics != null) {
+                deliver(statistics);
+            }
+        }
+    };
+
+    /**
+     * Creates a reporter delivering progress on its own daemon thread.
+     */
+    public ProgressReporter(IProgressListener progressListener, ProgressTracker progressTracker, long intervalMs) {
+        this(progressListener, progressTracker, intervalMs, null);
+    }
+
+    /**
+     * @param dispatcher Executor to call the listener on, e.g. one posting to the UI thread.
+     *                   null to use an own daemon thread.
+     */
+    public ProgressReporter(IProgressListener progressListener, ProgressTracker progressTracker, long intervalMs, Executor dispatcher) {
+        this.progressListener = progressListener;
+        this.progressTracker = progressTracker;
+        this.intervalNs = TimeUnit.MILLISECONDS.toNanos(intervalMs);
+        if (dispatcher == null) {
+            ownDispatcher = Executors.newSingleThreadExecutor(new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "ProgressReporter");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            this.dispatcher = ownDispatcher;
+        } else {
+            ownDispatcher = null;
+            this.dispatcher = dispatcher;
+        }
+    }
+
+    /**
+     * Publishes the current progress if the interval has passed since the last one. Never blocks.
+     */
+    public void publish() {
+        long now = System.nanoTime();
+        if (published && now - lastPublishTimeNs < intervalNs) {
+            return;
+        }
+        published = true;
+        lastPublishTimeNs = now;
+        schedule(progressTracker.getStatistics());
+    }
+
+    /**
+     * Publishes the final progress and waits for the own dispatcher thread to deliver it.
+     */
+    public void stop() {
+        schedule(progressTracker.getStatistics());
+        if (ownDispatcher != null && !ownDispatcher.isShutdown()) {
+            ownDispatcher.shutdown();
+            try {
+                ownDispatcher.awaitTermination(STOP_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    private void schedule(ProgressStatistics statistics) {
+        pending.set(statistics);
+        if (scheduled.compareAndSet(false, true)) {
+            try {
+                dispatcher.execute(delivery);
+            } catch (RuntimeException e) {
+                scheduled.set(false);
+            }
+        }
+    }
+
+    private void deliver(ProgressStatistics statistics) {
+        progressListener.onMediaProgress(statistics.getProgress());
+        if (progressListener instanceof IProgressStatisticsListener) {
+            ((IProgressStatisticsListener) progressListener).onMediaStatistics(statistics);
+        }
+    }
+}
@@ -16,9 +16,14 @@
 
 package org.m4m.domain;
 
+import org.m4m.ProgressStatistics;
+
 public class ProgressTracker {
     private float finish = 0f;
     private float currentProgress = 0f;
+    private long startTimeNs = 0;
+    private long framesCount = 0;
+    private long bytesCount = 0;
 
     public float getProgress() {
         return currentProgress / finish;
@@ -33,4 +38,25 @@ public class ProgressTracker {
             this.currentProgress = currentProgress;
         }
     }
+
+    /**
+     * Counts a written sample for throughput statistics.
+     *
+     * @param size  Sample size in bytes.
+     * @param frame true if the sample is a frame counted by frames per second.
+     */
+    public void trackSample(int size, boolean frame) {
+        if (startTimeNs == 0) {
+            startTimeNs = System.nanoTime();
+        }
+        bytesCount += size;
+        if (frame) {
+            framesCount++;
+        }
+    }
+
+    public ProgressStatistics getStatistics() {
+        long elapsedTimeMs = startTimeNs == 0 ? 0 : (System.nanoTime() - startTimeNs) / 1000000;
+        return new ProgressStatistics(finish == 0 ? 0 : getProgress(), (long) currentProgress, elapsedTimeMs, framesCount, bytesCount);
+    }
 }
@@ -20,6 +20,7 @@ import org.m4m.domain.pipeline.IOnStopListener;
 
 public abstract class Render extends Input {
     protected IOnStopListener onStopListener;
+    protected NodeMetrics metrics = null;
 
     public abstract int getTrackIdByMediaFormat(MediaFormat mediaFormat);
 
@@ -29,6 +30,13 @@ public abstract class Render extends Input {
         this.onStopListener = onStopListener;
     }
 
+    /**
+     * Counts the frames written by the render.
+     */
+    public void setMetrics(NodeMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     public void pushWithReleaser(Frame frame, IPluginOutput releaser) {}
 
     public void syncSampleTimes(long sampleTime) {
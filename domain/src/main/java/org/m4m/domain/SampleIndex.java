@@ -0,0 +1,329 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Set;
+
+/**
+ * Per-track table of sample presentation times and flags, sorted by time, with a separate list
+ * of sync sample times. Built once in a single pass over sample headers, it answers duration,
+ * seek and key frame queries by binary search without touching the extractor. The table can be
+ * saved to a compact binary file and mapped back into memory on the next open.
+ */
+public class SampleIndex {
+    private static final int MAGIC = 0x4D344D49;
+    private static final int VERSION = 1;
+
+    private final long[] durations;
+    private final LongBuffer[] sampleTimes;
+    private final ByteBuffer[] sampleFlags;
+    private final LongBuffer[] syncSampleTimes;
+
+    SampleIndex(long[] durations, LongBuffer[] sampleTimes, ByteBuffer[] sampleFlags, LongBuffer[] syncSampleTimes) {
+        this.durations = durations;
+        this.sampleTimes = sampleTimes;
+        this.sampleFlags = sampleFlags;
+        this.syncSampleTimes = syncSampleTimes;
+    }
+
+    /**
+     * Reads headers of all samples of all tracks. The extractor is rewound to the beginning and
+     * only the given tracks are left selected.
+     *
+     * @param extractor      Extractor to index.
+     * @param selectedTracks Tracks to keep selected after indexing.
+     */
+    public static SampleIndex build(IMediaExtractor extractor, Set<Integer> selectedTracks) {
+        int trackCount = extractor.getTrackCount();
+        long[][] times = new long[trackCount][];
+        byte[][] flags = new byte[trackCount][];
+        int[] counts = new int[trackCount];
+
+        for (int i = 0; i < trackCount; i++) {
+            times[i] = new long[256];
+            flags[i] = new byte[256];
+            if (!selectedTracks.contains(i)) {
+                extractor.selectTrack(i);
+            }
+        }
+
+        extractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        while (extractor.getSampleTrackIndex() != -1) {
+            int track = extractor.getSampleTrackIndex();
+            int count = counts[track];
+            if (count == times[track].length) {
+                times[track] = Arrays.copyOf(times[track], count * 2);
+                flags[track] = Arrays.copyOf(flags[track], count * 2);
+            }
+            times[track][count] = extractor.getSampleTime();
+            flags[track][count] = (byte) extractor.getSampleFlags();
+            counts[track] = count + 1;
+            if (!extractor.advance()) {
+                break;
+            }
+        }
+
+        for (int i = 0; i < trackCount; i++) {
+            if (!selectedTracks.contains(i)) {
+                extractor.unselectTrack(i);
+            }
+        }
+        extractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        long[] durations = new long[trackCount];
+        LongBuffer[] sampleTimes = new LongBuffer[trackCount];
+        ByteBuffer[] sampleFlags = new ByteBuffer[trackCount];
+        LongBuffer[] syncSampleTimes = new LongBuffer[trackCount];
+        for (int i = 0; i < trackCount; i++) {
+            long[] trackTimes = Arrays.copyOf(times[i], counts[i]);
+            byte[] trackFlags = Arrays.copyOf(flags[i], counts[i]);
+            sortByTime(trackTimes, trackFlags);
+
+            long[] trackSyncTimes = new long[counts[i]];
+            int syncCount = 0;
+            for (int j = 0; j < counts[i]; j++) {
+                if ((trackFlags[j] & IMediaExtractor.SAMPLE_FLAG_SYNC) != 0) {
+                    trackSyncTimes[syncCount++] = trackTimes[j];
+                }
+            }
+
+            MediaFormat format = extractor.getTrackFormat(i);
+            durations[i] = format != null ? format.getDuration() : 0;
+            if (durations[i] <= 0 && trackTimes.length > 0) {
+                durations[i] = trackTimes[trackTimes.length - 1];
+            }
+            sampleTimes[i] = LongBuffer.wrap(trackTimes);
+            sampleFlags[i] = ByteBuffer.wrap(trackFlags);
+            syncSampleTimes[i] = LongBuffer.wrap(Arrays.copyOf(trackSyncTimes, syncCount));
+        }
+        return new SampleIndex(durations, sampleTimes, sampleFlags, syncSampleTimes);
+    }
+
+    private static void sortByTime(final long[] times, byte[] flags) {
+        boolean sorted = true;
+        for (int i = 1; i < times.length && sorted; i++) {
+            sorted = times[i - 1] <= times[i];
+        }
+        if (sorted) {
+            return;
+        }
+
+        Integer[] order = new Integer[times.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer left, Integer right) {
+                return times[left] < times[right] ? -1 : (times[left] == times[right] ? 0 : 1);
+            }
+        });
+
+        long[] sourceTimes = times.clone();
+        byte[] sourceFlags = flags.clone();
+        for (int i = 0; i < order.length; i++) {
+            times[i] = sourceTimes[order[i]];
+            flags[i] = sourceFlags[order[i]];
+        }
+    }
+
+    public int getTrackCount() {
+        return durations.length;
+    }
+
+    public long getDurationInMicroSec(int track) {
+        return durations[track];
+    }
+
+    public int getSampleCount(int track) {
+        return sampleTimes[track].limit();
+    }
+
+    public long getSampleTime(int track, int sample) {
+        return sampleTimes[track].get(sample);
+    }
+
+    public int getSampleFlags(int track, int sample) {
+        return sampleFlags[track].get(sample);
+    }
+
+    /**
+     * @return Index of the last sample presented at or before the given time, -1 if there is none.
+     */
+    public int findSample(int track, long timeUs) {
+        return floor(sampleTimes[track], timeUs);
+    }
+
+    /**
+     * @return Time of the last sync sample at or before the given time, -1 if there is none.
+     */
+    public long getSyncSampleTimeBefore(int track, long timeUs) {
+        LongBuffer times = syncSampleTimes[track];
+        int index = floor(times, timeUs);
+        return index == -1 ? -1 : times.get(index);
+    }
+
+    /**
+     * @return Time of the first sync sample at or after the given time, -1 if there is none.
+     */
+    public long getSyncSampleTimeAfter(int track, long timeUs) {
+        LongBuffer times = syncSampleTimes[track];
+        int index = floor(times, timeUs);
+        if (index != -1 && times.get(index) == timeUs) {
+            return timeUs;
+        }
+        return index + 1 < times.limit() ? times.get(index + 1) : -1;
+    }
+
+    public long[] getSyncSampleTimes(int track) {
+        LongBuffer times = syncSampleTimes[track];
+        long[] result = new long[times.limit()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = times.get(i);
+        }
+        return result;
+    }
+
+    private static int floor(LongBuffer times, long value) {
+        int low = 0;
+        int high = times.limit() - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (times.get(middle) <= value) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return high;
+    }
+
+    /**
+     * Saves the index next to the identity of the indexed file, so a later load can tell whether
+     * the file has changed in between. The index file is replaced atomically.
+     */
+    public void save(File file, String sourcePath, long sourceLength, long sourceModified) throws IOException {
+        File temporaryFile = new File(file.getPath() + ".tmp");
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temporaryFile)));
+        try {
+            byte[] path = sourcePath.getBytes("UTF-8");
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeInt(path.length);
+            output.write(path);
+            output.writeLong(sourceLength);
+            output.writeLong(sourceModified);
+            output.writeInt(getTrackCount());
+            for (int i = 0; i < getTrackCount(); i++) {
+                output.writeLong(durations[i]);
+                output.writeInt(sampleTimes[i].limit());
+                output.writeInt(syncSampleTimes[i].limit());
+            }
+            for (int i = 0; i < getTrackCount(); i++) {
+                for (int j = 0; j < sampleTimes[i].limit(); j++) {
+                    output.writeLong(sampleTimes[i].get(j));
+                }
+                for (int j = 0; j < syncSampleTimes[i].limit(); j++) {
+                    output.writeLong(syncSampleTimes[i].get(j));
+                }
+                for (int j = 0; j < sampleFlags[i].limit(); j++) {
+                    output.writeByte(sampleFlags[i].get(j));
+                }
+            }
+        } finally {
+            output.close();
+        }
+
+        if (!temporaryFile.renameTo(file)) {
+            file.delete();
+            if (!temporaryFile.renameTo(file)) {
+                temporaryFile.delete();
+                throw new IOException("Failed to replace sample index " + file.getPath());
+            }
+        }
+    }
+
+    /**
+     * Maps a saved index into memory. Sample tables are read straight from the mapping.
+     *
+     * @return Loaded index, null if the file belongs to another file or to a changed version of it.
+     * @throws IOException when the index file can not be read or is corrupted.
+     */
+    public static SampleIndex load(File file, String sourcePath, long sourceLength, long sourceModified) throws IOException {
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            buffer = input.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, input.length());
+        } finally {
+            input.close();
+        }
+
+        try {
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            byte[] path = new byte[buffer.getInt()];
+            buffer.get(path);
+            if (!sourcePath.equals(new String(path, "UTF-8"))
+                    || buffer.getLong() != sourceLength
+                    || buffer.getLong() != sourceModified) {
+                return null;
+            }
+
+            int trackCount = buffer.getInt();
+            long[] durations = new long[trackCount];
+            int[] sampleCounts = new int[trackCount];
+            int[] syncSampleCounts = new int[trackCount];
+            for (int i = 0; i < trackCount; i++) {
+                durations[i] = buffer.getLong();
+                sampleCounts[i] = buffer.getInt();
+                syncSampleCounts[i] = buffer.getInt();
+            }
+
+            LongBuffer[] sampleTimes = new LongBuffer[trackCount];
+            ByteBuffer[] sampleFlags = new ByteBuffer[trackCount];
+            LongBuffer[] syncSampleTimes = new LongBuffer[trackCount];
+            for (int i = 0; i < trackCount; i++) {
+                sampleTimes[i] = slice(buffer, sampleCounts[i] * 8).asLongBuffer();
+                syncSampleTimes[i] = slice(buffer, syncSampleCounts[i] * 8).asLongBuffer();
+                sampleFlags[i] = slice(buffer, sampleCounts[i]);
+            }
+            return new SampleIndex(durations, sampleTimes, sampleFlags, syncSampleTimes);
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted sample index " + file.getPath(), e);
+        }
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length) {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+}
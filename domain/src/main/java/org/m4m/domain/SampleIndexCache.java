@@ -0,0 +1,78 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Directory of saved sample indexes. An index is found by the path of the indexed file and is
+ * only used while the file keeps its length and modification time.
+ */
+public class SampleIndexCache {
+    private static final String EXTENSION = ".idx";
+    private final File directory;
+
+    public SampleIndexCache(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    /**
+     * @return Saved index of the file, null if there is none or the file has changed since.
+     */
+    public SampleIndex get(String path) {
+        if (path == null) {
+            return null;
+        }
+        File source = new File(path);
+        File indexFile = getIndexFile(path);
+        if (!indexFile.exists()) {
+            return null;
+        }
+        try {
+            return SampleIndex.load(indexFile, path, source.length(), source.lastModified());
+        } catch (IOException e) {
+            indexFile.delete();
+            return null;
+        }
+    }
+
+    public void put(String path, SampleIndex index) throws IOException {
+        if (path == null) {
+            return;
+        }
+        if (!directory.exists() && !directory.mkdirs()) {
+            throw new IOException("Failed to create sample index directory " + directory.getPath());
+        }
+        File source = new File(path);
+        index.save(getIndexFile(path), path, source.length(), source.lastModified());
+    }
+
+    public void remove(String path) {
+        getIndexFile(path).delete();
+    }
+
+    private File getIndexFile(String path) {
+        String absolutePath = new File(path).getAbsolutePath();
+        return new File(directory, Integer.toHexString(absolutePath.hashCode()) + "-"
+                + Integer.toHexString(absolutePath.length()) + EXTENSION);
+    }
+}
@@ -0,0 +1,225 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+
+/**
+ * Orders encoded samples of all tracks by presentation time before they reach the muxer. Samples of a track keep
+ * their decode order, across tracks the sample with the lowest presentation time is written first, as soon as every
+ * track that has not ended yet has a sample buffered. Samples that must wait are copied into pooled buffers, so
+ * the codec output buffer is released immediately. The buffered amount is bounded by a time and a memory window:
+ * once either is exceeded the oldest sample is written even if a slower track has nothing buffered yet.
+ */
+class SampleInterleaver {
+    static final long DEFAULT_TIME_WINDOW_US = 1000000;
+    static final int DEFAULT_MAX_BUFFERED_BYTES = 4 * 1024 * 1024;
+
+    interface ISampleWriter {
+        void writeSample(int trackId, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo);
+    }
+
+    private static class Sample {
+        final ByteBuffer data;
+        final IMediaCodec.BufferInfo bufferInfo;
+        final long key;
+
+        Sample(ByteBuffer data, IMediaCodec.BufferInfo bufferInfo, long key) {
+            this.data = data;
+            this.bufferInfo = bufferInfo;
+            this.key = key;
+        }
+    }
+
+    private static class Track {
+        final int id;
+        final ArrayDeque<Sample> samples = new ArrayDeque<Sample>();
+        boolean ended = false;
+
+        Track(int id) {
+            this.id = id;
+        }
+    }
+
+    private final ArrayList<Track> tracks = new ArrayList<Track>();
+    private final ArrayDeque<ByteBuffer> freeBuffers = new ArrayDeque<ByteBuffer>();
+    private long timeWindowUs = DEFAULT_TIME_WINDOW_US;
+    private int maxBufferedBytes = DEFAULT_MAX_BUFFERED_BYTES;
+    private int bufferedBytes = 0;
+    private long latestSampleTime = Long.MIN_VALUE;
+    private int forcedWrites = 0;
+
+    public void setWindow(long timeWindowUs, int maxBufferedBytes) {
+        this.timeWindowUs = timeWindowUs;
+        this.maxBufferedBytes = maxBufferedBytes;
+    }
+
+    public void addTrack(int trackId) {
+        getTrack(trackId);
+    }
+
+    /**
+     * @param writer Receives the samples ready to be written, null while the muxer is not ready yet.
+     */
+    public void push(Frame frame, ISampleWriter writer) {
+        Track track = getTrack(frame.getTrackId());
+        boolean endOfStream = Frame.EOF().equals(frame);
+        long key = endOfStream ? Long.MAX_VALUE : frame.getSampleTime();
+        if (!endOfStream) {
+            latestSampleTime = Math.max(latestSampleTime, key);
+        }
+
+        if (writer != null) {
+            writeReadySamples(writer);
+        }
+        // End of stream carries no data, it only has to follow the samples of its own track
+        if (writer != null && track.samples.isEmpty() && (endOfStream || isNext(track, key))) {
+            writer.writeSample(track.id, frame.getByteBuffer(), createBufferInfo(frame));
+        } else {
+            track.samples.add(copy(frame, key));
+        }
+        if (endOfStream) {
+            track.ended = true;
+        }
+
+        if (writer != null) {
+            writeReadySamples(writer);
+            writeOverflowingSamples(writer);
+        }
+    }
+
+    public void flush(ISampleWriter writer) {
+        Track oldest;
+        while ((oldest = getOldestTrack()) != null) {
+            writeFirstSample(oldest, writer);
+        }
+    }
+
+    public int getBufferedBytes() {
+        return bufferedBytes;
+    }
+
+    /**
+     * Returns the number of samples written out of order because the time or memory window was exceeded.
+     */
+    public int getForcedWrites() {
+        return forcedWrites;
+    }
+
+    private void writeReadySamples(ISampleWriter writer) {
+        Track oldest;
+        while ((oldest = getOldestTrack()) != null && isNext(oldest, oldest.samples.peek().key)) {
+            writeFirstSample(oldest, writer);
+        }
+    }
+
+    private void writeOverflowingSamples(ISampleWriter writer) {
+        Track oldest;
+        while ((oldest = getOldestTrack()) != null && isWindowExceeded(oldest.samples.peek().key)) {
+            writeFirstSample(oldest, writer);
+            forcedWrites++;
+        }
+    }
+
+    private boolean isWindowExceeded(long oldestKey) {
+        return bufferedBytes > maxBufferedBytes || (oldestKey != Long.MAX_VALUE && latestSampleTime - oldestKey > timeWindowUs);
+    }
+
+    private boolean isNext(Track track, long key) {
+        for (Track other : tracks) {
+            if (other == track) {
+                continue;
+            }
+            Sample first = other.samples.peek();
+            if (first == null) {
+                if (!other.ended) {
+                    return false;
+                }
+            } else if (first.key < key) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private Track getOldestTrack() {
+        Track oldest = null;
+        for (Track track : tracks) {
+            Sample first = track.samples.peek();
+            if (first != null && (oldest == null || first.key < oldest.samples.peek().key)) {
+                oldest = track;
+            }
+        }
+        return oldest;
+    }
+
+    private Track getTrack(int trackId) {
+        for (Track track : tracks) {
+            if (track.id == trackId) {
+                return track;
+            }
+        }
+        Track track = new Track(trackId);
+        tracks.add(track);
+        return track;
+    }
+
+    private void writeFirstSample(Track track, ISampleWriter writer) {
+        Sample sample = track.samples.poll();
+        writer.writeSample(track.id, sample.data, sample.bufferInfo);
+        bufferedBytes -= sample.data.capacity();
+        freeBuffers.add(sample.data);
+    }
+
+    private Sample copy(Frame frame, long key) {
+        int length = Math.max(frame.getLength(), 0);
+        ByteBuffer data = obtainBuffer(length);
+        if (length > 0 && frame.getByteBuffer() != null) {
+            ByteBuffer source = frame.getByteBuffer().duplicate();
+            source.rewind();
+            source.limit(length);
+            data.put(source);
+        }
+        data.flip();
+        bufferedBytes += data.capacity();
+        return new Sample(data, createBufferInfo(frame), key);
+    }
+
+    private ByteBuffer obtainBuffer(int length) {
+        Iterator<ByteBuffer> iterator = freeBuffers.iterator();
+        while (iterator.hasNext()) {
+            ByteBuffer buffer = iterator.next();
+            if (buffer.capacity() >= length) {
+                iterator.remove();
+                buffer.clear();
+                return buffer;
+            }
+        }
+        return ByteBuffer.allocate(length);
+    }
+
+    private IMediaCodec.BufferInfo createBufferInfo(Frame frame) {
+        IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+        bufferInfo.flags = frame.getFlags();
+        bufferInfo.presentationTimeUs = frame.getSampleTime();
+        bufferInfo.size = frame.getLength();
+        return bufferInfo;
+    }
+}
@@ -20,7 +20,18 @@ import java.util.*;
 
 class Segments {
     private ArrayList<Pair<Long, Long>> segments = new ArrayList<Pair<Long, Long>>();
-    private Dictionary<Pair<Long, Long>, Long> lastSegmentSampleTime = new Hashtable<Pair<Long, Long>, Long>();
+
+    // Index of segments sorted by start time, rebuilt lazily after the segment list changes
+    private ArrayList<Pair<Long, Long>> sortedSegments = new ArrayList<Pair<Long, Long>>();
+    private long[] lefts = new long[0];
+    private long[] rights = new long[0];
+    private long[] lastSampleTimes = new long[0];
+    // accumulatedShifts[i] is the time shift of all segments before i, valid up to validShifts
+    private long[] accumulatedShifts = new long[1];
+    private int validShifts = 0;
+    private boolean overlapping = false;
+    private boolean indexValid = true;
+    private int cursor = 0;
 
     SegmentListener segmentListener = new SegmentListener();
 
@@ -46,66 +57,162 @@ class Segments {
 
     public boolean isInsideSegment(long sampleTime) {
         if (segments.isEmpty()) return true;
-        return getSegmentByTime(sampleTime) != null;
+        return findSegment(sampleTime) != -1;
     }
 
     public void saveSampleTime(long sampleTime) {
-        Pair<Long, Long> segment = getSegmentByTime(sampleTime);
-        if (segment == null) return;
-        Long last = lastSegmentSampleTime.get(segment);
-        if (last == null) {
-            lastSegmentSampleTime.put(segment, sampleTime);
-            return;
-        }
-        if (last < sampleTime) {
-            lastSegmentSampleTime.put(segment, sampleTime);
+        int index = findSegment(sampleTime);
+        if (index == -1) return;
+        if (lastSampleTimes[index] < sampleTime) {
+            lastSampleTimes[index] = sampleTime;
+            validShifts = Math.min(validShifts, index);
         }
     }
 
     public long shift(long sampleTime) {
-        long shiftedSampleTime = sampleTime;
-        if (getCurrentSegmentTimeShift(sampleTime) != 0) {
-            shiftedSampleTime -= getCurrentSegmentTimeShift(sampleTime);
-            shiftedSampleTime += getPreviousSegmentsTimeShift(sampleTime);
+        int index = findSegment(sampleTime);
+        if (index == -1 || lefts[index] == 0) {
+            return sampleTime;
         }
-        return shiftedSampleTime;
+        return sampleTime - lefts[index] + getPreviousSegmentsTimeShift(index, sampleTime);
     }
 
     public Pair<Long, Long> getSegmentAfter(long sampleTime) {
-        for (Pair<Long, Long> segment : segments) {
-            if (sampleTime < segment.left) {
-                return segment;
+        updateIndex();
+        int low = 0;
+        int high = lefts.length;
+        while (low < high) {
+            int middle = (low + high) >>> 1;
+            if (lefts[middle] <= sampleTime) {
+                low = middle + 1;
+            } else {
+                high = middle;
             }
         }
-        return null;
+        return low < lefts.length ? sortedSegments.get(low) : null;
     }
 
     private Pair<Long, Long> getSegmentByTime(long sampleTime) {
-        for (Pair<Long, Long> segment : segments) {
-            if (segment.left <= sampleTime && sampleTime <= segment.right) {
-                return segment;
+        int index = findSegment(sampleTime);
+        return index == -1 ? null : sortedSegments.get(index);
+    }
+
+    /**
+     * Returns the index of the sorted segment containing the sample time, the earlier one if two segments touch.
+     * Sample times usually grow monotonically, so the segment found last is checked before a binary search.
+     */
+    private int findSegment(long sampleTime) {
+        updateIndex();
+        int count = lefts.length;
+        if (count == 0) return -1;
+
+        if (overlapping) {
+            for (int i = 0; i < count; i++) {
+                if (lefts[i] <= sampleTime && sampleTime <= rights[i]) return i;
             }
+            return -1;
         }
-        return null;
+
+        int index;
+        if (lefts[cursor] <= sampleTime && (cursor + 1 == count || sampleTime < lefts[cursor + 1])) {
+            index = cursor;
+        } else {
+            index = findLastStartingBefore(sampleTime);
+            if (index == -1) return -1;
+            cursor = index;
+        }
+
+        if (sampleTime > rights[index]) return -1;
+        if (index > 0 && rights[index - 1] >= sampleTime) return index - 1;
+        return index;
     }
 
-    private long getCurrentSegmentTimeShift(long sampleTime) {
-        long timeShift = 0;
-        Pair<Long, Long> segment = getSegmentByTime(sampleTime);
-        if (segment != null) {
-            timeShift = segment.left;
+    private int findLastStartingBefore(long sampleTime) {
+        int low = 0;
+        int high = lefts.length - 1;
+        int found = -1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (lefts[middle] <= sampleTime) {
+                found = middle;
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
         }
-        return timeShift;
+        return found;
     }
 
-    private long getPreviousSegmentsTimeShift(long sampleTime) {
-        long timeShift = 0;
-        for (Pair<Long, Long> previousSegment : segments) {
-            if (previousSegment.right < sampleTime) {
-                timeShift += lastSegmentSampleTime.get(previousSegment) - previousSegment.left;
+    private long getPreviousSegmentsTimeShift(int index, long sampleTime) {
+        if (overlapping) {
+            long timeShift = 0;
+            for (int i = 0; i < lefts.length; i++) {
+                if (rights[i] < sampleTime) {
+                    timeShift += getSegmentTimeShift(i);
+                }
+            }
+            return timeShift;
+        }
+
+        // Segments do not overlap, so the ones ending before the sample time are a prefix of the sorted list
+        int previous = index;
+        while (previous > 0 && rights[previous - 1] >= sampleTime) {
+            previous--;
+        }
+        while (previous < lefts.length && rights[previous] < sampleTime) {
+            previous++;
+        }
+
+        for (; validShifts < previous; validShifts++) {
+            accumulatedShifts[validShifts + 1] = accumulatedShifts[validShifts] + getSegmentTimeShift(validShifts);
+        }
+        return accumulatedShifts[previous];
+    }
+
+    private long getSegmentTimeShift(int index) {
+        if (lastSampleTimes[index] == Long.MIN_VALUE) return 0;
+        return lastSampleTimes[index] - lefts[index];
+    }
+
+    private void invalidateIndex() {
+        indexValid = false;
+    }
+
+    private void updateIndex() {
+        if (indexValid) return;
+
+        IdentityHashMap<Pair<Long, Long>, Long> savedSampleTimes = new IdentityHashMap<Pair<Long, Long>, Long>();
+        for (int i = 0; i < sortedSegments.size(); i++) {
+            savedSampleTimes.put(sortedSegments.get(i), lastSampleTimes[i]);
+        }
+
+        sortedSegments = new ArrayList<Pair<Long, Long>>(segments);
+        Collections.sort(sortedSegments, new Comparator<Pair<Long, Long>>() {
+            @Override
+            public int compare(Pair<Long, Long> lhs, Pair<Long, Long> rhs) {
+                return lhs.left.compareTo(rhs.left);
+            }
+        });
+
+        int count = sortedSegments.size();
+        lefts = new long[count];
+        rights = new long[count];
+        lastSampleTimes = new long[count];
+        accumulatedShifts = new long[count + 1];
+        validShifts = 0;
+        overlapping = false;
+        cursor = 0;
+        for (int i = 0; i < count; i++) {
+            Pair<Long, Long> segment = sortedSegments.get(i);
+            lefts[i] = segment.left;
+            rights[i] = segment.right;
+            Long saved = savedSampleTimes.get(segment);
+            lastSampleTimes[i] = saved == null ? Long.MIN_VALUE : saved;
+            if (i > 0 && lefts[i] < rights[i - 1]) {
+                overlapping = true;
             }
         }
-        return timeShift;
+        indexValid = true;
     }
 
     public boolean isEmpty() {
@@ -116,6 +223,7 @@ class Segments {
         Pair<Long, Long> arrangedPair = arrange(pair);
         if (arrangedPair != null) {
             segments.add(arrangedPair);
+            invalidateIndex();
             segmentListener.segmentAdd();
         }
     }
@@ -128,6 +236,7 @@ class Segments {
             Pair<Long, Long> segment = segmentIterator.next();
             if (arrangedPair.left <= segment.left && segment.right <= arrangedPair.right) {
                 segmentIterator.remove();
+                invalidateIndex();
             }
         }
 
@@ -162,17 +271,20 @@ class Segments {
 
     public void add(int index, Pair<Long, Long> segment) {
         segments.add(index, segment);
+        invalidateIndex();
         segmentListener.segmentAdd();
     }
 
     public void remove(int index) {
         segments.remove(index);
+        invalidateIndex();
     }
 
     public void removeOutOfBoundSegments(long boundLimit) {
         for (int i = 0; i < segments.size(); i++) {
             if (segments.get(i).left >= boundLimit) {
                 segments.remove(i);
+                invalidateIndex();
             }
         }
     }
@@ -0,0 +1,289 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.m4m.domain.mp4.NalUnits;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+
+/**
+ * Writes the output of several pipelines, each encoding one consecutive chunk of a stream, into a single muxer.
+ * Every chunk gets its own {@link IMediaMuxer} from {@link #addChunk(long)}. The chunk currently being written
+ * passes its samples straight to the target muxer, later chunks keep copies of their samples until all chunks
+ * before them are stopped. Sample times of a chunk are shifted by the chunk start time, so the output timeline
+ * is continuous. Tracks are matched by the mime type prefix, the formats of the first chunk are used for the output.
+ * All chunks must be added before any of them is started.
+ * <p/>
+ * Chunks may come with different H.264/H.265 parameter sets, for example when encoded chunks are joined with
+ * chunks copied from the source. Sync samples of such a chunk get its parameter sets inserted in front of them,
+ * so every chunk decodes with its own configuration.
+ */
+public class StitchingMuxer {
+    private static final int BUFFER_FLAG_SYNC_FRAME = 1;
+
+    private final IMediaMuxer muxer;
+    private final List<Chunk> chunks = new ArrayList<Chunk>();
+    private final Hashtable<String, Integer> outputTracks = new Hashtable<String, Integer>();
+    private final Hashtable<String, ByteBuffer> outputConfigs = new Hashtable<String, ByteBuffer>();
+    private final Hashtable<String, ByteBuffer> activeConfigs = new Hashtable<String, ByteBuffer>();
+    private ByteBuffer configuredSample = ByteBuffer.allocate(0);
+    private int currentChunk = 0;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    private static class Sample {
+        final int trackIndex;
+        final ByteBuffer data;
+        final IMediaCodec.BufferInfo bufferInfo;
+
+        Sample(int trackIndex, ByteBuffer data, IMediaCodec.BufferInfo bufferInfo) {
+            this.trackIndex = trackIndex;
+            this.data = data;
+            this.bufferInfo = bufferInfo;
+        }
+    }
+
+    private class Chunk implements IMediaMuxer {
+        final int index;
+        final long timeOffsetUs;
+        final List<String> trackTypes = new ArrayList<String>();
+        final List<ByteBuffer> trackConfigs = new ArrayList<ByteBuffer>();
+        final List<Sample> samples = new ArrayList<Sample>();
+        boolean finished = false;
+
+        Chunk(int index, long timeOffsetUs) {
+            this.index = index;
+            this.timeOffsetUs = timeOffsetUs;
+        }
+
+        @Override
+        public int addTrack(MediaFormat mediaFormat) {
+            synchronized (StitchingMuxer.this) {
+                String trackType = getTrackType(mediaFormat);
+                ByteBuffer config = getParameterSets(mediaFormat);
+                if (!outputTracks.containsKey(trackType)) {
+                    if (started) {
+                        throw new IllegalStateException("Chunk " + index + " has a " + trackType + " track the output was started without.");
+                    }
+                    outputTracks.put(trackType, muxer.addTrack(mediaFormat));
+                    if (config != null) {
+                        outputConfigs.put(trackType, config);
+                        activeConfigs.put(trackType, config);
+                    }
+                }
+                trackTypes.add(trackType);
+                trackConfigs.add(config);
+                return trackTypes.size() - 1;
+            }
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) {
+            synchronized (StitchingMuxer.this) {
+                if (!started) {
+                    muxer.setOrientationHint(degrees);
+                }
+            }
+        }
+
+        @Override
+        public void start() {
+            synchronized (StitchingMuxer.this) {
+                if (!started) {
+                    muxer.start();
+                    started = true;
+                }
+            }
+        }
+
+        @Override
+        public void stop() {
+            synchronized (StitchingMuxer.this) {
+                finished = true;
+                if (index == currentChunk) {
+                    switchToNextChunk();
+                }
+            }
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo) {
+            synchronized (StitchingMuxer.this) {
+                if (index == currentChunk) {
+                    write(trackIndex, byteBuffer, bufferInfo);
+                    return;
+                }
+
+                ByteBuffer data = ByteBuffer.allocate(bufferInfo.size);
+                ByteBuffer source = byteBuffer.duplicate();
+                source.position(bufferInfo.offset);
+                source.limit(bufferInfo.offset + bufferInfo.size);
+                data.put(source);
+                data.position(0);
+
+                IMediaCodec.BufferInfo sampleInfo = new IMediaCodec.BufferInfo();
+                sampleInfo.flags = bufferInfo.flags;
+                sampleInfo.offset = 0;
+                sampleInfo.size = bufferInfo.size;
+                sampleInfo.presentationTimeUs = bufferInfo.presentationTimeUs;
+                samples.add(new Sample(trackIndex, data, sampleInfo));
+            }
+        }
+
+        void write(int trackIndex, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo) {
+            String trackType = trackTypes.get(trackIndex);
+            int outputTrack = outputTracks.get(trackType);
+            ByteBuffer config = trackConfigs.get(trackIndex);
+            if (config != null && (bufferInfo.flags & BUFFER_FLAG_SYNC_FRAME) != 0) {
+                boolean inBand = !config.equals(outputConfigs.get(trackType)) || !config.equals(activeConfigs.get(trackType));
+                activeConfigs.put(trackType, config);
+                if (inBand) {
+                    writeWithParameterSets(outputTrack, config, byteBuffer, bufferInfo);
+                    return;
+                }
+            }
+
+            long presentationTimeUs = bufferInfo.presentationTimeUs;
+            bufferInfo.presentationTimeUs = presentationTimeUs + timeOffsetUs;
+            muxer.writeSampleData(outputTrack, byteBuffer, bufferInfo);
+            bufferInfo.presentationTimeUs = presentationTimeUs;
+        }
+
+        void writeWithParameterSets(int outputTrack, ByteBuffer config, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo) {
+            int size = config.remaining() + bufferInfo.size;
+            if (configuredSample.capacity() < size) {
+                configuredSample = ByteBuffer.allocate(size);
+            }
+            ByteBuffer source = byteBuffer.duplicate();
+            source.position(bufferInfo.offset);
+            source.limit(bufferInfo.offset + bufferInfo.size);
+            configuredSample.clear();
+            configuredSample.put(config.duplicate());
+            configuredSample.put(source);
+            configuredSample.flip();
+
+            IMediaCodec.BufferInfo sampleInfo = new IMediaCodec.BufferInfo();
+            sampleInfo.flags = bufferInfo.flags;
+            sampleInfo.offset = 0;
+            sampleInfo.size = size;
+            sampleInfo.presentationTimeUs = bufferInfo.presentationTimeUs + timeOffsetUs;
+            muxer.writeSampleData(outputTrack, configuredSample, sampleInfo);
+        }
+
+        void writeBufferedSamples() {
+            for (Sample sample : samples) {
+                write(sample.trackIndex, sample.data, sample.bufferInfo);
+            }
+            samples.clear();
+        }
+    }
+
+    public StitchingMuxer(IMediaMuxer muxer) {
+        this.muxer = muxer;
+    }
+
+    /**
+     * Adds the next chunk of the output.
+     *
+     * @param timeOffsetUs Time in microseconds sample times of the chunk are shifted by, usually the chunk start time.
+     * @return Muxer to be used by the pipeline encoding the chunk.
+     */
+    public synchronized IMediaMuxer addChunk(long timeOffsetUs) {
+        Chunk chunk = new Chunk(chunks.size(), timeOffsetUs);
+        chunks.add(chunk);
+        return chunk;
+    }
+
+    /**
+     * Returns the index of the chunk written to the target muxer, the number of chunks once all are written.
+     */
+    public synchronized int getCurrentChunk() {
+        return currentChunk;
+    }
+
+    public synchronized int getChunksCount() {
+        return chunks.size();
+    }
+
+    /**
+     * Returns the number of bytes held by chunks waiting for the chunks before them.
+     */
+    public synchronized long getBufferedBytes() {
+        long bufferedBytes = 0;
+        for (Chunk chunk : chunks) {
+            for (Sample sample : chunk.samples) {
+                bufferedBytes += sample.bufferInfo.size;
+            }
+        }
+        return bufferedBytes;
+    }
+
+    public synchronized boolean isStopped() {
+        return stopped;
+    }
+
+    private void switchToNextChunk() {
+        while (currentChunk < chunks.size() && chunks.get(currentChunk).finished) {
+            currentChunk++;
+            if (currentChunk < chunks.size()) {
+                chunks.get(currentChunk).writeBufferedSamples();
+            }
+        }
+
+        if (currentChunk == chunks.size()) {
+            muxer.stop();
+            muxer.release();
+            stopped = true;
+        }
+    }
+
+    /**
+     * @return csd-0 and csd-1 of an H.264/H.265 track as NAL units with start codes, null for other tracks.
+     */
+    private ByteBuffer getParameterSets(MediaFormat mediaFormat) {
+        String mimeType = mediaFormat.getMimeType();
+        if (!"video/avc".equals(mimeType) && !"video/hevc".equals(mimeType)) {
+            return null;
+        }
+        ByteBuffer csd0 = mediaFormat.getByteBuffer("csd-0");
+        ByteBuffer csd1 = mediaFormat.getByteBuffer("csd-1");
+        if (csd0 == null || !NalUnits.hasStartCode(csd0) || (csd1 != null && !NalUnits.hasStartCode(csd1))) {
+            return null;
+        }
+
+        ByteBuffer config = ByteBuffer.allocate(csd0.remaining() + (csd1 != null ? csd1.remaining() : 0));
+        config.put(csd0.duplicate());
+        if (csd1 != null) {
+            config.put(csd1.duplicate());
+        }
+        config.flip();
+        return config;
+    }
+
+    private String getTrackType(MediaFormat mediaFormat) {
+        String mimeType = mediaFormat.getMimeType();
+        int separator = mimeType.indexOf('/');
+        return separator == -1 ? mimeType : mimeType.substring(0, separator);
+    }
+}
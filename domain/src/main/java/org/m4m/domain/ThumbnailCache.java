@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Least recently used cache of decoded video frames, keyed by source, requested time and
+ * frame buffer size. The total size of the cached frames is kept under a limit in bytes.
+ */
+public class ThumbnailCache {
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true);
+    private long maxSize;
+    private long size = 0;
+
+    private static class Key {
+        private final String source;
+        private final long time;
+        private final int frameSize;
+
+        Key(String source, long time, int frameSize) {
+            this.source = source;
+            this.time = time;
+            this.frameSize = frameSize;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof Key)) return false;
+
+            Key key = (Key) o;
+            return time == key.time && frameSize == key.frameSize && source.equals(key.source);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = source.hashCode();
+            result = 31 * result + (int) (time ^ (time >>> 32));
+            result = 31 * result + frameSize;
+            return result;
+        }
+    }
+
+    private static class Entry {
+        private final byte[] data;
+        private final long sampleTime;
+
+        Entry(byte[] data, long sampleTime) {
+            this.data = data;
+            this.sampleTime = sampleTime;
+        }
+    }
+
+    public ThumbnailCache(long maxSizeInBytes) {
+        this.maxSize = maxSizeInBytes;
+    }
+
+    /**
+     * Copies a cached frame to the beginning of the destination buffer.
+     *
+     * @return Sample time of the cached frame, -1 if the frame is not cached.
+     */
+    public synchronized long get(String source, long time, ByteBuffer destination) {
+        Entry entry = entries.get(new Key(source, time, destination.capacity()));
+        if (entry == null) {
+            return -1;
+        }
+
+        destination.clear();
+        destination.put(entry.data);
+        destination.flip();
+        return entry.sampleTime;
+    }
+
+    /**
+     * Caches the frame in the buffer, from its beginning to its limit.
+     */
+    public synchronized void put(String source, long time, ByteBuffer frame, long sampleTime) {
+        int length = frame.limit();
+        if (length > maxSize) {
+            return;
+        }
+
+        byte[] data = new byte[length];
+        ByteBuffer view = frame.duplicate();
+        view.position(0);
+        view.get(data);
+
+        Entry previous = entries.put(new Key(source, time, frame.capacity()), new Entry(data, sampleTime));
+        if (previous != null) {
+            size -= previous.data.length;
+        }
+        size += length;
+        trim();
+    }
+
+    public synchronized void setMaxSize(long maxSizeInBytes) {
+        this.maxSize = maxSizeInBytes;
+        trim();
+    }
+
+    public synchronized long getMaxSize() {
+        return maxSize;
+    }
+
+    public synchronized long getSize() {
+        return size;
+    }
+
+    public synchronized int getCount() {
+        return entries.size();
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        size = 0;
+    }
+
+    private void trim() {
+        Iterator<Map.Entry<Key, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            size -= iterator.next().getValue().data.length;
+            iterator.remove();
+        }
+    }
+}
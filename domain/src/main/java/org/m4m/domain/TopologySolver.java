@@ -16,8 +16,12 @@
 
 package org.m4m.domain;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 class TopologySolver {
     public Object getNodes;
@@ -93,6 +97,65 @@ class TopologySolver {
         return queue;
     }
 
+    /**
+     * Splits connected pairs into independent chains, e.g. the video and the audio track of a transcoding
+     * pipeline. Pairs sharing an intermediate node (a decoder, an effector, an encoder) always belong to the
+     * same chain, while pure sources and sinks like the media source and the muxer may join several chains.
+     */
+    static List<List<OutputInputPair>> partition(List<OutputInputPair> pairs) {
+        IdentityHashMap<Object, Boolean> outputs = new IdentityHashMap<Object, Boolean>();
+        for (OutputInputPair pair : pairs) {
+            outputs.put(pair.output, Boolean.TRUE);
+        }
+
+        int[] parents = new int[pairs.size()];
+        IdentityHashMap<Object, Integer> owners = new IdentityHashMap<Object, Integer>();
+        for (int i = 0; i < pairs.size(); i++) {
+            parents[i] = i;
+        }
+        for (int i = 0; i < pairs.size(); i++) {
+            OutputInputPair pair = pairs.get(i);
+            if (outputs.containsKey(pair.input)) {
+                union(parents, owners, pair.input, i);
+            }
+        }
+        for (int i = 0; i < pairs.size(); i++) {
+            OutputInputPair pair = pairs.get(i);
+            if (owners.containsKey(pair.output)) {
+                union(parents, owners, pair.output, i);
+            }
+        }
+
+        LinkedHashMap<Integer, List<OutputInputPair>> chains = new LinkedHashMap<Integer, List<OutputInputPair>>();
+        for (int i = 0; i < pairs.size(); i++) {
+            int root = find(parents, i);
+            List<OutputInputPair> chain = chains.get(root);
+            if (chain == null) {
+                chain = new ArrayList<OutputInputPair>();
+                chains.put(root, chain);
+            }
+            chain.add(pairs.get(i));
+        }
+        return new ArrayList<List<OutputInputPair>>(chains.values());
+    }
+
+    private static void union(int[] parents, IdentityHashMap<Object, Integer> owners, Object node, int index) {
+        Integer owner = owners.get(node);
+        if (owner == null) {
+            owners.put(node, index);
+            return;
+        }
+        parents[find(parents, index)] = find(parents, owner);
+    }
+
+    private static int find(int[] parents, int index) {
+        while (parents[index] != index) {
+            parents[index] = parents[parents[index]];
+            index = parents[index];
+        }
+        return index;
+    }
+
     private void buildConnectionQueue(ITopologyTree topologyTree, LinkedList<Pair<IOutputRaw, IInputRaw>> queue, boolean bHead) {
         if (topologyTree == null || !(topologyTree.current() instanceof IOutputRaw)) {
             return;
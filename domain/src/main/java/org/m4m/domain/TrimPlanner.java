@@ -0,0 +1,115 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Splits the segments cut from a stream into pieces that have to be transcoded and pieces that can be copied.
+ * A segment usually starts and ends inside a GOP. The partial GOPs at its head and tail are re-encoded so the cut
+ * is frame accurate, the complete GOPs between them start at a sync sample and are copied as they are.
+ * Every piece knows where it starts in the output, which is the concatenation of all segments. Segment ends are
+ * inclusive, so a piece ends just before the sync sample the next piece starts with.
+ */
+public class TrimPlanner {
+    private final long[] syncSampleTimes;
+    private final long durationUs;
+
+    /**
+     * Piece of a segment, either transcoded or copied.
+     */
+    public static class Piece {
+        public final FileSegment segment;
+        public final boolean streamCopy;
+        public final long outputTimeUs;
+
+        public Piece(FileSegment segment, boolean streamCopy, long outputTimeUs) {
+            this.segment = segment;
+            this.streamCopy = streamCopy;
+            this.outputTimeUs = outputTimeUs;
+        }
+
+        @Override
+        public String toString() {
+            return (streamCopy ? "copy " : "transcode ") + segment.left() + "-" + segment.right() + " at " + outputTimeUs;
+        }
+    }
+
+    /**
+     * @param syncSampleTimes Presentation times of the video sync samples in microseconds, see
+     *                        {@link MediaSource#getSyncSampleTimes()}.
+     * @param durationUs      Duration of the stream in microseconds.
+     */
+    public TrimPlanner(long[] syncSampleTimes, long durationUs) {
+        this.syncSampleTimes = Arrays.copyOf(syncSampleTimes, syncSampleTimes.length);
+        Arrays.sort(this.syncSampleTimes);
+        this.durationUs = durationUs;
+    }
+
+    /**
+     * @param segments Segments to cut in output order, as added to {@link org.m4m.MediaFile#addSegment(Pair)}.
+     * @return Pieces of all segments in output order.
+     */
+    public List<Piece> plan(Collection<Pair<Long, Long>> segments) {
+        List<Piece> pieces = new ArrayList<Piece>();
+        long outputTimeUs = 0;
+        for (Pair<Long, Long> segment : segments) {
+            long left = Math.max(segment.left, 0);
+            long right = Math.min(segment.right, durationUs);
+            if (right <= left) {
+                continue;
+            }
+
+            long copyStart = getSyncSampleTimeAfter(left);
+            long copyEnd = right == durationUs ? right : getSyncSampleTimeBefore(right);
+            if (copyStart == -1 || copyEnd == -1 || copyEnd <= copyStart) {
+                pieces.add(new Piece(new FileSegment(left, right), false, outputTimeUs));
+            } else {
+                if (left < copyStart) {
+                    pieces.add(new Piece(new FileSegment(left, copyStart - 1), false, outputTimeUs));
+                }
+                long copyLast = copyEnd == right ? right : copyEnd - 1;
+                pieces.add(new Piece(new FileSegment(copyStart, copyLast), true, outputTimeUs + copyStart - left));
+                if (copyEnd < right) {
+                    pieces.add(new Piece(new FileSegment(copyEnd, right), false, outputTimeUs + copyEnd - left));
+                }
+            }
+            outputTimeUs += right - left;
+        }
+        return pieces;
+    }
+
+    private long getSyncSampleTimeAfter(long timeUs) {
+        int index = Arrays.binarySearch(syncSampleTimes, timeUs);
+        if (index < 0) {
+            index = -index - 1;
+        }
+        return index < syncSampleTimes.length ? syncSampleTimes[index] : -1;
+    }
+
+    private long getSyncSampleTimeBefore(long timeUs) {
+        int index = Arrays.binarySearch(syncSampleTimes, timeUs);
+        if (index < 0) {
+            index = -index - 2;
+        }
+        return index >= 0 ? syncSampleTimes[index] : -1;
+    }
+}
@@ -19,6 +19,7 @@ package org.m4m.domain;
 import org.m4m.IVideoEffect;
 import org.m4m.domain.graphics.TextureRenderer;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedList;
 
 public class VideoEffector extends MediaCodecPlugin {
@@ -27,6 +28,8 @@ public class VideoEffector extends MediaCodecPlugin {
     private ISurface encoderSurface;
     private IEffectorSurface internalSurface;
     private IEffectorSurface internalOverlappingSurface;
+    private final ArrayList<VideoEncoder> renditions = new ArrayList<VideoEncoder>();
+    private final ArrayList<ISurface> renditionSurfaces = new ArrayList<ISurface>();
 
     private float[] matrix = new float[16];
     IPreview previewRender;
@@ -38,6 +41,7 @@ public class VideoEffector extends MediaCodecPlugin {
     private final long deltaPts = 1000000L;
     private boolean awaitCurrentFileSample = false;
     private Frame saved;
+    private final Frame surfaceFrame = new Frame(null, 1, 1, 0, 0, 0);
     private boolean firstDecoderConnected = false;
     private int skipTransitionEffect = 0;
     private boolean previewRenderMode = false;
@@ -46,6 +50,7 @@ public class VideoEffector extends MediaCodecPlugin {
 
     private int timeScale = 1;
     private FileSegment segment = new FileSegment(0l, 0l);
+    private boolean decimateFrames = true;
 
     public VideoEffector(IMediaCodec mediaCodec, IAndroidMediaObjectFactory factory) {
         super(mediaCodec);
@@ -58,7 +63,7 @@ public class VideoEffector extends MediaCodecPlugin {
     }
 
     public void reInitInputCommandQueue() {
-        getInputCommandQueue().queue.clear();
+        getInputCommandQueue().clear();
         getInputCommandQueue().queue(Command.NeedInputFormat, getTrackId());
     }
 
@@ -98,6 +103,9 @@ public class VideoEffector extends MediaCodecPlugin {
 
     @Override
     public void push(Frame frame) {
+        if (metrics != null && !frame.equals(Frame.empty()) && !frame.equals(Frame.EOF())) {
+            metrics.frameIn(frame.getLength());
+        }
         if (!frame.equals(Frame.empty())) {
             applyEffectorOperations(frame);
         } else {
@@ -119,7 +127,7 @@ public class VideoEffector extends MediaCodecPlugin {
             if (time < segment.pair.right) {
                 frames++;
                 newTime += (time - segment.pair.left) / timeScale;
-                if (frames % timeScale != 0) {
+                if (decimateFrames && frames % timeScale != 0) {
                     feedMeIfNotDraining();
                     return;
                 }
@@ -127,9 +135,10 @@ public class VideoEffector extends MediaCodecPlugin {
                 newTime += (segment.pair.right - segment.pair.left) / timeScale + (time - segment.pair.right);
             }
         }
-        applyEffects(frame);
+        IVideoEffect appliedEffect = applyEffects(frame);
 
         frame.setSampleTime(newTime);
+        renderRenditions(appliedEffect, time, newTime);
 
         updatePreview();
         hasData(frame);
@@ -165,7 +174,6 @@ public class VideoEffector extends MediaCodecPlugin {
     }
 
     private IVideoEffect applyEffects(Frame frame) {
-        boolean effectWasApplied = false;
         IVideoEffect appliedEffect = null;
 
         // in case we are waiting for internalOverlappingSurface and can't await
@@ -185,29 +193,56 @@ public class VideoEffector extends MediaCodecPlugin {
                     effect.setSegment(new FileSegment(pts, pts + oldSegment.pair.right - oldSegment.pair.left));
                 }
 
-                bindFB();
-
-                effect.applyEffect(getInputIndex(), pts, matrix);
-                outputAngle = effect.getAngle();
-
-                unbindFB();
-
-                effectWasApplied = true;
                 appliedEffect = effect;
                 break;
             }
         }
         previousPts = pts;
 
-        if (!effectWasApplied) {
-            bindFB();
+        drawFrame(appliedEffect, pts);
+
+        return appliedEffect;
+    }
+
+    private void drawFrame(IVideoEffect effect, long pts) {
+        bindFB();
+        if (effect != null) {
+            effect.applyEffect(getInputIndex(), pts, matrix);
+            outputAngle = effect.getAngle();
+        } else {
             internalSurface.drawImage(getInputIndex(), matrix, fillMode);
-            unbindFB();
         }
+        unbindFB();
 
         renderOntoEncoderContext(fillMode);
+    }
 
-        return appliedEffect;
+    /**
+     * Draws the current input image once more into the surface of every rendition encoder. The viewport
+     * follows the size of the current surface, so each rendition gets its own frame size.
+     */
+    private void renderRenditions(IVideoEffect effect, long pts, long presentationTimeUs) {
+        if (renditions.isEmpty() || saved != null || previewRenderMode) {
+            return;
+        }
+
+        for (int i = 0; i < renditions.size(); i++) {
+            ISurface surface = renditionSurfaces.get(i);
+            surface.makeCurrent();
+            drawFrame(effect, pts);
+            surface.setPresentationTime(1000 * presentationTimeUs);
+            renditions.get(i).notifySurfaceReady(surface);
+        }
+        encoderSurface.makeCurrent();
+    }
+
+    private boolean renditionsCanAcceptFrame() {
+        for (VideoEncoder rendition : renditions) {
+            if (!rendition.canAcceptFrame()) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void prepareSurface() {
@@ -222,7 +257,7 @@ public class VideoEffector extends MediaCodecPlugin {
     }
 
     private void feedMeIfNotDraining(int trackId) {
-        if (frameCount < 2) {
+        if (frameCount < 2 && renditionsCanAcceptFrame()) {
             needData(trackId);
         }
     }
@@ -302,6 +337,16 @@ public class VideoEffector extends MediaCodecPlugin {
     public void checkIfOutputQueueHasData() {
     }
 
+    @Override
+    public void fillCommandQueues() {
+        super.fillCommandQueues();
+
+        // Asks for input again once a rendition that was full has room for a frame
+        if (!renditions.isEmpty() && getInputCommandQueue().size() == 0) {
+            feedMeIfNotDraining();
+        }
+    }
+
     @Override
     public void releaseOutputBuffer(int outputBufferIndex) {
         frameCount--;
@@ -318,7 +363,11 @@ public class VideoEffector extends MediaCodecPlugin {
         }
 
 //        Logger.getLogger("AMP").info("Frame VideoEffector savedFrame sampletime: " + savedFrame.getSampleTime());
-        return new Frame(null, 1, 1, 0, 0, 0);
+        surfaceFrame.set(null, 1, 1, 0, 0, 0);
+        if (metrics != null) {
+            metrics.frameOut(0);
+        }
+        return surfaceFrame;
     }
 
     @Override
@@ -401,6 +450,18 @@ public class VideoEffector extends MediaCodecPlugin {
         encoderSurface = surface;
     }
 
+    /**
+     * Adds an encoder that receives every frame drawn for the main encoder. New input is requested only
+     * while every rendition has room for one more frame, so the slowest rendition paces the decoder.
+     *
+     * @param encoder Rendition encoder.
+     * @param surface Input surface of the rendition encoder, sharing the EGL context of the main encoder surface.
+     */
+    public void addRendition(VideoEncoder encoder, ISurface surface) {
+        renditions.add(encoder);
+        renditionSurfaces.add(surface);
+    }
+
     @Override
     public ISurface getSurface() {
         if (internalSurface == null) {
@@ -516,5 +577,13 @@ public class VideoEffector extends MediaCodecPlugin {
     public void setTimeScalerSegment(FileSegment segment) {
         this.segment = segment;
     }
+
+    /**
+     * Turns off dropping of frames inside the time scaled segment, when the frames are already dropped
+     * before decoding, see {@link DecodePlanner}. The kept frames are still retimed.
+     */
+    public void setDecimateFrames(boolean decimateFrames) {
+        this.decimateFrames = decimateFrames;
+    }
 }
 
@@ -74,6 +74,14 @@ public class VideoEncoder extends Encoder implements ITransform {
 
         getInputCommandQueue().clear();
         mediaCodec.signalEndOfInputStream();
+        drainRenditions();
+    }
+
+    /**
+     * Returns true when one more frame may be drawn into the input surface.
+     */
+    public boolean canAcceptFrame() {
+        return frameCount < 2;
     }
 
     @Override
@@ -81,9 +89,9 @@ public class VideoEncoder extends Encoder implements ITransform {
         if (frameCount < 2) {
             if (state != PluginState.Draining && state != PluginState.Drained ) {
 
-                Pair<Command, Integer> command = getInputCommandQueue().first();
+                Command command = getInputCommandQueue().firstCommand();
 
-                if (command == null || command.left != Command.NeedData ) {
+                if (command != Command.NeedData) {
                     getInputCommandQueue().queue(Command.NeedData, getTrackId());
                 }
             }
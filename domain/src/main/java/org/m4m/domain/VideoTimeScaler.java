@@ -37,9 +37,11 @@ public class VideoTimeScaler extends MediaCodecPlugin {
     private int outputAngle = 0;
     private TextureRenderer.FillMode fillMode = TextureRenderer.FillMode.PreserveAspectFit;
     private IPreviewTranscode previewTranscode;
+    private final Frame surfaceFrame = new Frame(null, 1, 1, 0, 0, 0);
 
     private int timeScale;
     private FileSegment segment = new FileSegment(0l, 0l);
+    private boolean decimateFrames = true;
 
     public VideoTimeScaler(IMediaCodec mediaCodec, IAndroidMediaObjectFactory factory, int timeScale, FileSegment segment) {
         super(mediaCodec);
@@ -54,7 +56,7 @@ public class VideoTimeScaler extends MediaCodecPlugin {
     }
 
     public void reInitInputCommandQueue() {
-        getInputCommandQueue().queue.clear();
+        getInputCommandQueue().clear();
         getInputCommandQueue().queue(Command.NeedInputFormat, getTrackId());
     }
 
@@ -109,7 +111,7 @@ public class VideoTimeScaler extends MediaCodecPlugin {
             if (time < segment.pair.right) {
                 frames++;
                 newTime += (time - segment.pair.left) / timeScale;
-                if (frames % timeScale != 0) {
+                if (decimateFrames && frames % timeScale != 0) {
                     feedMeIfNotDraining();
                     return;
                 }
@@ -252,7 +254,8 @@ public class VideoTimeScaler extends MediaCodecPlugin {
             throw new RuntimeException("Out of order operation.");
         }
 
-        return new Frame(null, 1, 1, 0, 0, 0);
+        surfaceFrame.set(null, 1, 1, 0, 0, 0);
+        return surfaceFrame;
     }
 
     @Override
@@ -398,5 +401,10 @@ public class VideoTimeScaler extends MediaCodecPlugin {
         return fillMode;
     }
 
+    /**
+     * Turns off dropping of frames, see {@link VideoEffector#setDecimateFrames(boolean)}.
+     */
+    public void setDecimateFrames(boolean decimateFrames) {
+        this.decimateFrames = decimateFrames;
+    }
 }
-
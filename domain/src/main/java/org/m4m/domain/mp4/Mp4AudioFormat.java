@@ -0,0 +1,71 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.m4m.AudioFormat;
+
+import java.nio.ByteBuffer;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Audio format backed by a plain map, for use without the Android media framework.
+ */
+public class Mp4AudioFormat extends AudioFormat {
+    private final Map<String, Object> values = new HashMap<String, Object>();
+
+    public Mp4AudioFormat(String mimeType, int sampleRate, int channelCount) {
+        values.put(KEY_MIME, mimeType);
+        setAudioCodec(mimeType);
+        setAudioSampleRateInHz(sampleRate);
+        setAudioChannelCount(channelCount);
+    }
+
+    public void setDuration(long durationUs) {
+        values.put(KEY_DURATION, durationUs);
+    }
+
+    public void setByteBuffer(String key, ByteBuffer value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public ByteBuffer getByteBuffer(String key) {
+        ByteBuffer value = (ByteBuffer) values.get(key);
+        return value == null ? null : value.duplicate();
+    }
+
+    @Override
+    public void setInteger(String key, int value) {
+        values.put(key, value);
+    }
+
+    @Override
+    public int getInteger(String key) {
+        return (Integer) values.get(key);
+    }
+
+    @Override
+    protected long getLong(String key) {
+        return (Long) values.get(key);
+    }
+
+    @Override
+    protected String getString(String key) {
+        return (String) values.get(key);
+    }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Growable buffer for nested boxes. Sizes of the boxes are written when they are closed.
+ */
+class Mp4BoxWriter {
+    private ByteBuffer buffer;
+    private int[] boxStarts = new int[16];
+    private int depth = 0;
+
+    Mp4BoxWriter(int initialCapacity) {
+        buffer = ByteBuffer.allocate(initialCapacity);
+    }
+
+    Mp4BoxWriter begin(String type) {
+        if (depth == boxStarts.length) {
+            boxStarts = Arrays.copyOf(boxStarts, depth * 2);
+        }
+        boxStarts[depth++] = buffer.position();
+        putInt(0);
+        putFourCc(type);
+        return this;
+    }
+
+    /**
+     * Begins a full box with the given version and flags.
+     */
+    Mp4BoxWriter begin(String type, int version, int flags) {
+        begin(type);
+        return putInt((version << 24) | (flags & 0xffffff));
+    }
+
+    Mp4BoxWriter end() {
+        int start = boxStarts[--depth];
+        buffer.putInt(start, buffer.position() - start);
+        return this;
+    }
+
+    Mp4BoxWriter putFourCc(String type) {
+        return putInt(Mp4Parser.fourCc(type));
+    }
+
+    Mp4BoxWriter putByte(int value) {
+        ensureCapacity(1);
+        buffer.put((byte) value);
+        return this;
+    }
+
+    Mp4BoxWriter putShort(int value) {
+        ensureCapacity(2);
+        buffer.putShort((short) value);
+        return this;
+    }
+
+    Mp4BoxWriter putInt(int value) {
+        ensureCapacity(4);
+        buffer.putInt(value);
+        return this;
+    }
+
+    Mp4BoxWriter putLong(long value) {
+        ensureCapacity(8);
+        buffer.putLong(value);
+        return this;
+    }
+
+    Mp4BoxWriter put(byte[] value) {
+        ensureCapacity(value.length);
+        buffer.put(value);
+        return this;
+    }
+
+    Mp4BoxWriter put(ByteBuffer value) {
+        ensureCapacity(value.remaining());
+        buffer.put(value.duplicate());
+        return this;
+    }
+
+    Mp4BoxWriter putZeros(int count) {
+        ensureCapacity(count);
+        for (int i = 0; i < count; i++) {
+            buffer.put((byte) 0);
+        }
+        return this;
+    }
+
+    /**
+     * Overwrites a value written before, for fields known only after later boxes are written.
+     */
+    void patchInt(int position, int value) {
+        buffer.putInt(position, value);
+    }
+
+    int size() {
+        return buffer.position();
+    }
+
+    /**
+     * @return Written boxes, ready to be read.
+     */
+    ByteBuffer toByteBuffer() {
+        ByteBuffer result = buffer.duplicate();
+        result.flip();
+        return result;
+    }
+
+    void clear() {
+        buffer.clear();
+        depth = 0;
+    }
+
+    private void ensureCapacity(int length) {
+        if (buffer.remaining() < length) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + length));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.m4m.Uri;
+import org.m4m.domain.IMediaExtractor;
+import org.m4m.domain.MediaFormat;
+
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Pure Java extractor of MP4 and MOV files, fragmented files included. Sample tables are parsed
+ * once when the file is opened; sample data is read from a memory mapping of the file, or with
+ * positional reads for files too large to map at once.
+ * <p/>
+ * Like the Android MediaExtractor, samples of the selected tracks are returned in decode order
+ * and H.264/H.265 samples are returned with start codes instead of NAL unit lengths.
+ */
+public class Mp4MediaExtractor implements IMediaExtractor {
+    private final String path;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final MappedByteBuffer mappedFile;
+    private final List<Mp4Track> tracks;
+    private final boolean[] selectedTracks;
+    private int currentTrack = -1;
+    private byte[] nalBuffer = new byte[0];
+
+    public Mp4MediaExtractor(String path) throws IOException {
+        this.path = path;
+        this.file = new RandomAccessFile(new File(path), "r");
+        try {
+            this.channel = file.getChannel();
+            this.tracks = new Mp4Parser().parse(channel);
+            long size = channel.size();
+            this.mappedFile = size <= Integer.MAX_VALUE ? channel.map(FileChannel.MapMode.READ_ONLY, 0, size) : null;
+        } catch (IOException e) {
+            file.close();
+            throw e;
+        } catch (RuntimeException e) {
+            file.close();
+            throw new IOException("Failed to parse " + path, e);
+        }
+        this.selectedTracks = new boolean[tracks.size()];
+    }
+
+    @Override
+    public int getTrackCount() {
+        return tracks.size();
+    }
+
+    @Override
+    public MediaFormat getTrackFormat(int index) {
+        return tracks.get(index).createFormat();
+    }
+
+    @Override
+    public void selectTrack(int index) {
+        selectedTracks[index] = true;
+        updateCurrentTrack();
+    }
+
+    @Override
+    public void unselectTrack(int index) {
+        selectedTracks[index] = false;
+        updateCurrentTrack();
+    }
+
+    @Override
+    public int getSampleTrackIndex() {
+        return currentTrack;
+    }
+
+    @Override
+    public long getSampleTime() {
+        if (currentTrack == -1) {
+            return -1;
+        }
+        Mp4Track track = tracks.get(currentTrack);
+        return track.getPresentationTimeUs(track.position);
+    }
+
+    @Override
+    public int getSampleFlags() {
+        if (currentTrack == -1) {
+            return -1;
+        }
+        Mp4Track track = tracks.get(currentTrack);
+        return track.syncSamples[track.position] ? SAMPLE_FLAG_SYNC : 0;
+    }
+
+    @Override
+    public boolean advance() {
+        if (currentTrack == -1) {
+            return false;
+        }
+        tracks.get(currentTrack).position++;
+        updateCurrentTrack();
+        return currentTrack != -1;
+    }
+
+    @Override
+    public void seekTo(long timeUs, int mode) {
+        for (int i = 0; i < tracks.size(); i++) {
+            if (selectedTracks[i]) {
+                Mp4Track track = tracks.get(i);
+                track.position = track.findSyncSample(timeUs, mode);
+            }
+        }
+        updateCurrentTrack();
+    }
+
+    /**
+     * Copies the current sample to the beginning of the buffer and sets the buffer limit to its
+     * end. The data goes straight from the file mapping to the buffer.
+     *
+     * @return Size of the sample in bytes, -1 if there are no samples left.
+     */
+    @Override
+    public int readSampleData(ByteBuffer inputBuffer) {
+        if (currentTrack == -1) {
+            return -1;
+        }
+        Mp4Track track = tracks.get(currentTrack);
+        long offset = track.offsets[track.position];
+        int size = track.sizes[track.position];
+        if (size > inputBuffer.capacity()) {
+            throw new IllegalArgumentException("Sample of " + size + " bytes does not fit the buffer of " + inputBuffer.capacity() + " bytes.");
+        }
+
+        inputBuffer.clear();
+        if (track.nalLengthSize == 4 || track.nalLengthSize == 0) {
+            read(offset, size, inputBuffer);
+            if (track.nalLengthSize == 4) {
+                replaceLengthsWithStartCodes(inputBuffer, size);
+            }
+        } else {
+            size = readWithStartCodes(offset, size, track.nalLengthSize, inputBuffer);
+        }
+        inputBuffer.position(0);
+        inputBuffer.limit(size);
+        return size;
+    }
+
+    private void read(long offset, int size, ByteBuffer destination) {
+        if (mappedFile != null) {
+            ByteBuffer sample = mappedFile.duplicate();
+            sample.limit((int) (offset + size));
+            sample.position((int) offset);
+            destination.put(sample);
+            return;
+        }
+
+        int limit = destination.limit();
+        destination.limit(destination.position() + size);
+        try {
+            while (destination.hasRemaining()) {
+                if (channel.read(destination, offset + size - destination.remaining()) < 0) {
+                    throw new IllegalStateException("Unexpected end of file " + path);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to read sample from " + path, e);
+        } finally {
+            destination.limit(limit);
+        }
+    }
+
+    /**
+     * NAL lengths are big-endian whatever the byte order of the buffer, codec input buffers are usually native order.
+     */
+    private static void replaceLengthsWithStartCodes(ByteBuffer buffer, int size) {
+        ByteBuffer data = buffer.duplicate().order(ByteOrder.BIG_ENDIAN);
+        int position = 0;
+        while (position + 4 <= size) {
+            int length = data.getInt(position);
+            data.putInt(position, 1);
+            if (length < 0) {
+                break;
+            }
+            position += 4 + length;
+        }
+    }
+
+    private int readWithStartCodes(long offset, int size, int nalLengthSize, ByteBuffer destination) {
+        if (nalBuffer.length < size) {
+            nalBuffer = new byte[size];
+        }
+        ByteBuffer sample = ByteBuffer.wrap(nalBuffer, 0, size);
+        read(offset, size, sample);
+
+        int position = 0;
+        while (position + nalLengthSize <= size) {
+            int length = 0;
+            for (int i = 0; i < nalLengthSize; i++) {
+                length = (length << 8) | (nalBuffer[position + i] & 0xff);
+            }
+            position += nalLengthSize;
+            length = Math.min(length, size - position);
+            if (destination.remaining() < 4 + length) {
+                throw new IllegalArgumentException("Sample does not fit the buffer of " + destination.capacity() + " bytes.");
+            }
+            destination.put((byte) 0).put((byte) 0).put((byte) 0).put((byte) 1);
+            destination.put(nalBuffer, position, length);
+            position += length;
+        }
+        return destination.position();
+    }
+
+    private void updateCurrentTrack() {
+        currentTrack = -1;
+        long currentTime = Long.MAX_VALUE;
+        for (int i = 0; i < tracks.size(); i++) {
+            Mp4Track track = tracks.get(i);
+            if (!selectedTracks[i] || track.position >= track.sampleCount) {
+                continue;
+            }
+            long time = track.getDecodeTimeUs(track.position);
+            if (time < currentTime) {
+                currentTime = time;
+                currentTrack = i;
+            }
+        }
+    }
+
+    @Override
+    public int getRotation() {
+        for (Mp4Track track : tracks) {
+            if (track.video) {
+                return track.rotation;
+            }
+        }
+        return 0;
+    }
+
+    @Override
+    public void release() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            // Nothing to do, the file is not used any more.
+        }
+    }
+
+    @Override
+    public String getFilePath() {
+        return path;
+    }
+
+    @Override
+    public FileDescriptor getFileDescriptor() {
+        return null;
+    }
+
+    @Override
+    public Uri getUri() {
+        return null;
+    }
+}
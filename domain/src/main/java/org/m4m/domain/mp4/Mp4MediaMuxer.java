@@ -0,0 +1,633 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.MediaFormat;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pure Java MP4 muxer writing through a FileChannel with large batched writes.
+ * <p/>
+ * In {@link #OUTPUT_FORMAT_MPEG_4} mode samples go to a single mdat box and the moov box is
+ * written on stop(), at the end of the file or, with {@link #setFaststart(boolean)}, in front of
+ * the mdat box by moving the media data once. In {@link #OUTPUT_FORMAT_FRAGMENTED_MPEG_4} mode the
+ * moov box comes first and samples are written in fragments starting at video sync samples, so
+ * memory use stays constant and the file is playable up to the last complete fragment even if
+ * stop() is never called.
+ * <p/>
+ * Samples must arrive in decode order per track; presentation times may be out of order. H.264
+ * and H.265 samples with start codes are converted to NAL units with lengths, and codec config
+ * buffers update the track configuration instead of being written as samples.
+ */
+public class Mp4MediaMuxer implements IMediaMuxer {
+    public static final int OUTPUT_FORMAT_MPEG_4 = 0;
+    public static final int OUTPUT_FORMAT_FRAGMENTED_MPEG_4 = 1;
+
+    private static final int BUFFER_FLAG_SYNC_FRAME = 1;
+    private static final int WRITE_BUFFER_SIZE = 1024 * 1024;
+    private static final int MOVIE_TIMESCALE = 1000;
+    private static final int MDAT_HEADER_SIZE = 16;
+    private static final long DEFAULT_FRAGMENT_DURATION_US = 1000000;
+
+    private final String path;
+    private final int outputFormat;
+    private final RandomAccessFile file;
+    private final FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(WRITE_BUFFER_SIZE);
+    private final List<Mp4OutputTrack> tracks = new ArrayList<Mp4OutputTrack>();
+    private ByteBuffer sampleBuffer = ByteBuffer.allocate(0);
+
+    private int orientation = 0;
+    private boolean faststart = false;
+    private long fragmentDurationUs = DEFAULT_FRAGMENT_DURATION_US;
+    private boolean started = false;
+    private boolean stopped = false;
+    private boolean headerWritten = false;
+    private long writtenBytes = 0;
+    private long mdatStart = 0;
+    private long startTimeUs = -1;
+    private long fragmentStartTimeUs = -1;
+    private int fragmentSequenceNumber = 0;
+
+    public Mp4MediaMuxer(String path, int outputFormat) throws IOException {
+        if (outputFormat != OUTPUT_FORMAT_MPEG_4 && outputFormat != OUTPUT_FORMAT_FRAGMENTED_MPEG_4) {
+            throw new IllegalArgumentException("Unsupported output format " + outputFormat);
+        }
+        this.path = path;
+        this.outputFormat = outputFormat;
+        this.file = new RandomAccessFile(path, "rw");
+        this.file.setLength(0);
+        this.channel = file.getChannel();
+    }
+
+    /**
+     * Writes the moov box in front of the media data, so the file can be played while it is
+     * downloaded. Applies to {@link #OUTPUT_FORMAT_MPEG_4} output only. Must be called before stop().
+     */
+    public void setFaststart(boolean faststart) {
+        this.faststart = faststart;
+    }
+
+    /**
+     * Sets the minimal duration of a fragment of {@link #OUTPUT_FORMAT_FRAGMENTED_MPEG_4} output.
+     * Fragments are cut at the first video sync sample after the duration elapses.
+     */
+    public void setFragmentDuration(long durationUs) {
+        this.fragmentDurationUs = durationUs;
+    }
+
+    @Override
+    public synchronized int addTrack(MediaFormat mediaFormat) {
+        if (started) {
+            throw new IllegalStateException("Tracks must be added before start().");
+        }
+        tracks.add(new Mp4OutputTrack(tracks.size() + 1, mediaFormat));
+        return tracks.size() - 1;
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+        if (degrees != 0 && degrees != 90 && degrees != 180 && degrees != 270) {
+            throw new IllegalArgumentException("Unsupported orientation " + degrees);
+        }
+        this.orientation = degrees;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (tracks.isEmpty()) {
+            throw new IllegalStateException("No tracks added.");
+        }
+        started = true;
+        if (outputFormat == OUTPUT_FORMAT_MPEG_4) {
+            Mp4BoxWriter writer = new Mp4BoxWriter(64);
+            writeFileType(writer);
+            mdatStart = writer.size();
+            writer.putInt(1).putFourCc("mdat").putLong(MDAT_HEADER_SIZE);
+            write(writer.toByteBuffer());
+        }
+    }
+
+    @Override
+    public synchronized void writeSampleData(int trackIndex, ByteBuffer buffer, IMediaCodec.BufferInfo bufferInfo) {
+        if (!started || stopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        if (bufferInfo.size <= 0) {
+            return;
+        }
+
+        Mp4OutputTrack track = tracks.get(trackIndex);
+        ByteBuffer sample = buffer.duplicate();
+        sample.limit(bufferInfo.offset + bufferInfo.size);
+        sample.position(bufferInfo.offset);
+
+        if ((bufferInfo.flags & IMediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            track.setCodecConfig(sample);
+            return;
+        }
+
+        boolean sync = !track.video || (bufferInfo.flags & BUFFER_FLAG_SYNC_FRAME) != 0;
+        if (outputFormat == OUTPUT_FORMAT_FRAGMENTED_MPEG_4) {
+            addToFragment(track, sample, bufferInfo.presentationTimeUs, sync);
+        } else {
+            ByteBuffer data = prepareSample(track, sample);
+            if (data.remaining() > writeBuffer.remaining()) {
+                flush();
+            }
+            long offset = writtenBytes + writeBuffer.position();
+            track.addSample(offset, data.remaining(), bufferInfo.presentationTimeUs, sync);
+            write(data);
+        }
+    }
+
+    /**
+     * @return Sample ready to be written: NAL units with lengths for H.264/H.265, the sample as is otherwise.
+     */
+    private ByteBuffer prepareSample(Mp4OutputTrack track, ByteBuffer sample) {
+        if (!track.hasNalUnits() || !NalUnits.hasStartCode(sample)) {
+            return sample;
+        }
+
+        List<ByteBuffer> units = NalUnits.split(sample);
+        int size = 0;
+        for (ByteBuffer unit : units) {
+            size += 4 + unit.remaining();
+        }
+        if (sampleBuffer.capacity() < size) {
+            sampleBuffer = ByteBuffer.allocate(Math.max(size, sampleBuffer.capacity() * 2));
+        }
+        sampleBuffer.clear();
+        for (ByteBuffer unit : units) {
+            sampleBuffer.putInt(unit.remaining());
+            sampleBuffer.put(unit);
+        }
+        sampleBuffer.flip();
+        return sampleBuffer;
+    }
+
+    private void addToFragment(Mp4OutputTrack track, ByteBuffer sample, long presentationTimeUs, boolean sync) {
+        if (isFragmentLeader(track) && sync && fragmentStartTimeUs != -1
+                && presentationTimeUs - fragmentStartTimeUs >= fragmentDurationUs) {
+            writeFragment();
+        }
+        if (isFragmentLeader(track) && fragmentStartTimeUs == -1) {
+            fragmentStartTimeUs = presentationTimeUs;
+        }
+
+        ByteBuffer data = prepareSample(track, sample);
+        int offset = track.appendFragmentData(data);
+        track.addSample(offset, data.remaining(), presentationTimeUs, sync);
+    }
+
+    private boolean isFragmentLeader(Mp4OutputTrack track) {
+        for (Mp4OutputTrack candidate : tracks) {
+            if (candidate.video) {
+                return candidate == track;
+            }
+        }
+        return track == tracks.get(0);
+    }
+
+    @Override
+    public synchronized void stop() {
+        if (!started || stopped) {
+            return;
+        }
+        stopped = true;
+        if (outputFormat == OUTPUT_FORMAT_FRAGMENTED_MPEG_4) {
+            writeFragment();
+            if (!headerWritten) {
+                writeFragmentedHeader();
+            }
+            flush();
+            return;
+        }
+
+        flush();
+        long mdatSize = writtenBytes - mdatStart;
+        ByteBuffer size = ByteBuffer.allocate(8);
+        size.putLong(mdatSize).flip();
+        writeAt(size, mdatStart + 8);
+
+        computeStartTime();
+        if (!faststart) {
+            write(createMovie(0, writtenBytes > 0xffffffffL).toByteBuffer());
+            flush();
+            return;
+        }
+
+        boolean largeOffsets = writtenBytes + createMovie(0, false).size() > 0xffffffffL;
+        ByteBuffer movie = createMovie(createMovie(0, largeOffsets).size(), largeOffsets).toByteBuffer();
+        moveData(mdatStart, mdatStart + movie.remaining(), mdatSize);
+        writeAt(movie, mdatStart);
+    }
+
+    @Override
+    public synchronized void release() {
+        try {
+            file.close();
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to close " + path, e);
+        }
+    }
+
+    private void computeStartTime() {
+        startTimeUs = Long.MAX_VALUE;
+        for (Mp4OutputTrack track : tracks) {
+            for (int i = 0; i < track.sampleCount; i++) {
+                startTimeUs = Math.min(startTimeUs, track.presentationTimes[i]);
+            }
+        }
+        if (startTimeUs == Long.MAX_VALUE) {
+            startTimeUs = 0;
+        }
+    }
+
+    private void writeFileType(Mp4BoxWriter writer) {
+        writer.begin("ftyp").putFourCc("isom").putInt(0x200).putFourCc("isom");
+        if (outputFormat == OUTPUT_FORMAT_FRAGMENTED_MPEG_4) {
+            writer.putFourCc("iso5").putFourCc("iso6");
+        } else {
+            writer.putFourCc("iso2");
+        }
+        writer.putFourCc("avc1").putFourCc("mp41").end();
+    }
+
+    /**
+     * @param dataShift Distance the media data is moved by before the movie box is written.
+     */
+    private Mp4BoxWriter createMovie(long dataShift, boolean largeOffsets) {
+        Mp4BoxWriter writer = new Mp4BoxWriter(4096);
+        long movieDuration = 0;
+        long[][] decodeTimes = new long[tracks.size()][];
+        long[][] durations = new long[tracks.size()][];
+        long[] trackDurations = new long[tracks.size()];
+        for (int i = 0; i < tracks.size(); i++) {
+            Mp4OutputTrack track = tracks.get(i);
+            decodeTimes[i] = track.getDecodeTimes();
+            durations[i] = track.getDurations(decodeTimes[i]);
+            for (long duration : durations[i]) {
+                trackDurations[i] += duration;
+            }
+            long start = track.sampleCount == 0 ? 0 : decodeTimes[i][0] * 1000000L / track.timescale - startTimeUs;
+            movieDuration = Math.max(movieDuration, toMovieTime(start) + trackDurations[i] * MOVIE_TIMESCALE / track.timescale);
+        }
+
+        writer.begin("moov");
+        writeMovieHeader(writer, movieDuration);
+        for (int i = 0; i < tracks.size(); i++) {
+            writeTrack(writer, tracks.get(i), decodeTimes[i], durations[i], trackDurations[i], dataShift, largeOffsets);
+        }
+        return writer.end();
+    }
+
+    private void writeFragmentedHeader() {
+        Mp4BoxWriter writer = new Mp4BoxWriter(4096);
+        writeFileType(writer);
+        writer.begin("moov");
+        writeMovieHeader(writer, 0);
+        for (Mp4OutputTrack track : tracks) {
+            writeTrack(writer, track, new long[0], new long[0], 0, 0, false);
+        }
+        writer.begin("mvex");
+        for (Mp4OutputTrack track : tracks) {
+            writer.begin("trex", 0, 0).putInt(track.trackId).putInt(1).putInt(0).putInt(0).putInt(0).end();
+        }
+        writer.end().end();
+        write(writer.toByteBuffer());
+        headerWritten = true;
+    }
+
+    private void writeMovieHeader(Mp4BoxWriter writer, long duration) {
+        writer.begin("mvhd", 0, 0).putInt(0).putInt(0).putInt(MOVIE_TIMESCALE).putInt((int) duration)
+                .putInt(0x10000).putShort(0x100).putZeros(10);
+        writeMatrix(writer, 0);
+        writer.putZeros(24).putInt(tracks.size() + 1).end();
+    }
+
+    private void writeTrack(Mp4BoxWriter writer, Mp4OutputTrack track, long[] decodeTimes, long[] durations,
+                            long mediaDuration, long dataShift, boolean largeOffsets) {
+        int count = decodeTimes.length;
+        long[] compositionOffsets = new long[count];
+        long delay = 0;
+        for (int i = 0; i < count; i++) {
+            compositionOffsets[i] = track.toTimescale(track.presentationTimes[i]) - decodeTimes[i];
+            delay = Math.max(delay, -compositionOffsets[i]);
+        }
+        long emptyDuration = count == 0 ? 0 : toMovieTime(decodeTimes[0] * 1000000L / track.timescale - startTimeUs);
+        long trackDuration = mediaDuration * MOVIE_TIMESCALE / track.timescale;
+
+        writer.begin("trak");
+        writer.begin("tkhd", 0, 7).putInt(0).putInt(0).putInt(track.trackId).putInt(0)
+                .putInt((int) (emptyDuration + trackDuration)).putZeros(8).putShort(0).putShort(0)
+                .putShort(track.video ? 0 : 0x100).putShort(0);
+        writeMatrix(writer, track.video ? orientation : 0);
+        writer.putInt(track.width << 16).putInt(track.height << 16).end();
+
+        if (emptyDuration > 0 || delay > 0) {
+            writer.begin("edts").begin("elst", 0, 0).putInt(emptyDuration > 0 ? 2 : 1);
+            if (emptyDuration > 0) {
+                writer.putInt((int) emptyDuration).putInt(-1).putInt(0x10000);
+            }
+            writer.putInt((int) trackDuration).putInt((int) delay).putInt(0x10000).end().end();
+        }
+
+        writer.begin("mdia");
+        writer.begin("mdhd", 0, 0).putInt(0).putInt(0).putInt(track.timescale).putInt((int) mediaDuration)
+                .putShort(0x55c4).putShort(0).end();
+        writer.begin("hdlr", 0, 0).putInt(0).putFourCc(track.video ? "vide" : "soun").putZeros(12)
+                .put((track.video ? "VideoHandler" : "SoundHandler").getBytes()).putByte(0).end();
+        writer.begin("minf");
+        if (track.video) {
+            writer.begin("vmhd", 0, 1).putZeros(8).end();
+        } else {
+            writer.begin("smhd", 0, 0).putInt(0).end();
+        }
+        writer.begin("dinf").begin("dref", 0, 0).putInt(1).begin("url ", 0, 1).end().end().end();
+
+        writer.begin("stbl");
+        writer.begin("stsd", 0, 0).putInt(1);
+        track.writeSampleEntry(writer);
+        writer.end();
+        writeTimeToSample(writer, durations);
+        writeCompositionOffsets(writer, compositionOffsets, delay);
+        writeSyncSamples(writer, track, count);
+        writer.begin("stsz", 0, 0).putInt(0).putInt(count);
+        for (int i = 0; i < count; i++) {
+            writer.putInt(track.sizes[i]);
+        }
+        writer.end();
+        writeChunks(writer, track, count, dataShift, largeOffsets);
+        writer.end().end().end().end();
+    }
+
+    private static void writeTimeToSample(Mp4BoxWriter writer, long[] durations) {
+        writer.begin("stts", 0, 0);
+        int countPosition = writer.size();
+        writer.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < durations.length; ) {
+            int run = 1;
+            while (i + run < durations.length && durations[i + run] == durations[i]) {
+                run++;
+            }
+            writer.putInt(run).putInt((int) durations[i]);
+            entries++;
+            i += run;
+        }
+        writer.patchInt(countPosition, entries);
+        writer.end();
+    }
+
+    private static void writeCompositionOffsets(Mp4BoxWriter writer, long[] compositionOffsets, long delay) {
+        boolean needed = false;
+        for (long offset : compositionOffsets) {
+            needed |= offset + delay != 0;
+        }
+        if (!needed) {
+            return;
+        }
+
+        writer.begin("ctts", 0, 0);
+        int countPosition = writer.size();
+        writer.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < compositionOffsets.length; ) {
+            int run = 1;
+            while (i + run < compositionOffsets.length && compositionOffsets[i + run] == compositionOffsets[i]) {
+                run++;
+            }
+            writer.putInt(run).putInt((int) (compositionOffsets[i] + delay));
+            entries++;
+            i += run;
+        }
+        writer.patchInt(countPosition, entries);
+        writer.end();
+    }
+
+    private static void writeSyncSamples(Mp4BoxWriter writer, Mp4OutputTrack track, int count) {
+        int syncCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (track.syncSamples[i]) {
+                syncCount++;
+            }
+        }
+        if (syncCount == count) {
+            return;
+        }
+        writer.begin("stss", 0, 0).putInt(syncCount);
+        for (int i = 0; i < count; i++) {
+            if (track.syncSamples[i]) {
+                writer.putInt(i + 1);
+            }
+        }
+        writer.end();
+    }
+
+    /**
+     * Writes consecutive samples of the track stored next to each other as one chunk.
+     */
+    private static void writeChunks(Mp4BoxWriter writer, Mp4OutputTrack track, int count, long dataShift, boolean largeOffsets) {
+        writer.begin(largeOffsets ? "co64" : "stco", 0, 0);
+        int chunkCountPosition = writer.size();
+        writer.putInt(0);
+        int[] chunkSizes = new int[Math.max(count, 1)];
+        int chunkCount = 0;
+        for (int i = 0; i < count; i++) {
+            if (i == 0 || track.offsets[i] != track.offsets[i - 1] + track.sizes[i - 1]) {
+                long offset = track.offsets[i] + dataShift;
+                if (largeOffsets) {
+                    writer.putLong(offset);
+                } else {
+                    writer.putInt((int) offset);
+                }
+                chunkCount++;
+            }
+            chunkSizes[chunkCount - 1]++;
+        }
+        writer.patchInt(chunkCountPosition, chunkCount);
+        writer.end();
+
+        writer.begin("stsc", 0, 0);
+        int entryCountPosition = writer.size();
+        writer.putInt(0);
+        int entries = 0;
+        for (int i = 0; i < chunkCount; i++) {
+            if (i == 0 || chunkSizes[i] != chunkSizes[i - 1]) {
+                writer.putInt(i + 1).putInt(chunkSizes[i]).putInt(1);
+                entries++;
+            }
+        }
+        writer.patchInt(entryCountPosition, entries);
+        writer.end();
+    }
+
+    private static void writeMatrix(Mp4BoxWriter writer, int degrees) {
+        int a = 0x10000, b = 0, c = 0, d = 0x10000;
+        if (degrees == 90) {
+            a = 0; b = 0x10000; c = -0x10000; d = 0;
+        } else if (degrees == 180) {
+            a = -0x10000; d = -0x10000;
+        } else if (degrees == 270) {
+            a = 0; b = -0x10000; c = 0x10000; d = 0;
+        }
+        writer.putInt(a).putInt(b).putInt(0).putInt(c).putInt(d).putInt(0).putInt(0).putInt(0).putInt(0x40000000);
+    }
+
+    private static long toMovieTime(long timeUs) {
+        return timeUs * MOVIE_TIMESCALE / 1000000;
+    }
+
+    private void writeFragment() {
+        boolean hasSamples = false;
+        for (Mp4OutputTrack track : tracks) {
+            hasSamples |= track.sampleCount > 0;
+        }
+        if (!hasSamples) {
+            return;
+        }
+        if (startTimeUs == -1) {
+            computeStartTime();
+        }
+        if (!headerWritten) {
+            writeFragmentedHeader();
+        }
+
+        Mp4BoxWriter writer = new Mp4BoxWriter(4096);
+        writer.begin("moof");
+        writer.begin("mfhd", 0, 0).putInt(++fragmentSequenceNumber).end();
+        List<Integer> dataOffsetPositions = new ArrayList<Integer>();
+        for (Mp4OutputTrack track : tracks) {
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            long[] decodeTimes = track.getDecodeTimes();
+            long[] durations = track.getDurations(decodeTimes);
+            long startTime = track.toTimescale(startTimeUs);
+            long baseDecodeTime = Math.max(decodeTimes[0] - startTime, track.decodeTimeOffset);
+
+            writer.begin("traf");
+            writer.begin("tfhd", 0, 0x20000).putInt(track.trackId).end();
+            writer.begin("tfdt", 1, 0).putLong(baseDecodeTime).end();
+            writer.begin("trun", 1, 0xf01).putInt(track.sampleCount);
+            dataOffsetPositions.add(writer.size());
+            writer.putInt(0);
+            long decodeTime = baseDecodeTime;
+            for (int i = 0; i < track.sampleCount; i++) {
+                long compositionOffset = track.toTimescale(track.presentationTimes[i]) - startTime - decodeTime;
+                writer.putInt((int) durations[i]).putInt(track.sizes[i])
+                        .putInt(track.syncSamples[i] ? 0x02000000 : 0x01010000).putInt((int) compositionOffset);
+                decodeTime += durations[i];
+            }
+            writer.end().end();
+            track.decodeTimeOffset = decodeTime;
+        }
+        writer.end();
+
+        int dataOffset = writer.size() + 8;
+        int index = 0;
+        for (Mp4OutputTrack track : tracks) {
+            if (track.sampleCount == 0) {
+                continue;
+            }
+            writer.patchInt(dataOffsetPositions.get(index++), dataOffset);
+            dataOffset += track.getFragmentData().remaining();
+        }
+        writer.putInt(dataOffset - writer.size()).putFourCc("mdat");
+        write(writer.toByteBuffer());
+
+        for (Mp4OutputTrack track : tracks) {
+            write(track.getFragmentData());
+            track.clearSamples();
+        }
+        flush();
+        fragmentStartTimeUs = -1;
+    }
+
+    private void write(ByteBuffer data) {
+        while (data.hasRemaining()) {
+            if (!writeBuffer.hasRemaining()) {
+                flush();
+            }
+            if (writeBuffer.position() == 0 && data.remaining() >= writeBuffer.capacity()) {
+                writeAt(data, writtenBytes);
+                writtenBytes += data.limit() - data.position();
+                data.position(data.limit());
+                return;
+            }
+            ByteBuffer part = data.duplicate();
+            part.limit(part.position() + Math.min(part.remaining(), writeBuffer.remaining()));
+            writeBuffer.put(part);
+            data.position(part.limit());
+        }
+    }
+
+    private void flush() {
+        writeBuffer.flip();
+        int length = writeBuffer.remaining();
+        writeAt(writeBuffer, writtenBytes);
+        writtenBytes += length;
+        writeBuffer.clear();
+    }
+
+    private void writeAt(ByteBuffer data, long position) {
+        ByteBuffer source = data.duplicate();
+        try {
+            while (source.hasRemaining()) {
+                position += channel.write(source, position);
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to write " + path, e);
+        }
+    }
+
+    /**
+     * Moves a block of the file to a later position, copying from its end so it can overlap the target.
+     */
+    private void moveData(long from, long to, long length) {
+        writeBuffer.clear();
+        long remaining = length;
+        try {
+            while (remaining > 0) {
+                int chunk = (int) Math.min(writeBuffer.capacity(), remaining);
+                long source = from + remaining - chunk;
+                writeBuffer.clear();
+                writeBuffer.limit(chunk);
+                while (writeBuffer.hasRemaining()) {
+                    if (channel.read(writeBuffer, source + writeBuffer.position()) < 0) {
+                        throw new IOException("Unexpected end of file");
+                    }
+                }
+                writeBuffer.flip();
+                writeAt(writeBuffer, to + remaining - chunk);
+                remaining -= chunk;
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Failed to move media data of " + path, e);
+        }
+        writeBuffer.clear();
+    }
+}
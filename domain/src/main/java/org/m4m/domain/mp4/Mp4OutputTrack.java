@@ -0,0 +1,302 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.m4m.AudioFormat;
+import org.m4m.VideoFormat;
+import org.m4m.domain.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Track of an MP4 file being written: codec configuration and a sample table kept in primitive
+ * arrays, so long recordings do not create an object per sample.
+ */
+class Mp4OutputTrack {
+    private static final int VIDEO_TIMESCALE = 90000;
+    private static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    final int trackId;
+    final String mimeType;
+    final boolean video;
+    final int timescale;
+    int width;
+    int height;
+    int sampleRate;
+    int channelCount;
+    ByteBuffer csd0;
+    ByteBuffer csd1;
+
+    int sampleCount;
+    long[] offsets = new long[64];
+    int[] sizes = new int[64];
+    long[] presentationTimes = new long[64];
+    boolean[] syncSamples = new boolean[64];
+
+    long decodeTimeOffset = 0;
+    long lastSampleDuration = 0;
+    private ByteBuffer fragmentData = ByteBuffer.allocate(0);
+
+    Mp4OutputTrack(int trackId, MediaFormat format) {
+        this.trackId = trackId;
+        this.mimeType = format.getMimeType();
+        this.video = mimeType.startsWith("video/");
+        if (video) {
+            VideoFormat videoFormat = (VideoFormat) format;
+            width = videoFormat.getVideoFrameSize().width();
+            height = videoFormat.getVideoFrameSize().height();
+            timescale = VIDEO_TIMESCALE;
+        } else {
+            AudioFormat audioFormat = (AudioFormat) format;
+            sampleRate = audioFormat.getAudioSampleRateInHz();
+            channelCount = audioFormat.getAudioChannelCount();
+            timescale = sampleRate > 0 ? sampleRate : 44100;
+        }
+        if (!"video/avc".equals(mimeType) && !"video/hevc".equals(mimeType) && !"video/mp4v-es".equals(mimeType)
+                && !"audio/mp4a-latm".equals(mimeType) && !"audio/mpeg".equals(mimeType)) {
+            throw new IllegalArgumentException("Unsupported codec " + mimeType);
+        }
+        csd0 = copy(format.getByteBuffer("csd-0"));
+        csd1 = copy(format.getByteBuffer("csd-1"));
+    }
+
+    boolean hasNalUnits() {
+        return "video/avc".equals(mimeType) || "video/hevc".equals(mimeType);
+    }
+
+    /**
+     * Takes the codec configuration from a codec config buffer, as encoders send it.
+     */
+    void setCodecConfig(ByteBuffer config) {
+        if ("video/avc".equals(mimeType)) {
+            ByteBuffer sps = ByteBuffer.allocate(config.remaining() + 16);
+            ByteBuffer pps = ByteBuffer.allocate(config.remaining() + 16);
+            for (ByteBuffer unit : NalUnits.split(config)) {
+                ByteBuffer target = NalUnits.getAvcType(unit) == 8 ? pps : sps;
+                target.putInt(1);
+                target.put(unit);
+            }
+            sps.flip();
+            pps.flip();
+            csd0 = sps;
+            csd1 = pps.hasRemaining() ? pps : csd1;
+        } else {
+            csd0 = copy(config);
+        }
+    }
+
+    void addSample(long offset, int size, long presentationTimeUs, boolean sync) {
+        if (sampleCount == sizes.length) {
+            int capacity = sampleCount * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            presentationTimes = Arrays.copyOf(presentationTimes, capacity);
+            syncSamples = Arrays.copyOf(syncSamples, capacity);
+        }
+        offsets[sampleCount] = offset;
+        sizes[sampleCount] = size;
+        presentationTimes[sampleCount] = presentationTimeUs;
+        syncSamples[sampleCount] = sync;
+        sampleCount++;
+    }
+
+    void clearSamples() {
+        sampleCount = 0;
+        fragmentData.clear();
+    }
+
+    /**
+     * Keeps sample data of the current fragment.
+     *
+     * @return Offset of the data in the fragment.
+     */
+    int appendFragmentData(ByteBuffer data) {
+        if (fragmentData.remaining() < data.remaining()) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(fragmentData.capacity() * 2, fragmentData.position() + data.remaining()));
+            fragmentData.flip();
+            grown.put(fragmentData);
+            fragmentData = grown;
+        }
+        int offset = fragmentData.position();
+        fragmentData.put(data.duplicate());
+        return offset;
+    }
+
+    ByteBuffer getFragmentData() {
+        ByteBuffer data = fragmentData.duplicate();
+        data.flip();
+        return data;
+    }
+
+    long toTimescale(long timeUs) {
+        return (timeUs * timescale + 500000) / 1000000;
+    }
+
+    /**
+     * Decode times of the samples in the track timescale. Samples arrive in decode order, so the
+     * decode times are the sorted presentation times.
+     */
+    long[] getDecodeTimes() {
+        long[] decodeTimes = new long[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            decodeTimes[i] = toTimescale(presentationTimes[i]);
+        }
+        Arrays.sort(decodeTimes);
+        return decodeTimes;
+    }
+
+    /**
+     * Durations of the samples. The last sample lasts as long as the one before it.
+     */
+    long[] getDurations(long[] decodeTimes) {
+        long[] durations = new long[sampleCount];
+        for (int i = 0; i + 1 < sampleCount; i++) {
+            durations[i] = decodeTimes[i + 1] - decodeTimes[i];
+        }
+        if (sampleCount > 1) {
+            lastSampleDuration = durations[sampleCount - 2];
+        } else if (lastSampleDuration == 0) {
+            lastSampleDuration = video ? timescale / 30 : 1024;
+        }
+        if (sampleCount > 0) {
+            durations[sampleCount - 1] = lastSampleDuration;
+        }
+        return durations;
+    }
+
+    void writeSampleEntry(Mp4BoxWriter writer) {
+        if (video) {
+            String type = "video/avc".equals(mimeType) ? "avc1" : "video/hevc".equals(mimeType) ? "hvc1" : "mp4v";
+            writer.begin(type).putZeros(6).putShort(1).putZeros(16)
+                    .putShort(width).putShort(height)
+                    .putInt(0x480000).putInt(0x480000).putInt(0).putShort(1)
+                    .putZeros(32).putShort(0x18).putShort(-1);
+            if ("video/avc".equals(mimeType)) {
+                writeAvcConfiguration(writer);
+            } else if ("video/hevc".equals(mimeType)) {
+                writeHevcConfiguration(writer);
+            } else {
+                writeEsDescriptor(writer, 0x20, 0x11);
+            }
+            writer.end();
+        } else {
+            writer.begin("mp4a").putZeros(6).putShort(1).putZeros(8)
+                    .putShort(channelCount).putShort(16).putInt(0).putInt(timescale << 16);
+            writeEsDescriptor(writer, "audio/mpeg".equals(mimeType) ? 0x6B : 0x40, 0x15);
+            writer.end();
+        }
+    }
+
+    private void writeAvcConfiguration(Mp4BoxWriter writer) {
+        List<ByteBuffer> sps = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> pps = new ArrayList<ByteBuffer>();
+        for (ByteBuffer csd : new ByteBuffer[]{csd0, csd1}) {
+            if (csd == null) {
+                continue;
+            }
+            for (ByteBuffer unit : NalUnits.split(csd)) {
+                int type = NalUnits.getAvcType(unit);
+                if (type == 7) {
+                    sps.add(unit);
+                } else if (type == 8) {
+                    pps.add(unit);
+                }
+            }
+        }
+        if (sps.isEmpty() || sps.get(0).remaining() < 4) {
+            throw new IllegalStateException("No sequence parameter set for track " + trackId);
+        }
+
+        ByteBuffer first = sps.get(0);
+        writer.begin("avcC").putByte(1)
+                .putByte(first.get(1)).putByte(first.get(2)).putByte(first.get(3))
+                .putByte(0xff).putByte(0xe0 | sps.size());
+        for (ByteBuffer unit : sps) {
+            writer.putShort(unit.remaining()).put(unit);
+        }
+        writer.putByte(pps.size());
+        for (ByteBuffer unit : pps) {
+            writer.putShort(unit.remaining()).put(unit);
+        }
+        writer.end();
+    }
+
+    private void writeHevcConfiguration(Mp4BoxWriter writer) {
+        List<ByteBuffer> units = csd0 == null ? new ArrayList<ByteBuffer>() : NalUnits.split(csd0);
+        ByteBuffer sps = null;
+        for (ByteBuffer unit : units) {
+            if (NalUnits.getHevcType(unit) == 33) {
+                sps = unit;
+            }
+        }
+        if (sps == null || sps.remaining() < 15) {
+            throw new IllegalStateException("No sequence parameter set for track " + trackId);
+        }
+
+        writer.begin("hvcC").putByte(1);
+        for (int i = 3; i < 15; i++) {
+            writer.putByte(sps.get(i));
+        }
+        writer.putShort(0xf000).putByte(0xfc).putByte(0xfd).putByte(0xf8).putByte(0xf8)
+                .putShort(0).putByte(0x0f).putByte(units.size());
+        for (ByteBuffer unit : units) {
+            writer.putByte(0x80 | NalUnits.getHevcType(unit)).putShort(1).putShort(unit.remaining()).put(unit);
+        }
+        writer.end();
+    }
+
+    private void writeEsDescriptor(Mp4BoxWriter writer, int objectType, int streamType) {
+        ByteBuffer config = csd0;
+        if (config == null && "audio/mp4a-latm".equals(mimeType)) {
+            config = createAudioSpecificConfig();
+        }
+        int configLength = config == null ? 0 : config.remaining() + 2;
+
+        writer.begin("esds", 0, 0)
+                .putByte(0x03).putByte(3 + 15 + configLength + 3).putShort(trackId).putByte(0)
+                .putByte(0x04).putByte(13 + configLength).putByte(objectType).putByte(streamType)
+                .putByte(0).putShort(0).putInt(0).putInt(0);
+        if (config != null) {
+            writer.putByte(0x05).putByte(config.remaining()).put(config);
+        }
+        writer.putByte(0x06).putByte(1).putByte(2).end();
+    }
+
+    private ByteBuffer createAudioSpecificConfig() {
+        int frequencyIndex = 4;
+        for (int i = 0; i < AAC_SAMPLE_RATES.length; i++) {
+            if (AAC_SAMPLE_RATES[i] == sampleRate) {
+                frequencyIndex = i;
+            }
+        }
+        int config = (2 << 11) | (frequencyIndex << 7) | (channelCount << 3);
+        return ByteBuffer.wrap(new byte[]{(byte) (config >> 8), (byte) config});
+    }
+
+    private static ByteBuffer copy(ByteBuffer buffer) {
+        if (buffer == null) {
+            return null;
+        }
+        ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+        copy.put(buffer.duplicate());
+        copy.flip();
+        return copy;
+    }
+}
@@ -0,0 +1,646 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads the sample tables of an ISO base media file (MP4, MOV) from the moov box and, for
+ * fragmented files, from the moof boxes. Sample data is not touched.
+ */
+class Mp4Parser {
+    static final int MOOV = fourCc("moov");
+    static final int MVHD = fourCc("mvhd");
+    static final int TRAK = fourCc("trak");
+    static final int TKHD = fourCc("tkhd");
+    static final int EDTS = fourCc("edts");
+    static final int ELST = fourCc("elst");
+    static final int MDIA = fourCc("mdia");
+    static final int MDHD = fourCc("mdhd");
+    static final int HDLR = fourCc("hdlr");
+    static final int MINF = fourCc("minf");
+    static final int STBL = fourCc("stbl");
+    static final int STSD = fourCc("stsd");
+    static final int STTS = fourCc("stts");
+    static final int CTTS = fourCc("ctts");
+    static final int STSS = fourCc("stss");
+    static final int STSZ = fourCc("stsz");
+    static final int STZ2 = fourCc("stz2");
+    static final int STSC = fourCc("stsc");
+    static final int STCO = fourCc("stco");
+    static final int CO64 = fourCc("co64");
+    static final int MVEX = fourCc("mvex");
+    static final int TREX = fourCc("trex");
+    static final int MOOF = fourCc("moof");
+    static final int TRAF = fourCc("traf");
+    static final int TFHD = fourCc("tfhd");
+    static final int TFDT = fourCc("tfdt");
+    static final int TRUN = fourCc("trun");
+    static final int AVCC = fourCc("avcC");
+    static final int HVCC = fourCc("hvcC");
+    static final int ESDS = fourCc("esds");
+    static final int WAVE = fourCc("wave");
+
+    private static final int VIDE = fourCc("vide");
+    private static final int SOUN = fourCc("soun");
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+
+    private long movieTimescale = 1;
+
+    static int fourCc(String type) {
+        return (type.charAt(0) << 24) | (type.charAt(1) << 16) | (type.charAt(2) << 8) | type.charAt(3);
+    }
+
+    static String fourCcToString(int type) {
+        return new String(new char[]{(char) (type >>> 24), (char) ((type >>> 16) & 0xff), (char) ((type >>> 8) & 0xff), (char) (type & 0xff)});
+    }
+
+    List<Mp4Track> parse(FileChannel channel) throws IOException {
+        ByteBuffer moov = null;
+        List<ByteBuffer> fragments = new ArrayList<ByteBuffer>();
+        List<Long> fragmentOffsets = new ArrayList<Long>();
+
+        long fileSize = channel.size();
+        long position = 0;
+        while (position + 8 <= fileSize) {
+            ByteBuffer header = read(channel, position, (int) Math.min(16, fileSize - position));
+            long size = header.getInt() & 0xffffffffL;
+            int type = header.getInt();
+            int headerSize = 8;
+            if (size == 1) {
+                if (header.remaining() < 8) {
+                    throw new IOException("Truncated box header at " + position);
+                }
+                size = header.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = fileSize - position;
+            }
+            if (size < headerSize) {
+                throw new IOException("Invalid size of box " + fourCcToString(type) + " at " + position);
+            }
+
+            if (type == MOOV) {
+                moov = read(channel, position + headerSize, toInt(size - headerSize));
+            } else if (type == MOOF) {
+                fragments.add(read(channel, position + headerSize, toInt(size - headerSize)));
+                fragmentOffsets.add(position);
+            }
+            position += size;
+        }
+
+        if (moov == null) {
+            throw new IOException("No moov box found.");
+        }
+
+        List<Mp4Track> tracks = parseMovie(moov);
+        for (int i = 0; i < fragments.size(); i++) {
+            parseFragment(fragments.get(i), fragmentOffsets.get(i), tracks);
+        }
+        for (Mp4Track track : tracks) {
+            track.finish();
+        }
+        return tracks;
+    }
+
+    private static ByteBuffer read(FileChannel channel, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, position + buffer.position()) < 0) {
+                throw new IOException("Unexpected end of file at " + (position + buffer.position()));
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static int toInt(long size) throws IOException {
+        if (size > Integer.MAX_VALUE) {
+            throw new IOException("Box too large: " + size);
+        }
+        return (int) size;
+    }
+
+    /**
+     * @return Payload of the first child box of the given type, null if there is none.
+     */
+    static ByteBuffer findBox(ByteBuffer parent, int type) {
+        List<ByteBuffer> boxes = findBoxes(parent, type, true);
+        return boxes.isEmpty() ? null : boxes.get(0);
+    }
+
+    static List<ByteBuffer> findBoxes(ByteBuffer parent, int type) {
+        return findBoxes(parent, type, false);
+    }
+
+    private static List<ByteBuffer> findBoxes(ByteBuffer parent, int type, boolean firstOnly) {
+        List<ByteBuffer> result = new ArrayList<ByteBuffer>();
+        ByteBuffer buffer = parent.duplicate();
+        while (buffer.remaining() >= 8) {
+            int start = buffer.position();
+            long size = buffer.getInt() & 0xffffffffL;
+            int boxType = buffer.getInt();
+            int headerSize = 8;
+            if (size == 1 && buffer.remaining() >= 8) {
+                size = buffer.getLong();
+                headerSize = 16;
+            } else if (size == 0) {
+                size = buffer.limit() - start;
+            }
+            if (size < headerSize || start + size > buffer.limit()) {
+                break;
+            }
+            if (boxType == type) {
+                ByteBuffer payload = buffer.duplicate();
+                payload.position(start + headerSize);
+                payload.limit((int) (start + size));
+                result.add(payload.slice());
+                if (firstOnly) {
+                    break;
+                }
+            }
+            buffer.position((int) (start + size));
+        }
+        return result;
+    }
+
+    private List<Mp4Track> parseMovie(ByteBuffer moov) throws IOException {
+        ByteBuffer mvhd = findBox(moov, MVHD);
+        if (mvhd != null) {
+            int version = mvhd.get() & 0xff;
+            skip(mvhd, 3 + (version == 1 ? 16 : 8));
+            movieTimescale = mvhd.getInt() & 0xffffffffL;
+        }
+
+        List<Mp4Track> tracks = new ArrayList<Mp4Track>();
+        for (ByteBuffer trak : findBoxes(moov, TRAK)) {
+            Mp4Track track = parseTrack(trak);
+            if (track != null) {
+                tracks.add(track);
+            }
+        }
+
+        ByteBuffer mvex = findBox(moov, MVEX);
+        if (mvex != null) {
+            for (ByteBuffer trex : findBoxes(mvex, TREX)) {
+                skip(trex, 4);
+                Mp4Track track = findTrack(tracks, trex.getInt());
+                skip(trex, 4);
+                if (track != null) {
+                    track.defaultSampleDuration = trex.getInt() & 0xffffffffL;
+                    track.defaultSampleSize = trex.getInt();
+                    track.defaultSampleFlags = trex.getInt();
+                }
+            }
+        }
+        return tracks;
+    }
+
+    private static Mp4Track findTrack(List<Mp4Track> tracks, int trackId) {
+        for (Mp4Track track : tracks) {
+            if (track.trackId == trackId) {
+                return track;
+            }
+        }
+        return null;
+    }
+
+    private Mp4Track parseTrack(ByteBuffer trak) throws IOException {
+        ByteBuffer mdia = findBox(trak, MDIA);
+        ByteBuffer minf = mdia == null ? null : findBox(mdia, MINF);
+        ByteBuffer stbl = minf == null ? null : findBox(minf, STBL);
+        ByteBuffer hdlr = mdia == null ? null : findBox(mdia, HDLR);
+        if (stbl == null || hdlr == null) {
+            return null;
+        }
+
+        Mp4Track track = new Mp4Track();
+        skip(hdlr, 8);
+        int handler = hdlr.getInt();
+        track.video = handler == VIDE;
+        track.audio = handler == SOUN;
+        if (!track.video && !track.audio) {
+            return null;
+        }
+
+        parseTrackHeader(findBox(trak, TKHD), track);
+        parseMediaHeader(findBox(mdia, MDHD), track);
+        ByteBuffer edts = findBox(trak, EDTS);
+        ByteBuffer elst = edts == null ? null : findBox(edts, ELST);
+        if (elst != null) {
+            parseEditList(elst, track);
+        }
+        parseSampleDescription(findBox(stbl, STSD), track);
+        parseSampleTable(stbl, track);
+        return track;
+    }
+
+    private static void parseTrackHeader(ByteBuffer tkhd, Mp4Track track) {
+        int version = tkhd.get() & 0xff;
+        skip(tkhd, 3 + (version == 1 ? 16 : 8));
+        track.trackId = tkhd.getInt();
+        skip(tkhd, 4 + (version == 1 ? 8 : 4) + 16);
+        int a = tkhd.getInt();
+        int b = tkhd.getInt();
+        skip(tkhd, 4);
+        int c = tkhd.getInt();
+        int d = tkhd.getInt();
+        skip(tkhd, 16);
+        track.width = tkhd.getInt() >> 16;
+        track.height = tkhd.getInt() >> 16;
+
+        if (a == 0 && b == 0x10000 && c == -0x10000 && d == 0) {
+            track.rotation = 90;
+        } else if (a == -0x10000 && b == 0 && c == 0 && d == -0x10000) {
+            track.rotation = 180;
+        } else if (a == 0 && b == -0x10000 && c == 0x10000 && d == 0) {
+            track.rotation = 270;
+        }
+    }
+
+    private static void parseMediaHeader(ByteBuffer mdhd, Mp4Track track) {
+        int version = mdhd.get() & 0xff;
+        skip(mdhd, 3 + (version == 1 ? 16 : 8));
+        track.timescale = Math.max(1, mdhd.getInt() & 0xffffffffL);
+        track.durationInTimescale = version == 1 ? mdhd.getLong() : mdhd.getInt() & 0xffffffffL;
+        if (track.durationInTimescale == 0xffffffffL || track.durationInTimescale == -1) {
+            track.durationInTimescale = 0;
+        }
+    }
+
+    private void parseEditList(ByteBuffer elst, Mp4Track track) {
+        int version = elst.get() & 0xff;
+        skip(elst, 3);
+        int count = elst.getInt();
+        for (int i = 0; i < count; i++) {
+            long segmentDuration = version == 1 ? elst.getLong() : elst.getInt() & 0xffffffffL;
+            long mediaTime = version == 1 ? elst.getLong() : elst.getInt();
+            skip(elst, 4);
+            if (mediaTime == -1) {
+                track.editEmptyDurationUs += segmentDuration * 1000000L / Math.max(1, movieTimescale);
+            } else {
+                track.editMediaTime = mediaTime;
+                break;
+            }
+        }
+    }
+
+    private static void parseSampleDescription(ByteBuffer stsd, Mp4Track track) throws IOException {
+        skip(stsd, 8);
+        long size = stsd.getInt() & 0xffffffffL;
+        int type = stsd.getInt();
+        ByteBuffer entry = stsd.slice();
+        entry.limit((int) Math.min(entry.limit(), size - 8));
+
+        if (track.video) {
+            skip(entry, 24);
+            int width = entry.getShort() & 0xffff;
+            int height = entry.getShort() & 0xffff;
+            skip(entry, 50);
+            if (track.width == 0 || track.height == 0) {
+                track.width = width;
+                track.height = height;
+            }
+        } else {
+            skip(entry, 8);
+            int version = entry.getShort();
+            skip(entry, 6);
+            track.channelCount = entry.getShort() & 0xffff;
+            skip(entry, 6);
+            track.sampleRate = entry.getInt() >>> 16;
+            if (version == 1) {
+                skip(entry, 16);
+            } else if (version == 2) {
+                skip(entry, 4);
+                track.sampleRate = (int) Double.longBitsToDouble(entry.getLong());
+                track.channelCount = entry.getInt();
+                skip(entry, 20);
+            }
+        }
+        ByteBuffer children = entry.slice();
+
+        if (type == fourCc("avc1") || type == fourCc("avc3")) {
+            track.mimeType = "video/avc";
+            ByteBuffer avcC = findBox(children, AVCC);
+            if (avcC != null) {
+                parseAvcConfiguration(avcC, track);
+            }
+        } else if (type == fourCc("hvc1") || type == fourCc("hev1")) {
+            track.mimeType = "video/hevc";
+            ByteBuffer hvcC = findBox(children, HVCC);
+            if (hvcC != null) {
+                parseHevcConfiguration(hvcC, track);
+            }
+        } else if (type == fourCc("mp4v")) {
+            track.mimeType = "video/mp4v-es";
+            parseEsDescriptor(findBox(children, ESDS), track);
+        } else if (type == fourCc("s263") || type == fourCc("h263")) {
+            track.mimeType = "video/3gpp";
+        } else if (type == fourCc("mp4a")) {
+            ByteBuffer esds = findBox(children, ESDS);
+            if (esds == null && findBox(children, WAVE) != null) {
+                esds = findBox(findBox(children, WAVE), ESDS);
+            }
+            int objectType = parseEsDescriptor(esds, track);
+            track.mimeType = objectType == 0x69 || objectType == 0x6B ? "audio/mpeg" : "audio/mp4a-latm";
+        } else if (type == fourCc("samr")) {
+            track.mimeType = "audio/3gpp";
+        } else if (type == fourCc("sawb")) {
+            track.mimeType = "audio/amr-wb";
+        } else {
+            track.mimeType = (track.video ? "video/" : "audio/") + fourCcToString(type).trim();
+        }
+    }
+
+    private static void parseAvcConfiguration(ByteBuffer avcC, Mp4Track track) {
+        skip(avcC, 4);
+        track.nalLengthSize = (avcC.get() & 0x3) + 1;
+        int spsCount = avcC.get() & 0x1f;
+        track.csd0 = readNalUnits(avcC, spsCount);
+        int ppsCount = avcC.get() & 0xff;
+        track.csd1 = readNalUnits(avcC, ppsCount);
+    }
+
+    private static void parseHevcConfiguration(ByteBuffer hvcC, Mp4Track track) {
+        skip(hvcC, 21);
+        track.nalLengthSize = (hvcC.get() & 0x3) + 1;
+        int arrayCount = hvcC.get() & 0xff;
+        ByteBuffer csd = ByteBuffer.allocate(hvcC.remaining() * 2);
+        for (int i = 0; i < arrayCount; i++) {
+            skip(hvcC, 1);
+            int count = hvcC.getShort() & 0xffff;
+            csd.put(readNalUnits(hvcC, count));
+        }
+        csd.flip();
+        track.csd0 = csd;
+    }
+
+    private static ByteBuffer readNalUnits(ByteBuffer buffer, int count) {
+        ByteBuffer result = ByteBuffer.allocate(buffer.remaining() + count * START_CODE.length);
+        for (int i = 0; i < count; i++) {
+            int length = buffer.getShort() & 0xffff;
+            result.put(START_CODE);
+            ByteBuffer nal = buffer.duplicate();
+            nal.limit(nal.position() + length);
+            result.put(nal);
+            skip(buffer, length);
+        }
+        result.flip();
+        return result;
+    }
+
+    /**
+     * @return Object type indication of the stream, 0 if the descriptor is missing.
+     */
+    private static int parseEsDescriptor(ByteBuffer esds, Mp4Track track) {
+        if (esds == null) {
+            return 0;
+        }
+        skip(esds, 4);
+        int objectType = 0;
+        while (esds.remaining() > 2) {
+            int tag = esds.get() & 0xff;
+            int length = readDescriptorLength(esds);
+            if (tag == 0x03) {
+                skip(esds, 2);
+                int flags = esds.get() & 0xff;
+                if ((flags & 0x80) != 0) skip(esds, 2);
+                if ((flags & 0x40) != 0) skip(esds, esds.get() & 0xff);
+                if ((flags & 0x20) != 0) skip(esds, 2);
+            } else if (tag == 0x04) {
+                objectType = esds.get() & 0xff;
+                skip(esds, 12);
+            } else if (tag == 0x05) {
+                ByteBuffer config = esds.duplicate();
+                config.limit(config.position() + length);
+                track.csd0 = ByteBuffer.allocate(length).put(config);
+                track.csd0.flip();
+                break;
+            } else {
+                skip(esds, length);
+            }
+        }
+        return objectType;
+    }
+
+    private static int readDescriptorLength(ByteBuffer buffer) {
+        int length = 0;
+        for (int i = 0; i < 4; i++) {
+            int value = buffer.get() & 0xff;
+            length = (length << 7) | (value & 0x7f);
+            if ((value & 0x80) == 0) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private static void parseSampleTable(ByteBuffer stbl, Mp4Track track) throws IOException {
+        int[] sizes = readSampleSizes(stbl);
+        int sampleCount = sizes.length;
+
+        long[] decodeTimes = new long[sampleCount];
+        ByteBuffer stts = findBox(stbl, STTS);
+        long time = 0;
+        int sample = 0;
+        if (stts != null) {
+            skip(stts, 4);
+            int entries = stts.getInt();
+            for (int i = 0; i < entries && sample < sampleCount; i++) {
+                int count = stts.getInt();
+                long delta = stts.getInt() & 0xffffffffL;
+                for (int j = 0; j < count && sample < sampleCount; j++) {
+                    decodeTimes[sample++] = time;
+                    time += delta;
+                }
+            }
+        }
+        track.nextDecodeTime = time;
+
+        int[] compositionOffsets = new int[sampleCount];
+        ByteBuffer ctts = findBox(stbl, CTTS);
+        if (ctts != null) {
+            skip(ctts, 4);
+            int entries = ctts.getInt();
+            sample = 0;
+            for (int i = 0; i < entries && sample < sampleCount; i++) {
+                int count = ctts.getInt();
+                int offset = ctts.getInt();
+                for (int j = 0; j < count && sample < sampleCount; j++) {
+                    compositionOffsets[sample++] = offset;
+                }
+            }
+        }
+
+        boolean[] sync = new boolean[sampleCount];
+        ByteBuffer stss = findBox(stbl, STSS);
+        if (stss == null) {
+            Arrays.fill(sync, true);
+        } else {
+            skip(stss, 4);
+            int entries = stss.getInt();
+            for (int i = 0; i < entries; i++) {
+                int index = stss.getInt() - 1;
+                if (index >= 0 && index < sampleCount) {
+                    sync[index] = true;
+                }
+            }
+        }
+
+        long[] chunkOffsets = readChunkOffsets(stbl);
+        ByteBuffer stsc = findBox(stbl, STSC);
+        if (stsc == null) {
+            throw new IOException("No stsc box in track " + track.trackId);
+        }
+        skip(stsc, 4);
+        int entries = stsc.getInt();
+        int[] firstChunks = new int[entries];
+        int[] samplesPerChunk = new int[entries];
+        for (int i = 0; i < entries; i++) {
+            firstChunks[i] = stsc.getInt() - 1;
+            samplesPerChunk[i] = stsc.getInt();
+            skip(stsc, 4);
+        }
+
+        sample = 0;
+        int entry = 0;
+        for (int chunk = 0; chunk < chunkOffsets.length && sample < sampleCount; chunk++) {
+            while (entry + 1 < entries && firstChunks[entry + 1] <= chunk) {
+                entry++;
+            }
+            long offset = chunkOffsets[chunk];
+            int count = entries == 0 ? 0 : samplesPerChunk[entry];
+            for (int j = 0; j < count && sample < sampleCount; j++) {
+                track.addSample(offset, sizes[sample], decodeTimes[sample], compositionOffsets[sample], sync[sample]);
+                offset += sizes[sample];
+                sample++;
+            }
+        }
+    }
+
+    private static int[] readSampleSizes(ByteBuffer stbl) throws IOException {
+        ByteBuffer stsz = findBox(stbl, STSZ);
+        if (stsz != null) {
+            skip(stsz, 4);
+            int sampleSize = stsz.getInt();
+            int[] sizes = new int[stsz.getInt()];
+            for (int i = 0; i < sizes.length; i++) {
+                sizes[i] = sampleSize != 0 ? sampleSize : stsz.getInt();
+            }
+            return sizes;
+        }
+
+        ByteBuffer stz2 = findBox(stbl, STZ2);
+        if (stz2 != null) {
+            skip(stz2, 7);
+            int fieldSize = stz2.get() & 0xff;
+            int[] sizes = new int[stz2.getInt()];
+            for (int i = 0; i < sizes.length; i++) {
+                if (fieldSize == 16) {
+                    sizes[i] = stz2.getShort() & 0xffff;
+                } else if (fieldSize == 8) {
+                    sizes[i] = stz2.get() & 0xff;
+                } else {
+                    int value = stz2.get(stz2.position() + i / 2) & 0xff;
+                    sizes[i] = i % 2 == 0 ? value >>> 4 : value & 0xf;
+                }
+            }
+            return sizes;
+        }
+        return new int[0];
+    }
+
+    private static long[] readChunkOffsets(ByteBuffer stbl) {
+        ByteBuffer stco = findBox(stbl, STCO);
+        if (stco != null) {
+            skip(stco, 4);
+            long[] offsets = new long[stco.getInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = stco.getInt() & 0xffffffffL;
+            }
+            return offsets;
+        }
+
+        ByteBuffer co64 = findBox(stbl, CO64);
+        if (co64 != null) {
+            skip(co64, 4);
+            long[] offsets = new long[co64.getInt()];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = co64.getLong();
+            }
+            return offsets;
+        }
+        return new long[0];
+    }
+
+    private static void parseFragment(ByteBuffer moof, long moofOffset, List<Mp4Track> tracks) {
+        for (ByteBuffer traf : findBoxes(moof, TRAF)) {
+            ByteBuffer tfhd = findBox(traf, TFHD);
+            if (tfhd == null) {
+                continue;
+            }
+            int flags = tfhd.getInt() & 0xffffff;
+            Mp4Track track = findTrack(tracks, tfhd.getInt());
+            if (track == null) {
+                continue;
+            }
+            long baseOffset = (flags & 0x1) != 0 ? tfhd.getLong() : moofOffset;
+            if ((flags & 0x2) != 0) skip(tfhd, 4);
+            long defaultDuration = (flags & 0x8) != 0 ? tfhd.getInt() & 0xffffffffL : track.defaultSampleDuration;
+            int defaultSize = (flags & 0x10) != 0 ? tfhd.getInt() : track.defaultSampleSize;
+            int defaultFlags = (flags & 0x20) != 0 ? tfhd.getInt() : track.defaultSampleFlags;
+
+            ByteBuffer tfdt = findBox(traf, TFDT);
+            long decodeTime = track.nextDecodeTime;
+            if (tfdt != null) {
+                int version = tfdt.get() & 0xff;
+                skip(tfdt, 3);
+                decodeTime = version == 1 ? tfdt.getLong() : tfdt.getInt() & 0xffffffffL;
+            }
+
+            long dataOffset = baseOffset;
+            for (ByteBuffer trun : findBoxes(traf, TRUN)) {
+                int runFlags = trun.getInt() & 0xffffff;
+                int count = trun.getInt();
+                if ((runFlags & 0x1) != 0) {
+                    dataOffset = baseOffset + trun.getInt();
+                }
+                int firstSampleFlags = (runFlags & 0x4) != 0 ? trun.getInt() : defaultFlags;
+                for (int i = 0; i < count; i++) {
+                    long duration = (runFlags & 0x100) != 0 ? trun.getInt() & 0xffffffffL : defaultDuration;
+                    int size = (runFlags & 0x200) != 0 ? trun.getInt() : defaultSize;
+                    int sampleFlags = (runFlags & 0x400) != 0 ? trun.getInt() : (i == 0 ? firstSampleFlags : defaultFlags);
+                    int compositionOffset = (runFlags & 0x800) != 0 ? trun.getInt() : 0;
+                    boolean sync = (sampleFlags & 0x10000) == 0;
+                    track.addSample(dataOffset, size, decodeTime, compositionOffset, sync);
+                    dataOffset += size;
+                    decodeTime += duration;
+                }
+            }
+            track.nextDecodeTime = decodeTime;
+        }
+    }
+
+    private static void skip(ByteBuffer buffer, int length) {
+        buffer.position(buffer.position() + length);
+    }
+}
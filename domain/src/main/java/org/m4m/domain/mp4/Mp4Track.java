@@ -0,0 +1,197 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.m4m.domain.MediaFormat;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Sample table of one track of an MP4 file: file offsets, sizes, decode times, composition
+ * offsets and sync flags of all samples in decode order.
+ */
+class Mp4Track {
+    static final String KEY_CSD_0 = "csd-0";
+    static final String KEY_CSD_1 = "csd-1";
+    static final String KEY_MAX_INPUT_SIZE = "max-input-size";
+    static final String KEY_FRAME_RATE = "frame-rate";
+    static final String KEY_ROTATION = "rotation-degrees";
+
+    int trackId;
+    String mimeType;
+    boolean video;
+    boolean audio;
+    int width;
+    int height;
+    int sampleRate;
+    int channelCount;
+    int rotation;
+    int nalLengthSize;
+    ByteBuffer csd0;
+    ByteBuffer csd1;
+
+    long timescale = 1;
+    long durationInTimescale;
+    long editMediaTime;
+    long editEmptyDurationUs;
+
+    long defaultSampleDuration;
+    int defaultSampleSize;
+    int defaultSampleFlags;
+    long nextDecodeTime;
+
+    int sampleCount;
+    long[] offsets = new long[16];
+    int[] sizes = new int[16];
+    long[] decodeTimes = new long[16];
+    int[] compositionOffsets = new int[16];
+    boolean[] syncSamples = new boolean[16];
+    private int[] syncSampleIndexes = new int[0];
+    private int maxSampleSize;
+
+    int position;
+
+    void addSample(long offset, int size, long decodeTime, int compositionOffset, boolean sync) {
+        if (sampleCount == offsets.length) {
+            int capacity = sampleCount * 2;
+            offsets = Arrays.copyOf(offsets, capacity);
+            sizes = Arrays.copyOf(sizes, capacity);
+            decodeTimes = Arrays.copyOf(decodeTimes, capacity);
+            compositionOffsets = Arrays.copyOf(compositionOffsets, capacity);
+            syncSamples = Arrays.copyOf(syncSamples, capacity);
+        }
+        offsets[sampleCount] = offset;
+        sizes[sampleCount] = size;
+        decodeTimes[sampleCount] = decodeTime;
+        compositionOffsets[sampleCount] = compositionOffset;
+        syncSamples[sampleCount] = sync;
+        sampleCount++;
+    }
+
+    /**
+     * Completes the table once all samples are added.
+     */
+    void finish() {
+        int syncCount = 0;
+        int[] indexes = new int[sampleCount];
+        for (int i = 0; i < sampleCount; i++) {
+            if (syncSamples[i]) {
+                indexes[syncCount++] = i;
+            }
+            maxSampleSize = Math.max(maxSampleSize, sizes[i]);
+        }
+        syncSampleIndexes = Arrays.copyOf(indexes, syncCount);
+    }
+
+    long getDecodeTimeUs(int sample) {
+        return toMicroSec(decodeTimes[sample] - editMediaTime) + editEmptyDurationUs;
+    }
+
+    long getPresentationTimeUs(int sample) {
+        return toMicroSec(decodeTimes[sample] + compositionOffsets[sample] - editMediaTime) + editEmptyDurationUs;
+    }
+
+    long getDurationInMicroSec() {
+        if (durationInTimescale > 0) {
+            return toMicroSec(durationInTimescale);
+        }
+        if (sampleCount == 0) {
+            return 0;
+        }
+        return toMicroSec(nextDecodeTime - editMediaTime) + editEmptyDurationUs;
+    }
+
+    private long toMicroSec(long time) {
+        return time * 1000000L / timescale;
+    }
+
+    /**
+     * @return Sample to continue from after seeking to the given time, sampleCount past the end.
+     */
+    int findSyncSample(long timeUs, int mode) {
+        if (syncSampleIndexes.length == 0) {
+            return sampleCount;
+        }
+
+        int low = 0;
+        int high = syncSampleIndexes.length - 1;
+        while (low <= high) {
+            int middle = (low + high) >>> 1;
+            if (getPresentationTimeUs(syncSampleIndexes[middle]) <= timeUs) {
+                low = middle + 1;
+            } else {
+                high = middle - 1;
+            }
+        }
+        int previous = high;
+        int next = previous + 1;
+        if (previous != -1 && getPresentationTimeUs(syncSampleIndexes[previous]) == timeUs) {
+            next = previous;
+        }
+
+        switch (mode) {
+            case Mp4MediaExtractor.SEEK_TO_NEXT_SYNC:
+                return next < syncSampleIndexes.length ? syncSampleIndexes[next] : sampleCount;
+            case Mp4MediaExtractor.SEEK_TO_CLOSEST_SYNC:
+                if (previous == -1) {
+                    return syncSampleIndexes[0];
+                }
+                if (next >= syncSampleIndexes.length) {
+                    return syncSampleIndexes[previous];
+                }
+                long before = timeUs - getPresentationTimeUs(syncSampleIndexes[previous]);
+                long after = getPresentationTimeUs(syncSampleIndexes[next]) - timeUs;
+                return syncSampleIndexes[after < before ? next : previous];
+            default:
+                return syncSampleIndexes[Math.max(previous, 0)];
+        }
+    }
+
+    MediaFormat createFormat() {
+        if (video) {
+            Mp4VideoFormat format = new Mp4VideoFormat(mimeType, width, height);
+            format.setDuration(getDurationInMicroSec());
+            format.setInteger(KEY_MAX_INPUT_SIZE, maxSampleSize);
+            format.setInteger(KEY_ROTATION, rotation);
+            long duration = getDurationInMicroSec();
+            if (duration > 0) {
+                format.setInteger(KEY_FRAME_RATE, (int) Math.round(sampleCount * 1000000.0 / duration));
+            }
+            setCodecSpecificData(format);
+            return format;
+        }
+        if (audio) {
+            Mp4AudioFormat format = new Mp4AudioFormat(mimeType, sampleRate, channelCount);
+            format.setDuration(getDurationInMicroSec());
+            format.setInteger(KEY_MAX_INPUT_SIZE, maxSampleSize);
+            setCodecSpecificData(format);
+            return format;
+        }
+        return null;
+    }
+
+    private void setCodecSpecificData(Mp4VideoFormat format) {
+        if (csd0 != null) format.setByteBuffer(KEY_CSD_0, csd0);
+        if (csd1 != null) format.setByteBuffer(KEY_CSD_1, csd1);
+    }
+
+    private void setCodecSpecificData(Mp4AudioFormat format) {
+        if (csd0 != null) format.setByteBuffer(KEY_CSD_0, csd0);
+        if (csd1 != null) format.setByteBuffer(KEY_CSD_1, csd1);
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Splits H.264/H.265 byte streams with start codes into NAL units.
+ */
+public class NalUnits {
+    public static boolean hasStartCode(ByteBuffer data) {
+        int position = data.position();
+        if (data.remaining() >= 3 && data.get(position) == 0 && data.get(position + 1) == 0 && data.get(position + 2) == 1) {
+            return true;
+        }
+        return data.remaining() >= 4 && data.get(position) == 0 && data.get(position + 1) == 0
+                && data.get(position + 2) == 0 && data.get(position + 3) == 1;
+    }
+
+    /**
+     * @return NAL units between position and limit of the data, without start codes.
+     */
+    public static List<ByteBuffer> split(ByteBuffer data) {
+        List<ByteBuffer> units = new ArrayList<ByteBuffer>();
+        int limit = data.limit();
+        int start = -1;
+        int i = data.position();
+        while (i + 3 <= limit) {
+            if (data.get(i) == 0 && data.get(i + 1) == 0 && data.get(i + 2) == 1) {
+                if (start != -1) {
+                    units.add(slice(data, start, trimZeros(data, start, i)));
+                }
+                i += 3;
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start != -1 && start < limit) {
+            units.add(slice(data, start, limit));
+        }
+        return units;
+    }
+
+    public static int getAvcType(ByteBuffer unit) {
+        return unit.get(unit.position()) & 0x1f;
+    }
+
+    public static int getHevcType(ByteBuffer unit) {
+        return (unit.get(unit.position()) >> 1) & 0x3f;
+    }
+
+    private static int trimZeros(ByteBuffer data, int start, int end) {
+        while (end > start && data.get(end - 1) == 0) {
+            end--;
+        }
+        return end;
+    }
+
+    private static ByteBuffer slice(ByteBuffer data, int start, int end) {
+        ByteBuffer unit = data.duplicate();
+        unit.limit(end);
+        unit.position(start);
+        return unit.slice();
+    }
+}
@@ -16,19 +16,29 @@
 
 package org.m4m.domain.pipeline;
 
+import org.m4m.domain.Encoder;
 import org.m4m.domain.Frame;
 import org.m4m.domain.ICommandHandler;
 import org.m4m.domain.MediaCodecPlugin;
 import org.m4m.domain.MediaFormat;
 
+import java.util.Collections;
+import java.util.List;
+
 class AudioPipelineOutputFormatChangeCommandHandler implements ICommandHandler {
     private MediaCodecPlugin output;
     private MediaCodecPlugin input;
+    private List<Encoder> renditions;
 
     public AudioPipelineOutputFormatChangeCommandHandler(MediaCodecPlugin output, MediaCodecPlugin input) {
+        this(output, input, Collections.<Encoder>emptyList());
+    }
+
+    public AudioPipelineOutputFormatChangeCommandHandler(MediaCodecPlugin output, MediaCodecPlugin input, List<Encoder> renditions) {
         super();
         this.output = output;
         this.input = input;
+        this.renditions = renditions;
     }
 
     @Override
@@ -36,5 +46,9 @@ class AudioPipelineOutputFormatChangeCommandHandler implements ICommandHandler {
         MediaFormat decoderMediaFormat = output.getOutputMediaFormat();
         input.setInputMediaFormat(decoderMediaFormat);
         input.push(Frame.empty());
+
+        for (Encoder rendition : renditions) {
+            rendition.setInputMediaFormat(decoderMediaFormat);
+        }
     }
 }
@@ -17,22 +17,44 @@
 package org.m4m.domain.pipeline;
 
 import org.m4m.domain.Command;
+import org.m4m.domain.Encoder;
 import org.m4m.domain.Frame;
 import org.m4m.domain.ICommandHandler;
 import org.m4m.domain.IPluginOutput;
 import org.m4m.domain.MediaCodecPlugin;
 
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Copies decoded frames into the input buffers of an encoder and of its renditions. A frame is taken from the
+ * output only when every encoder has a free input buffer; buffers found earlier are kept for the next attempt,
+ * so the slowest encoder paces the output and each one holds at most its own input buffers.
+ */
 class CopyDataCommandHandler implements ICommandHandler {
     private final IPluginOutput output;
     private final MediaCodecPlugin input;
+    private final List<Encoder> renditions;
+    private final Frame[] renditionFrames;
 
     public CopyDataCommandHandler(IPluginOutput output, MediaCodecPlugin input) {
+        this(output, input, Collections.<Encoder>emptyList());
+    }
+
+    public CopyDataCommandHandler(IPluginOutput output, MediaCodecPlugin input, List<Encoder> renditions) {
         this.output = output;
         this.input = input;
+        this.renditions = renditions;
+        this.renditionFrames = new Frame[renditions.size()];
     }
 
     @Override
     public void handle() {
+        if (!findRenditionFrames()) {
+            restoreCommands();
+            return;
+        }
+
         Frame encoderFrame = input.findFreeFrame();
         if (encoderFrame == null) {
             restoreCommands();
@@ -45,9 +67,26 @@ class CopyDataCommandHandler implements ICommandHandler {
         encoderFrame.copyDataFrom(decoderFrame);
         input.push(encoderFrame);
 
+        for (int i = 0; i < renditionFrames.length; i++) {
+            renditionFrames[i].copyDataFrom(decoderFrame);
+            renditions.get(i).push(renditionFrames[i]);
+            renditionFrames[i] = null;
+        }
+
         output.releaseOutputBuffer(decoderFrame.getBufferIndex());
     }
 
+    private boolean findRenditionFrames() {
+        boolean found = true;
+        for (int i = 0; i < renditionFrames.length; i++) {
+            if (renditionFrames[i] == null) {
+                renditionFrames[i] = renditions.get(i).findFreeFrame();
+            }
+            found &= renditionFrames[i] != null;
+        }
+        return found;
+    }
+
 
     private void restoreCommands() {
         output.getOutputCommandQueue().queue(Command.HasData, 0);
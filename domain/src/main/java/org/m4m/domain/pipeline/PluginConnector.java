@@ -51,6 +51,9 @@ import org.m4m.domain.VideoEffector;
 import org.m4m.domain.VideoEncoder;
 import org.m4m.domain.VideoTimeScaler;
 
+import java.util.Collections;
+import java.util.List;
+
 class PluginConnector implements IConnector {
     private final ICommandProcessor commandProcessor;
 
@@ -91,6 +94,7 @@ class PluginConnector implements IConnector {
 
         encoder.configure();
         encoder.start();
+        startRenditions(encoder);
     }
 
     public void connect(final VideoEffector effector, final VideoEncoder encoder) {
@@ -104,9 +108,17 @@ class PluginConnector implements IConnector {
                 ISurface surface = encoder.getSimpleSurface(eglContext);
                 effector.setOutputSurface(surface);
 
+                for (Encoder rendition : encoder.getRenditions()) {
+                    rendition.configure();
+                    effector.addRendition((VideoEncoder) rendition, rendition.getSimpleSurface(eglContext));
+                }
+
                 effector.configure();
                 effector.start();
                 encoder.start();
+                for (Encoder rendition : encoder.getRenditions()) {
+                    rendition.start();
+                }
             }
         });
     }
@@ -133,6 +145,7 @@ class PluginConnector implements IConnector {
         audioEncoder.setChannelCount(mediaFormat.getAudioChannelCount());*/
         audioEncoder.configure();
         audioEncoder.start();
+        startRenditions(audioEncoder);
 
         effector.configure();
         effector.start();
@@ -149,13 +162,7 @@ class PluginConnector implements IConnector {
                                                final IVideoOutput videoOutput, final Plugin decoder) {
         if (decoder instanceof IFrameAllocator) {
             CommandHandlerFactory factory = new CommandHandlerFactory();
-            factory.register(new Pair<Command, Integer>(Command.HasData, decoder.getTrackId()), new Pair<Command, Integer>(Command.NeedData, decoder.getTrackId()), new IHandlerCreator() {
-                @Override
-                public ICommandHandler create() {
-                    return new PushDataCommandHandler(mediaSource, decoder, (IFrameAllocator) decoder);
-                }
-
-            });
+            factory.register(new Pair<Command, Integer>(Command.HasData, decoder.getTrackId()), new Pair<Command, Integer>(Command.NeedData, decoder.getTrackId()), new PushDataCommandHandler(mediaSource, decoder, (IFrameAllocator) decoder));
             factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, decoder.getTrackId()), new Pair<Command, Integer>(Command.NeedData, decoder.getTrackId()), new IHandlerCreator() {
                 @Override
                 public ICommandHandler create() {
@@ -198,13 +205,7 @@ class PluginConnector implements IConnector {
                 return new PushSurfaceCommandHandler(decoder, encoder);
             }
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
-            }
-
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -242,12 +243,7 @@ class PluginConnector implements IConnector {
                 return new PushSurfaceCommandHandlerForEffector(decoder, encoder);
             }
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -266,12 +262,7 @@ class PluginConnector implements IConnector {
                 return new PushSurfaceCommandHandlerForEffector(decoder, encoder);
             }
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -290,30 +281,34 @@ class PluginConnector implements IConnector {
     }
 
     private void configureAudioPipelineCommandProcessorCopy(final MediaCodecPlugin decoder, final MediaCodecPlugin encoder) {
+        final List<Encoder> renditions = renditionsOf(encoder);
         CommandHandlerFactory factory = new CommandHandlerFactory();
-        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new CopyDataCommandHandler(decoder, encoder);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new CopyDataCommandHandler(decoder, encoder, renditions));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
-                return new AudioPipelineOutputFormatChangeCommandHandler(decoder, encoder);
-            }
-
-        });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
+                return new AudioPipelineOutputFormatChangeCommandHandler(decoder, encoder, renditions);
             }
 
         });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         commandProcessor.add(new OutputInputPair(decoder, encoder, factory));
     }
 
+    private static List<Encoder> renditionsOf(MediaCodecPlugin plugin) {
+        if (plugin instanceof Encoder) {
+            return ((Encoder) plugin).getRenditions();
+        }
+        return Collections.emptyList();
+    }
+
+    private static void startRenditions(Encoder encoder) {
+        for (Encoder rendition : encoder.getRenditions()) {
+            rendition.configure();
+            rendition.start();
+        }
+    }
+
     private void configureCommandProcessorPushSurfaceEffector2(final MediaCodecPlugin scaler, final MediaCodecPlugin effector) {
         CommandHandlerFactory factory = new CommandHandlerFactory();
         factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
@@ -322,12 +317,7 @@ class PluginConnector implements IConnector {
                 return new PushSurfaceCommandHandlerForEffector(scaler, effector);
             }
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(effector);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(effector));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -382,20 +372,9 @@ class PluginConnector implements IConnector {
 
             });
         }
-        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new PullDataCommandHandler(plugin, render);
-            }
-
-        });
-        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedInputFormat, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new PullDataCommandHandler(plugin, render);
-            }
-
-        });
+        PullDataCommandHandler pullDataCommandHandler = new PullDataCommandHandler(plugin, render);
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), pullDataCommandHandler);
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedInputFormat, 0), pullDataCommandHandler);
         factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -417,12 +396,7 @@ class PluginConnector implements IConnector {
     public void connect(final IMediaSource source, final Render render) {
         CommandHandlerFactory factory = new CommandHandlerFactory();
 
-        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new PushNewDataCommandHandler(source, render);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new PushNewDataCommandHandler(source, render));
 
         commandProcessor.add(new OutputInputPair(source, render, factory));
         render.setMediaFormat(source.getMediaFormatByType(MediaFormatType.VIDEO));
@@ -444,12 +418,7 @@ class PluginConnector implements IConnector {
                 return new CaptureSourcePullSurfaceCommandHandler(source, encoder);
             }
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         factory.register(new Pair<Command, Integer>(Command.OutputFormatChanged, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
             @Override
             public ICommandHandler create() {
@@ -489,12 +458,7 @@ class PluginConnector implements IConnector {
             }
 
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(effector);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(effector));
         commandProcessor.add(new OutputInputPair(source, effector, factory));
     }
 
@@ -513,12 +477,7 @@ class PluginConnector implements IConnector {
             }
 
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(encoder);
-            }
-        });
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new DrainCommandHandler(encoder));
         commandProcessor.add(new OutputInputPair(source, encoder, factory));
 
 
@@ -555,18 +514,9 @@ class PluginConnector implements IConnector {
             }
 
         });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(effector);
-            }
-        });
-        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedInputFormat, 0), new IHandlerCreator() {
-            @Override
-            public ICommandHandler create() {
-                return new DrainCommandHandler(effector);
-            }
-        });
+        DrainCommandHandler drainCommandHandler = new DrainCommandHandler(effector);
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedData, 0), drainCommandHandler);
+        factory.register(new Pair<Command, Integer>(Command.EndOfFile, 0), new Pair<Command, Integer>(Command.NeedInputFormat, 0), drainCommandHandler);
         commandProcessor.add(new OutputInputPair(camera, effector, factory));
 
         effector.onSurfaceAvailable(new ISurfaceListener() {
@@ -17,16 +17,18 @@
 package org.m4m.domain.pipeline;
 
 import org.m4m.domain.Frame;
+import org.m4m.domain.FramePool;
 import org.m4m.domain.ICommandHandler;
 import org.m4m.domain.IOutput;
 import org.m4m.domain.Render;
 
-import java.nio.ByteBuffer;
-
 
 class PushNewDataCommandHandler implements ICommandHandler {
+    private static final int FRAME_CAPACITY = 1024 * 1024;
+
     private IOutput output;
     private Render render;
+    private final FramePool framePool = new FramePool(FRAME_CAPACITY);
 
     public PushNewDataCommandHandler(IOutput output, Render render) {
         super();
@@ -36,8 +38,9 @@ class PushNewDataCommandHandler implements ICommandHandler {
 
     @Override
     public void handle() {
-        Frame frame = new Frame(ByteBuffer.allocate(1024 * 1024), 1024 * 1024, 0, 0, 0, 0);
+        Frame frame = framePool.findFreeFrame();
         output.pull(frame);
         render.push(frame);
+        frame.release();
     }
 }
@@ -0,0 +1,170 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes and reads the AMF0 values of RTMP command and data messages. Numbers, booleans, strings, null,
+ * objects and ECMA arrays are supported, which covers the commands of a publishing client.
+ */
+class Amf0 {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int NUMBER = 0;
+    private static final int BOOLEAN = 1;
+    private static final int STRING = 2;
+    private static final int OBJECT = 3;
+    private static final int NULL = 5;
+    private static final int UNDEFINED = 6;
+    private static final int ECMA_ARRAY = 8;
+    private static final int OBJECT_END = 9;
+    private static final int STRICT_ARRAY = 10;
+
+    private ByteBuffer buffer = ByteBuffer.allocate(256);
+
+    Amf0 put(Object value) {
+        if (value == null) {
+            ensureCapacity(1);
+            buffer.put((byte) NULL);
+        } else if (value instanceof Number) {
+            ensureCapacity(9);
+            buffer.put((byte) NUMBER).putDouble(((Number) value).doubleValue());
+        } else if (value instanceof Boolean) {
+            ensureCapacity(2);
+            buffer.put((byte) BOOLEAN).put((byte) ((Boolean) value ? 1 : 0));
+        } else if (value instanceof String) {
+            ensureCapacity(1);
+            buffer.put((byte) STRING);
+            putString((String) value);
+        } else if (value instanceof Map) {
+            ensureCapacity(1);
+            buffer.put((byte) OBJECT);
+            putProperties((Map<?, ?>) value);
+        } else {
+            throw new IllegalArgumentException("Unsupported AMF0 value " + value.getClass().getName());
+        }
+        return this;
+    }
+
+    /**
+     * Writes the properties as an ECMA array, as onMetaData expects them.
+     */
+    Amf0 putEcmaArray(Map<String, Object> properties) {
+        ensureCapacity(5);
+        buffer.put((byte) ECMA_ARRAY).putInt(properties.size());
+        putProperties(properties);
+        return this;
+    }
+
+    ByteBuffer toByteBuffer() {
+        ByteBuffer data = ByteBuffer.allocate(buffer.position());
+        buffer.flip();
+        data.put(buffer);
+        data.flip();
+        buffer.limit(buffer.capacity());
+        return data;
+    }
+
+    /**
+     * @return Values of a command or data message: Double, Boolean, String, Map, List or null.
+     */
+    static List<Object> read(ByteBuffer data) {
+        ByteBuffer input = data.duplicate();
+        List<Object> values = new ArrayList<Object>();
+        while (input.hasRemaining()) {
+            values.add(readValue(input));
+        }
+        return values;
+    }
+
+    private void putString(String value) {
+        byte[] bytes = value.getBytes(UTF_8);
+        ensureCapacity(2 + bytes.length);
+        buffer.putShort((short) bytes.length).put(bytes);
+    }
+
+    private void putProperties(Map<?, ?> properties) {
+        for (Map.Entry<?, ?> property : properties.entrySet()) {
+            putString(property.getKey().toString());
+            put(property.getValue());
+        }
+        ensureCapacity(3);
+        buffer.putShort((short) 0).put((byte) OBJECT_END);
+    }
+
+    private void ensureCapacity(int size) {
+        if (buffer.remaining() < size) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + size));
+            buffer.flip();
+            grown.put(buffer);
+            buffer = grown;
+        }
+    }
+
+    private static Object readValue(ByteBuffer input) {
+        int type = input.get() & 0xff;
+        switch (type) {
+            case NUMBER:
+                return input.getDouble();
+            case BOOLEAN:
+                return input.get() != 0;
+            case STRING:
+                return readString(input);
+            case OBJECT:
+                return readProperties(input);
+            case NULL:
+            case UNDEFINED:
+                return null;
+            case ECMA_ARRAY:
+                input.getInt();
+                return readProperties(input);
+            case STRICT_ARRAY:
+                int count = input.getInt();
+                List<Object> values = new ArrayList<Object>(count);
+                for (int i = 0; i < count; i++) {
+                    values.add(readValue(input));
+                }
+                return values;
+            default:
+                throw new IllegalArgumentException("Unsupported AMF0 type " + type);
+        }
+    }
+
+    private static Map<String, Object> readProperties(ByteBuffer input) {
+        Map<String, Object> properties = new LinkedHashMap<String, Object>();
+        while (true) {
+            String key = readString(input);
+            if (key.isEmpty() && (input.get(input.position()) & 0xff) == OBJECT_END) {
+                input.get();
+                return properties;
+            }
+            properties.put(key, readValue(input));
+        }
+    }
+
+    private static String readString(ByteBuffer input) {
+        byte[] bytes = new byte[input.getShort() & 0xffff];
+        input.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+}
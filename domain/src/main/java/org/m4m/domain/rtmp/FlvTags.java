@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import org.m4m.domain.mp4.NalUnits;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds the bodies of FLV audio and video tags, which RTMP sends as message payloads.
+ * H.264 samples with start codes are converted to NAL units with lengths.
+ */
+class FlvTags {
+    private static final int VIDEO_KEY_FRAME = 1;
+    private static final int VIDEO_INTER_FRAME = 2;
+    private static final int CODEC_AVC = 7;
+    private static final int AVC_SEQUENCE_HEADER = 0;
+    private static final int AVC_NALU = 1;
+    private static final int AUDIO_AAC = 0xaf;
+    private static final int AAC_SEQUENCE_HEADER = 0;
+    private static final int AAC_RAW = 1;
+    private static final int[] AAC_SAMPLE_RATES = {96000, 88200, 64000, 48000, 44100, 32000, 24000, 22050, 16000, 12000, 11025, 8000, 7350};
+
+    /**
+     * @return AVC sequence header carrying the decoder configuration record built from csd-0 and csd-1.
+     */
+    static ByteBuffer avcSequenceHeader(ByteBuffer csd0, ByteBuffer csd1) {
+        List<ByteBuffer> sps = new ArrayList<ByteBuffer>();
+        List<ByteBuffer> pps = new ArrayList<ByteBuffer>();
+        int size = 5 + 7;
+        for (ByteBuffer csd : new ByteBuffer[]{csd0, csd1}) {
+            if (csd == null) {
+                continue;
+            }
+            for (ByteBuffer unit : NalUnits.split(csd)) {
+                int type = NalUnits.getAvcType(unit);
+                if (type == 7) {
+                    sps.add(unit);
+                } else if (type == 8) {
+                    pps.add(unit);
+                } else {
+                    continue;
+                }
+                size += 2 + unit.remaining();
+            }
+        }
+        if (sps.isEmpty() || sps.get(0).remaining() < 4) {
+            throw new IllegalStateException("No sequence parameter set in the video format.");
+        }
+
+        ByteBuffer tag = ByteBuffer.allocate(size);
+        tag.put((byte) (VIDEO_KEY_FRAME << 4 | CODEC_AVC)).put((byte) AVC_SEQUENCE_HEADER);
+        RtmpChunkWriter.putInt24(tag, 0);
+        ByteBuffer first = sps.get(0);
+        tag.put((byte) 1).put(first.get(1)).put(first.get(2)).put(first.get(3))
+                .put((byte) 0xff).put((byte) (0xe0 | sps.size()));
+        for (ByteBuffer unit : sps) {
+            tag.putShort((short) unit.remaining()).put(unit.duplicate());
+        }
+        tag.put((byte) pps.size());
+        for (ByteBuffer unit : pps) {
+            tag.putShort((short) unit.remaining()).put(unit.duplicate());
+        }
+        tag.flip();
+        return tag;
+    }
+
+    /**
+     * @param sample            H.264 access unit, with start codes or with 4 byte NAL unit lengths.
+     * @param compositionTimeMs Presentation time minus decoding time in milliseconds.
+     */
+    static ByteBuffer avcVideo(ByteBuffer sample, boolean keyFrame, int compositionTimeMs) {
+        ByteBuffer tag;
+        if (NalUnits.hasStartCode(sample)) {
+            List<ByteBuffer> units = NalUnits.split(sample);
+            int size = 5;
+            for (ByteBuffer unit : units) {
+                size += 4 + unit.remaining();
+            }
+            tag = ByteBuffer.allocate(size);
+            putAvcVideoHeader(tag, keyFrame, compositionTimeMs);
+            for (ByteBuffer unit : units) {
+                tag.putInt(unit.remaining()).put(unit);
+            }
+        } else {
+            tag = ByteBuffer.allocate(5 + sample.remaining());
+            putAvcVideoHeader(tag, keyFrame, compositionTimeMs);
+            tag.put(sample.duplicate());
+        }
+        tag.flip();
+        return tag;
+    }
+
+    /**
+     * @param audioSpecificConfig csd-0 of the audio format, null to build AAC-LC configuration from the sample
+     *                            rate and channel count.
+     */
+    static ByteBuffer aacSequenceHeader(ByteBuffer audioSpecificConfig, int sampleRate, int channelCount) {
+        ByteBuffer config = audioSpecificConfig;
+        if (config == null) {
+            int frequencyIndex = 4;
+            for (int i = 0; i < AAC_SAMPLE_RATES.length; i++) {
+                if (AAC_SAMPLE_RATES[i] == sampleRate) {
+                    frequencyIndex = i;
+                }
+            }
+            int value = (2 << 11) | (frequencyIndex << 7) | (channelCount << 3);
+            config = ByteBuffer.wrap(new byte[]{(byte) (value >> 8), (byte) value});
+        }
+
+        ByteBuffer tag = ByteBuffer.allocate(2 + config.remaining());
+        tag.put((byte) AUDIO_AAC).put((byte) AAC_SEQUENCE_HEADER).put(config.duplicate());
+        tag.flip();
+        return tag;
+    }
+
+    static ByteBuffer aacAudio(ByteBuffer sample) {
+        ByteBuffer tag = ByteBuffer.allocate(2 + sample.remaining());
+        tag.put((byte) AUDIO_AAC).put((byte) AAC_RAW).put(sample.duplicate());
+        tag.flip();
+        return tag;
+    }
+
+    private static void putAvcVideoHeader(ByteBuffer tag, boolean keyFrame, int compositionTimeMs) {
+        tag.put((byte) ((keyFrame ? VIDEO_KEY_FRAME : VIDEO_INTER_FRAME) << 4 | CODEC_AVC)).put((byte) AVC_NALU);
+        RtmpChunkWriter.putInt24(tag, compositionTimeMs);
+    }
+}
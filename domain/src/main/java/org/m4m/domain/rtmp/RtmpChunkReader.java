@@ -0,0 +1,163 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Assembles RTMP messages from chunks. Keeps the header state of every chunk stream and follows Set Chunk Size
+ * messages of the peer.
+ */
+class RtmpChunkReader {
+    private static final int MAX_TIMESTAMP = 0xffffff;
+
+    private final Map<Integer, ChunkStream> chunkStreams = new HashMap<Integer, ChunkStream>();
+    private int chunkSize = 128;
+
+    private static class ChunkStream {
+        int type;
+        int streamId;
+        int length;
+        long timestamp;
+        long timestampDelta;
+        boolean extendedTimestamp;
+        ByteBuffer payload;
+    }
+
+    /**
+     * Reads the complete chunks from the data. An incomplete chunk at the end is left in the buffer.
+     *
+     * @return Messages completed by the chunks read.
+     */
+    List<RtmpMessage> read(ByteBuffer data) {
+        List<RtmpMessage> messages = new ArrayList<RtmpMessage>();
+        while (true) {
+            int start = data.position();
+            RtmpMessage message = readChunk(data);
+            if (data.position() == start) {
+                return messages;
+            }
+            if (message != null) {
+                if (message.type == RtmpMessage.SET_CHUNK_SIZE) {
+                    chunkSize = message.payload.getInt(0) & 0x7fffffff;
+                }
+                messages.add(message);
+            }
+        }
+    }
+
+    /**
+     * @return Message completed by the chunk, null if the message is not complete yet or the chunk is not
+     * complete, the latter leaves the data position unchanged.
+     */
+    private RtmpMessage readChunk(ByteBuffer data) {
+        int start = data.position();
+        if (!data.hasRemaining()) {
+            return null;
+        }
+        int first = data.get() & 0xff;
+        int format = first >> 6;
+        int chunkStreamId = first & 0x3f;
+        int basicHeaderSize = chunkStreamId == 0 ? 1 : chunkStreamId == 1 ? 2 : 0;
+        int messageHeaderSize = format == 0 ? 11 : format == 1 ? 7 : format == 2 ? 3 : 0;
+        if (data.remaining() < basicHeaderSize + messageHeaderSize) {
+            data.position(start);
+            return null;
+        }
+        if (chunkStreamId == 0) {
+            chunkStreamId = 64 + (data.get() & 0xff);
+        } else if (chunkStreamId == 1) {
+            chunkStreamId = 64 + (data.get() & 0xff) + (data.get() & 0xff) * 256;
+        }
+
+        ChunkStream stream = chunkStreams.get(chunkStreamId);
+        if (stream == null) {
+            if (format != 0) {
+                throw new IllegalStateException("Chunk stream " + chunkStreamId + " starts without a full header.");
+            }
+            stream = new ChunkStream();
+        }
+
+        long timestamp = format == 3 ? (stream.extendedTimestamp ? MAX_TIMESTAMP : 0) : getInt24(data);
+        int length = stream.length;
+        int type = stream.type;
+        int streamId = stream.streamId;
+        if (format <= 1) {
+            length = getInt24(data);
+            type = data.get() & 0xff;
+        }
+        if (format == 0) {
+            streamId = (data.get() & 0xff) | (data.get() & 0xff) << 8 | (data.get() & 0xff) << 16 | (data.get() & 0xff) << 24;
+        }
+        boolean extended = format == 3 ? stream.extendedTimestamp : timestamp == MAX_TIMESTAMP;
+        if (extended) {
+            if (data.remaining() < 4) {
+                data.position(start);
+                return null;
+            }
+            timestamp = data.getInt() & 0xffffffffL;
+        }
+
+        boolean newMessage = stream.payload == null;
+        int size = Math.min(chunkSize, newMessage ? length : stream.payload.remaining());
+        if (data.remaining() < size) {
+            data.position(start);
+            return null;
+        }
+
+        chunkStreams.put(chunkStreamId, stream);
+        if (newMessage) {
+            if (format == 0) {
+                stream.timestamp = timestamp;
+                stream.timestampDelta = 0;
+            } else if (format != 3) {
+                stream.timestampDelta = timestamp;
+                stream.timestamp += timestamp;
+            } else {
+                stream.timestamp += stream.timestampDelta;
+            }
+            stream.type = type;
+            stream.streamId = streamId;
+            stream.length = length;
+            stream.extendedTimestamp = extended;
+            stream.payload = ByteBuffer.allocate(length);
+        }
+
+        ByteBuffer chunk = data.duplicate();
+        chunk.limit(data.position() + size);
+        stream.payload.put(chunk);
+        data.position(data.position() + size);
+
+        if (stream.payload.hasRemaining()) {
+            return null;
+        }
+        stream.payload.flip();
+        RtmpMessage message = new RtmpMessage(stream.type, stream.timestamp, stream.payload);
+        message.streamId = stream.streamId;
+        stream.payload = null;
+        return message;
+    }
+
+    private static int getInt24(ByteBuffer data) {
+        return (data.get() & 0xff) << 16 | (data.get() & 0xff) << 8 | (data.get() & 0xff);
+    }
+}
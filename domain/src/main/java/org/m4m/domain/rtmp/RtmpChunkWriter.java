@@ -0,0 +1,94 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Splits RTMP messages into chunks. Every message starts with a type 0 chunk header, the rest of it follows in
+ * type 3 chunks. A message is written chunk by chunk as the output buffer has room, so large video frames do
+ * not need a buffer of their own.
+ */
+class RtmpChunkWriter {
+    private static final int MAX_TIMESTAMP = 0xffffff;
+
+    private int chunkSize = 128;
+    private RtmpMessage message = null;
+    private int written = 0;
+
+    void setChunkSize(int chunkSize) {
+        this.chunkSize = chunkSize;
+    }
+
+    void begin(RtmpMessage message) {
+        this.message = message;
+        this.written = 0;
+    }
+
+    boolean isDone() {
+        return message == null;
+    }
+
+    /**
+     * Writes the chunks of the current message that fit into the output.
+     */
+    void writeTo(ByteBuffer output) {
+        while (message != null) {
+            ByteBuffer payload = message.payload;
+            int length = payload.remaining();
+            int size = Math.min(chunkSize, length - written);
+            boolean first = written == 0;
+            boolean extended = message.timestamp >= MAX_TIMESTAMP;
+            if (output.remaining() < 1 + (first ? 11 : 0) + (extended ? 4 : 0) + size) {
+                return;
+            }
+
+            int chunkStreamId = message.getChunkStreamId();
+            if (first) {
+                output.put((byte) chunkStreamId);
+                putInt24(output, extended ? MAX_TIMESTAMP : (int) message.timestamp);
+                putInt24(output, length);
+                output.put((byte) message.type);
+                putInt32LittleEndian(output, message.streamId);
+            } else {
+                output.put((byte) (0xc0 | chunkStreamId));
+            }
+            if (extended) {
+                output.putInt((int) message.timestamp);
+            }
+
+            ByteBuffer chunk = payload.duplicate();
+            chunk.position(payload.position() + written);
+            chunk.limit(payload.position() + written + size);
+            output.put(chunk);
+            written += size;
+
+            if (written == length) {
+                message = null;
+            }
+        }
+    }
+
+    static void putInt32LittleEndian(ByteBuffer output, int value) {
+        output.put((byte) value).put((byte) (value >> 8)).put((byte) (value >> 16)).put((byte) (value >> 24));
+    }
+
+    static void putInt24(ByteBuffer output, int value) {
+        output.put((byte) (value >> 16)).put((byte) (value >> 8)).put((byte) value);
+    }
+}
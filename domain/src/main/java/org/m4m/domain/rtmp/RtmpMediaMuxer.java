@@ -0,0 +1,346 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import org.m4m.AudioFormat;
+import org.m4m.StreamingParameters;
+import org.m4m.VideoFormat;
+import org.m4m.domain.FrameDependency;
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.MediaFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Publishes H.264 and AAC samples to an RTMP server as FLV tags, without the Android media framework.
+ * <p/>
+ * Samples are packetized on the calling thread and put into a send queue bounded by size, a separate thread
+ * writes the queue to a non-blocking socket. Writing a sample never waits for the network: when the link can
+ * not keep up and the queue is full, media is dropped according to the {@link DropPolicy}. Commands and
+ * sequence headers are never dropped. Send queue depth, sent bytes, throughput and dropped frames can be read
+ * at any time.
+ * <p/>
+ * Decoding times are not known to the muxer, samples are expected in decoding order and a video sample gets its
+ * presentation time as decoding time unless that would go back in time.
+ */
+public class RtmpMediaMuxer implements IMediaMuxer {
+    /**
+     * What to drop when the send queue is full.
+     */
+    public enum DropPolicy {
+        /**
+         * Drops queued video frames no other frame references first, then other queued video up to the next key
+         * frame, and queued audio last.
+         */
+        DROP_NON_REFERENCE_VIDEO_FIRST,
+        /**
+         * Drops the new sample and keeps the queued ones. Video is then dropped up to the next key frame.
+         */
+        DROP_NEWEST
+    }
+
+    public static final int DEFAULT_PORT = 1935;
+    private static final int DEFAULT_SEND_QUEUE_SIZE = 2 * 1024 * 1024;
+    private static final int BUFFER_FLAG_SYNC_FRAME = 1;
+
+    private final String host;
+    private final int port;
+    private final String applicationName;
+    private final String streamName;
+    private final List<Track> tracks = new ArrayList<Track>();
+    private int sendQueueSize = DEFAULT_SEND_QUEUE_SIZE;
+    private DropPolicy dropPolicy = DropPolicy.DROP_NON_REFERENCE_VIDEO_FIRST;
+    private RtmpSendQueue queue;
+    private RtmpPublisher publisher;
+    private long startTimeUs = -1;
+    private boolean started = false;
+    private boolean stopped = false;
+
+    private static class Track {
+        final MediaFormat format;
+        final boolean video;
+        ByteBuffer csd0;
+        ByteBuffer csd1;
+        boolean configured = false;
+        long lastDecodeTimeUs = Long.MIN_VALUE;
+
+        Track(MediaFormat format) {
+            this.format = format;
+            this.video = format.getMimeType().startsWith("video/");
+            this.csd0 = format.getByteBuffer("csd-0");
+            this.csd1 = format.getByteBuffer("csd-1");
+        }
+    }
+
+    /**
+     * @param parameters Host, port, application and stream name to publish to. A port of 0 selects the default
+     *                   RTMP port.
+     */
+    public RtmpMediaMuxer(StreamingParameters parameters) {
+        this(parameters.Host, parameters.Port, parameters.ApplicationName, parameters.StreamName);
+        if (parameters.Secure) {
+            throw new IllegalArgumentException("Secure streaming is not supported.");
+        }
+    }
+
+    public RtmpMediaMuxer(String host, int port, String applicationName, String streamName) {
+        this.host = host;
+        this.port = port > 0 ? port : DEFAULT_PORT;
+        this.applicationName = applicationName;
+        this.streamName = streamName;
+    }
+
+    /**
+     * Sets the maximum size of the media waiting to be sent. Must be called before start().
+     *
+     * @param maxBytes Size in bytes, 2 MB by default.
+     */
+    public void setSendQueueSize(int maxBytes) {
+        this.sendQueueSize = maxBytes;
+    }
+
+    /**
+     * Sets what to drop when the send queue is full. Must be called before start().
+     */
+    public void setDropPolicy(DropPolicy dropPolicy) {
+        this.dropPolicy = dropPolicy;
+    }
+
+    @Override
+    public synchronized int addTrack(MediaFormat mediaFormat) {
+        if (started) {
+            throw new IllegalStateException("Tracks must be added before start().");
+        }
+        String mimeType = mediaFormat.getMimeType();
+        if (!"video/avc".equals(mimeType) && !"audio/mp4a-latm".equals(mimeType)) {
+            throw new IllegalArgumentException("Unsupported codec " + mimeType);
+        }
+        tracks.add(new Track(mediaFormat));
+        return tracks.size() - 1;
+    }
+
+    @Override
+    public void setOrientationHint(int degrees) {
+    }
+
+    @Override
+    public synchronized void start() {
+        if (tracks.isEmpty()) {
+            throw new IllegalStateException("No tracks added.");
+        }
+        queue = new RtmpSendQueue(sendQueueSize, dropPolicy);
+        queue.offer(createMetadata());
+        for (Track track : tracks) {
+            queueSequenceHeader(track);
+        }
+
+        publisher = new RtmpPublisher(host, port, applicationName, streamName, queue);
+        try {
+            publisher.start();
+        } catch (IOException e) {
+            throw new RuntimeException("Failed to start publishing to " + host + ":" + port + ".", e);
+        }
+        started = true;
+    }
+
+    @Override
+    public synchronized void writeSampleData(int trackIndex, ByteBuffer buffer, IMediaCodec.BufferInfo bufferInfo) {
+        if (!started || stopped) {
+            throw new IllegalStateException("Muxer is not started.");
+        }
+        IOException error = publisher.getError();
+        if (error != null) {
+            throw new RuntimeException("Publishing to " + host + ":" + port + " failed.", error);
+        }
+        if (bufferInfo.size <= 0) {
+            return;
+        }
+
+        Track track = tracks.get(trackIndex);
+        ByteBuffer sample = buffer.duplicate();
+        sample.limit(bufferInfo.offset + bufferInfo.size);
+        sample.position(bufferInfo.offset);
+
+        if ((bufferInfo.flags & IMediaCodec.BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            setCodecConfig(track, sample);
+            queueSequenceHeader(track);
+            publisher.wakeUp();
+            return;
+        }
+        if (!track.configured) {
+            return;
+        }
+
+        if (startTimeUs == -1) {
+            startTimeUs = bufferInfo.presentationTimeUs;
+        }
+        long presentationTimeUs = Math.max(bufferInfo.presentationTimeUs - startTimeUs, 0);
+        RtmpMessage message;
+        if (track.video) {
+            long decodeTimeUs = Math.max(presentationTimeUs, track.lastDecodeTimeUs);
+            track.lastDecodeTimeUs = decodeTimeUs;
+            boolean keyFrame = (bufferInfo.flags & BUFFER_FLAG_SYNC_FRAME) != 0;
+            int compositionTimeMs = (int) (presentationTimeUs / 1000 - decodeTimeUs / 1000);
+            message = new RtmpMessage(RtmpMessage.VIDEO, decodeTimeUs / 1000, FlvTags.avcVideo(sample, keyFrame, compositionTimeMs));
+            message.keyFrame = keyFrame;
+            message.disposable = !keyFrame && FrameDependency.isDisposable(sample, "video/avc");
+        } else {
+            message = new RtmpMessage(RtmpMessage.AUDIO, presentationTimeUs / 1000, FlvTags.aacAudio(sample));
+        }
+        message.droppable = true;
+
+        if (queue.offer(message)) {
+            publisher.wakeUp();
+        }
+    }
+
+    /**
+     * Sends the samples still queued and ends the stream. Returns at once, the connection is closed on the
+     * publishing thread.
+     */
+    @Override
+    public synchronized void stop() {
+        if (started && !stopped) {
+            stopped = true;
+            publisher.close();
+        }
+    }
+
+    @Override
+    public void release() {
+    }
+
+    /**
+     * Waits until the stream is ended and the connection closed after stop().
+     *
+     * @return True if the connection is closed, false on timeout.
+     */
+    public boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        return publisher == null || publisher.join(timeoutMs);
+    }
+
+    /**
+     * @return True while the server accepts published samples.
+     */
+    public boolean isPublishing() {
+        return publisher != null && publisher.isPublishing();
+    }
+
+    /**
+     * @return Error that ended the connection, null if there was none.
+     */
+    public IOException getError() {
+        return publisher == null ? null : publisher.getError();
+    }
+
+    /**
+     * @return Number of messages waiting to be sent.
+     */
+    public int getSendQueueDepth() {
+        return queue == null ? 0 : queue.size();
+    }
+
+    /**
+     * @return Size of the messages waiting to be sent in bytes.
+     */
+    public int getSendQueueBytes() {
+        return queue == null ? 0 : queue.getBytes();
+    }
+
+    /**
+     * @return Number of bytes written to the connection, including the handshake and chunk headers.
+     */
+    public long getSentBytes() {
+        return publisher == null ? 0 : publisher.getSentBytes();
+    }
+
+    /**
+     * @return Average number of bytes sent per second since publishing started.
+     */
+    public long getThroughput() {
+        if (publisher == null || publisher.getPublishStartTimeMs() == 0) {
+            return 0;
+        }
+        long elapsedMs = Math.max(System.currentTimeMillis() - publisher.getPublishStartTimeMs(), 1);
+        return publisher.getSentBytes() * 1000 / elapsedMs;
+    }
+
+    public int getDroppedVideoFrames() {
+        return queue == null ? 0 : queue.getDroppedVideoFrames();
+    }
+
+    public int getDroppedAudioFrames() {
+        return queue == null ? 0 : queue.getDroppedAudioFrames();
+    }
+
+    private void setCodecConfig(Track track, ByteBuffer config) {
+        ByteBuffer copy = ByteBuffer.allocate(config.remaining());
+        copy.put(config.duplicate());
+        copy.flip();
+        track.csd0 = copy;
+        if (track.video) {
+            track.csd1 = null;
+        }
+    }
+
+    private void queueSequenceHeader(Track track) {
+        ByteBuffer payload;
+        int type;
+        if (track.video) {
+            if (track.csd0 == null) {
+                return;
+            }
+            payload = FlvTags.avcSequenceHeader(track.csd0, track.csd1);
+            type = RtmpMessage.VIDEO;
+        } else {
+            AudioFormat audioFormat = (AudioFormat) track.format;
+            payload = FlvTags.aacSequenceHeader(track.csd0, audioFormat.getAudioSampleRateInHz(), audioFormat.getAudioChannelCount());
+            type = RtmpMessage.AUDIO;
+        }
+        queue.offer(new RtmpMessage(type, 0, payload));
+        track.configured = true;
+    }
+
+    private RtmpMessage createMetadata() {
+        Map<String, Object> metadata = new LinkedHashMap<String, Object>();
+        metadata.put("duration", 0);
+        for (Track track : tracks) {
+            if (track.video) {
+                VideoFormat videoFormat = (VideoFormat) track.format;
+                metadata.put("width", videoFormat.getVideoFrameSize().width());
+                metadata.put("height", videoFormat.getVideoFrameSize().height());
+                metadata.put("videocodecid", 7);
+            } else {
+                AudioFormat audioFormat = (AudioFormat) track.format;
+                metadata.put("audiocodecid", 10);
+                metadata.put("audiosamplerate", audioFormat.getAudioSampleRateInHz());
+                metadata.put("audiosamplesize", 16);
+                metadata.put("stereo", audioFormat.getAudioChannelCount() > 1);
+            }
+        }
+        metadata.put("encoder", "m4m");
+        Amf0 data = new Amf0().put("@setDataFrame").put("onMetaData").putEcmaArray(metadata);
+        return new RtmpMessage(RtmpMessage.DATA_AMF0, 0, data.toByteBuffer());
+    }
+}
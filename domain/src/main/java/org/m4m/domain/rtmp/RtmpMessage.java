@@ -0,0 +1,76 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.nio.ByteBuffer;
+
+/**
+ * RTMP message. Media messages carry the body of an FLV tag as payload.
+ */
+class RtmpMessage {
+    static final int SET_CHUNK_SIZE = 1;
+    static final int ACKNOWLEDGEMENT = 3;
+    static final int USER_CONTROL = 4;
+    static final int WINDOW_ACKNOWLEDGEMENT_SIZE = 5;
+    static final int AUDIO = 8;
+    static final int VIDEO = 9;
+    static final int DATA_AMF0 = 18;
+    static final int COMMAND_AMF0 = 20;
+
+    final int type;
+    final long timestamp;
+    final ByteBuffer payload;
+    int streamId = 0;
+    boolean droppable = false;
+    boolean keyFrame = false;
+    boolean disposable = false;
+
+    RtmpMessage(int type, long timestamp, ByteBuffer payload) {
+        this.type = type;
+        this.timestamp = timestamp;
+        this.payload = payload;
+    }
+
+    static RtmpMessage command(Amf0 values) {
+        return new RtmpMessage(COMMAND_AMF0, 0, values.toByteBuffer());
+    }
+
+    static RtmpMessage control(int type, int value) {
+        ByteBuffer payload = ByteBuffer.allocate(4);
+        payload.putInt(0, value);
+        return new RtmpMessage(type, 0, payload);
+    }
+
+    int getChunkStreamId() {
+        switch (type) {
+            case AUDIO:
+                return 4;
+            case VIDEO:
+                return 6;
+            case DATA_AMF0:
+            case COMMAND_AMF0:
+                return 3;
+            default:
+                return 2;
+        }
+    }
+
+    int size() {
+        return payload.remaining();
+    }
+}
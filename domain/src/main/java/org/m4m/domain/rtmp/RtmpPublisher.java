@@ -0,0 +1,420 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Publishes the messages of a send queue to an RTMP server on its own thread. Connects, does the simple
+ * handshake, runs connect, createStream and publish, then writes queued messages as the socket accepts them.
+ * The socket is non-blocking, so a stalled link only makes the queue grow. Protocol control replies, such as
+ * ping responses and acknowledgements, are written ahead of the queued media.
+ */
+class RtmpPublisher implements Runnable {
+    private static final int HANDSHAKE_SIZE = 1536;
+    private static final int CHUNK_SIZE = 4096;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final long TIMEOUT_MS = 10000;
+    private static final int PING_REQUEST = 6;
+    private static final int PING_RESPONSE = 7;
+
+    private final String host;
+    private final int port;
+    private final String applicationName;
+    private final String streamName;
+    private final RtmpSendQueue queue;
+    // Control replies, only touched by the publisher thread
+    private final LinkedList<RtmpMessage> controlMessages = new LinkedList<RtmpMessage>();
+    private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+    private final RtmpChunkReader reader = new RtmpChunkReader();
+    private final RtmpChunkWriter writer = new RtmpChunkWriter();
+    private Selector selector;
+    private SocketChannel channel;
+    private Thread thread;
+    private int transactionId = 0;
+    private int streamId = 0;
+    private long receivedBytes = 0;
+    private long acknowledgedBytes = 0;
+    private long windowAcknowledgementSize = 0;
+
+    private volatile boolean closing = false;
+    private volatile boolean publishing = false;
+    private volatile IOException error = null;
+    private volatile long sentBytes = 0;
+    private volatile long publishStartTimeMs = 0;
+
+    RtmpPublisher(String host, int port, String applicationName, String streamName, RtmpSendQueue queue) {
+        this.host = host;
+        this.port = port;
+        this.applicationName = applicationName;
+        this.streamName = streamName;
+        this.queue = queue;
+    }
+
+    void start() throws IOException {
+        selector = Selector.open();
+        thread = new Thread(this, "RtmpPublisher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Wakes the publisher up after a message was queued. Does not block.
+     */
+    void wakeUp() {
+        selector.wakeup();
+    }
+
+    /**
+     * Sends the remaining queued messages, ends the stream and closes the connection. Does not block.
+     */
+    void close() {
+        closing = true;
+        if (selector != null) {
+            selector.wakeup();
+        }
+    }
+
+    boolean join(long timeoutMs) throws InterruptedException {
+        thread.join(timeoutMs);
+        return !thread.isAlive();
+    }
+
+    boolean isPublishing() {
+        return publishing;
+    }
+
+    IOException getError() {
+        return error;
+    }
+
+    long getSentBytes() {
+        return sentBytes;
+    }
+
+    long getPublishStartTimeMs() {
+        return publishStartTimeMs;
+    }
+
+    @Override
+    public void run() {
+        try {
+            connect();
+            handshake();
+            startPublishing();
+            publishing = true;
+            publishStartTimeMs = System.currentTimeMillis();
+            sendQueuedMessages();
+            publishing = false;
+            stopPublishing();
+        } catch (IOException e) {
+            error = e;
+        } catch (RuntimeException e) {
+            error = new IOException("RTMP session failed.", e);
+        } finally {
+            publishing = false;
+            try {
+                if (channel != null) {
+                    channel.close();
+                }
+                selector.close();
+            } catch (IOException e) {
+                // Nothing left to do with the connection
+            }
+        }
+    }
+
+    private void connect() throws IOException {
+        channel = SocketChannel.open();
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        channel.connect(new InetSocketAddress(host, port));
+        channel.register(selector, SelectionKey.OP_CONNECT);
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        while (!channel.finishConnect()) {
+            await(SelectionKey.OP_CONNECT, deadline);
+        }
+    }
+
+    private void handshake() throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        byte[] random = new byte[HANDSHAKE_SIZE - 8];
+        new Random().nextBytes(random);
+        writeBuffer.put((byte) 3).putInt(0).putInt(0).put(random);
+        flush(deadline);
+
+        ByteBuffer response = ByteBuffer.allocate(1 + 2 * HANDSHAKE_SIZE);
+        while (response.hasRemaining()) {
+            if (channel.read(response) == -1) {
+                throw new EOFException("RTMP server closed the connection during handshake.");
+            }
+            if (response.hasRemaining()) {
+                await(SelectionKey.OP_READ, deadline);
+            }
+        }
+        if (response.get(0) != 3) {
+            throw new IOException("Unsupported RTMP version " + response.get(0));
+        }
+
+        response.position(1).limit(1 + HANDSHAKE_SIZE);
+        writeBuffer.put(response);
+        flush(deadline);
+    }
+
+    private void startPublishing() throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        Map<String, Object> parameters = new LinkedHashMap<String, Object>();
+        parameters.put("app", applicationName);
+        parameters.put("type", "nonprivate");
+        parameters.put("flashVer", "FMLE/3.0 (compatible; m4m)");
+        parameters.put("tcUrl", "rtmp://" + host + ":" + port + "/" + applicationName);
+        call("connect", parameters, deadline);
+
+        send(RtmpMessage.control(RtmpMessage.SET_CHUNK_SIZE, CHUNK_SIZE), deadline);
+        writer.setChunkSize(CHUNK_SIZE);
+
+        send(RtmpMessage.command(new Amf0().put("releaseStream").put(++transactionId).put(null).put(streamName)), deadline);
+        send(RtmpMessage.command(new Amf0().put("FCPublish").put(++transactionId).put(null).put(streamName)), deadline);
+        List<Object> result = call("createStream", null, deadline);
+        if (result.size() < 4 || !(result.get(3) instanceof Double)) {
+            throw new IOException("RTMP server returned no stream id.");
+        }
+        streamId = ((Double) result.get(3)).intValue();
+
+        RtmpMessage publish = RtmpMessage.command(new Amf0().put("publish").put(0).put(null).put(streamName).put("live"));
+        publish.streamId = streamId;
+        send(publish, deadline);
+        awaitStatus("NetStream.Publish.Start", deadline);
+    }
+
+    private void sendQueuedMessages() throws IOException {
+        SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+        long closeDeadline = 0;
+        while (true) {
+            fillWriteBuffer();
+            boolean drained = writer.isDone() && controlMessages.isEmpty() && queue.isEmpty() && writeBuffer.position() == 0;
+            if (closing && drained) {
+                return;
+            }
+
+            key.interestOps(SelectionKey.OP_READ | (writeBuffer.position() > 0 ? SelectionKey.OP_WRITE : 0));
+            if (closing) {
+                // The server may have stopped reading, so the remaining messages get a bounded time
+                if (closeDeadline == 0) {
+                    closeDeadline = System.currentTimeMillis() + TIMEOUT_MS;
+                }
+                long timeout = closeDeadline - System.currentTimeMillis();
+                if (timeout <= 0) {
+                    throw new IOException("RTMP server did not accept the remaining messages within " + TIMEOUT_MS + " ms.");
+                }
+                selector.select(timeout);
+            } else {
+                selector.select();
+            }
+            selector.selectedKeys().clear();
+
+            if (key.isReadable()) {
+                readMessages();
+            }
+            if (writeBuffer.position() > 0) {
+                write();
+            }
+        }
+    }
+
+    private void stopPublishing() throws IOException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MS;
+        send(RtmpMessage.command(new Amf0().put("FCUnpublish").put(++transactionId).put(null).put(streamName)), deadline);
+        send(RtmpMessage.command(new Amf0().put("deleteStream").put(++transactionId).put(null).put(streamId)), deadline);
+    }
+
+    private void fillWriteBuffer() {
+        while (true) {
+            if (writer.isDone()) {
+                RtmpMessage message = controlMessages.isEmpty() ? queue.poll() : controlMessages.poll();
+                if (message == null) {
+                    return;
+                }
+                if (message.type == RtmpMessage.AUDIO || message.type == RtmpMessage.VIDEO || message.type == RtmpMessage.DATA_AMF0) {
+                    message.streamId = streamId;
+                }
+                writer.begin(message);
+            }
+            writer.writeTo(writeBuffer);
+            if (!writer.isDone()) {
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends a command and waits for its result.
+     *
+     * @return Values of the _result message.
+     */
+    private List<Object> call(String name, Map<String, Object> parameters, long deadline) throws IOException {
+        int id = ++transactionId;
+        send(RtmpMessage.command(new Amf0().put(name).put(id).put(parameters)), deadline);
+
+        while (true) {
+            for (RtmpMessage message : receive(deadline)) {
+                if (message.type != RtmpMessage.COMMAND_AMF0) {
+                    continue;
+                }
+                List<Object> values = Amf0.read(message.payload);
+                if (values.size() < 2 || !(values.get(1) instanceof Double) || ((Double) values.get(1)).intValue() != id) {
+                    continue;
+                }
+                if ("_error".equals(values.get(0))) {
+                    throw new IOException("RTMP server rejected " + name + ": " + describe(values));
+                }
+                return values;
+            }
+        }
+    }
+
+    private void awaitStatus(String code, long deadline) throws IOException {
+        while (true) {
+            for (RtmpMessage message : receive(deadline)) {
+                if (message.type != RtmpMessage.COMMAND_AMF0) {
+                    continue;
+                }
+                List<Object> values = Amf0.read(message.payload);
+                if (!"onStatus".equals(values.get(0)) || values.size() < 4 || !(values.get(3) instanceof Map)) {
+                    continue;
+                }
+                Map<?, ?> info = (Map<?, ?>) values.get(3);
+                if (code.equals(info.get("code"))) {
+                    return;
+                }
+                if ("error".equals(info.get("level"))) {
+                    throw new IOException("RTMP server rejected publishing: " + describe(values));
+                }
+            }
+        }
+    }
+
+    private List<RtmpMessage> receive(long deadline) throws IOException {
+        while (true) {
+            int read = channel.read(readBuffer);
+            if (read == -1) {
+                throw new EOFException("RTMP server closed the connection.");
+            }
+            if (read == 0) {
+                await(SelectionKey.OP_READ, deadline);
+                continue;
+            }
+            List<RtmpMessage> messages = handleReceived(read);
+            if (!messages.isEmpty()) {
+                return messages;
+            }
+        }
+    }
+
+    private void readMessages() throws IOException {
+        int read;
+        while ((read = channel.read(readBuffer)) > 0) {
+            handleReceived(read);
+        }
+        if (read == -1) {
+            throw new EOFException("RTMP server closed the connection.");
+        }
+    }
+
+    private List<RtmpMessage> handleReceived(int read) {
+        receivedBytes += read;
+        readBuffer.flip();
+        List<RtmpMessage> messages = reader.read(readBuffer);
+        readBuffer.compact();
+
+        for (RtmpMessage message : messages) {
+            if (message.type == RtmpMessage.WINDOW_ACKNOWLEDGEMENT_SIZE) {
+                windowAcknowledgementSize = message.payload.getInt(0) & 0xffffffffL;
+            } else if (message.type == RtmpMessage.USER_CONTROL && message.payload.remaining() >= 6
+                    && message.payload.getShort(0) == PING_REQUEST) {
+                ByteBuffer pong = ByteBuffer.allocate(6);
+                pong.putShort(0, (short) PING_RESPONSE).putInt(2, message.payload.getInt(2));
+                controlMessages.add(new RtmpMessage(RtmpMessage.USER_CONTROL, 0, pong));
+            }
+        }
+        if (windowAcknowledgementSize > 0 && receivedBytes - acknowledgedBytes >= windowAcknowledgementSize) {
+            acknowledgedBytes = receivedBytes;
+            controlMessages.add(RtmpMessage.control(RtmpMessage.ACKNOWLEDGEMENT, (int) receivedBytes));
+        }
+        return messages;
+    }
+
+    private void send(RtmpMessage message, long deadline) throws IOException {
+        writer.begin(message);
+        while (!writer.isDone()) {
+            writer.writeTo(writeBuffer);
+            flush(deadline);
+        }
+        flush(deadline);
+    }
+
+    private void flush(long deadline) throws IOException {
+        while (writeBuffer.position() > 0) {
+            if (write() == 0) {
+                await(SelectionKey.OP_WRITE, deadline);
+            }
+        }
+    }
+
+    private int write() throws IOException {
+        writeBuffer.flip();
+        int written = channel.write(writeBuffer);
+        writeBuffer.compact();
+        sentBytes += written;
+        return written;
+    }
+
+    private void await(int operation, long deadline) throws IOException {
+        long timeout = deadline - System.currentTimeMillis();
+        if (timeout <= 0) {
+            throw new IOException("RTMP server did not respond within " + TIMEOUT_MS + " ms.");
+        }
+        channel.register(selector, operation);
+        selector.select(timeout);
+        selector.selectedKeys().clear();
+    }
+
+    private static String describe(List<Object> values) {
+        for (Object value : values) {
+            if (value instanceof Map) {
+                Map<?, ?> info = (Map<?, ?>) value;
+                if (info.containsKey("code")) {
+                    return info.get("code") + (info.containsKey("description") ? " " + info.get("description") : "");
+                }
+            }
+        }
+        return values.toString();
+    }
+}
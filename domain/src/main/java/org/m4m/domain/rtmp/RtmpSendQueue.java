@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+
+/**
+ * Messages waiting to be sent, bounded by their total size. Adding a message never blocks: when the queue is
+ * full, media messages are dropped according to the drop policy. Messages that are not droppable, such as
+ * commands and sequence headers, are always queued. Once a video frame other references is dropped, video is
+ * dropped up to the next key frame, so the stream never continues with a broken reference.
+ */
+class RtmpSendQueue {
+    private final LinkedList<RtmpMessage> messages = new LinkedList<RtmpMessage>();
+    private final int maxBytes;
+    private final RtmpMediaMuxer.DropPolicy dropPolicy;
+    private int bytes = 0;
+    private int droppedVideoFrames = 0;
+    private int droppedAudioFrames = 0;
+    private boolean videoBrokenUntilKeyFrame = false;
+
+    RtmpSendQueue(int maxBytes, RtmpMediaMuxer.DropPolicy dropPolicy) {
+        this.maxBytes = maxBytes;
+        this.dropPolicy = dropPolicy;
+    }
+
+    /**
+     * @return True if the message is queued, false if it is dropped.
+     */
+    synchronized boolean offer(RtmpMessage message) {
+        boolean video = message.droppable && message.type == RtmpMessage.VIDEO;
+        if (video && !message.keyFrame && videoBrokenUntilKeyFrame) {
+            drop(message);
+            return false;
+        }
+
+        if (message.droppable && !fits(message) && !makeRoom(message)) {
+            drop(message);
+            if (video && !message.disposable) {
+                videoBrokenUntilKeyFrame = true;
+            }
+            return false;
+        }
+
+        messages.add(message);
+        bytes += message.size();
+        if (video && message.keyFrame) {
+            videoBrokenUntilKeyFrame = false;
+        }
+        return true;
+    }
+
+    synchronized RtmpMessage poll() {
+        RtmpMessage message = messages.poll();
+        if (message != null) {
+            bytes -= message.size();
+        }
+        return message;
+    }
+
+    synchronized boolean isEmpty() {
+        return messages.isEmpty();
+    }
+
+    synchronized int size() {
+        return messages.size();
+    }
+
+    synchronized int getBytes() {
+        return bytes;
+    }
+
+    synchronized int getDroppedVideoFrames() {
+        return droppedVideoFrames;
+    }
+
+    synchronized int getDroppedAudioFrames() {
+        return droppedAudioFrames;
+    }
+
+    private boolean makeRoom(RtmpMessage message) {
+        if (dropPolicy == RtmpMediaMuxer.DropPolicy.DROP_NEWEST) {
+            return false;
+        }
+
+        removeQueued(RtmpMessage.VIDEO, true, message.size());
+        if (fits(message)) {
+            return true;
+        }
+        if (message.type == RtmpMessage.VIDEO && message.disposable) {
+            return false;
+        }
+
+        removeQueued(RtmpMessage.VIDEO, false, message.size());
+        if (message.type == RtmpMessage.VIDEO) {
+            return fits(message) && (message.keyFrame || !videoBrokenUntilKeyFrame);
+        }
+        if (fits(message)) {
+            return true;
+        }
+
+        removeQueued(RtmpMessage.AUDIO, false, message.size());
+        return fits(message);
+    }
+
+    /**
+     * Removes droppable messages of the type, oldest first, until the given number of bytes is free. Removing
+     * a video frame others reference also removes the video frames after it up to the next key frame.
+     */
+    private void removeQueued(int type, boolean disposableOnly, int neededBytes) {
+        boolean removingReferences = false;
+        Iterator<RtmpMessage> iterator = messages.iterator();
+        while (iterator.hasNext() && (removingReferences || maxBytes - bytes < neededBytes)) {
+            RtmpMessage queued = iterator.next();
+            if (!queued.droppable || queued.type != type) {
+                continue;
+            }
+            if (removingReferences && queued.keyFrame) {
+                removingReferences = false;
+                videoBrokenUntilKeyFrame = false;
+                if (maxBytes - bytes >= neededBytes) {
+                    return;
+                }
+            }
+            if (!removingReferences && disposableOnly && !queued.disposable) {
+                continue;
+            }
+
+            iterator.remove();
+            bytes -= queued.size();
+            drop(queued);
+            if (type == RtmpMessage.VIDEO && !queued.disposable) {
+                removingReferences = true;
+                videoBrokenUntilKeyFrame = true;
+            }
+        }
+    }
+
+    private boolean fits(RtmpMessage message) {
+        return bytes + message.size() <= maxBytes;
+    }
+
+    private void drop(RtmpMessage message) {
+        if (message.type == RtmpMessage.VIDEO) {
+            droppedVideoFrames++;
+        } else {
+            droppedAudioFrames++;
+        }
+    }
+}
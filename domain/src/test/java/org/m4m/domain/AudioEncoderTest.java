@@ -75,7 +75,7 @@ public class AudioEncoderTest extends TestBase {
         encoder.getInputCommandQueue().queue(Command.NeedData, 0);
         encoder.push(Frame.EOF());
 
-        assertFalse(encoder.getInputCommandQueue().queue.isEmpty());
+        assertFalse(encoder.getInputCommandQueue().isEmpty());
     }
 
 
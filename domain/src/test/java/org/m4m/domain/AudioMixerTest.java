@@ -0,0 +1,219 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class AudioMixerTest extends TestBase {
+    private static final int SAMPLE_RATE = 1000;
+    private AudioMixer mixer;
+
+    private static class ArrayPcmSource implements IPcmSource {
+        private final short[] data;
+        private int position = 0;
+        private boolean closed = false;
+
+        ArrayPcmSource(short[] data) {
+            this.data = data;
+        }
+
+        @Override
+        public int read(short[] samples, int offset, int count) {
+            if (position == data.length) {
+                return -1;
+            }
+            int read = Math.min(count, Math.min(3, data.length - position));
+            System.arraycopy(data, position, samples, offset, read);
+            position += read;
+            return read;
+        }
+
+        @Override
+        public void close() throws IOException {
+            closed = true;
+        }
+    }
+
+    @Before
+    public void setUp() {
+        mixer = new AudioMixer();
+        mixer.setMediaFormat(create.audioFormat().withSampleRate(SAMPLE_RATE).withChannelCount(1).construct());
+    }
+
+    @Test
+    public void sumsInputIntoFrame() {
+        mixer.addInput(new ArrayPcmSource(samples(10, 100)), 0, null);
+        Frame frame = frame(0, samples(10, 1000));
+
+        mixer.mix(frame);
+
+        assertSamples(frame, 1100, 10);
+    }
+
+    @Test
+    public void saturatesSum() {
+        mixer.addInput(new ArrayPcmSource(samples(4, 30000)), 0, null);
+        mixer.addInput(new ArrayPcmSource(samples(4, -20000)), 0, null);
+        Frame positive = frame(0, samples(4, 30000));
+
+        mixer.mix(positive);
+
+        assertSamples(positive, Short.MAX_VALUE, 4);
+    }
+
+    @Test
+    public void saturatesNegativeSum() {
+        mixer.addInput(new ArrayPcmSource(samples(4, -30000)), 0, null);
+        Frame frame = frame(0, samples(4, -30000));
+
+        mixer.mix(frame);
+
+        assertSamples(frame, Short.MIN_VALUE, 4);
+    }
+
+    @Test
+    public void startsInputAtItsStartTime() {
+        mixer.addInput(new ArrayPcmSource(samples(10, 100)), 5000, null);
+        Frame frame = frame(0, samples(10, 0));
+
+        mixer.mix(frame);
+
+        ByteBuffer buffer = frame.getByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < 5; i++) {
+            assertEquals(0, buffer.getShort(2 * i));
+        }
+        for (int i = 5; i < 10; i++) {
+            assertEquals(100, buffer.getShort(2 * i));
+        }
+    }
+
+    @Test
+    public void skipsInputWhenTargetStreamJumps() {
+        short[] data = new short[100];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (short) i;
+        }
+        AudioMixer.Input input = mixer.addInput(new ArrayPcmSource(data), 0, null);
+
+        mixer.mix(frame(0, samples(10, 0)));
+        Frame frame = frame(50000, samples(10, 0));
+        mixer.mix(frame);
+
+        assertEquals(50, frame.getByteBuffer().order(ByteOrder.LITTLE_ENDIAN).getShort(0));
+        assertEquals(60, input.getPosition());
+    }
+
+    @Test
+    public void mixesSilenceAfterInputEnds() {
+        AudioMixer.Input input = mixer.addInput(new ArrayPcmSource(samples(4, 100)), 0, null);
+        Frame frame = frame(0, samples(8, 1));
+
+        mixer.mix(frame);
+
+        ByteBuffer buffer = frame.getByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(101, buffer.getShort(6));
+        assertEquals(1, buffer.getShort(8));
+        assertTrue(input.isEnded());
+    }
+
+    @Test
+    public void appliesGainEnvelopes() {
+        mixer.addInput(new ArrayPcmSource(samples(10, 1000)), 0, new GainEnvelope(0.5f));
+        mixer.setMainGain(new GainEnvelope(0.25f));
+        Frame frame = frame(0, samples(10, 1000));
+
+        mixer.mix(frame);
+
+        assertSamples(frame, 750, 10);
+    }
+
+    @Test
+    public void interpolatesGainEnvelope() {
+        GainEnvelope envelope = new GainEnvelope().addPoint(1000, 0).addPoint(0, 1).addPoint(2000, 1);
+
+        assertEquals(1f, envelope.getGain(-5), 0);
+        assertEquals(1f, envelope.getGain(0), 0);
+        assertEquals(0.5f, envelope.getGain(500), 0.0001);
+        assertEquals(0f, envelope.getGain(1000), 0);
+        assertEquals(0.25f, envelope.getGain(1250), 0.0001);
+        assertEquals(1f, envelope.getGain(5000), 0);
+        assertEquals(3, envelope.getPointsCount());
+    }
+
+    @Test
+    public void leavesFrameUntouched_WhenNothingToMix() {
+        Frame frame = frame(0, samples(4, 12345));
+
+        mixer.mix(frame);
+
+        assertSamples(frame, 12345, 4);
+    }
+
+    @Test
+    public void closesInputs() throws IOException {
+        ArrayPcmSource source = new ArrayPcmSource(samples(1, 0));
+        mixer.addInput(source, 0, null);
+
+        mixer.close();
+
+        assertTrue(source.closed);
+    }
+
+    @Test
+    public void audioEffectorMixesPushedFrames() {
+        AudioEffector effector = new AudioEffector(null);
+        effector.setMediaFormat(create.audioFormat().withSampleRate(SAMPLE_RATE).withChannelCount(1).construct());
+        effector.getAudioMixer().addInput(new ArrayPcmSource(samples(10, 7)), 0, null);
+        effector.start();
+        Frame frame = frame(0, samples(10, 3));
+
+        effector.push(frame);
+
+        assertSamples(frame, 10, 10);
+    }
+
+    private static short[] samples(int count, int value) {
+        short[] samples = new short[count];
+        for (int i = 0; i < count; i++) {
+            samples[i] = (short) value;
+        }
+        return samples;
+    }
+
+    private static Frame frame(long sampleTime, short[] samples) {
+        ByteBuffer buffer = ByteBuffer.allocate(samples.length * 2).order(ByteOrder.LITTLE_ENDIAN);
+        for (short sample : samples) {
+            buffer.putShort(sample);
+        }
+        return new Frame(buffer, samples.length * 2, sampleTime, 0, 0, 0);
+    }
+
+    private static void assertSamples(Frame frame, int expected, int count) {
+        ByteBuffer buffer = frame.getByteBuffer().order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < count; i++) {
+            assertEquals(expected, buffer.getShort(2 * i));
+        }
+    }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+
+public class AudioRenderTest extends TestBase {
+    private static final int SAMPLE_RATE = 8000;
+    private static final int FRAME_LENGTH = 320; // 20 ms of mono 16-bit audio
+
+    private AudioRender render;
+    private RecordingAudioTrack audioTrack;
+    private IPluginOutput releaser;
+
+    private static class RecordingAudioTrack implements IAudioTrack {
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+
+        @Override
+        public void play() {}
+
+        @Override
+        public void stop() {}
+
+        @Override
+        public void release() {}
+
+        @Override
+        public synchronized int write(byte[] audioData, int offsetInBytes, int sizeInBytes) {
+            written.write(audioData, offsetInBytes, sizeInBytes);
+            return sizeInBytes;
+        }
+
+        synchronized byte[] getWritten() {
+            return written.toByteArray();
+        }
+    }
+
+    @Before
+    public void setUp() {
+        audioTrack = new RecordingAudioTrack();
+        releaser = mock(IPluginOutput.class);
+
+        render = new AudioRender();
+        render.setAudioTrack(audioTrack);
+        render.setMediaFormat(create.audioFormat().withSampleRate(SAMPLE_RATE).withChannelCount(1).construct());
+        render.configure();
+        render.start();
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        render.close();
+    }
+
+    @Test
+    public void buffersFramesUntilSynchronized() throws InterruptedException {
+        render.pushWithReleaser(frame(0, 1), releaser);
+        Thread.sleep(50);
+
+        assertEquals(0, audioTrack.getWritten().length);
+        assertEquals(FRAME_LENGTH, render.getBufferedBytes());
+    }
+
+    @Test
+    public void playsBufferedFramesInOrder() throws InterruptedException {
+        render.pushWithReleaser(frame(0, 1), releaser);
+        render.pushWithReleaser(frame(20000, 2), releaser);
+
+        render.syncSampleTimes(System.nanoTime() / 1000);
+        waitForWritten(2 * FRAME_LENGTH);
+
+        byte[] written = audioTrack.getWritten();
+        assertEquals(2 * FRAME_LENGTH, written.length);
+        assertEquals(1, written[0]);
+        assertEquals(2, written[written.length - 1]);
+        assertEquals(0, render.getOverrunsCount());
+    }
+
+    @Test
+    public void countsUnderrunWhenRunOutOfData() throws InterruptedException {
+        render.pushWithReleaser(frame(0, 1), releaser);
+
+        render.syncSampleTimes(System.nanoTime() / 1000);
+        waitForWritten(FRAME_LENGTH);
+        Thread.sleep(100);
+
+        assertEquals(1, render.getUnderrunsCount());
+    }
+
+    @Test
+    public void countsOverrunWhenBufferFull() {
+        for (int i = 0; i < 101; i++) {
+            render.pushWithReleaser(frame(i * 20000, 1), releaser);
+        }
+
+        assertEquals(1, render.getOverrunsCount());
+    }
+
+    @Test
+    public void keepsFramesInSyncAfterOverrun() throws InterruptedException {
+        for (int i = 0; i < 101; i++) {
+            render.pushWithReleaser(frame(i * 20000, 1), releaser);
+        }
+        render.syncSampleTimes(System.nanoTime() / 1000 - 10000000);
+        waitForWritten(100 * FRAME_LENGTH);
+
+        render.syncSampleTimes(System.nanoTime() / 1000 - 2500000);
+        render.pushWithReleaser(frame(3000000, 2), releaser);
+        Thread.sleep(100);
+
+        assertEquals(1, render.getOverrunsCount());
+        assertEquals(100 * FRAME_LENGTH, audioTrack.getWritten().length);
+
+        render.syncSampleTimes(System.nanoTime() / 1000 - 3000000);
+        waitForWritten(101 * FRAME_LENGTH);
+    }
+
+    @Test
+    public void seekDropsBufferedData() {
+        render.pushWithReleaser(frame(0, 1), releaser);
+        render.pushWithReleaser(frame(20000, 1), releaser);
+
+        render.seek(1000000);
+
+        assertEquals(0, render.getBufferedBytes());
+    }
+
+    private void waitForWritten(int length) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 5000;
+        while (audioTrack.getWritten().length < length && System.currentTimeMillis() < deadline) {
+            Thread.sleep(5);
+        }
+        assertTrue(audioTrack.getWritten().length >= length);
+    }
+
+    private static Frame frame(long sampleTime, int value) {
+        byte[] data = new byte[FRAME_LENGTH];
+        Arrays.fill(data, (byte) value);
+        return new Frame(ByteBuffer.wrap(data), FRAME_LENGTH, sampleTime, 0, 0, 0);
+    }
+}
@@ -46,6 +46,68 @@ public class CommandQueueTest extends TestBase {
         assertNull(commandQueue.first());
     }
 
+    @Test
+    public void peekAccessorsReturnFirstAndLastCommand() {
+        CommandQueue commandQueue = new CommandQueue();
+
+        commandQueue.queue(Command.HasData, 1);
+        commandQueue.queue(Command.EndOfFile, 2);
+
+        assertEquals(Command.HasData, commandQueue.firstCommand());
+        assertEquals(1, commandQueue.firstTrackId());
+        assertEquals(Command.EndOfFile, commandQueue.lastCommand());
+        assertEquals(new Pair<Command, Integer>(Command.EndOfFile, 2), commandQueue.last());
+    }
+
+    @Test
+    public void peekAccessorsHandleEmptyQueue() {
+        CommandQueue commandQueue = new CommandQueue();
+
+        assertTrue(commandQueue.isEmpty());
+        assertNull(commandQueue.firstCommand());
+        assertNull(commandQueue.lastCommand());
+        assertEquals(-1, commandQueue.firstTrackId());
+    }
+
+    @Test
+    public void keepsOrderWhenWrappingAround() {
+        CommandQueue commandQueue = new CommandQueue(4);
+
+        for (int i = 0; i < 10; i++) {
+            commandQueue.queue(Command.HasData, i);
+            commandQueue.queue(Command.NeedData, i);
+            assertEquals(new Pair<Command, Integer>(Command.HasData, i), commandQueue.dequeue());
+            commandQueue.removeFirst();
+        }
+
+        assertTrue(commandQueue.isEmpty());
+    }
+
+    @Test
+    public void growsWhenCapacityExceeded() {
+        CommandQueue commandQueue = new CommandQueue(2);
+
+        for (int i = 0; i < 5; i++) {
+            commandQueue.queue(Command.HasData, i);
+        }
+
+        assertEquals(5, commandQueue.size());
+        int trackId = 0;
+        for (Pair<Command, Integer> command : commandQueue) {
+            assertEquals(new Pair<Command, Integer>(Command.HasData, trackId++), command);
+        }
+    }
+
+    @Test
+    public void keepsNegativeTrackId() {
+        CommandQueue commandQueue = new CommandQueue();
+
+        commandQueue.queue(Command.EndOfFile, -1);
+
+        assertEquals(-1, commandQueue.firstTrackId());
+        assertEquals(Command.EndOfFile, commandQueue.firstCommand());
+    }
+
     @Test
     public void checkIncorrectCommands() {
         MatchingCommands matchCommand = new MatchingCommands();
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DecodePlannerTest extends TestBase {
+    private static final int REFERENCE = 0x41;
+    private static final int NON_REFERENCE = 0x01;
+
+    @Test
+    public void keepsOneOfEveryTimeScaleReferenceFrames() {
+        DecodePlanner planner = createPlanner(4, 0, 1000);
+
+        boolean[] skipped = plan(planner, REFERENCE, REFERENCE, REFERENCE, REFERENCE, REFERENCE, REFERENCE, REFERENCE, REFERENCE);
+
+        assertEquals(2, planner.getKeptFramesCount());
+        assertEquals(6, planner.getDroppedFramesCount());
+        assertFalse(skipped[0]);
+        assertFalse(skipped[4]);
+    }
+
+    @Test
+    public void dropsNonReferenceFramesFirst() {
+        DecodePlanner planner = createPlanner(2, 0, 1000);
+
+        boolean[] skipped = plan(planner, REFERENCE, NON_REFERENCE, REFERENCE, NON_REFERENCE, NON_REFERENCE, REFERENCE);
+
+        assertFalse(skipped[0]);
+        assertTrue(skipped[1]);
+        assertFalse(skipped[2]);
+        assertTrue(skipped[3]);
+        assertTrue(skipped[4]);
+        assertFalse(skipped[5]);
+    }
+
+    @Test
+    public void keepsFramesOutsideSegment() {
+        DecodePlanner planner = createPlanner(4, 100, 200);
+
+        boolean[] skipped = plan(planner, REFERENCE, REFERENCE, REFERENCE);
+
+        assertFalse(skipped[0]);
+        assertFalse(skipped[1]);
+        assertFalse(skipped[2]);
+        assertEquals(0, planner.getDroppedFramesCount());
+    }
+
+    private DecodePlanner createPlanner(int timeScale, long left, long right) {
+        DecodePlanner planner = new DecodePlanner(timeScale, new FileSegment(left, right));
+        planner.setMimeType("video/avc");
+        return planner;
+    }
+
+    private boolean[] plan(DecodePlanner planner, int... nalHeaders) {
+        boolean[] skipped = new boolean[nalHeaders.length];
+        for (int i = 0; i < nalHeaders.length; i++) {
+            Frame frame = create.frame(0, 0, 0, 1, nalHeaders[i], 0x9a).withTimeStamp(i * 33).construct();
+            planner.plan(frame);
+            skipped[i] = frame.isSkipFrame();
+        }
+        return skipped;
+    }
+}
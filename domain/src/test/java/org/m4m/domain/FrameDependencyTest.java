@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class FrameDependencyTest extends TestBase {
+    private static final String AVC = "video/avc";
+
+    @Test
+    public void nonReferenceSlice_IsDisposable() {
+        Frame frame = create.frame(0, 0, 0, 1, 0x01, 0x9a, 0x00).construct();
+
+        assertTrue(FrameDependency.isDisposable(frame, AVC));
+    }
+
+    @Test
+    public void referenceSlice_IsNotDisposable() {
+        Frame frame = create.frame(0, 0, 0, 1, 0x41, 0x9a, 0x00).construct();
+
+        assertFalse(FrameDependency.isDisposable(frame, AVC));
+    }
+
+    @Test
+    public void sampleWithOneReferenceSlice_IsNotDisposable() {
+        Frame frame = create.frame(0, 0, 1, 0x01, 0x9a, 0, 0, 1, 0x21, 0x9a).construct();
+
+        assertFalse(FrameDependency.isDisposable(frame, AVC));
+    }
+
+    @Test
+    public void sampleWithoutSlices_IsNotDisposable() {
+        Frame frame = create.frame(0, 0, 0, 1, 0x06, 0x05, 0x00).construct();
+
+        assertFalse(FrameDependency.isDisposable(frame, AVC));
+    }
+
+    @Test
+    public void otherCodec_IsNeverDisposable() {
+        Frame frame = create.frame(0, 0, 0, 1, 0x01, 0x9a, 0x00).construct();
+
+        assertFalse(FrameDependency.isDisposable(frame, "video/hevc"));
+    }
+}
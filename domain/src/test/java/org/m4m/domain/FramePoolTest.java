@@ -0,0 +1,117 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FramePoolTest extends TestBase {
+    @Test
+    public void acquire_ReturnsFrameWithRequestedCapacity() {
+        FramePool pool = new FramePool(1000);
+
+        Frame frame = pool.findFreeFrame();
+
+        assertEquals(1000, frame.getLength());
+        assertEquals(1000, frame.getByteBuffer().remaining());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void acquire_ReusesReleasedFrameOfSameSizeClass() {
+        FramePool pool = new FramePool(1000);
+        Frame frame = pool.acquire(3000);
+        frame.release();
+
+        Frame reused = pool.acquire(4000);
+
+        assertSame(frame, reused);
+        assertEquals(4000, reused.getLength());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void acquire_DoesNotReuseFrameOfOtherSizeClass() {
+        FramePool pool = new FramePool(1000);
+        Frame frame = pool.acquire(1000);
+        frame.release();
+
+        assertNotSame(frame, pool.acquire(5000));
+        assertEquals(2, pool.getMisses());
+    }
+
+    @Test
+    public void retainedFrame_ReturnsToPoolAfterLastRelease() {
+        FramePool pool = new FramePool(1000);
+        Frame frame = pool.findFreeFrame();
+        frame.retain();
+
+        frame.release();
+        assertEquals(1, pool.getAcquiredFrames());
+
+        frame.release();
+        assertEquals(0, pool.getAcquiredFrames());
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void release_Throws_WhenFrameIsReleasedTwice() {
+        Frame frame = new FramePool(1000).findFreeFrame();
+        frame.release();
+
+        frame.release();
+    }
+
+    @Test
+    public void acquire_ReturnsNull_WhenMaxFramesAcquired() {
+        FramePool pool = new FramePool(1000, 2);
+        pool.findFreeFrame();
+        Frame frame = pool.findFreeFrame();
+
+        assertFalse(pool.canAcquire());
+        assertNull(pool.findFreeFrame());
+
+        frame.release();
+        assertTrue(pool.canAcquire());
+    }
+
+    @Test
+    public void highWaterMark_IsMaximumOfAcquiredFrames() {
+        FramePool pool = new FramePool(1000);
+        Frame frame1 = pool.findFreeFrame();
+        Frame frame2 = pool.findFreeFrame();
+        frame1.release();
+        frame2.release();
+        pool.findFreeFrame();
+
+        assertEquals(2, pool.getHighWaterMark());
+    }
+
+    @Test
+    public void release_DoesNothing_ForFrameNotFromPool() {
+        Frame frame = create.frame().construct();
+
+        frame.retain().release();
+        frame.release();
+    }
+}
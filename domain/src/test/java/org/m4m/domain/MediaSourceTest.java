@@ -18,6 +18,15 @@ package org.m4m.domain;
 
 import org.junit.Test;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.verify;
+
 public class MediaSourceTest extends TestBase {
     @Test
     public void seek_ToFrameWithTrackId1_HasData1() {
@@ -62,4 +71,80 @@ public class MediaSourceTest extends TestBase {
 
         mediaSource.unselectTrack(1);
     }
+
+    @Test
+    public void splitAtSyncSamples_StartsChunksAtSyncSamples() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        IMediaExtractor extractor = createVideoExtractor(sampleTimes, sampleFlags);
+
+        List<FileSegment> chunks = new MediaSource(extractor).splitAtSyncSamples(250);
+
+        assertEquals(3, chunks.size());
+        assertEquals(new Pair<Long, Long>(0L, 299L), chunks.get(0).pair);
+        assertEquals(new Pair<Long, Long>(300L, 699L), chunks.get(1).pair);
+        assertEquals(new Pair<Long, Long>(700L, 1000L), chunks.get(2).pair);
+    }
+
+    @Test
+    public void splitAtSyncSamples_StitchedChunksHaveIncreasingSampleTimes() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        VideoStreamStub stream = new VideoStreamStub(sampleTimes, sampleFlags);
+        List<FileSegment> chunks = new MediaSource(stream.createExtractor()).splitAtSyncSamples(250);
+        List<Long> chunkStarts = new ArrayList<Long>();
+        for (FileSegment chunk : chunks) {
+            chunkStarts.add(chunk.left());
+        }
+
+        List<Long> stitchedTimes = stream.stitch(chunks, chunkStarts);
+
+        assertEquals(Arrays.asList(0L, 100L, 200L, 300L, 400L, 500L, 600L, 700L, 800L, 900L), stitchedTimes);
+    }
+
+    @Test
+    public void getSyncSampleTimes_ReturnsVideoSyncSamples() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        IMediaExtractor extractor = createVideoExtractor(sampleTimes, sampleFlags);
+
+        long[] syncSampleTimes = new MediaSource(extractor).getSyncSampleTimes();
+
+        assertArrayEquals(new long[]{0, 300, 700}, syncSampleTimes);
+        verify(extractor, atLeastOnce()).seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+    }
+
+    @Test
+    public void alignSegmentsToSyncSamples_MovesSegmentStartsBack() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        MediaSource mediaSource = new MediaSource(createVideoExtractor(sampleTimes, sampleFlags));
+        mediaSource.add(new Pair<Long, Long>(350L, 600L));
+        mediaSource.add(new Pair<Long, Long>(700L, 900L));
+
+        mediaSource.alignSegmentsToSyncSamples();
+
+        List<Pair<Long, Long>> segments = new ArrayList<Pair<Long, Long>>(mediaSource.getSegments());
+        assertEquals(new Pair<Long, Long>(300L, 600L), segments.get(0));
+        assertEquals(new Pair<Long, Long>(700L, 900L), segments.get(1));
+    }
+
+    @Test
+    public void alignSegmentsToSyncSamples_MergesSegmentsEndingAndStartingInOneGop() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        MediaSource mediaSource = new MediaSource(createVideoExtractor(sampleTimes, sampleFlags));
+        mediaSource.add(new Pair<Long, Long>(0L, 400L));
+        mediaSource.add(new Pair<Long, Long>(500L, 650L));
+
+        mediaSource.alignSegmentsToSyncSamples();
+
+        List<Pair<Long, Long>> segments = new ArrayList<Pair<Long, Long>>(mediaSource.getSegments());
+        assertEquals(1, segments.size());
+        assertEquals(new Pair<Long, Long>(0L, 650L), segments.get(0));
+    }
+
+    private IMediaExtractor createVideoExtractor(long[] sampleTimes, int[] sampleFlags) {
+        return new VideoStreamStub(sampleTimes, sampleFlags).createExtractor();
+    }
 }
@@ -19,6 +19,8 @@ package org.m4m.domain;
 import org.junit.Test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 public class MultipleMediaSourceTest extends TestBase {
     @Test
@@ -50,4 +52,24 @@ public class MultipleMediaSourceTest extends TestBase {
             .with(trackWithVideoOnly)
             .construct();
     }
+
+    @Test
+    public void hasMatchingCodecParameters_WhenFilesHaveSameFormat() throws RuntimeException {
+        MultipleMediaSource multipleMediaSource = create.multipleMediaSource()
+            .withFrameSize(640, 480)
+            .withFrameSize(640, 480)
+            .construct();
+
+        assertTrue(multipleMediaSource.hasMatchingCodecParameters());
+    }
+
+    @Test
+    public void hasNoMatchingCodecParameters_WhenFrameSizesDiffer() throws RuntimeException {
+        MultipleMediaSource multipleMediaSource = create.multipleMediaSource()
+            .withFrameSize(640, 480)
+            .withFrameSize(1280, 720)
+            .construct();
+
+        assertFalse(multipleMediaSource.hasMatchingCodecParameters());
+    }
 }
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class PcmRingBufferTest {
+
+    @Test
+    public void readsWrittenBytesInOrderAcrossWrapAround() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        byte[] destination = new byte[8];
+
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6}), 6);
+        assertEquals(4, ring.read(destination, 0, 4));
+        ring.write(ByteBuffer.wrap(new byte[]{7, 8, 9, 10, 11}), 5);
+
+        assertEquals(7, ring.available());
+        assertEquals(7, ring.read(destination, 0, 8));
+        assertArrayEquals(new byte[]{5, 6, 7, 8, 9, 10, 11, 0}, destination);
+    }
+
+    @Test
+    public void writesOnlyWhatFits() {
+        PcmRingBuffer ring = new PcmRingBuffer(4);
+
+        int written = ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3, 4, 5, 6}), 6);
+
+        assertEquals(4, written);
+        assertEquals(0, ring.remaining());
+        assertEquals(0, ring.write(ByteBuffer.wrap(new byte[]{7}), 1));
+    }
+
+    @Test
+    public void clearDropsUnreadBytes() {
+        PcmRingBuffer ring = new PcmRingBuffer(8);
+        ring.write(ByteBuffer.wrap(new byte[]{1, 2, 3}), 3);
+
+        ring.clear();
+
+        assertEquals(0, ring.available());
+        assertEquals(0, ring.read(new byte[8], 0, 8));
+        assertEquals(8, ring.remaining());
+    }
+
+    @Test
+    public void transfersBytesBetweenThreads() throws InterruptedException {
+        final PcmRingBuffer ring = new PcmRingBuffer(64);
+        final int total = 100000;
+        final long[] sum = new long[1];
+
+        Thread consumer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                byte[] destination = new byte[16];
+                int received = 0;
+                int expected = 0;
+                while (received < total) {
+                    int read = ring.read(destination, 0, destination.length);
+                    for (int i = 0; i < read; i++) {
+                        if (destination[i] != (byte) expected++) {
+                            return;
+                        }
+                    }
+                    received += read;
+                }
+                sum[0] = received;
+            }
+        });
+        consumer.start();
+
+        byte[] source = new byte[24];
+        int sent = 0;
+        while (sent < total) {
+            int length = Math.min(source.length, total - sent);
+            for (int i = 0; i < length; i++) {
+                source[i] = (byte) (sent + i);
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(source, 0, length);
+            while (buffer.hasRemaining()) {
+                ring.write(buffer, buffer.remaining());
+            }
+            sent += length;
+        }
+        consumer.join(10000);
+
+        assertEquals(total, sum[0]);
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class PipelineMetricsTest extends TestBase {
+    @Test
+    public void registersNodeOnce() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        Object node = new Object();
+
+        assertSame(metrics.getNode(node), metrics.getNode(node));
+        assertEquals(1, metrics.snapshot().getNodes().size());
+    }
+
+    @Test
+    public void namesNodesOfSameClassUniquely() {
+        PipelineMetrics metrics = new PipelineMetrics();
+
+        metrics.getNode(new Object());
+        metrics.getNode(new Object());
+
+        assertEquals("Object", metrics.snapshot().getNodes().get(0).getName());
+        assertEquals("Object#2", metrics.snapshot().getNodes().get(1).getName());
+    }
+
+    @Test
+    public void namesPairByItsNodes() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        IOutputRaw output = mock(IOutputRaw.class);
+        IInputRaw input = mock(IInputRaw.class);
+
+        NodeMetrics pairMetrics = metrics.getPair(new OutputInputPair(output, input, null));
+
+        assertEquals(metrics.getNode(output).getName() + " -> " + metrics.getNode(input).getName(), pairMetrics.getName());
+    }
+
+    @Test
+    public void latencyPercentiles() {
+        NodeMetrics nodeMetrics = new NodeMetrics("node");
+        for (int i = 0; i < 99; i++) {
+            nodeMetrics.commandHandled(3000);
+        }
+        nodeMetrics.commandHandled(1000000);
+
+        NodeMetricsSnapshot snapshot = nodeMetrics.snapshot();
+
+        assertEquals(100, snapshot.getCommandsCount());
+        assertEquals(4, snapshot.getHandlerLatencyPercentileUs(50));
+        assertEquals(4, snapshot.getHandlerLatencyPercentileUs(99));
+        assertEquals(1001, snapshot.getHandlerLatencyPercentileUs(100));
+        assertEquals(1000000, snapshot.getMaxHandlerTimeNs());
+    }
+
+    @Test
+    public void keepsMaxQueueDepth() {
+        NodeMetrics nodeMetrics = new NodeMetrics("node");
+
+        nodeMetrics.queueDepth(5);
+        nodeMetrics.queueDepth(2);
+
+        assertEquals(2, nodeMetrics.snapshot().getQueueDepth());
+        assertEquals(5, nodeMetrics.snapshot().getMaxQueueDepth());
+    }
+
+    @Test
+    public void meteredCodecCountsBuffersAndTryAgain() {
+        IMediaCodec mediaCodec = mock(IMediaCodec.class);
+        when(mediaCodec.dequeueOutputBuffer(any(IMediaCodec.BufferInfo.class), anyLong()))
+                .thenReturn(IMediaCodec.INFO_TRY_AGAIN_LATER, 0);
+        NodeMetrics nodeMetrics = new NodeMetrics("codec");
+        IMediaCodec metered = new MeteredMediaCodec(mediaCodec, nodeMetrics);
+
+        metered.queueInputBuffer(0, 0, 100, 0, 0);
+        metered.dequeueOutputBuffer(new IMediaCodec.BufferInfo(), 10);
+        metered.dequeueOutputBuffer(new IMediaCodec.BufferInfo(), 10);
+        NodeMetricsSnapshot snapshot = nodeMetrics.snapshot();
+
+        assertEquals(1, snapshot.getFramesIn());
+        assertEquals(100, snapshot.getBytesIn());
+        assertEquals(1, snapshot.getFramesOut());
+        assertEquals(1, snapshot.getTryAgainCount());
+    }
+
+    @Test
+    public void exportsJson() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        NodeMetrics nodeMetrics = metrics.getNode(new Object());
+        nodeMetrics.frameIn(10);
+
+        String json = metrics.snapshot().toJson();
+
+        assertTrue(json.startsWith("{\"elapsedTimeMs\":"));
+        assertTrue(json.contains("{\"name\":\"Object\",\"framesIn\":1,\"framesOut\":0,\"bytesIn\":10,"));
+        assertTrue(json.endsWith("}}]}"));
+    }
+}
@@ -0,0 +1,168 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+import org.m4m.AudioFormat;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class PolyphaseResamplerTest extends TestBase {
+    private static final double FREQUENCY = 1000;
+    private static final double AMPLITUDE = 10000;
+
+    @Test
+    public void convertsEverySupportedSampleRatePair() {
+        for (SampleRate input : SampleRate.values()) {
+            for (SampleRate target : SampleRate.values()) {
+                PolyphaseResampler resampler = createResampler(1, input.getValue(), 1, target.getValue());
+                ByteBuffer buffer = sine(1, input.getValue(), 0, input.getValue() / 10, 8 * 48000);
+
+                resampler.resampleBuffer(buffer, 2 * input.getValue() / 10);
+
+                int expected = target.getValue() / 10;
+                int actual = buffer.limit() / 2;
+                assertTrue(input + " -> " + target + ": " + actual, Math.abs(expected - actual) <= 17 * target.getValue() / input.getValue() + 1);
+            }
+        }
+    }
+
+    @Test
+    public void keepsSineFrequency_Upsampling() {
+        assertSineResampled(44100, 48000);
+    }
+
+    @Test
+    public void keepsSineFrequency_Downsampling() {
+        assertSineResampled(48000, 22050);
+    }
+
+    @Test
+    public void streamingInChunksEqualsSingleCall() {
+        PolyphaseResampler whole = createResampler(2, 44100, 2, 32000);
+        ByteBuffer expected = sine(2, 44100, 0, 4410, 4 * 4410);
+        whole.resampleBuffer(expected, 4 * 4410);
+
+        PolyphaseResampler chunked = createResampler(2, 44100, 2, 32000);
+        ByteBuffer actual = ByteBuffer.allocate(expected.limit() + 64).order(ByteOrder.LITTLE_ENDIAN);
+        for (int offset = 0; offset < 4410; offset += 441) {
+            ByteBuffer chunk = sine(2, 44100, offset, 441, 4 * 441);
+            chunked.resampleBuffer(chunk, 4 * 441);
+            actual.put(chunk);
+        }
+        actual.flip();
+
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    public void mixesStereoToMono() {
+        PolyphaseResampler resampler = createResampler(2, 48000, 1, 48000);
+        ByteBuffer buffer = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.putShort((short) 100).putShort((short) 300).putShort((short) -50).putShort((short) -150);
+
+        resampler.resampleBuffer(buffer, 8);
+
+        assertEquals(4, buffer.limit());
+        assertEquals(200, buffer.getShort(0));
+        assertEquals(-100, buffer.getShort(2));
+    }
+
+    @Test
+    public void duplicatesMonoToStereo() {
+        PolyphaseResampler resampler = createResampler(1, 8000, 2, 8000);
+        Frame frame = new Frame(ByteBuffer.allocate(16).order(ByteOrder.LITTLE_ENDIAN), 4, 0, 0, 0, 0);
+        frame.getByteBuffer().putShort(0, (short) 7).putShort(2, (short) -9);
+
+        resampler.resampleFrame(frame);
+
+        assertEquals(8, frame.getLength());
+        assertEquals(7, frame.getByteBuffer().getShort(0));
+        assertEquals(7, frame.getByteBuffer().getShort(2));
+        assertEquals(-9, frame.getByteBuffer().getShort(4));
+        assertEquals(-9, frame.getByteBuffer().getShort(6));
+    }
+
+    @Test
+    public void leavesBufferUntouched_WhenNoResamplingRequired() {
+        PolyphaseResampler resampler = createResampler(2, 44100, 2, 44100);
+        ByteBuffer buffer = sine(2, 44100, 0, 100, 400);
+
+        resampler.resampleBuffer(buffer, 400);
+
+        assertEquals(sine(2, 44100, 0, 100, 400), buffer);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void throwsWhenBufferTooSmallForOutput() {
+        PolyphaseResampler resampler = createResampler(1, 8000, 2, 48000);
+        ByteBuffer buffer = sine(1, 8000, 0, 800, 1600);
+
+        resampler.resampleBuffer(buffer, 1600);
+    }
+
+    @Test
+    public void reportsMaxOutputLength() {
+        PolyphaseResampler resampler = createResampler(1, 8000, 2, 48000);
+        ByteBuffer buffer = sine(1, 8000, 0, 800, resampler.getMaxOutputLength(1600));
+
+        resampler.resampleBuffer(buffer, 1600);
+
+        assertTrue(buffer.limit() <= resampler.getMaxOutputLength(1600));
+        assertTrue(resampler.getBufferedSamplesCount() > 0);
+    }
+
+    private void assertSineResampled(int inputRate, int targetRate) {
+        PolyphaseResampler resampler = createResampler(1, inputRate, 1, targetRate);
+        ByteBuffer buffer = sine(1, inputRate, 0, inputRate / 10, 2 * 48000 / 10);
+
+        resampler.resampleBuffer(buffer, 2 * inputRate / 10);
+
+        int samples = buffer.limit() / 2;
+        double maxError = 0;
+        for (int i = 64; i < samples; i++) {
+            double expected = AMPLITUDE * Math.sin(2 * Math.PI * FREQUENCY * i / targetRate);
+            maxError = Math.max(maxError, Math.abs(expected - buffer.getShort(2 * i)));
+        }
+        assertTrue("max error " + maxError, maxError < AMPLITUDE * 0.01);
+    }
+
+    private PolyphaseResampler createResampler(int inputChannels, int inputRate, int targetChannels, int targetRate) {
+        AudioFormat target = create.audioFormat().withChannelCount(targetChannels).withSampleRate(targetRate).construct();
+        AudioFormat input = create.audioFormat().withChannelCount(inputChannels).withSampleRate(inputRate).construct();
+
+        PolyphaseResampler resampler = new PolyphaseResampler(target);
+        resampler.setInputParameters(input);
+        return resampler;
+    }
+
+    private static ByteBuffer sine(int channels, int sampleRate, int offset, int frames, int capacity) {
+        ByteBuffer buffer = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        for (int i = 0; i < frames; i++) {
+            short sample = (short) Math.round(AMPLITUDE * Math.sin(2 * Math.PI * FREQUENCY * (offset + i) / sampleRate));
+            for (int channel = 0; channel < channels; channel++) {
+                buffer.putShort(sample);
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+import org.m4m.IProgressStatisticsListener;
+import org.m4m.ProgressStatistics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ProgressReporterTest extends TestBase {
+    private static class StatisticsListener extends ProgressListenerStub implements IProgressStatisticsListener {
+        final List<Float> progress = new ArrayList<Float>();
+        final List<ProgressStatistics> statistics = new ArrayList<ProgressStatistics>();
+
+        @Override
+        public synchronized void onMediaProgress(float progress) {
+            this.progress.add(progress);
+        }
+
+        @Override
+        public synchronized void onMediaStatistics(ProgressStatistics statistics) {
+            this.statistics.add(statistics);
+        }
+    }
+
+    private static class ManualExecutor implements Executor {
+        final List<Runnable> tasks = new ArrayList<Runnable>();
+
+        @Override
+        public void execute(Runnable task) {
+            tasks.add(task);
+        }
+
+        void runAll() {
+            List<Runnable> queued = new ArrayList<Runnable>(tasks);
+            tasks.clear();
+            for (Runnable task : queued) {
+                task.run();
+            }
+        }
+    }
+
+    @Test
+    public void publishesFirstAndFinalProgress_WithinInterval() {
+        StatisticsListener listener = new StatisticsListener();
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.setFinish(400);
+        ProgressReporter reporter = new ProgressReporter(listener, tracker, 60000);
+
+        for (int sample = 1; sample <= 4; sample++) {
+            tracker.track(sample * 100);
+            tracker.trackSample(10, true);
+            reporter.publish();
+        }
+        reporter.stop();
+
+        assertEquals(listener.progress.get(listener.progress.size() - 1), 1f, 0.001);
+        assertTrue(listener.progress.size() <= 2);
+        assertEquals(4, listener.statistics.get(listener.statistics.size() - 1).getFramesCount());
+        assertEquals(40, listener.statistics.get(listener.statistics.size() - 1).getBytesCount());
+    }
+
+    @Test
+    public void coalescesProgress_WhileListenerIsBusy() {
+        StatisticsListener listener = new StatisticsListener();
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.setFinish(400);
+        ManualExecutor executor = new ManualExecutor();
+        ProgressReporter reporter = new ProgressReporter(listener, tracker, 0, executor);
+
+        for (int sample = 1; sample <= 4; sample++) {
+            tracker.track(sample * 100);
+            reporter.publish();
+        }
+        executor.runAll();
+
+        assertEquals(1, listener.progress.size());
+        assertEquals(1f, listener.progress.get(0), 0.001);
+    }
+
+    @Test
+    public void publishDoesNotWaitForListener() throws InterruptedException {
+        final CountDownLatch release = new CountDownLatch(1);
+        StatisticsListener listener = new StatisticsListener() {
+            @Override
+            public void onMediaProgress(float progress) {
+                try {
+                    release.await(5, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onMediaProgress(progress);
+            }
+        };
+        ProgressTracker tracker = new ProgressTracker();
+        tracker.setFinish(1000);
+        ProgressReporter reporter = new ProgressReporter(listener, tracker, 0);
+
+        long start = System.nanoTime();
+        for (int sample = 1; sample <= 1000; sample++) {
+            tracker.track(sample);
+            reporter.publish();
+        }
+        long elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+        release.countDown();
+        reporter.stop();
+
+        assertTrue(elapsedMs < 1000);
+        assertEquals(1f, listener.progress.get(listener.progress.size() - 1), 0.001);
+        assertTrue(listener.progress.size() < 1000);
+    }
+}
@@ -17,6 +17,7 @@
 package org.m4m.domain;
 
 import org.junit.Test;
+import org.m4m.ProgressStatistics;
 
 import static junit.framework.TestCase.assertEquals;
 
@@ -63,4 +64,37 @@ public class ProgressTrackerTest extends TestBase {
 
         assertEquals(0.5f, progressTracker.getProgress(), 0.01);
     }
+
+    @Test
+    public void statisticsCountFramesAndBytes() {
+        ProgressTracker progressTracker = new ProgressTracker();
+
+        progressTracker.setFinish(1000);
+        progressTracker.track(250);
+        progressTracker.trackSample(100, true);
+        progressTracker.trackSample(20, false);
+        progressTracker.trackSample(100, true);
+        ProgressStatistics statistics = progressTracker.getStatistics();
+
+        assertEquals(0.25f, statistics.getProgress(), 0.01);
+        assertEquals(250, statistics.getMediaTimeUs());
+        assertEquals(2, statistics.getFramesCount());
+        assertEquals(220, statistics.getBytesCount());
+    }
+
+    @Test
+    public void statisticsEstimateTimeLeft() {
+        ProgressStatistics statistics = new ProgressStatistics(0.25f, 1000000, 2000, 50, 1000);
+
+        assertEquals(6000, statistics.getEstimatedTimeLeftMs());
+        assertEquals(25f, statistics.getFramesPerSecond(), 0.01);
+        assertEquals(0.5f, statistics.getRealtimeFactor(), 0.01);
+    }
+
+    @Test
+    public void statisticsTimeLeftUnknown_BeforeFirstSample() {
+        ProgressTracker progressTracker = new ProgressTracker();
+
+        assertEquals(-1, progressTracker.getStatistics().getEstimatedTimeLeftMs());
+    }
 }
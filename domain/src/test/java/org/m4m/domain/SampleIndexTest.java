@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class SampleIndexTest extends TestBase {
+    // Video samples in decode order with a B frame, interleaved with audio samples.
+    private static final int[] TRACKS = {0, 1, 0, 0, 1, 0, 0, 1, 0};
+    private static final long[] TIMES = {0, 0, 200, 100, 150, 300, 500, 300, 400};
+    private static final int[] FLAGS = {1, 1, 0, 0, 1, 1, 0, 1, 0};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private IMediaExtractor extractor;
+
+    @Before
+    public void setUp() {
+        final int[] position = {0};
+        extractor = mock(IMediaExtractor.class);
+        when(extractor.getTrackCount()).thenReturn(2);
+        when(extractor.getTrackFormat(0)).thenReturn(create.videoFormat().withDuration(600).construct());
+        when(extractor.getTrackFormat(1)).thenReturn(create.audioFormat().withDuration(450).construct());
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                position[0] = 0;
+                return null;
+            }
+        }).when(extractor).seekTo(anyLong(), anyInt());
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                position[0]++;
+                return position[0] < TIMES.length;
+            }
+        }).when(extractor).advance();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return position[0] < TIMES.length ? TRACKS[position[0]] : -1;
+            }
+        }).when(extractor).getSampleTrackIndex();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return position[0] < TIMES.length ? TIMES[position[0]] : -1L;
+            }
+        }).when(extractor).getSampleTime();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return position[0] < TIMES.length ? FLAGS[position[0]] : 0;
+            }
+        }).when(extractor).getSampleFlags();
+    }
+
+    @Test
+    public void build_IndexesSamplesOfEveryTrackInPresentationOrder() {
+        SampleIndex index = SampleIndex.build(extractor, new HashSet<Integer>());
+
+        assertEquals(2, index.getTrackCount());
+        assertEquals(6, index.getSampleCount(0));
+        assertEquals(3, index.getSampleCount(1));
+        assertEquals(100, index.getSampleTime(0, 1));
+        assertEquals(0, index.getSampleFlags(0, 1));
+        assertEquals(600, index.getDurationInMicroSec(0));
+        assertEquals(450, index.getDurationInMicroSec(1));
+        assertArrayEquals(new long[]{0, 300}, index.getSyncSampleTimes(0));
+    }
+
+    @Test
+    public void build_LeavesOnlySelectedTracksSelected() {
+        HashSet<Integer> selectedTracks = new HashSet<Integer>();
+        selectedTracks.add(0);
+
+        SampleIndex.build(extractor, selectedTracks);
+
+        verify(extractor, never()).selectTrack(0);
+        verify(extractor).selectTrack(1);
+        verify(extractor).unselectTrack(1);
+        verify(extractor, never()).unselectTrack(0);
+    }
+
+    @Test
+    public void findsSamplesAndSyncSamplesAroundTime() {
+        SampleIndex index = SampleIndex.build(extractor, new HashSet<Integer>());
+
+        assertEquals(2, index.findSample(0, 250));
+        assertEquals(-1, index.findSample(0, -1));
+        assertEquals(0, index.getSyncSampleTimeBefore(0, 299));
+        assertEquals(300, index.getSyncSampleTimeBefore(0, 300));
+        assertEquals(300, index.getSyncSampleTimeAfter(0, 1));
+        assertEquals(300, index.getSyncSampleTimeAfter(0, 300));
+        assertEquals(-1, index.getSyncSampleTimeAfter(0, 301));
+    }
+
+    @Test
+    public void load_ReturnsSavedIndex() throws IOException {
+        SampleIndex index = SampleIndex.build(extractor, new HashSet<Integer>());
+        File file = new File(folder.getRoot(), "clip.idx");
+
+        index.save(file, "/clip.mp4", 1000, 2000);
+        SampleIndex loaded = SampleIndex.load(file, "/clip.mp4", 1000, 2000);
+
+        assertNotNull(loaded);
+        assertEquals(2, loaded.getTrackCount());
+        assertEquals(6, loaded.getSampleCount(0));
+        assertEquals(500, loaded.getSampleTime(0, 5));
+        assertEquals(1, loaded.getSampleFlags(1, 2));
+        assertEquals(450, loaded.getDurationInMicroSec(1));
+        assertArrayEquals(new long[]{0, 300}, loaded.getSyncSampleTimes(0));
+    }
+
+    @Test
+    public void load_ReturnsNullForChangedFile() throws IOException {
+        SampleIndex index = SampleIndex.build(extractor, new HashSet<Integer>());
+        File file = new File(folder.getRoot(), "clip.idx");
+
+        index.save(file, "/clip.mp4", 1000, 2000);
+
+        assertNull(SampleIndex.load(file, "/clip.mp4", 1000, 2001));
+        assertNull(SampleIndex.load(file, "/clip.mp4", 1001, 2000));
+        assertNull(SampleIndex.load(file, "/other.mp4", 1000, 2000));
+    }
+
+    @Test
+    public void cache_ServesIndexUntilFileChanges() throws IOException {
+        File source = folder.newFile("clip.mp4");
+        SampleIndexCache cache = new SampleIndexCache(new File(folder.getRoot(), "indexes"));
+
+        assertNull(cache.get(source.getPath()));
+        cache.put(source.getPath(), SampleIndex.build(extractor, new HashSet<Integer>()));
+        assertNotNull(cache.get(source.getPath()));
+
+        FileOutputStream output = new FileOutputStream(source);
+        output.write(new byte[16]);
+        output.close();
+        assertNull(cache.get(source.getPath()));
+    }
+
+    @Test
+    public void mediaSource_AnswersFromLoadedIndex() throws IOException {
+        File source = folder.newFile("clip.mp4");
+        when(extractor.getFilePath()).thenReturn(source.getPath());
+        SampleIndexCache cache = new SampleIndexCache(folder.getRoot());
+        new MediaSource(extractor).loadSampleIndex(cache);
+
+        IMediaExtractor reopened = mock(IMediaExtractor.class);
+        when(reopened.getTrackCount()).thenReturn(2);
+        when(reopened.getTrackFormat(0)).thenReturn(create.videoFormat().construct());
+        when(reopened.getFilePath()).thenReturn(source.getPath());
+        MediaSource mediaSource = new MediaSource(reopened);
+        mediaSource.loadSampleIndex(cache);
+
+        assertEquals(600, mediaSource.getDurationInMicroSec());
+        assertArrayEquals(new long[]{0, 300}, mediaSource.getSyncSampleTimes());
+        assertEquals(2, mediaSource.splitAtSyncSamples(250).size());
+        verify(reopened, never()).seekTo(anyLong(), anyInt());
+        verify(reopened, never()).advance();
+    }
+}
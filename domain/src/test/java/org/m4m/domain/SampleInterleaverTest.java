@@ -0,0 +1,145 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class SampleInterleaverTest extends TestBase {
+    private SampleInterleaver interleaver;
+    private SampleWriterStub writer;
+
+    @Before
+    public void setUp() {
+        interleaver = new SampleInterleaver();
+        interleaver.addTrack(0);
+        interleaver.addTrack(1);
+        writer = new SampleWriterStub();
+    }
+
+    @Test
+    public void writesSamplesOfAllTracksInPresentationTimeOrder() {
+        interleaver.push(sample(0, 0), writer);
+        interleaver.push(sample(0, 33), writer);
+        interleaver.push(sample(0, 66), writer);
+        interleaver.push(sample(1, 10), writer);
+        interleaver.push(sample(1, 50), writer);
+        interleaver.push(sample(1, 90), writer);
+
+        assertEquals(Arrays.asList(0L, 10L, 33L, 50L, 66L), writer.sampleTimes);
+        assertEquals(Arrays.asList(0, 1, 0, 1, 0), writer.trackIds);
+    }
+
+    @Test
+    public void holdsSamplesUntilEveryTrackHasData() {
+        interleaver.push(sample(0, 0), writer);
+        interleaver.push(sample(0, 33), writer);
+
+        assertEquals(0, writer.sampleTimes.size());
+    }
+
+    @Test
+    public void doesNotWaitForEndedTrack() {
+        interleaver.push(sample(1, 0), writer);
+        interleaver.push(Frame.EOF(), writer);
+        interleaver.push(create.frame().withTrackId(1).withFlag(IMediaCodec.BUFFER_FLAG_END_OF_STREAM).construct(), writer);
+        interleaver.push(sample(0, 10), writer);
+        interleaver.push(sample(0, 20), writer);
+
+        assertEquals(Arrays.asList(-1, 1, 0, 0), writer.trackIds);
+        assertEquals(Arrays.asList(0L, 0L, 10L, 20L), writer.sampleTimes);
+    }
+
+    @Test
+    public void writesOldestSample_WhenTimeWindowExceeded() {
+        interleaver.setWindow(100, Integer.MAX_VALUE);
+
+        interleaver.push(sample(0, 0), writer);
+        interleaver.push(sample(0, 50), writer);
+        interleaver.push(sample(0, 150), writer);
+
+        assertEquals(Arrays.asList(0L), writer.sampleTimes);
+        assertEquals(1, interleaver.getForcedWrites());
+    }
+
+    @Test
+    public void writesOldestSamples_WhenMemoryWindowExceeded() {
+        interleaver.setWindow(Long.MAX_VALUE, 4);
+
+        interleaver.push(sample(0, 0, 1, 2, 3), writer);
+        interleaver.push(sample(0, 10, 4, 5, 6), writer);
+
+        assertEquals(Arrays.asList(0L), writer.sampleTimes);
+        assertEquals(3, interleaver.getBufferedBytes());
+    }
+
+    @Test
+    public void writesCopyOfBufferedSample() {
+        Frame frame = sample(0, 0, 1, 2, 3);
+        interleaver.push(frame, writer);
+        frame.getByteBuffer().put(0, (byte) 9);
+
+        interleaver.flush(writer);
+
+        assertEquals(create.byteBuffer(1, 2, 3), writer.buffers.get(0));
+    }
+
+    @Test
+    public void buffersSamples_UntilWriterIsReady() {
+        interleaver.push(sample(0, 0), null);
+        interleaver.push(sample(1, 5), null);
+
+        interleaver.push(sample(0, 10), writer);
+
+        assertEquals(Arrays.asList(0L, 5L), writer.sampleTimes);
+    }
+
+    @Test
+    public void flushWritesAllBufferedSamples() {
+        interleaver.push(sample(0, 20), writer);
+        interleaver.push(sample(0, 10), writer);
+
+        interleaver.flush(writer);
+
+        assertEquals(Arrays.asList(20L, 10L), writer.sampleTimes);
+        assertEquals(0, interleaver.getBufferedBytes());
+    }
+
+    private Frame sample(int trackId, long sampleTime, int... bytes) {
+        return create.frame(bytes).withTimeStamp(sampleTime).withTrackId(trackId).construct();
+    }
+
+    private static class SampleWriterStub implements SampleInterleaver.ISampleWriter {
+        final List<Long> sampleTimes = new ArrayList<Long>();
+        final List<Integer> trackIds = new ArrayList<Integer>();
+        final List<ByteBuffer> buffers = new ArrayList<ByteBuffer>();
+
+        @Override
+        public void writeSample(int trackId, ByteBuffer byteBuffer, IMediaCodec.BufferInfo bufferInfo) {
+            sampleTimes.add(bufferInfo.presentationTimeUs);
+            trackIds.add(trackId);
+            buffers.add(byteBuffer.duplicate());
+        }
+    }
+}
@@ -20,6 +20,11 @@ import org.junit.Test;
 
 import java.util.ArrayList;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
 public class SegmentTest extends TestBase {
     @Test
     public void add_AlignsLeftOverlappingSegments() {
@@ -66,4 +71,78 @@ public class SegmentTest extends TestBase {
         assertThat(segments).equalsTo(
             new Pair<Long, Long>(10L, 50L));
     }
+
+    @Test
+    public void shift_RemovesGapsBetweenSegments() {
+        Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
+        segments.add(new Pair<Long, Long>(0L, 100L));
+        segments.add(new Pair<Long, Long>(200L, 300L));
+        segments.add(new Pair<Long, Long>(400L, 500L));
+
+        assertEquals(50L, saveAndShift(segments, 50));
+        assertEquals(100L, saveAndShift(segments, 100));
+        assertEquals(150L, saveAndShift(segments, 250));
+        assertEquals(200L, saveAndShift(segments, 300));
+        assertEquals(250L, saveAndShift(segments, 450));
+    }
+
+    @Test
+    public void shift_MatchesSumOfPreviousSegments_ForManySegments() {
+        Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
+        for (long i = 0; i < 500; i++) {
+            segments.add(new Pair<Long, Long>(i * 1000 + 1, i * 1000 + 500));
+        }
+
+        long expectedShift = 0;
+        for (long i = 0; i < 500; i++) {
+            long segmentStart = i * 1000 + 1;
+            long sampleTime = segmentStart;
+            for (; sampleTime <= segmentStart + 480; sampleTime += 40) {
+                assertEquals(sampleTime - segmentStart + expectedShift, saveAndShift(segments, sampleTime));
+            }
+            expectedShift += sampleTime - 40 - segmentStart;
+        }
+    }
+
+    @Test
+    public void isInsideSegment_ChecksAllSegments() {
+        Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
+        segments.add(new Pair<Long, Long>(400L, 500L));
+        segments.add(new Pair<Long, Long>(0L, 100L));
+
+        assertTrue(segments.isInsideSegment(450));
+        assertTrue(segments.isInsideSegment(0));
+        assertFalse(segments.isInsideSegment(300));
+        assertFalse(segments.isInsideSegment(501));
+    }
+
+    @Test
+    public void getSegmentAfter_ReturnsNextSegmentInTime() {
+        Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
+        segments.add(new Pair<Long, Long>(400L, 500L));
+        segments.add(new Pair<Long, Long>(0L, 100L));
+        segments.add(new Pair<Long, Long>(200L, 300L));
+
+        assertEquals(new Pair<Long, Long>(0L, 100L), segments.getSegmentAfter(-1));
+        assertEquals(new Pair<Long, Long>(200L, 300L), segments.getSegmentAfter(150));
+        assertEquals(new Pair<Long, Long>(400L, 500L), segments.getSegmentAfter(200));
+        assertNull(segments.getSegmentAfter(450));
+    }
+
+    @Test
+    public void getSegmentAfter_SeesRemovedSegments() {
+        Segments segments = new Segments(new ArrayList<Pair<Long, Long>>());
+        segments.add(new Pair<Long, Long>(0L, 100L));
+        segments.add(new Pair<Long, Long>(200L, 300L));
+        segments.getSegmentAfter(0);
+
+        segments.remove(1);
+
+        assertNull(segments.getSegmentAfter(150));
+    }
+
+    private long saveAndShift(Segments segments, long sampleTime) {
+        segments.saveSampleTime(sampleTime);
+        return segments.shift(sampleTime);
+    }
 }
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StitchingMuxerTest extends TestBase {
+    private static final byte[] ENCODED_SPS = {0, 0, 0, 1, 0x67, 1};
+    private static final byte[] SOURCE_SPS = {0, 0, 0, 1, 0x67, 2};
+    private static final byte[] PPS = {0, 0, 1, 0x68, 1};
+
+    private MuxerStub muxer;
+    private StitchingMuxer stitchingMuxer;
+
+    @Before
+    public void setUp() {
+        muxer = new MuxerStub();
+        stitchingMuxer = new StitchingMuxer(muxer);
+    }
+
+    @Test
+    public void shiftsSampleTimesByChunkOffset() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        startChunk(first);
+        startChunk(second);
+
+        write(first, 0, 0);
+        write(first, 0, 500);
+        first.stop();
+        write(second, 0, 0);
+        write(second, 0, 500);
+        second.stop();
+
+        assertEquals(Arrays.asList(0L, 500L, 1000L, 1500L), muxer.sampleTimes);
+    }
+
+    @Test
+    public void holdsSamplesOfLaterChunkUntilPreviousChunkStops() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        startChunk(first);
+        startChunk(second);
+
+        write(second, 0, 0);
+        write(second, 0, 500);
+        second.stop();
+        write(first, 0, 0);
+
+        assertEquals(Arrays.asList(0L), muxer.sampleTimes);
+        assertEquals(2 * 4, stitchingMuxer.getBufferedBytes());
+
+        first.stop();
+
+        assertEquals(Arrays.asList(0L, 1000L, 1500L), muxer.sampleTimes);
+        assertEquals(0, stitchingMuxer.getBufferedBytes());
+    }
+
+    @Test
+    public void advancesCurrentChunkPastStoppedChunks() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        stitchingMuxer.addChunk(2000);
+        startChunk(first);
+
+        second.stop();
+        assertEquals(0, stitchingMuxer.getCurrentChunk());
+
+        first.stop();
+        assertEquals(2, stitchingMuxer.getCurrentChunk());
+    }
+
+    @Test
+    public void stopsOutputAfterLastChunk() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        startChunk(first);
+        startChunk(second);
+
+        second.stop();
+        assertFalse(stitchingMuxer.isStopped());
+
+        first.stop();
+        assertTrue(stitchingMuxer.isStopped());
+        assertEquals(1, muxer.starts);
+        assertEquals(1, muxer.stops);
+    }
+
+    @Test
+    public void mapsTracksByType() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        first.addTrack(create.videoFormat().construct());
+        first.addTrack(create.audioFormat().construct());
+        second.addTrack(create.audioFormat().construct());
+        second.addTrack(create.videoFormat().construct());
+        first.start();
+        second.start();
+
+        write(first, 1, 0);
+        first.stop();
+        write(second, 1, 0);
+
+        assertEquals(2, muxer.tracks);
+        assertEquals(Arrays.asList(1, 0), muxer.trackIds);
+    }
+
+    @Test
+    public void insertsParameterSetsIntoSyncSamplesOfChunkWithOtherConfig() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        first.addTrack(create.videoFormat().withCodecConfig(ENCODED_SPS, PPS).construct());
+        second.addTrack(create.videoFormat().withCodecConfig(SOURCE_SPS, PPS).construct());
+        first.start();
+        second.start();
+
+        writeSync(first, 0);
+        first.stop();
+        writeSync(second, 0);
+        write(second, 0, 500);
+        writeSync(second, 800);
+
+        assertEquals(Arrays.asList(4, 6 + 5 + 4, 4, 6 + 5 + 4), muxer.sampleSizes);
+    }
+
+    @Test
+    public void restoresOutputParameterSetsAfterChunkWithOtherConfig() {
+        IMediaMuxer first = stitchingMuxer.addChunk(0);
+        IMediaMuxer second = stitchingMuxer.addChunk(1000);
+        IMediaMuxer third = stitchingMuxer.addChunk(2000);
+        first.addTrack(create.videoFormat().withCodecConfig(ENCODED_SPS, PPS).construct());
+        second.addTrack(create.videoFormat().withCodecConfig(SOURCE_SPS, PPS).construct());
+        third.addTrack(create.videoFormat().withCodecConfig(ENCODED_SPS, PPS).construct());
+        first.start();
+        second.start();
+        third.start();
+
+        writeSync(first, 0);
+        first.stop();
+        writeSync(second, 0);
+        second.stop();
+        writeSync(third, 0);
+        writeSync(third, 500);
+
+        assertEquals(Arrays.asList(4, 6 + 5 + 4, 6 + 5 + 4, 4), muxer.sampleSizes);
+    }
+
+    private void writeSync(IMediaMuxer chunk, long sampleTime) {
+        IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+        bufferInfo.presentationTimeUs = sampleTime;
+        bufferInfo.size = 4;
+        bufferInfo.flags = 1;
+        chunk.writeSampleData(0, ByteBuffer.wrap(new byte[] {0, 0, 1, 0x65}), bufferInfo);
+    }
+
+    private void startChunk(IMediaMuxer chunk) {
+        chunk.addTrack(create.videoFormat().construct());
+        chunk.start();
+    }
+
+    private void write(IMediaMuxer chunk, int trackIndex, long sampleTime) {
+        IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+        bufferInfo.presentationTimeUs = sampleTime;
+        bufferInfo.size = 4;
+        chunk.writeSampleData(trackIndex, ByteBuffer.wrap(new byte[] {1, 2, 3, 4}), bufferInfo);
+    }
+
+    static class MuxerStub implements IMediaMuxer {
+        final List<Long> sampleTimes = new ArrayList<Long>();
+        final List<Integer> trackIds = new ArrayList<Integer>();
+        final List<Integer> sampleSizes = new ArrayList<Integer>();
+        int tracks = 0;
+        int starts = 0;
+        int stops = 0;
+
+        @Override
+        public int addTrack(MediaFormat mediaFormat) {
+            return tracks++;
+        }
+
+        @Override
+        public void release() {
+        }
+
+        @Override
+        public void setOrientationHint(int degrees) {
+        }
+
+        @Override
+        public void start() {
+            starts++;
+        }
+
+        @Override
+        public void stop() {
+            stops++;
+        }
+
+        @Override
+        public void writeSampleData(int trackIndex, ByteBuffer byteBuf, IMediaCodec.BufferInfo bufferInfo) {
+            trackIds.add(trackIndex);
+            sampleTimes.add(bufferInfo.presentationTimeUs);
+            sampleSizes.add(bufferInfo.size);
+        }
+    }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertEquals;
+
+public class ThumbnailCacheTest {
+
+    @Test
+    public void returnsCachedFrame() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        cache.put("a.mp4", 100, frame(8, 7), 133);
+
+        ByteBuffer destination = ByteBuffer.allocate(8);
+        long sampleTime = cache.get("a.mp4", 100, destination);
+
+        assertEquals(133, sampleTime);
+        assertEquals(7, destination.get(7));
+        assertEquals(8, destination.limit());
+    }
+
+    @Test
+    public void missesOtherSourceTimeOrSize() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        cache.put("a.mp4", 100, frame(8, 1), 100);
+
+        assertEquals(-1, cache.get("b.mp4", 100, ByteBuffer.allocate(8)));
+        assertEquals(-1, cache.get("a.mp4", 101, ByteBuffer.allocate(8)));
+        assertEquals(-1, cache.get("a.mp4", 100, ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    public void evictsLeastRecentlyUsedFrames() {
+        ThumbnailCache cache = new ThumbnailCache(16);
+        cache.put("a.mp4", 0, frame(8, 0), 0);
+        cache.put("a.mp4", 1, frame(8, 1), 1);
+        cache.get("a.mp4", 0, ByteBuffer.allocate(8));
+
+        cache.put("a.mp4", 2, frame(8, 2), 2);
+
+        assertEquals(2, cache.getCount());
+        assertEquals(16, cache.getSize());
+        assertEquals(0, cache.get("a.mp4", 0, ByteBuffer.allocate(8)));
+        assertEquals(-1, cache.get("a.mp4", 1, ByteBuffer.allocate(8)));
+    }
+
+    @Test
+    public void zeroSizeDisablesCache() {
+        ThumbnailCache cache = new ThumbnailCache(1024);
+        cache.put("a.mp4", 0, frame(8, 0), 0);
+
+        cache.setMaxSize(0);
+        cache.put("a.mp4", 1, frame(8, 1), 1);
+
+        assertEquals(0, cache.getCount());
+        assertEquals(0, cache.getSize());
+    }
+
+    private static ByteBuffer frame(int length, int value) {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        for (int i = 0; i < length; i++) {
+            buffer.put((byte) value);
+        }
+        buffer.flip();
+        return buffer;
+    }
+}
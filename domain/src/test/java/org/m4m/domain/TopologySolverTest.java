@@ -22,8 +22,10 @@ import junit.framework.Assert;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Iterator;
+import java.util.List;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -427,4 +429,22 @@ public class TopologySolverTest extends TestBase {
 
         connectorFactory.connect(videoDecoder, surfaceRender);
     }
-}
\ No newline at end of file
+
+    @Test
+    public void partitionsTranscodingPipelineIntoVideoAndAudioChains() {
+        CommandHandlerFactory factory = new CommandHandlerFactory();
+        OutputInputPair sourceVideo = new OutputInputPair(mediaSource, videoDecoder, factory);
+        OutputInputPair videoDecodeEncode = new OutputInputPair(videoDecoder, videoEncoder, factory);
+        OutputInputPair videoMux = new OutputInputPair(videoEncoder, render, factory);
+        OutputInputPair sourceAudio = new OutputInputPair(mediaSource, audioDecoder, factory);
+        OutputInputPair audioDecodeEncode = new OutputInputPair(audioDecoder, audioEncoder, factory);
+        OutputInputPair audioMux = new OutputInputPair(audioEncoder, render, factory);
+
+        List<List<OutputInputPair>> chains = TopologySolver.partition(
+            Arrays.asList(sourceVideo, sourceAudio, videoDecodeEncode, audioDecodeEncode, videoMux, audioMux));
+
+        assertEquals(2, chains.size());
+        assertEquals(Arrays.asList(sourceVideo, videoDecodeEncode, videoMux), chains.get(0));
+        assertEquals(Arrays.asList(sourceAudio, audioDecodeEncode, audioMux), chains.get(1));
+    }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class TrimPlannerTest {
+    private final TrimPlanner planner = new TrimPlanner(new long[]{0, 1000, 2000, 3000, 4000}, 5000);
+
+    @Test
+    public void transcodesPartialGopsAndCopiesCompleteOnes() {
+        List<TrimPlanner.Piece> pieces = planner.plan(Arrays.asList(new Pair<Long, Long>(500L, 3500L)));
+
+        assertEquals(3, pieces.size());
+        assertPiece(pieces.get(0), false, 500, 999, 0);
+        assertPiece(pieces.get(1), true, 1000, 2999, 500);
+        assertPiece(pieces.get(2), false, 3000, 3500, 2500);
+    }
+
+    @Test
+    public void copiesSegmentAlignedToSyncSamples() {
+        List<TrimPlanner.Piece> pieces = planner.plan(Arrays.asList(new Pair<Long, Long>(1000L, 3000L)));
+
+        assertEquals(1, pieces.size());
+        assertPiece(pieces.get(0), true, 1000, 3000, 0);
+    }
+
+    @Test
+    public void copiesLastGopUpToEndOfStream() {
+        List<TrimPlanner.Piece> pieces = planner.plan(Arrays.asList(new Pair<Long, Long>(3500L, 9000L)));
+
+        assertEquals(2, pieces.size());
+        assertPiece(pieces.get(0), false, 3500, 3999, 0);
+        assertPiece(pieces.get(1), true, 4000, 5000, 500);
+    }
+
+    @Test
+    public void transcodesSegmentWithoutCompleteGop() {
+        List<TrimPlanner.Piece> pieces = planner.plan(Arrays.asList(new Pair<Long, Long>(1200L, 2800L)));
+
+        assertEquals(1, pieces.size());
+        assertPiece(pieces.get(0), false, 1200, 2800, 0);
+    }
+
+    @Test
+    public void placesSegmentsOneAfterAnother() {
+        List<TrimPlanner.Piece> pieces = planner.plan(Arrays.asList(
+            new Pair<Long, Long>(3000L, 4500L),
+            new Pair<Long, Long>(200L, 800L)));
+
+        assertEquals(3, pieces.size());
+        assertPiece(pieces.get(0), true, 3000, 3999, 0);
+        assertPiece(pieces.get(1), false, 4000, 4500, 1000);
+        assertPiece(pieces.get(2), false, 200, 800, 1500);
+    }
+
+    @Test
+    public void stitchedPiecesHaveIncreasingSampleTimes() {
+        long[] sampleTimes = {0, 100, 200, 300, 400, 500, 600, 700, 800, 900};
+        int[] sampleFlags = {1, 0, 0, 1, 0, 0, 0, 1, 0, 0};
+        VideoStreamStub stream = new VideoStreamStub(sampleTimes, sampleFlags);
+        List<TrimPlanner.Piece> pieces = new TrimPlanner(new long[]{0, 300, 700}, 1000)
+            .plan(Arrays.asList(new Pair<Long, Long>(150L, 850L)));
+        List<FileSegment> segments = new ArrayList<FileSegment>();
+        List<Long> outputTimes = new ArrayList<Long>();
+        for (TrimPlanner.Piece piece : pieces) {
+            segments.add(piece.segment);
+            outputTimes.add(piece.outputTimeUs);
+        }
+
+        List<Long> stitchedTimes = stream.stitch(segments, outputTimes);
+
+        assertEquals(Arrays.asList(50L, 150L, 250L, 350L, 450L, 550L, 650L), stitchedTimes);
+    }
+
+    private void assertPiece(TrimPlanner.Piece piece, boolean streamCopy, long left, long right, long outputTimeUs) {
+        assertEquals(piece.toString(), streamCopy, piece.streamCopy);
+        assertEquals(left, (long) piece.segment.left());
+        assertEquals(right, (long) piece.segment.right());
+        assertEquals(outputTimeUs, piece.outputTimeUs);
+    }
+}
@@ -97,6 +97,42 @@ public class VideoEffectorTest extends TestBase {
         verify(mockEffect2).applyEffect(anyInt(), eq(25l), any(float[].class));
     }
 
+    @Test
+    public void push_DrawsFrameIntoRenditionSurface() {
+        ISurface mockSurface = mock(ISurface.class);
+        ISurface renditionSurface = mock(ISurface.class);
+        VideoEncoder rendition = create.videoEncoder().construct();
+        effector.setOutputSurface(mockSurface);
+        effector.addRendition(rendition, renditionSurface);
+        effector.start();
+
+        effector.push(create.frame().withTimeStamp(10).construct());
+
+        verify(renditionSurface).makeCurrent();
+        verify(renditionSurface).setPresentationTime(10000);
+        verify(renditionSurface).swapBuffers();
+        verify(mockSurface, times(2)).makeCurrent();
+    }
+
+    @Test
+    public void fullRendition_WithholdsNeedDataUntilItHasRoom() {
+        ISurface mockSurface = mock(ISurface.class);
+        VideoEncoder rendition = create.videoEncoder().construct();
+        effector.setOutputSurface(mockSurface);
+        effector.addRendition(rendition, mock(ISurface.class));
+        effector.start();
+        effector.push(create.frame().withTimeStamp(10).construct());
+        effector.push(create.frame().withTimeStamp(20).construct());
+        effector.getInputCommandQueue().clear();
+
+        effector.releaseOutputBuffer(0);
+        assertEquals(0, effector.getInputCommandQueue().size());
+
+        rendition.releaseOutputBuffer(0);
+        effector.fillCommandQueues();
+        assertThat(effector.getInputCommandQueue()).equalsTo(Command.NeedData);
+    }
+
     @Test
     public void drain_putsEofCommand() {
         VideoEffector videoEffector = create.videoEffector().construct();
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain;
+
+import org.m4m.domain.dsl.Father;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+/**
+ * Video only stream with the given sample times and flags. Can cut segments of the stream and join them in a
+ * {@link StitchingMuxer}, as the composers processing a stream in pieces do.
+ */
+class VideoStreamStub {
+    private final Father create = new Father();
+    private final long[] sampleTimes;
+    private final int[] sampleFlags;
+
+    VideoStreamStub(long[] sampleTimes, int[] sampleFlags) {
+        this.sampleTimes = sampleTimes;
+        this.sampleFlags = sampleFlags;
+    }
+
+    IMediaExtractor createExtractor() {
+        final int[] position = {0};
+        IMediaExtractor extractor = mock(IMediaExtractor.class);
+        when(extractor.getTrackCount()).thenReturn(1);
+        when(extractor.getTrackFormat(0)).thenReturn(create.videoFormat().withDuration(1000).construct());
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                long time = (Long) invocation.getArguments()[0];
+                position[0] = 0;
+                for (int i = 0; i < sampleTimes.length; i++) {
+                    if (sampleFlags[i] == IMediaExtractor.SAMPLE_FLAG_SYNC && sampleTimes[i] <= time) position[0] = i;
+                }
+                return null;
+            }
+        }).when(extractor).seekTo(anyLong(), anyInt());
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                position[0]++;
+                return position[0] < sampleTimes.length;
+            }
+        }).when(extractor).advance();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return position[0] < sampleTimes.length ? 0 : -1;
+            }
+        }).when(extractor).getSampleTrackIndex();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return sampleTimes[position[0]];
+            }
+        }).when(extractor).getSampleTime();
+        doAnswer(new Answer() {
+            public Object answer(InvocationOnMock invocation) {
+                return sampleFlags[position[0]];
+            }
+        }).when(extractor).getSampleFlags();
+        return extractor;
+    }
+
+    /**
+     * Reads every segment from its own source, drops the leading frames marked to skip as the decoder does,
+     * and writes the rest into a stitching muxer chunk starting at the given output time.
+     *
+     * @return Sample times written to the target muxer.
+     */
+    List<Long> stitch(List<FileSegment> segments, List<Long> outputTimes) {
+        StitchingMuxerTest.MuxerStub muxer = new StitchingMuxerTest.MuxerStub();
+        StitchingMuxer stitchingMuxer = new StitchingMuxer(muxer);
+        IMediaMuxer[] chunks = new IMediaMuxer[segments.size()];
+        for (int i = 0; i < chunks.length; i++) {
+            chunks[i] = stitchingMuxer.addChunk(outputTimes.get(i));
+            chunks[i].addTrack(create.videoFormat().construct());
+            chunks[i].start();
+        }
+
+        for (int i = 0; i < chunks.length; i++) {
+            MediaSource mediaSource = new MediaSource(createExtractor());
+            mediaSource.add(segments.get(i).pair);
+            mediaSource.start();
+            Pair<Command, Integer> command;
+            while ((command = mediaSource.getOutputCommandQueue().dequeue()) != null && command.left == Command.HasData) {
+                Frame frame = create.frame().construct();
+                mediaSource.pull(frame);
+                if (!frame.isSkipFrame()) {
+                    IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+                    bufferInfo.presentationTimeUs = frame.getSampleTime();
+                    bufferInfo.size = 4;
+                    chunks[i].writeSampleData(0, ByteBuffer.wrap(new byte[4]), bufferInfo);
+                }
+            }
+            chunks[i].stop();
+        }
+        return muxer.sampleTimes;
+    }
+}
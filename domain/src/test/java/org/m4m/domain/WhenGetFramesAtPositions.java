@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain;
+
+import org.junit.Test;
+import org.m4m.MediaFileInfo;
+import org.m4m.domain.dsl.MediaCodecFather;
+import org.m4m.domain.dsl.MediaSourceFather;
+import org.m4m.domain.mediaComposer.AndroidMediaObjectFactoryFake;
+
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WhenGetFramesAtPositions extends TestBase {
+    private static final int FRAME_DURATION = 33000;
+    private static final int FRAMES = 4;
+
+    private IMediaCodec mediaCodec;
+
+    private MediaFileInfo createMediaFileInfo() throws Exception {
+        MediaSourceFather sourceFather = create.mediaSource().withFilePath("movie.mp4").withVideoTrack(0);
+        for (int i = 0; i < FRAMES; i++) {
+            sourceFather.with(create.frame().withTimeStamp(i * FRAME_DURATION).withTrackId(0).construct());
+        }
+
+        MediaCodecFather codecFather = create.mediaCodec().withInputBuffer(ByteBuffer.allocate(64));
+        int[] outputBufferIndexes = new int[FRAMES];
+        for (int i = 0; i < FRAMES; i++) {
+            codecFather.withOutputBuffer(i, i, i, i).withSampleTime(i * FRAME_DURATION);
+            outputBufferIndexes[i] = i;
+        }
+        mediaCodec = codecFather.withDequeueOutputBufferIndex(outputBufferIndexes).construct();
+
+        AndroidMediaObjectFactoryFake factory = new AndroidMediaObjectFactoryFake(create)
+                .withMediaSource(sourceFather.construct())
+                .withVideoDecoder(create.videoDecoder().with(mediaCodec).construct());
+        MediaFileInfo mediaFileInfo = new MediaFileInfo(factory);
+        mediaFileInfo.setFileName("movie.mp4");
+        return mediaFileInfo;
+    }
+
+    @Test
+    public void decodesAllPositionsWithOneDecoder() throws Exception {
+        MediaFileInfo mediaFileInfo = createMediaFileInfo();
+        ByteBuffer[] buffers = buffers(3);
+
+        long[] sampleTimes = mediaFileInfo.getFramesAtPositions(new long[]{0, 30000, 66000}, buffers);
+
+        assertArrayEquals(new long[]{0, 33000, 66000}, sampleTimes);
+        assertEquals(2, buffers[2].get(0));
+        verify(mediaCodec, times(1)).configure(any(MediaFormat.class), any(ISurfaceWrapper.class), anyInt());
+    }
+
+    @Test
+    public void reusesFrameForPositionsBetweenTwoFrames() throws Exception {
+        MediaFileInfo mediaFileInfo = createMediaFileInfo();
+        ByteBuffer[] buffers = buffers(2);
+
+        long[] sampleTimes = mediaFileInfo.getFramesAtPositions(new long[]{20000, 30000}, buffers);
+
+        assertArrayEquals(new long[]{33000, 33000}, sampleTimes);
+        assertEquals(buffers[0], buffers[1]);
+    }
+
+    @Test
+    public void servesRepeatedPositionsFromCache() throws Exception {
+        MediaFileInfo mediaFileInfo = createMediaFileInfo();
+        mediaFileInfo.getFramesAtPositions(new long[]{0, 33000}, buffers(2));
+
+        ByteBuffer[] buffers = buffers(2);
+        long[] sampleTimes = mediaFileInfo.getFramesAtPositions(new long[]{0, 33000}, buffers);
+
+        assertArrayEquals(new long[]{0, 33000}, sampleTimes);
+        assertEquals(1, buffers[1].get(0));
+        assertEquals(2, mediaFileInfo.getThumbnailCache().getCount());
+        verify(mediaCodec, times(1)).configure(any(MediaFormat.class), any(ISurfaceWrapper.class), anyInt());
+    }
+
+    @Test
+    public void returnsMinusOneAfterEndOfVideo() throws Exception {
+        MediaFileInfo mediaFileInfo = createMediaFileInfo();
+
+        long[] sampleTimes = mediaFileInfo.getFramesAtPositions(new long[]{99000, 500000}, buffers(2));
+
+        assertArrayEquals(new long[]{99000, -1}, sampleTimes);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnsortedPositions() throws Exception {
+        createMediaFileInfo().getFramesAtPositions(new long[]{100, 0}, buffers(2));
+    }
+
+    private static ByteBuffer[] buffers(int count) {
+        ByteBuffer[] buffers = new ByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            buffers[i] = ByteBuffer.allocate(16);
+        }
+        return buffers;
+    }
+}
@@ -95,4 +95,55 @@ public class WhenPullFrameFromMediaSource extends TestBase {
 
         verify(extractor).advance();
     }
+
+    @Test
+    public void canPullFramesReadAhead() {
+        Frame frame1 = create.frame(1, 2, 3).withTimeStamp(100).construct();
+        Frame frame2 = create.frame(4, 5, 6).withTimeStamp(200).construct();
+        MediaSource mediaSource = create.mediaSource().with(frame1).with(frame2).construct();
+        mediaSource.start();
+
+        assertEquals(2, mediaSource.readAhead(10, 1024, new FramePool(1024)));
+
+        Frame frame = create.frame(0, 0, 0).construct();
+        mediaSource.pull(frame);
+        Assert.assertThat(frame.getByteBuffer().array(), is(equalTo(new byte[] {1, 2, 3})));
+        assertEquals(100, frame.getSampleTime());
+        mediaSource.pull(frame);
+        Assert.assertThat(frame.getByteBuffer().array(), is(equalTo(new byte[] {4, 5, 6})));
+        assertEquals(200, frame.getSampleTime());
+    }
+
+    @Test
+    public void readAheadKeepsCommands() {
+        MediaSource mediaSource = create.mediaSource()
+            .with(create.frame().withTrackId(0).construct())
+            .with(create.frame().withTrackId(0).construct())
+            .construct();
+        mediaSource.start();
+
+        mediaSource.readAhead(10, 1024, new FramePool(1024));
+
+        assertThat(mediaSource.getOutputCommandQueue()).equalsTo(
+            new Pair<Command, Integer>(Command.HasData, 0),
+            new Pair<Command, Integer>(Command.HasData, 0),
+            new Pair<Command, Integer>(Command.EndOfFile, 0));
+    }
+
+    @Test
+    public void readAheadStopsAtSamplesLimit() {
+        MediaSource mediaSource = create.mediaSource()
+            .with(create.frame(1).construct())
+            .with(create.frame(2).construct())
+            .with(create.frame(3).construct())
+            .construct();
+        mediaSource.start();
+
+        assertEquals(2, mediaSource.readAhead(2, 1024, new FramePool(1024)));
+
+        assertThat(mediaSource).willPull(
+            create.frame(1).construct(),
+            create.frame(2).construct(),
+            create.frame(3).construct());
+    }
 }
@@ -128,6 +128,32 @@ public class WhenPullFrameFromMultipleMediaSource extends TestBase {
         assertEquals(100 + 1 + 110 + 1 + 120, frame.getSampleTime());
     }
 
+    @Test
+    public void startsNextFileAfterLastSampleDuration() throws RuntimeException {
+        MultipleMediaSource multipleMediaSource = create.multipleMediaSource()
+            .with(create.mediaSource()
+                .with(create.frame().withTimeStamp(0).construct())
+                .with(create.frame().withTimeStamp(40).construct())
+                .with(create.frame().withTimeStamp(80).construct())
+                .construct())
+            .with(create.mediaSource()
+                .with(create.frame().withTimeStamp(0).construct())
+                .with(create.frame().withTimeStamp(40).construct())
+                .construct())
+            .construct();
+        multipleMediaSource.start();
+
+        Frame frame = create.frame().construct();
+        multipleMediaSource.pull(frame);
+        multipleMediaSource.pull(frame);
+        multipleMediaSource.pull(frame);
+        multipleMediaSource.pull(frame);
+        assertEquals(120, frame.getSampleTime());
+
+        multipleMediaSource.pull(frame);
+        assertEquals(160, frame.getSampleTime());
+    }
+
     @Test
     public void hasEofCommand() throws RuntimeException {
         Frame frame = create.frame(1, 2, 3, 4).withTimeStamp(100500).construct();
@@ -201,4 +227,52 @@ public class WhenPullFrameFromMultipleMediaSource extends TestBase {
 
         assertEquals(200 + 1 + 110, frame.getSampleTime());
     }
+
+    @Test
+    public void canPullFramesFromThreeMediaFiles_WhenReadingAhead() throws RuntimeException {
+        Frame frame1 = create.frame(1, 2, 3).construct();
+        Frame frame2 = create.frame(4, 5, 6).construct();
+        Frame frame3 = create.frame(7, 8, 9).construct();
+
+        MultipleMediaSource multipleMediaSource = create.multipleMediaSource()
+            .with(create.mediaSource().with(frame1).construct())
+            .with(create.mediaSource().with(frame2).construct())
+            .with(create.mediaSource().with(frame3).construct())
+            .construct();
+        multipleMediaSource.setReadAhead(4, 1024);
+        multipleMediaSource.start();
+
+        assertThat(multipleMediaSource).willPull(frame1, frame2, frame3);
+        assertEquals(2, multipleMediaSource.getSwitchesCount());
+    }
+
+    @Test
+    public void generatesNewHasDataCommand_WhenReadingAhead() throws RuntimeException {
+        Frame frame = create.frame(1, 2, 3, 4).withTimeStamp(100500).construct();
+        MultipleMediaSource mediaSource = create.multipleMediaSource()
+            .with(create.mediaSource().with(frame).construct())
+            .with(create.mediaSource().with(frame).construct())
+            .construct();
+        mediaSource.incrementConnectedPluginsCount();
+        mediaSource.selectTrack(0);
+        mediaSource.setReadAhead(4, 1024);
+        mediaSource.start();
+
+        Frame frameOut = create.frame(0, 0, 0, 0).withTimeStamp(0).construct();
+        mediaSource.getOutputCommandQueue().dequeue();
+        mediaSource.pull(frameOut);
+
+        assertThat(mediaSource.getOutputCommandQueue()).contains(Command.OutputFormatChanged, 0);
+        mediaSource.getOutputCommandQueue().dequeue();
+        mediaSource.nextFile();
+
+        assertThat(mediaSource.getOutputCommandQueue()).contains(Command.HasData, 0);
+        mediaSource.getOutputCommandQueue().dequeue();
+        mediaSource.pull(frameOut);
+
+        assertEquals(100500 + 1 + 100500, frameOut.getSampleTime());
+        assertThat(mediaSource.getOutputCommandQueue()).contains(Command.EndOfFile, 0);
+        assertEquals(1, mediaSource.getSwitchesCount());
+        assertEquals(mediaSource.getLastSwitchStallTimeUs(), mediaSource.getSwitchStallTimeUs());
+    }
 }
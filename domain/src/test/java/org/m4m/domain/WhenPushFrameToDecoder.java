@@ -25,7 +25,9 @@ import java.nio.ByteBuffer;
 import static org.hamcrest.Matchers.equalTo;
 import static org.hamcrest.Matchers.is;
 import static org.junit.Assert.assertEquals;
+import static org.mockito.Matchers.anyInt;
 import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class WhenPushFrameToDecoder extends TestBase {
@@ -62,6 +64,23 @@ public class WhenPushFrameToDecoder extends TestBase {
         verify(mediaCodec).queueInputBuffer(4, 0, 3, 1000, 0);
     }
 
+    @Test
+    public void shouldNotQueueDisposableFrameToSkip() {
+        Decoder decoder = create.videoDecoder().with(mediaCodec).construct();
+        decoder.setMediaFormat(create.videoFormat().withMimeType("video/avc").construct());
+
+        Frame frame = create
+                .frame(0, 0, 0, 1, 0x01, 0x9a)
+                .withTimeStamp(1000)
+                .withInputBufferIndex(4)
+                .construct();
+        frame.toSkipFrame(true);
+        decoder.push(frame);
+
+        verify(mediaCodec, never()).queueInputBuffer(anyInt(), anyInt(), anyInt(), anyLong(), anyInt());
+        assertEquals(1, decoder.getSkippedFramesCount());
+    }
+
     @Test
     public void shouldQueueEosFlagToInputBuffer() {
         VideoDecoder videoDecoder = create.videoDecoder().with(mediaCodec).construct();
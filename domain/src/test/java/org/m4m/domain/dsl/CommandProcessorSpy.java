@@ -56,7 +56,9 @@ public class CommandProcessorSpy extends CommandProcessor {
     protected void process(Pair<Command, Integer> outputCommand, Pair<Command, Integer> inputCommand, CommandHandlerFactory commandHandlerFactory) {
         super.process(outputCommand, inputCommand, commandHandlerFactory);
         if (lastLogEntry != null) {
-            lastLogEntry.commands.add(new Pair<Pair<Command, Integer>, Pair<Command, Integer>>(outputCommand, inputCommand));
+            lastLogEntry.commands.add(new Pair<Pair<Command, Integer>, Pair<Command, Integer>>(
+                new Pair<Command, Integer>(outputCommand.left, outputCommand.right),
+                new Pair<Command, Integer>(inputCommand.left, inputCommand.right)));
         }
     }
 
@@ -17,7 +17,6 @@ package org.m4m.domain.dsl;
 
 import org.m4m.domain.Command;
 import org.m4m.domain.CommandQueue;
-import org.m4m.domain.Pair;
 
 import static org.m4m.domain.Command.EndOfFile;
 
@@ -37,17 +36,17 @@ public class InfiniteCommandQueue extends CommandQueue {
     }
 
     @Override
-    public Pair<Command, Integer> dequeue() {
+    public void removeFirst() {
         if (dequeueLastCommand()) {
-            if (EndOfFile != super.first().left) {
+            if (EndOfFile != super.firstCommand()) {
                 queue(infiniteCommand, 0);
             }
         }
-        return super.dequeue();
+        super.removeFirst();
     }
 
     private boolean dequeueLastCommand() {
-        return queue.size() == 1;
+        return size() == 1;
     }
 }
 
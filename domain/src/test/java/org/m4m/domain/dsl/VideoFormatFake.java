@@ -26,6 +26,7 @@ public class VideoFormatFake extends VideoFormat {
     public Dictionary<String, Integer> values = new Hashtable<String, Integer>();
     public Dictionary<String, String> stringValues = new Hashtable<String, String>();
     public Dictionary<String, Long> longValues = new Hashtable<String, Long>();
+    public Dictionary<String, ByteBuffer> byteBufferValues = new Hashtable<String, ByteBuffer>();
 
     public VideoFormatFake() {
         stringValues.put(KEY_MIME, "video/avc");
@@ -65,7 +66,7 @@ public class VideoFormatFake extends VideoFormat {
 
     @Override
     public ByteBuffer getByteBuffer(String key) {
-        return null;
+        return byteBufferValues.get(key);
     }
 
     public void setDuration(long duration) {
@@ -16,6 +16,8 @@
 
 package org.m4m.domain.dsl;
 
+import java.nio.ByteBuffer;
+
 public class VideoFormatFather {
     private VideoFormatFake mediaFormat = new VideoFormatFake();
 
@@ -61,6 +63,12 @@ public class VideoFormatFather {
         return this;
     }
 
+    public VideoFormatFather withCodecConfig(byte[] csd0, byte[] csd1) {
+        mediaFormat.byteBufferValues.put("csd-0", ByteBuffer.wrap(csd0));
+        mediaFormat.byteBufferValues.put("csd-1", ByteBuffer.wrap(csd1));
+        return this;
+    }
+
     public VideoFormatFake construct() {
         return mediaFormat;
     }
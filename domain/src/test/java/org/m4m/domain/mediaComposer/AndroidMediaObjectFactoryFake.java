@@ -183,6 +183,14 @@ public class AndroidMediaObjectFactoryFake implements IAndroidMediaObjectFactory
         return sink;
     }
 
+    @Override
+    public IMediaMuxer createMediaMuxer(String fileName, int orientationHint) throws IOException {
+        if (muxer == null) {
+            muxer = create.mediaMuxer().construct();
+        }
+        return muxer;
+    }
+
     @Override
     public Render createSink(org.m4m.StreamingParameters StreamingParams, org.m4m.IProgressListener progressListener, ProgressTracker progressTracker) {
         if (muxer == null) {
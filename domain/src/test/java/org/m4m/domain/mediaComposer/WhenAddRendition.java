@@ -0,0 +1,51 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mediaComposer;
+
+import org.junit.Test;
+import org.m4m.AudioFormat;
+import org.m4m.domain.dsl.MediaSourceFather;
+
+import java.io.IOException;
+
+public class WhenAddRendition extends MediaComposerTest {
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenAudioSampleRateDiffersFromSource() throws IOException {
+        MediaSourceFather mediaSource = create.mediaSource().withAudioTrack(0);
+        mediaComposer = create.mediaComposer().with(mediaSource).construct();
+        AudioFormat audioFormat = create.audioFormat().withSampleRate(44100).construct();
+
+        mediaComposer.addRendition("rendition.mp4", null, audioFormat);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsWhenAudioChannelCountDiffersFromSource() throws IOException {
+        MediaSourceFather mediaSource = create.mediaSource().withAudioTrack(0);
+        mediaComposer = create.mediaComposer().with(mediaSource).construct();
+        AudioFormat audioFormat = create.audioFormat().withChannelCount(1).construct();
+
+        mediaComposer.addRendition("rendition.mp4", null, audioFormat);
+    }
+
+    @Test
+    public void acceptsAudioFormatOfSource() throws IOException {
+        MediaSourceFather mediaSource = create.mediaSource().withAudioTrack(0);
+        mediaComposer = create.mediaComposer().with(mediaSource).construct();
+
+        mediaComposer.addRendition("rendition.mp4", null, create.audioFormat().construct());
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mediaComposer;
+
+import org.junit.Test;
+import org.m4m.domain.NodeMetricsSnapshot;
+import org.m4m.domain.PipelineMetricsSnapshot;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class WhenCollectMetrics extends MediaComposerTest {
+    @Test
+    public void noMetrics_WhenDisabled() throws InterruptedException {
+        mediaComposer = create.mediaComposer()
+                .withDuration(1000)
+                .with(a.frame().withTimeStamp(500).construct())
+                .with(progressListener).construct();
+
+        mediaComposer.start();
+        waitUntilDone(progressListener);
+
+        assertNull(mediaComposer.getMetrics());
+    }
+
+    @Test
+    public void countFramesOfEveryNode() throws InterruptedException {
+        mediaComposer = create.mediaComposer()
+                .withDuration(1000)
+                .with(a.frame().withTimeStamp(250).construct())
+                .with(a.frame().withTimeStamp(500).construct())
+                .with(a.frame().withTimeStamp(800).construct())
+                .with(progressListener).construct();
+
+        mediaComposer.setMetricsEnabled(true);
+        mediaComposer.start();
+        waitUntilDone(progressListener);
+        PipelineMetricsSnapshot metrics = mediaComposer.getMetrics();
+
+        assertNotNull(metrics);
+        assertEquals(3, metrics.getNode("MultipleMediaSource").getFramesOut());
+        assertTrue(metrics.getNode("MuxRender").getFramesIn() >= 3);
+        NodeMetricsSnapshot sourceToDecoder = metrics.getNode("MultipleMediaSource -> VideoDecoder");
+        assertTrue(sourceToDecoder.getCommandsCount() > 0);
+        assertTrue(metrics.toJson().contains("\"name\":\"VideoEncoder -> MuxRender\""));
+    }
+}
@@ -20,6 +20,7 @@ import org.m4m.domain.Frame;
 import org.m4m.domain.IMediaCodec;
 import org.m4m.domain.Pair;
 import org.m4m.domain.dsl.MediaSourceFather;
+import org.junit.Assert;
 import org.junit.Test;
 
 import javax.naming.OperationNotSupportedException;
@@ -77,6 +78,23 @@ public class WhenReportProgress extends MediaComposerTest {
         assertThat(progressListener).containsProgress(0f, 0.25f, 0.5f, 0.8f, 1f);
     }
 
+    @Test
+    public void coalesceProgress_WhenProgressIntervalSet() throws InterruptedException, OperationNotSupportedException {
+        mediaComposer = create.mediaComposer()
+                .withDuration(1000)
+                .with(a.frame().withTimeStamp(250).construct())
+                .with(a.frame().withTimeStamp(500).construct())
+                .with(a.frame().withTimeStamp(800).construct())
+                .with(progressListener).construct();
+
+        mediaComposer.setProgressInterval(60000);
+        mediaComposer.start();
+        waitUntilDone(progressListener);
+
+        assertThat(progressListener).containsProgress(0f, 1f);
+        Assert.assertFalse(progressListener.getProgress().contains(0.5f));
+    }
+
     @Test
     public void report_WhenProcessSegments() throws InterruptedException, OperationNotSupportedException {
         mediaComposer = create.mediaComposer()
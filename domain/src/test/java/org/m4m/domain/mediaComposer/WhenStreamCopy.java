@@ -0,0 +1,77 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mediaComposer;
+
+import org.junit.Test;
+import org.m4m.domain.FileSegment;
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.IMediaMuxer;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class WhenStreamCopy extends MediaComposerTest {
+    @Test
+    public void copiesSamplesWithoutDecoding() throws InterruptedException {
+        IMediaMuxer muxer = mock(IMediaMuxer.class);
+        IMediaCodec decoderMediaCodec = create.mediaCodec().construct();
+        mediaComposer = create.mediaComposer()
+                .withDuration(1000)
+                .with(a.frame().withTimeStamp(250).construct())
+                .with(a.frame().withTimeStamp(500).construct())
+                .with(a.frame().withTimeStamp(800).construct())
+                .withDecoderMediaCodec(decoderMediaCodec)
+                .with(muxer)
+                .with(progressListener).construct();
+
+        mediaComposer.setStreamCopy(true);
+        mediaComposer.start();
+        waitUntilDone(progressListener);
+
+        verify(muxer, times(3)).writeSampleData(anyInt(), any(ByteBuffer.class), any(IMediaCodec.BufferInfo.class));
+        verify(decoderMediaCodec, never()).queueInputBuffer(anyInt(), anyInt(), anyInt(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void canStreamCopy_WhenFormatsMatch() {
+        assertTrue(mediaComposer.canStreamCopy());
+    }
+
+    @Test
+    public void canNotStreamCopy_WithTimeScaling() {
+        mediaComposer.setVideoTimeScale(2, new FileSegment(0L, 100L));
+
+        assertFalse(mediaComposer.canStreamCopy());
+    }
+
+    @Test
+    public void canNotStreamCopy_WithRendition() throws IOException {
+        mediaComposer.addRendition("rendition.mp4", create.videoFormat().construct(), null);
+
+        assertFalse(mediaComposer.canStreamCopy());
+    }
+}
@@ -41,6 +41,20 @@ public class WhenTranscode extends MediaComposerTest {
         verify(mediaCodec).queueInputBuffer(anyInt(), anyInt(), anyInt(), eq(123L), anyInt());
     }
 
+    @Test
+    public void pushDataFromMediaSourceToDecoder_WhenParallelProcessing() throws InterruptedException {
+        Frame frame = create.frame().withTimeStamp(123).construct();
+        MediaSourceFather mediaSource = create.mediaSource().with(frame).with(Frame.EOF());
+        IMediaCodec mediaCodec = create.mediaCodec().construct();
+
+        mediaComposer = create.mediaComposer().withDecoderMediaCodec(mediaCodec).with(mediaSource).with(progressListener).construct();
+        mediaComposer.setParallelProcessing(true);
+        mediaComposer.start();
+        waitUntilDone(progressListener);
+
+        verify(mediaCodec).queueInputBuffer(anyInt(), anyInt(), anyInt(), eq(123L), anyInt());
+    }
+
     @Ignore
     @Test
     public void frameFromExtractorReachesMuxer() throws InterruptedException {
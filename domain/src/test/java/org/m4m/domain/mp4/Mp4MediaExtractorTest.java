@@ -0,0 +1,312 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.m4m.AudioFormat;
+import org.m4m.VideoFormat;
+import org.m4m.domain.IMediaExtractor;
+import org.m4m.domain.MediaSource;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class Mp4MediaExtractorTest {
+    private static final byte[] SPS = {0x67, 0x42, 0x00, 0x1e};
+    private static final byte[] PPS = {0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+    // Decode order I0 P3 B1 B2 I4, composition offsets shifted by an edit list of one frame.
+    private static final int[] VIDEO_COMPOSITION_OFFSETS = {3000, 9000, 0, 0, 3000};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private Mp4MediaExtractor extractor;
+
+    @Before
+    public void setUp() throws IOException {
+        File file = folder.newFile("test.mp4");
+        FileOutputStream output = new FileOutputStream(file);
+        output.write(createFile());
+        output.close();
+        extractor = new Mp4MediaExtractor(file.getPath());
+    }
+
+    @After
+    public void tearDown() {
+        extractor.release();
+    }
+
+    @Test
+    public void readsTrackFormats() {
+        assertEquals(2, extractor.getTrackCount());
+
+        VideoFormat videoFormat = (VideoFormat) extractor.getTrackFormat(0);
+        assertEquals("video/avc", videoFormat.getMimeType());
+        assertEquals(320, videoFormat.getVideoFrameSize().width());
+        assertEquals(240, videoFormat.getVideoFrameSize().height());
+        assertEquals(166666, videoFormat.getDuration());
+        assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1e}), videoFormat.getByteBuffer("csd-0"));
+        assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80}), videoFormat.getByteBuffer("csd-1"));
+
+        AudioFormat audioFormat = (AudioFormat) extractor.getTrackFormat(1);
+        assertEquals("audio/mp4a-latm", audioFormat.getMimeType());
+        assertEquals(44100, audioFormat.getAudioSampleRateInHz());
+        assertEquals(2, audioFormat.getAudioChannelCount());
+        assertEquals(ByteBuffer.wrap(AUDIO_CONFIG), audioFormat.getByteBuffer("csd-0"));
+    }
+
+    @Test
+    public void readsRotation() {
+        assertEquals(90, extractor.getRotation());
+    }
+
+    @Test
+    public void returnsSamplesOfSelectedTracksInDecodeOrder() {
+        extractor.selectTrack(0);
+        extractor.selectTrack(1);
+        extractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+
+        List<String> samples = new ArrayList<String>();
+        do {
+            samples.add(extractor.getSampleTrackIndex() + ":" + extractor.getSampleTime());
+        } while (extractor.advance());
+
+        assertEquals("[0:0, 0:100000, 1:0, 1:23219, 0:33333, 1:46439, 0:66666, 0:133333]", samples.toString());
+        assertEquals(-1, extractor.getSampleTrackIndex());
+        assertEquals(-1, extractor.readSampleData(ByteBuffer.allocate(16)));
+    }
+
+    @Test
+    public void skipsUnselectedTracks() {
+        extractor.selectTrack(1);
+
+        int count = 0;
+        do {
+            assertEquals(1, extractor.getSampleTrackIndex());
+            count++;
+        } while (extractor.advance());
+
+        assertEquals(3, count);
+    }
+
+    @Test
+    public void readsSampleDataWithStartCodes() {
+        extractor.selectTrack(0);
+        extractor.advance();
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        int size = extractor.readSampleData(buffer);
+
+        assertEquals(8, size);
+        assertEquals(0, buffer.position());
+        assertEquals(8, buffer.limit());
+        assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x41, 1, 1, 1}), buffer);
+        assertEquals(0, extractor.getSampleFlags());
+    }
+
+    @Test
+    public void readsSampleDataWithStartCodes_IntoLittleEndianBuffer() {
+        extractor.selectTrack(0);
+        extractor.advance();
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64).order(ByteOrder.LITTLE_ENDIAN);
+
+        int size = extractor.readSampleData(buffer);
+
+        assertEquals(8, size);
+        assertEquals(ByteBuffer.wrap(new byte[]{0, 0, 0, 1, 0x41, 1, 1, 1}), buffer);
+        assertEquals(ByteOrder.LITTLE_ENDIAN, buffer.order());
+    }
+
+    @Test
+    public void readsAudioSampleData() {
+        extractor.selectTrack(1);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+
+        assertEquals(6, extractor.readSampleData(buffer));
+        assertEquals(ByteBuffer.wrap(new byte[]{0x21, 0, 0, 0, 0, 0}), buffer);
+        assertEquals(IMediaExtractor.SAMPLE_FLAG_SYNC, extractor.getSampleFlags());
+    }
+
+    @Test
+    public void seeksToSyncSamples() {
+        extractor.selectTrack(0);
+
+        extractor.seekTo(50000, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        assertEquals(0, extractor.getSampleTime());
+
+        extractor.seekTo(50000, IMediaExtractor.SEEK_TO_NEXT_SYNC);
+        assertEquals(133333, extractor.getSampleTime());
+
+        extractor.seekTo(50000, IMediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(0, extractor.getSampleTime());
+
+        extractor.seekTo(100000, IMediaExtractor.SEEK_TO_CLOSEST_SYNC);
+        assertEquals(133333, extractor.getSampleTime());
+        assertEquals(IMediaExtractor.SAMPLE_FLAG_SYNC, extractor.getSampleFlags());
+
+        extractor.seekTo(140000, IMediaExtractor.SEEK_TO_NEXT_SYNC);
+        assertEquals(-1, extractor.getSampleTrackIndex());
+    }
+
+    @Test
+    public void feedsMediaSource() {
+        MediaSource source = new MediaSource(extractor);
+        source.selectTrack(0);
+
+        assertArrayEquals(new long[]{0, 133333}, source.getSyncSampleTimes());
+        assertEquals(166666, source.getDurationInMicroSec());
+    }
+
+    private static byte[] createFile() throws IOException {
+        byte[] ftyp = box("ftyp", bytes("isom"), ints(0x200), bytes("isomavc1"));
+
+        ByteArrayOutputStream mdat = new ByteArrayOutputStream();
+        int[] videoSizes = new int[5];
+        long[] videoChunks = new long[2];
+        int[] audioSizes = new int[3];
+        long[] audioChunks = new long[1];
+        long mdatStart = ftyp.length + 8;
+
+        videoChunks[0] = mdatStart + mdat.size();
+        for (int i = 0; i < 3; i++) {
+            videoSizes[i] = writeVideoSample(mdat, i);
+        }
+        audioChunks[0] = mdatStart + mdat.size();
+        for (int i = 0; i < 3; i++) {
+            byte[] sample = {0x21, 0, 0, 0, 0, (byte) i};
+            mdat.write(sample);
+            audioSizes[i] = sample.length;
+        }
+        videoChunks[1] = mdatStart + mdat.size();
+        for (int i = 3; i < 5; i++) {
+            videoSizes[i] = writeVideoSample(mdat, i);
+        }
+
+        byte[] videoEntry = box("avc1",
+                new byte[6], shorts(1), new byte[16], shorts(320, 240), ints(0x480000, 0x480000, 0), shorts(1),
+                new byte[32], shorts(0x18, -1),
+                box("avcC", new byte[]{1, 0x42, 0, 0x1e, (byte) 0xff, (byte) 0xe1}, shorts(SPS.length), SPS,
+                        new byte[]{1}, shorts(PPS.length), PPS));
+        byte[] videoTable = box("stbl",
+                box("stsd", ints(0, 1), videoEntry),
+                box("stts", ints(0, 1, 5, 3000)),
+                box("ctts", ints(0, 5), ints(1, VIDEO_COMPOSITION_OFFSETS[0], 1, VIDEO_COMPOSITION_OFFSETS[1],
+                        1, VIDEO_COMPOSITION_OFFSETS[2], 1, VIDEO_COMPOSITION_OFFSETS[3], 1, VIDEO_COMPOSITION_OFFSETS[4])),
+                box("stss", ints(0, 2, 1, 5)),
+                box("stsz", ints(0, 0, 5), ints(videoSizes)),
+                box("stsc", ints(0, 2, 1, 3, 1, 2, 2, 1)),
+                box("stco", ints(0, 2, (int) videoChunks[0], (int) videoChunks[1])));
+        byte[] videoTrack = box("trak",
+                trackHeader(1, 0, 0x10000, -0x10000, 0, 320, 240),
+                box("edts", box("elst", ints(0, 1, 15000, 3000, 0x10000))),
+                box("mdia",
+                        box("mdhd", ints(0, 0, 0, 90000, 15000, 0)),
+                        box("hdlr", ints(0, 0), bytes("vide"), new byte[13]),
+                        box("minf", videoTable)));
+
+        byte[] esds = box("esds", ints(0),
+                new byte[]{0x03, 23, 0, 2, 0},
+                new byte[]{0x04, 15, 0x40, 0x15, 0, 0, 0}, ints(128000, 128000),
+                new byte[]{0x05, 2}, AUDIO_CONFIG,
+                new byte[]{0x06, 1, 2});
+        byte[] audioEntry = box("mp4a", new byte[6], shorts(1), ints(0, 0), shorts(2, 16), ints(0), ints(44100 << 16), esds);
+        byte[] audioTable = box("stbl",
+                box("stsd", ints(0, 1), audioEntry),
+                box("stts", ints(0, 1, 3, 1024)),
+                box("stsz", ints(0, 0, 3), ints(audioSizes)),
+                box("stsc", ints(0, 1, 1, 3, 1)),
+                box("stco", ints(0, 1, (int) audioChunks[0])));
+        byte[] audioTrack = box("trak",
+                trackHeader(2, 0x10000, 0, 0, 0x10000, 0, 0),
+                box("mdia",
+                        box("mdhd", ints(0, 0, 0, 44100, 3072, 0)),
+                        box("hdlr", ints(0, 0), bytes("soun"), new byte[13]),
+                        box("minf", audioTable)));
+
+        byte[] moov = box("moov",
+                box("mvhd", ints(0, 0, 0, 1000, 166), new byte[80], ints(3)),
+                videoTrack, audioTrack);
+
+        ByteArrayOutputStream file = new ByteArrayOutputStream();
+        file.write(ftyp);
+        file.write(box("mdat", mdat.toByteArray()));
+        file.write(moov);
+        return file.toByteArray();
+    }
+
+    private static int writeVideoSample(ByteArrayOutputStream output, int index) throws IOException {
+        byte type = (byte) (index == 0 || index == 4 ? 0x65 : 0x41);
+        byte[] sample = {0, 0, 0, 4, type, (byte) index, (byte) index, (byte) index};
+        output.write(sample);
+        return sample.length;
+    }
+
+    private static byte[] trackHeader(int trackId, int a, int b, int c, int d, int width, int height) throws IOException {
+        return box("tkhd", ints(0x7, 0, 0, trackId, 0, 0), new byte[16],
+                ints(a, b, 0, c, d, 0, 0, 0, 0x40000000), ints(width << 16, height << 16));
+    }
+
+    static byte[] box(String type, byte[]... children) throws IOException {
+        ByteArrayOutputStream payload = new ByteArrayOutputStream();
+        for (byte[] child : children) {
+            payload.write(child);
+        }
+        ByteArrayOutputStream box = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(box);
+        output.writeInt(payload.size() + 8);
+        output.write(bytes(type));
+        output.write(payload.toByteArray());
+        return box.toByteArray();
+    }
+
+    static byte[] ints(int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (int value : values) {
+            output.writeInt(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] shorts(int... values) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream output = new DataOutputStream(bytes);
+        for (int value : values) {
+            output.writeShort(value);
+        }
+        return bytes.toByteArray();
+    }
+
+    static byte[] bytes(String value) {
+        return value.getBytes();
+    }
+}
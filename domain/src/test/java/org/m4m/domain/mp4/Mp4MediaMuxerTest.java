@@ -0,0 +1,240 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.mp4;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.m4m.AudioFormat;
+import org.m4m.VideoFormat;
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.IMediaExtractor;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class Mp4MediaMuxerTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1e, 0x01};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+    // Decode order I0 P3 B1 B2 I4 P5
+    private static final long[] VIDEO_TIMES = {0, 100000, 33333, 66666, 133333, 166666};
+    private static final long[] AUDIO_TIMES = {0, 23219, 46439, 69659, 92879, 116099, 139319};
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    @Test
+    public void writesReadableFile() throws IOException {
+        File file = folder.newFile("out.mp4");
+        Mp4MediaMuxer muxer = new Mp4MediaMuxer(file.getPath(), Mp4MediaMuxer.OUTPUT_FORMAT_MPEG_4);
+        writeSamples(muxer, true);
+        muxer.stop();
+        muxer.release();
+
+        assertEquals("[ftyp, mdat, moov]", readTopLevelBoxes(file).toString());
+        verifyContent(file);
+    }
+
+    @Test
+    public void writesMovieBoxFirstWithFaststart() throws IOException {
+        File file = folder.newFile("out.mp4");
+        Mp4MediaMuxer muxer = new Mp4MediaMuxer(file.getPath(), Mp4MediaMuxer.OUTPUT_FORMAT_MPEG_4);
+        muxer.setFaststart(true);
+        writeSamples(muxer, true);
+        muxer.stop();
+        muxer.release();
+
+        assertEquals("[ftyp, moov, mdat]", readTopLevelBoxes(file).toString());
+        verifyContent(file);
+    }
+
+    @Test
+    public void writesFragmentedFile() throws IOException {
+        File file = folder.newFile("out.mp4");
+        Mp4MediaMuxer muxer = new Mp4MediaMuxer(file.getPath(), Mp4MediaMuxer.OUTPUT_FORMAT_FRAGMENTED_MPEG_4);
+        muxer.setFragmentDuration(100000);
+        writeSamples(muxer, true);
+        muxer.stop();
+        muxer.release();
+
+        assertEquals("[ftyp, moov, moof, mdat, moof, mdat]", readTopLevelBoxes(file).toString());
+        verifyContent(file);
+    }
+
+    @Test
+    public void completeFragmentsAreReadableBeforeStop() throws IOException {
+        File file = folder.newFile("out.mp4");
+        Mp4MediaMuxer muxer = new Mp4MediaMuxer(file.getPath(), Mp4MediaMuxer.OUTPUT_FORMAT_FRAGMENTED_MPEG_4);
+        muxer.setFragmentDuration(100000);
+        writeSamples(muxer, true);
+
+        Mp4MediaExtractor extractor = new Mp4MediaExtractor(file.getPath());
+        extractor.selectTrack(0);
+        List<Long> times = readSampleTimes(extractor);
+        assertEquals(4, times.size());
+        for (int i = 0; i < times.size(); i++) {
+            assertTime(VIDEO_TIMES[i], times.get(i));
+        }
+        extractor.release();
+        muxer.release();
+    }
+
+    @Test
+    public void takesCodecConfigFromConfigBuffers() throws IOException {
+        File file = folder.newFile("out.mp4");
+        Mp4MediaMuxer muxer = new Mp4MediaMuxer(file.getPath(), Mp4MediaMuxer.OUTPUT_FORMAT_MPEG_4);
+        writeSamples(muxer, false);
+        muxer.stop();
+        muxer.release();
+
+        verifyContent(file);
+    }
+
+    private static void writeSamples(Mp4MediaMuxer muxer, boolean configInFormat) {
+        Mp4VideoFormat videoFormat = new Mp4VideoFormat("video/avc", 320, 240);
+        Mp4AudioFormat audioFormat = new Mp4AudioFormat("audio/mp4a-latm", 44100, 2);
+        if (configInFormat) {
+            videoFormat.setByteBuffer("csd-0", ByteBuffer.wrap(SPS));
+            videoFormat.setByteBuffer("csd-1", ByteBuffer.wrap(PPS));
+            audioFormat.setByteBuffer("csd-0", ByteBuffer.wrap(AUDIO_CONFIG));
+        }
+        int videoTrack = muxer.addTrack(videoFormat);
+        int audioTrack = muxer.addTrack(audioFormat);
+        muxer.setOrientationHint(90);
+        muxer.start();
+
+        if (!configInFormat) {
+            ByteBuffer config = ByteBuffer.allocate(SPS.length + PPS.length).put(SPS).put(PPS);
+            config.flip();
+            muxer.writeSampleData(videoTrack, config, bufferInfo(0, config.remaining(), IMediaCodec.BUFFER_FLAG_CODEC_CONFIG));
+            muxer.writeSampleData(audioTrack, ByteBuffer.wrap(AUDIO_CONFIG), bufferInfo(0, 2, IMediaCodec.BUFFER_FLAG_CODEC_CONFIG));
+        }
+
+        int audioSample = 0;
+        for (int i = 0; i < VIDEO_TIMES.length; i++) {
+            while (audioSample < AUDIO_TIMES.length && AUDIO_TIMES[audioSample] <= VIDEO_TIMES[i]) {
+                muxer.writeSampleData(audioTrack, ByteBuffer.wrap(audioSample(audioSample)), bufferInfo(AUDIO_TIMES[audioSample], 4, 0));
+                audioSample++;
+            }
+            ByteBuffer sample = ByteBuffer.wrap(videoSample(i));
+            muxer.writeSampleData(videoTrack, sample, bufferInfo(VIDEO_TIMES[i], sample.remaining(), isSync(i) ? 1 : 0));
+        }
+        while (audioSample < AUDIO_TIMES.length) {
+            muxer.writeSampleData(audioTrack, ByteBuffer.wrap(audioSample(audioSample)), bufferInfo(AUDIO_TIMES[audioSample], 4, 0));
+            audioSample++;
+        }
+    }
+
+    private static void verifyContent(File file) throws IOException {
+        Mp4MediaExtractor extractor = new Mp4MediaExtractor(file.getPath());
+        assertEquals(2, extractor.getTrackCount());
+        assertEquals(90, extractor.getRotation());
+
+        VideoFormat videoFormat = (VideoFormat) extractor.getTrackFormat(0);
+        assertEquals("video/avc", videoFormat.getMimeType());
+        assertEquals(320, videoFormat.getVideoFrameSize().width());
+        assertEquals(ByteBuffer.wrap(SPS), videoFormat.getByteBuffer("csd-0"));
+        assertEquals(ByteBuffer.wrap(PPS), videoFormat.getByteBuffer("csd-1"));
+        AudioFormat audioFormat = (AudioFormat) extractor.getTrackFormat(1);
+        assertEquals("audio/mp4a-latm", audioFormat.getMimeType());
+        assertEquals(44100, audioFormat.getAudioSampleRateInHz());
+        assertEquals(ByteBuffer.wrap(AUDIO_CONFIG), audioFormat.getByteBuffer("csd-0"));
+
+        extractor.selectTrack(0);
+        ByteBuffer buffer = ByteBuffer.allocate(64);
+        for (int i = 0; i < VIDEO_TIMES.length; i++) {
+            assertTime(VIDEO_TIMES[i], extractor.getSampleTime());
+            assertEquals(isSync(i) ? IMediaExtractor.SAMPLE_FLAG_SYNC : 0, extractor.getSampleFlags());
+            extractor.readSampleData(buffer);
+            assertEquals(ByteBuffer.wrap(videoSample(i)), buffer);
+            extractor.advance();
+        }
+        assertEquals(-1, extractor.getSampleTrackIndex());
+
+        extractor.unselectTrack(0);
+        extractor.selectTrack(1);
+        extractor.seekTo(0, IMediaExtractor.SEEK_TO_PREVIOUS_SYNC);
+        for (int i = 0; i < AUDIO_TIMES.length; i++) {
+            assertTime(AUDIO_TIMES[i], extractor.getSampleTime());
+            extractor.readSampleData(buffer);
+            assertEquals(ByteBuffer.wrap(audioSample(i)), buffer);
+            extractor.advance();
+        }
+        assertEquals(-1, extractor.getSampleTrackIndex());
+        extractor.release();
+    }
+
+    private static List<Long> readSampleTimes(IMediaExtractor extractor) {
+        List<Long> times = new ArrayList<Long>();
+        while (extractor.getSampleTrackIndex() != -1) {
+            times.add(extractor.getSampleTime());
+            extractor.advance();
+        }
+        return times;
+    }
+
+    private static void assertTime(long expected, long actual) {
+        assertTrue("expected " + expected + " but was " + actual, Math.abs(expected - actual) <= 25);
+    }
+
+    private static List<String> readTopLevelBoxes(File file) throws IOException {
+        List<String> boxes = new ArrayList<String>();
+        RandomAccessFile input = new RandomAccessFile(file, "r");
+        long position = 0;
+        while (position + 8 <= input.length()) {
+            input.seek(position);
+            long size = input.readInt() & 0xffffffffL;
+            byte[] type = new byte[4];
+            input.readFully(type);
+            if (size == 1) {
+                size = input.readLong();
+            }
+            boxes.add(new String(type));
+            position += size;
+        }
+        input.close();
+        return boxes;
+    }
+
+    private static boolean isSync(int sample) {
+        return sample == 0 || sample == 4;
+    }
+
+    private static byte[] videoSample(int sample) {
+        return new byte[]{0, 0, 0, 1, (byte) (isSync(sample) ? 0x65 : 0x41), (byte) (sample + 1), 0, 0, 0, 1, 0x06, (byte) (sample + 1)};
+    }
+
+    private static byte[] audioSample(int sample) {
+        return new byte[]{0x21, (byte) sample, 1, 2};
+    }
+
+    private static IMediaCodec.BufferInfo bufferInfo(long presentationTimeUs, int size, int flags) {
+        IMediaCodec.BufferInfo info = new IMediaCodec.BufferInfo();
+        info.presentationTimeUs = presentationTimeUs;
+        info.size = size;
+        info.flags = flags;
+        return info;
+    }
+}
@@ -27,6 +27,7 @@ import org.m4m.domain.MediaSource;
 import org.m4m.domain.Pair;
 import org.m4m.domain.TestBase;
 import org.m4m.domain.VideoDecoder;
+import org.m4m.domain.commandHandler.SpyCommandHandler;
 
 import static org.hamcrest.CoreMatchers.instanceOf;
 
@@ -48,4 +49,53 @@ public class CommandHandlerFactoryTest extends TestBase {
         ICommandHandler commandHandler = commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new ProgressListenerFake());
         Assert.assertThat(commandHandler, instanceOf(PushDataCommandHandler.class));
     }
+
+    @Test
+    public void reusesSharedHandler() {
+        final MediaSource mediaSource = create.mediaSource().construct();
+        final VideoDecoder decoder = create.videoDecoder().construct();
+        PushDataCommandHandler handler = new PushDataCommandHandler(mediaSource, decoder, decoder);
+
+        CommandHandlerFactory commandHandlerFactory = new CommandHandlerFactory();
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.HasData, 1), new Pair<Command, Integer>(Command.NeedData, 1), handler);
+
+        Assert.assertSame(handler, commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 1), new Pair<Command, Integer>(Command.NeedData, 1), new ProgressListenerFake()));
+        Assert.assertSame(handler, commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 1), new Pair<Command, Integer>(Command.NeedData, 1), new ProgressListenerFake()));
+    }
+
+    @Test
+    public void dispatchesByCommandsAndTrack() {
+        ICommandHandler pushTrack0 = new SpyCommandHandler(null);
+        ICommandHandler pushTrack1 = new SpyCommandHandler(null);
+        ICommandHandler eofTrack1 = new SpyCommandHandler(null);
+
+        CommandHandlerFactory commandHandlerFactory = new CommandHandlerFactory();
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), pushTrack0);
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.HasData, 1), new Pair<Command, Integer>(Command.NeedData, 1), pushTrack1);
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.EndOfFile, 1), new Pair<Command, Integer>(Command.NeedData, 1), eofTrack1);
+
+        Assert.assertSame(pushTrack0, commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new ProgressListenerFake()));
+        Assert.assertSame(pushTrack1, commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 1), new Pair<Command, Integer>(Command.NeedData, 1), new ProgressListenerFake()));
+        Assert.assertSame(eofTrack1, commandHandlerFactory.create(new Pair<Command, Integer>(Command.EndOfFile, 1), new Pair<Command, Integer>(Command.NeedData, 1), new ProgressListenerFake()));
+    }
+
+    @Test
+    public void firstRegisteredHandlerWins() {
+        ICommandHandler first = new SpyCommandHandler(null);
+        ICommandHandler second = new SpyCommandHandler(null);
+
+        CommandHandlerFactory commandHandlerFactory = new CommandHandlerFactory();
+        commandHandlerFactory.register(null, new Pair<Command, Integer>(Command.NeedData, 0), first);
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), second);
+
+        Assert.assertSame(first, commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new ProgressListenerFake()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void throwsForUnregisteredPair() {
+        CommandHandlerFactory commandHandlerFactory = new CommandHandlerFactory();
+        commandHandlerFactory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new SpyCommandHandler(null));
+
+        commandHandlerFactory.create(new Pair<Command, Integer>(Command.HasData, 2), new Pair<Command, Integer>(Command.NeedData, 2), new ProgressListenerFake());
+    }
 }
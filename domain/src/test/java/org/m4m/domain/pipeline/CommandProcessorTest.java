@@ -21,19 +21,31 @@ import org.junit.Before;
 import org.junit.Ignore;
 import org.junit.Test;
 import org.m4m.domain.Command;
+import org.m4m.domain.CommandHandlerFactory;
+import org.m4m.domain.CommandProcessor;
+import org.m4m.domain.CommandQueue;
 import org.m4m.domain.Frame;
+import org.m4m.domain.ICommandHandler;
+import org.m4m.domain.IHandlerCreator;
+import org.m4m.domain.IInputRaw;
 import org.m4m.domain.IMediaCodec;
 import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.IOutputRaw;
 import org.m4m.domain.MediaFormatType;
 import org.m4m.domain.MediaSource;
 import org.m4m.domain.MultipleMediaSource;
+import org.m4m.domain.OutputInputPair;
+import org.m4m.domain.Pair;
 import org.m4m.domain.PassThroughPlugin;
+import org.m4m.domain.ProgressListenerStub;
 import org.m4m.domain.Render;
 import org.m4m.domain.TestBase;
 import org.m4m.domain.VideoDecoder;
 
 import javax.naming.OperationNotSupportedException;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.verify;
@@ -193,6 +205,136 @@ public class CommandProcessorTest extends TestBase {
         assertThat(commandProcessor).processed(multipleMediaSource, decoder);
     }
 
+    @Test
+    public void frameFromExtractorReachesMuxer_WhenIdleParkingEnabled() {
+        Frame frame = create.frame(1, 2, 3).withFlag(8).withTimeStamp(555).withTrackId(0).construct();
+        final MediaSource mediaSource = create.mediaSource()
+            .with(frame)
+            .with(Frame.EOF())
+            .construct();
+        mediaSource.selectTrack(0);
+        mediaSource.start();
+
+        final PassThroughPlugin passThroughPlugin = new PassThroughPlugin(frame.getLength(), MediaFormatType.VIDEO);
+        passThroughPlugin.setMediaFormat(create.videoFormat().construct());
+        passThroughPlugin.setTrackId(0);
+
+        IMediaMuxer muxer = create.mediaMuxer().construct();
+        final Render render = create.render().with(muxer).construct();
+        render.configure();
+
+        final CommandProcessorSpy commandProcessor = create.commandProcessor()
+            .withPushFrameModel(mediaSource, passThroughPlugin, passThroughPlugin)
+            .withPullFrameModel(passThroughPlugin, render)
+            .construct();
+        commandProcessor.setIdleTimeout(10);
+
+        render.addOnStopListener(new IOnStopListener() {
+            @Override
+            public void onStop() {
+                commandProcessor.stop();
+            }
+        });
+
+        commandProcessor.process();
+
+        verify(muxer).writeSampleData(eq(0), eq(create.byteBuffer(1, 2, 3)), any(IMediaCodec.BufferInfo.class));
+        assertThat(commandProcessor)
+            .processed(mediaSource, passThroughPlugin)
+            .processed(passThroughPlugin, render);
+    }
+
+    @Test
+    public void parksWhileNoCommandsMatch() throws InterruptedException {
+        final CommandProcessor commandProcessor = new CommandProcessor(new ProgressListenerStub());
+        commandProcessor.setIdleTimeout(10000);
+        commandProcessor.add(new OutputInputPair(new QueueOutput(), new QueueInput(), new CommandHandlerFactory()));
+
+        Thread thread = startProcessing(commandProcessor);
+        Thread.sleep(100);
+        commandProcessor.stop();
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertEquals(1, commandProcessor.getIdleCyclesAvoided());
+    }
+
+    @Test
+    public void wakesUpWhenCommandQueued() throws InterruptedException {
+        final CommandProcessor commandProcessor = new CommandProcessor(new ProgressListenerStub());
+        commandProcessor.setIdleTimeout(10000);
+        QueueOutput output = new QueueOutput();
+        QueueInput input = new QueueInput();
+        CommandHandlerFactory factory = new CommandHandlerFactory();
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), new IHandlerCreator() {
+            @Override
+            public ICommandHandler create() {
+                return new ICommandHandler() {
+                    @Override
+                    public void handle() {
+                        commandProcessor.stop();
+                    }
+                };
+            }
+        });
+        commandProcessor.add(new OutputInputPair(output, input, factory));
+
+        Thread thread = startProcessing(commandProcessor);
+        Thread.sleep(100);
+        input.getInputCommandQueue().queue(Command.NeedData, 0);
+        output.getOutputCommandQueue().queue(Command.HasData, 0);
+        thread.join(1000);
+
+        assertFalse(thread.isAlive());
+        assertThat(output.getOutputCommandQueue()).isEmpty();
+        assertThat(input.getInputCommandQueue()).isEmpty();
+    }
+
+    private Thread startProcessing(final CommandProcessor commandProcessor) {
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                commandProcessor.process();
+            }
+        });
+        thread.start();
+        return thread;
+    }
+
+    private static class QueueOutput implements IOutputRaw {
+        private final CommandQueue commandQueue = new CommandQueue();
+
+        @Override
+        public boolean canConnectFirst(IInputRaw connector) {
+            return true;
+        }
+
+        @Override
+        public CommandQueue getOutputCommandQueue() {
+            return commandQueue;
+        }
+
+        @Override
+        public void fillCommandQueues() {}
+    }
+
+    private static class QueueInput implements IInputRaw {
+        private final CommandQueue commandQueue = new CommandQueue();
+
+        @Override
+        public boolean canConnectFirst(IOutputRaw connector) {
+            return true;
+        }
+
+        @Override
+        public CommandQueue getInputCommandQueue() {
+            return commandQueue;
+        }
+
+        @Override
+        public void fillCommandQueues() {}
+    }
+
     private void waitUntilDone() throws InterruptedException {
         while (!onDone[0]) {
             Thread.sleep(100);
@@ -19,13 +19,18 @@ package org.m4m.domain.pipeline;
 import org.junit.Before;
 import org.junit.Test;
 import org.m4m.domain.AudioEncoder;
+import org.m4m.domain.Command;
+import org.m4m.domain.Encoder;
 import org.m4m.domain.Frame;
 import org.m4m.domain.IMediaCodec;
 import org.m4m.domain.TestBase;
 import org.m4m.domain.VideoDecoder;
 
+import java.util.Collections;
+
 import static org.mockito.Matchers.*;
 import static org.mockito.Mockito.atLeastOnce;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 public class CopyDataCommandHandlerTest extends TestBase {
@@ -53,6 +58,30 @@ public class CopyDataCommandHandlerTest extends TestBase {
         verify(mediaCodec).queueInputBuffer(eq(0), anyInt(), anyInt(), anyLong(), anyInt());
     }
 
+    @Test
+    public void copiesFrameIntoRenditions() {
+        IMediaCodec renditionMediaCodec = create.mediaCodec().withInputBuffer(0).construct();
+        AudioEncoder rendition = create.audioEncoder().with(renditionMediaCodec).construct();
+        rendition.start();
+        rendition.fillCommandQueues();
+
+        new CopyDataCommandHandler(decoder, encoder, Collections.<Encoder>singletonList(rendition)).handle();
+
+        verify(mediaCodec).queueInputBuffer(eq(0), anyInt(), anyInt(), anyLong(), anyInt());
+        verify(renditionMediaCodec).queueInputBuffer(eq(0), anyInt(), anyInt(), anyLong(), anyInt());
+    }
+
+    @Test
+    public void keepsFrameInOutput_WhenRenditionHasNoFreeBuffer() {
+        AudioEncoder rendition = create.audioEncoder().construct();
+        rendition.start();
+
+        new CopyDataCommandHandler(decoder, encoder, Collections.<Encoder>singletonList(rendition)).handle();
+
+        verify(mediaCodec, never()).queueInputBuffer(anyInt(), anyInt(), anyInt(), anyLong(), anyInt());
+        assertThat(decoder.getOutputCommandQueue()).contains(Command.HasData, 0);
+    }
+
     @Test
     public void handleEof() {
         decoder = create.videoDecoder().whichDecodesTo(Frame.EOF()).construct();
@@ -16,6 +16,7 @@
 
 package org.m4m.domain.pipeline;
 
+import org.m4m.AudioFormat;
 import org.m4m.IProgressListener;
 import org.m4m.VideoFormat;
 import org.m4m.domain.TestBase;
@@ -25,11 +26,18 @@ import org.m4m.domain.Command;
 import org.m4m.domain.Frame;
 import org.m4m.domain.IMediaCodec;
 import org.m4m.domain.IMediaMuxer;
+import org.m4m.domain.IPluginOutput;
 import org.m4m.domain.MuxRender;
 import org.m4m.domain.ProgressTracker;
 
+import org.mockito.InOrder;
+
 import java.io.IOException;
+import java.nio.ByteBuffer;
 
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.*;
 
 
@@ -200,4 +208,49 @@ public class MuxRenderTest extends TestBase {
         Assert.assertEquals(expectedVideoFormat, actualVideoFormat);
         Assert.assertEquals(expectedAudioFormat, actualAudioFormat);
     }
+
+    @Test
+    public void pushWithReleaser_releasesOutputBuffer_WhileSampleWaitsForOtherTrack() {
+        IMediaMuxer muxer = mock(IMediaMuxer.class);
+        VideoFormat videoFormat = mock(VideoFormat.class);
+        AudioFormat audioFormat = mock(AudioFormat.class);
+        when(muxer.addTrack(videoFormat)).thenReturn(0);
+        when(muxer.addTrack(audioFormat)).thenReturn(1);
+        MuxRender muxRender = (MuxRender) create.muxRender().with(muxer).construct();
+        muxRender.configure();
+        muxRender.configure();
+        muxRender.setMediaFormat(videoFormat);
+        muxRender.setMediaFormat(audioFormat);
+        muxRender.start();
+        IPluginOutput releaser = mock(IPluginOutput.class);
+
+        muxRender.pushWithReleaser(create.frame(1).withTimeStamp(100).withTrackId(0).withInputBufferIndex(3).construct(), releaser);
+
+        verify(releaser).releaseOutputBuffer(3);
+        verify(muxer, never()).writeSampleData(anyInt(), any(ByteBuffer.class), any(IMediaCodec.BufferInfo.class));
+    }
+
+    @Test
+    public void push_writesSamplesOfBothTracksInPresentationTimeOrder() {
+        IMediaMuxer muxer = mock(IMediaMuxer.class);
+        VideoFormat videoFormat = mock(VideoFormat.class);
+        AudioFormat audioFormat = mock(AudioFormat.class);
+        when(muxer.addTrack(videoFormat)).thenReturn(0);
+        when(muxer.addTrack(audioFormat)).thenReturn(1);
+        MuxRender muxRender = (MuxRender) create.muxRender().with(muxer).construct();
+        muxRender.configure();
+        muxRender.configure();
+        muxRender.setMediaFormat(videoFormat);
+        muxRender.setMediaFormat(audioFormat);
+        muxRender.start();
+
+        muxRender.push(create.frame(1).withTimeStamp(100).withTrackId(0).construct());
+        muxRender.push(create.frame(2).withTimeStamp(50).withTrackId(1).construct());
+        muxRender.push(create.frame(3).withTimeStamp(150).withTrackId(1).construct());
+
+        InOrder inOrder = inOrder(muxer);
+        inOrder.verify(muxer).writeSampleData(eq(1), eq(create.byteBuffer(2)), any(IMediaCodec.BufferInfo.class));
+        inOrder.verify(muxer).writeSampleData(eq(0), eq(create.byteBuffer(1)), any(IMediaCodec.BufferInfo.class));
+        verify(muxer, times(2)).writeSampleData(anyInt(), any(ByteBuffer.class), any(IMediaCodec.BufferInfo.class));
+    }
 }
@@ -0,0 +1,173 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.m4m.domain.pipeline;
+
+import org.junit.Test;
+import org.m4m.domain.Command;
+import org.m4m.domain.CommandHandlerFactory;
+import org.m4m.domain.CommandQueue;
+import org.m4m.domain.ICommandHandler;
+import org.m4m.domain.IInputRaw;
+import org.m4m.domain.IOutputRaw;
+import org.m4m.domain.OutputInputPair;
+import org.m4m.domain.Pair;
+import org.m4m.domain.ParallelCommandProcessor;
+import org.m4m.domain.ProgressListenerStub;
+import org.m4m.domain.TestBase;
+import org.m4m.domain.VideoDecoder;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ParallelCommandProcessorTest extends TestBase {
+    private final ParallelCommandProcessor commandProcessor = new ParallelCommandProcessor(new ProgressListenerStub());
+    private final Node source = new Node();
+    private final Node sink = new Node();
+
+    @Test
+    public void processesIndependentChainsConcurrently() {
+        commandProcessor.setIdleTimeout(10);
+        final CountDownLatch secondChainHandled = new CountDownLatch(1);
+        final boolean[] chainsOverlapped = {false};
+
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {
+                try {
+                    chainsOverlapped[0] = secondChainHandled.await(1, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    e.printStackTrace();
+                }
+                commandProcessor.stop();
+            }
+        });
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {
+                secondChainHandled.countDown();
+            }
+        });
+
+        commandProcessor.process();
+
+        assertEquals(2, commandProcessor.getWorkersCount());
+        assertTrue(chainsOverlapped[0]);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void rethrowsFailureOfAnyChain() {
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {
+                throw new IllegalStateException();
+            }
+        });
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {}
+        });
+
+        commandProcessor.process();
+    }
+
+    @Test
+    public void keepsSingleWorkerForSingleChain() {
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {
+                commandProcessor.stop();
+            }
+        });
+
+        commandProcessor.process();
+
+        assertEquals(1, commandProcessor.getWorkersCount());
+    }
+
+    @Test
+    public void runsVideoChainOnCallingThread() {
+        final Thread[] videoThread = {null};
+        VideoDecoder videoDecoder = create.videoDecoder().construct();
+
+        addChain(videoDecoder, new ICommandHandler() {
+            @Override
+            public void handle() {
+                videoThread[0] = Thread.currentThread();
+                commandProcessor.stop();
+            }
+        });
+        addChain(new ICommandHandler() {
+            @Override
+            public void handle() {}
+        });
+
+        commandProcessor.process();
+
+        assertEquals(Thread.currentThread(), videoThread[0]);
+    }
+
+    private void addChain(ICommandHandler handler) {
+        addChain(new Node(), handler);
+    }
+
+    /**
+     * Adds chain source -> decoder -> encoder -> sink, where only decoder -> encoder has a command to handle.
+     */
+    private <T extends IOutputRaw & IInputRaw> void addChain(T decoder, ICommandHandler handler) {
+        Node encoder = new Node();
+        decoder.getOutputCommandQueue().queue(Command.HasData, 0);
+        encoder.getInputCommandQueue().queue(Command.NeedData, 0);
+
+        CommandHandlerFactory factory = new CommandHandlerFactory();
+        factory.register(new Pair<Command, Integer>(Command.HasData, 0), new Pair<Command, Integer>(Command.NeedData, 0), handler);
+
+        commandProcessor.add(new OutputInputPair(source, decoder, new CommandHandlerFactory()));
+        commandProcessor.add(new OutputInputPair(decoder, encoder, factory));
+        commandProcessor.add(new OutputInputPair(encoder, sink, new CommandHandlerFactory()));
+    }
+
+    private static class Node implements IOutputRaw, IInputRaw {
+        private final CommandQueue inputCommandQueue = new CommandQueue();
+        private final CommandQueue outputCommandQueue = new CommandQueue();
+
+        @Override
+        public boolean canConnectFirst(IInputRaw connector) {
+            return true;
+        }
+
+        @Override
+        public boolean canConnectFirst(IOutputRaw connector) {
+            return true;
+        }
+
+        @Override
+        public CommandQueue getInputCommandQueue() {
+            return inputCommandQueue;
+        }
+
+        @Override
+        public CommandQueue getOutputCommandQueue() {
+            return outputCommandQueue;
+        }
+
+        @Override
+        public void fillCommandQueues() {}
+    }
+}
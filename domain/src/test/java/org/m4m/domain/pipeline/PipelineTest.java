@@ -17,18 +17,24 @@
 package org.m4m.domain.pipeline;
 
 import org.junit.Test;
+import org.mockito.ArgumentCaptor;
 import org.m4m.domain.AudioDecoder;
 import org.m4m.domain.AudioEffector;
 import org.m4m.domain.AudioEncoder;
 import org.m4m.domain.CommandProcessor;
+import org.m4m.domain.ICommandProcessor;
 import org.m4m.domain.ISurface;
 import org.m4m.domain.Pipeline;
+import org.m4m.domain.Render;
 import org.m4m.domain.TestBase;
 import org.m4m.domain.VideoDecoder;
 import org.m4m.domain.VideoEncoder;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
 
 public class PipelineTest extends TestBase {
     @Test
@@ -46,6 +52,25 @@ public class PipelineTest extends TestBase {
     }
 
 
+    @Test
+    public void stopsCommandProcessor_WhenMainAndRenditionSinksStopped() {
+        ICommandProcessor commandProcessor = mock(ICommandProcessor.class);
+        Render sink = mock(Render.class);
+        Render renditionSink = mock(Render.class);
+        Pipeline pipeline = new Pipeline(commandProcessor);
+        pipeline.setSink(sink);
+        pipeline.addRendition(create.videoEncoder().construct(), renditionSink);
+        pipeline.addRendition(create.audioEncoder().construct(), renditionSink);
+
+        ArgumentCaptor<IOnStopListener> listener = ArgumentCaptor.forClass(IOnStopListener.class);
+        verify(renditionSink).addOnStopListener(listener.capture());
+        listener.getValue().onStop();
+        verify(commandProcessor, never()).stop();
+
+        listener.getValue().onStop();
+        verify(commandProcessor).stop();
+    }
+
     @Test
     public void connectorFactoryWithoutAudioFormat_ConnectAudioDecoderEncoder_UnsupportedOperationException() {
         CommandProcessor commandProcessor = create.commandProcessor().construct();
@@ -0,0 +1,174 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import org.junit.After;
+import org.junit.Test;
+import org.m4m.domain.IMediaCodec;
+import org.m4m.domain.mp4.Mp4AudioFormat;
+import org.m4m.domain.mp4.Mp4VideoFormat;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class RtmpMediaMuxerTest {
+    private static final byte[] SPS = {0, 0, 0, 1, 0x67, 0x42, 0x00, 0x1e, 0x01};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80};
+    private static final byte[] AUDIO_CONFIG = {0x12, 0x10};
+    private static final byte[] KEY_FRAME = {0, 0, 0, 1, 0x65, 1, 2, 3};
+    private static final byte[] INTER_FRAME = {0, 0, 1, 0x41, 4, 5};
+    private static final byte[] AUDIO_FRAME = {0x21, 0x22, 0x23};
+
+    private RtmpServerStub server;
+
+    @After
+    public void tearDown() throws IOException {
+        server.close();
+    }
+
+    @Test
+    public void publishesSamplesAsFlvTags() throws Exception {
+        server = new RtmpServerStub(false);
+        RtmpMediaMuxer muxer = new RtmpMediaMuxer("127.0.0.1", server.getPort(), "live", "test");
+        int videoTrack = muxer.addTrack(createVideoFormat());
+        int audioTrack = muxer.addTrack(createAudioFormat());
+        muxer.start();
+
+        write(muxer, videoTrack, KEY_FRAME, 0, 1);
+        write(muxer, audioTrack, AUDIO_FRAME, 10000, 0);
+        write(muxer, videoTrack, INTER_FRAME, 40000, 0);
+        muxer.stop();
+
+        assertTrue(muxer.awaitClosed(5000));
+        assertTrue(server.awaitClosed(5000));
+        assertNull(muxer.getError());
+        assertEquals(Arrays.<Object>asList("connect", "releaseStream", "FCPublish", "createStream", "publish", "FCUnpublish", "deleteStream"),
+                server.getCommandNames());
+        assertEquals("onMetaData", Amf0.read(server.getMessages(RtmpMessage.DATA_AMF0).get(0).payload).get(1));
+
+        List<RtmpMessage> video = server.getMessages(RtmpMessage.VIDEO);
+        assertEquals(3, video.size());
+        assertPayload(video.get(0), 0x17, 0, 0, 0, 0, 1, 0x42, 0x00, 0x1e, 0xff, 0xe1, 0, 5, 0x67, 0x42, 0x00, 0x1e, 0x01, 1, 0, 4, 0x68, 0xce, 0x3c, 0x80);
+        assertPayload(video.get(1), 0x17, 1, 0, 0, 0, 0, 0, 0, 4, 0x65, 1, 2, 3);
+        assertPayload(video.get(2), 0x27, 1, 0, 0, 0, 0, 0, 0, 3, 0x41, 4, 5);
+        assertEquals(40, video.get(2).timestamp);
+        assertEquals(1, video.get(2).streamId);
+
+        List<RtmpMessage> audio = server.getMessages(RtmpMessage.AUDIO);
+        assertEquals(2, audio.size());
+        assertPayload(audio.get(0), 0xaf, 0, 0x12, 0x10);
+        assertPayload(audio.get(1), 0xaf, 1, 0x21, 0x22, 0x23);
+        assertEquals(10, audio.get(1).timestamp);
+    }
+
+    @Test
+    public void dropsVideoInsteadOfBlocking_WhenServerStopsReading() throws Exception {
+        server = new RtmpServerStub(true);
+        RtmpMediaMuxer muxer = new RtmpMediaMuxer("127.0.0.1", server.getPort(), "live", "test");
+        muxer.setSendQueueSize(256 * 1024);
+        int videoTrack = muxer.addTrack(createVideoFormat());
+        muxer.start();
+        assertTrue(server.awaitPublished(5000));
+
+        byte[] frame = new byte[64 * 1024];
+        frame[3] = 1;
+        long startTime = System.currentTimeMillis();
+        for (int i = 0; i < 500; i++) {
+            frame[4] = (byte) (i % 30 == 0 ? 0x65 : 0x41);
+            write(muxer, videoTrack, frame, i * 33333L, i % 30 == 0 ? 1 : 0);
+        }
+
+        assertTrue(System.currentTimeMillis() - startTime < 5000);
+        assertTrue(muxer.getDroppedVideoFrames() > 0);
+        assertTrue(muxer.getSendQueueBytes() <= 256 * 1024);
+        muxer.stop();
+
+        assertTrue(muxer.awaitClosed(15000));
+        assertNotNull(muxer.getError());
+    }
+
+    @Test
+    public void answersPingAheadOfQueuedMedia() throws Exception {
+        server = new RtmpServerStub(false);
+        server.sendPingBeforePublish();
+        RtmpMediaMuxer muxer = new RtmpMediaMuxer("127.0.0.1", server.getPort(), "live", "test");
+        int videoTrack = muxer.addTrack(createVideoFormat());
+        muxer.start();
+
+        write(muxer, videoTrack, KEY_FRAME, 0, 1);
+        for (int i = 1; i < 100; i++) {
+            write(muxer, videoTrack, INTER_FRAME, i * 33333L, 0);
+        }
+        muxer.stop();
+
+        assertTrue(muxer.awaitClosed(5000));
+        assertTrue(server.awaitClosed(5000));
+        assertNull(muxer.getError());
+        List<RtmpMessage> messages = server.getMessages();
+        int pong = -1;
+        int lastVideo = -1;
+        for (int i = 0; i < messages.size(); i++) {
+            RtmpMessage message = messages.get(i);
+            if (message.type == RtmpMessage.USER_CONTROL && message.payload.getShort(0) == 7) {
+                assertEquals(1234, message.payload.getInt(2));
+                pong = i;
+            } else if (message.type == RtmpMessage.VIDEO) {
+                lastVideo = i;
+            }
+        }
+        assertTrue(pong != -1);
+        assertTrue(pong < lastVideo);
+    }
+
+    private static Mp4VideoFormat createVideoFormat() {
+        Mp4VideoFormat videoFormat = new Mp4VideoFormat("video/avc", 320, 240);
+        videoFormat.setByteBuffer("csd-0", ByteBuffer.wrap(SPS));
+        videoFormat.setByteBuffer("csd-1", ByteBuffer.wrap(PPS));
+        return videoFormat;
+    }
+
+    private static Mp4AudioFormat createAudioFormat() {
+        Mp4AudioFormat audioFormat = new Mp4AudioFormat("audio/mp4a-latm", 44100, 2);
+        audioFormat.setByteBuffer("csd-0", ByteBuffer.wrap(AUDIO_CONFIG));
+        return audioFormat;
+    }
+
+    private static void write(RtmpMediaMuxer muxer, int track, byte[] sample, long presentationTimeUs, int flags) {
+        IMediaCodec.BufferInfo bufferInfo = new IMediaCodec.BufferInfo();
+        bufferInfo.offset = 0;
+        bufferInfo.size = sample.length;
+        bufferInfo.presentationTimeUs = presentationTimeUs;
+        bufferInfo.flags = flags;
+        muxer.writeSampleData(track, ByteBuffer.wrap(sample), bufferInfo);
+    }
+
+    private static void assertPayload(RtmpMessage message, int... expected) {
+        byte[] bytes = new byte[expected.length];
+        for (int i = 0; i < expected.length; i++) {
+            bytes[i] = (byte) expected[i];
+        }
+        assertEquals(ByteBuffer.wrap(bytes), message.payload);
+    }
+}
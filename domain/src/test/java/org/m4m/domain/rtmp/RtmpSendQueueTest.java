@@ -0,0 +1,118 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RtmpSendQueueTest {
+    @Test
+    public void dropsNonReferenceVideoFirst() {
+        RtmpSendQueue queue = new RtmpSendQueue(100, RtmpMediaMuxer.DropPolicy.DROP_NON_REFERENCE_VIDEO_FIRST);
+        RtmpMessage keyFrame = video(30, true, false);
+        RtmpMessage interFrame = video(30, false, false);
+        RtmpMessage audio = audio(20);
+        queue.offer(keyFrame);
+        queue.offer(video(30, false, true));
+        queue.offer(interFrame);
+
+        assertTrue(queue.offer(audio));
+
+        assertEquals(1, queue.getDroppedVideoFrames());
+        assertQueued(queue, keyFrame, interFrame, audio);
+    }
+
+    @Test
+    public void dropsReferenceVideoBeforeAudio_AndSkipsVideoUpToNextKeyFrame() {
+        RtmpSendQueue queue = new RtmpSendQueue(100, RtmpMediaMuxer.DropPolicy.DROP_NON_REFERENCE_VIDEO_FIRST);
+        RtmpMessage firstAudio = audio(30);
+        RtmpMessage secondAudio = audio(30);
+        RtmpMessage keyFrame = video(10, true, false);
+        queue.offer(firstAudio);
+        queue.offer(video(30, true, false));
+        queue.offer(video(30, false, false));
+
+        assertTrue(queue.offer(secondAudio));
+        assertFalse(queue.offer(video(10, false, false)));
+        assertTrue(queue.offer(keyFrame));
+
+        assertEquals(3, queue.getDroppedVideoFrames());
+        assertEquals(0, queue.getDroppedAudioFrames());
+        assertQueued(queue, firstAudio, secondAudio, keyFrame);
+    }
+
+    @Test
+    public void dropsNewMessages_WhenDropNewest() {
+        RtmpSendQueue queue = new RtmpSendQueue(60, RtmpMediaMuxer.DropPolicy.DROP_NEWEST);
+        RtmpMessage keyFrame = video(30, true, false);
+        RtmpMessage interFrame = video(30, false, false);
+        queue.offer(keyFrame);
+        queue.offer(interFrame);
+
+        assertFalse(queue.offer(audio(10)));
+        assertFalse(queue.offer(video(10, false, false)));
+        queue.poll();
+        assertFalse(queue.offer(video(10, false, false)));
+
+        assertEquals(1, queue.getDroppedAudioFrames());
+        assertEquals(2, queue.getDroppedVideoFrames());
+        assertQueued(queue, interFrame);
+    }
+
+    @Test
+    public void queuesMessagesThatAreNotDroppable() {
+        RtmpSendQueue queue = new RtmpSendQueue(10, RtmpMediaMuxer.DropPolicy.DROP_NON_REFERENCE_VIDEO_FIRST);
+
+        assertTrue(queue.offer(new RtmpMessage(RtmpMessage.COMMAND_AMF0, 0, ByteBuffer.allocate(20))));
+
+        assertEquals(1, queue.size());
+        assertEquals(20, queue.getBytes());
+    }
+
+    private static RtmpMessage video(int size, boolean keyFrame, boolean disposable) {
+        RtmpMessage message = new RtmpMessage(RtmpMessage.VIDEO, 0, ByteBuffer.allocate(size));
+        message.droppable = true;
+        message.keyFrame = keyFrame;
+        message.disposable = disposable;
+        return message;
+    }
+
+    private static RtmpMessage audio(int size) {
+        RtmpMessage message = new RtmpMessage(RtmpMessage.AUDIO, 0, ByteBuffer.allocate(size));
+        message.droppable = true;
+        return message;
+    }
+
+    private static void assertQueued(RtmpSendQueue queue, RtmpMessage... expected) {
+        List<RtmpMessage> queued = new ArrayList<RtmpMessage>();
+        for (RtmpMessage message = queue.poll(); message != null; message = queue.poll()) {
+            queued.add(message);
+        }
+        assertEquals(expected.length, queued.size());
+        for (int i = 0; i < expected.length; i++) {
+            assertTrue(expected[i] == queued.get(i));
+        }
+    }
+}
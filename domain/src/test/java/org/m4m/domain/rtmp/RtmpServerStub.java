@@ -0,0 +1,186 @@
+/*
+ * Copyright 2014-2016 Media for Mobile
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.m4m.domain.rtmp;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Local stand-in for an RTMP server. Accepts one publishing client, answers connect, createStream and publish,
+ * and records the messages it receives. Can stop reading once publishing starts, to stall the link, or ping
+ * the client before it confirms publishing, so the ping is answered while media is already queued.
+ */
+class RtmpServerStub implements Runnable {
+    private static final int HANDSHAKE_SIZE = 1536;
+
+    private final ServerSocket serverSocket;
+    private final boolean stallAfterPublish;
+    private final List<RtmpMessage> messages = new ArrayList<RtmpMessage>();
+    private final CountDownLatch published = new CountDownLatch(1);
+    private final CountDownLatch closed = new CountDownLatch(1);
+    private Socket socket;
+    private volatile boolean pingBeforePublish = false;
+
+    RtmpServerStub(boolean stallAfterPublish) throws IOException {
+        this.serverSocket = new ServerSocket(0, 1, InetAddress.getByName("127.0.0.1"));
+        this.stallAfterPublish = stallAfterPublish;
+        Thread thread = new Thread(this, "RtmpServerStub");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    int getPort() {
+        return serverSocket.getLocalPort();
+    }
+
+    void sendPingBeforePublish() {
+        pingBeforePublish = true;
+    }
+
+    boolean awaitPublished(long timeoutMs) throws InterruptedException {
+        return published.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Waits until the client closes the connection.
+     */
+    boolean awaitClosed(long timeoutMs) throws InterruptedException {
+        return closed.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    synchronized List<RtmpMessage> getMessages() {
+        return new ArrayList<RtmpMessage>(messages);
+    }
+
+    synchronized List<RtmpMessage> getMessages(int type) {
+        List<RtmpMessage> result = new ArrayList<RtmpMessage>();
+        for (RtmpMessage message : messages) {
+            if (message.type == type) {
+                result.add(message);
+            }
+        }
+        return result;
+    }
+
+    synchronized List<Object> getCommandNames() {
+        List<Object> names = new ArrayList<Object>();
+        for (RtmpMessage message : getMessages(RtmpMessage.COMMAND_AMF0)) {
+            names.add(Amf0.read(message.payload).get(0));
+        }
+        return names;
+    }
+
+    void close() throws IOException {
+        serverSocket.close();
+        if (socket != null) {
+            socket.close();
+        }
+    }
+
+    @Override
+    public void run() {
+        try {
+            socket = serverSocket.accept();
+            InputStream input = socket.getInputStream();
+            OutputStream output = socket.getOutputStream();
+            handshake(new DataInputStream(input), output);
+
+            RtmpChunkReader reader = new RtmpChunkReader();
+            ByteBuffer data = ByteBuffer.allocate(1024 * 1024);
+            byte[] bytes = new byte[64 * 1024];
+            int read;
+            while ((read = input.read(bytes)) != -1) {
+                data.put(bytes, 0, read);
+                data.flip();
+                List<RtmpMessage> received = reader.read(data);
+                data.compact();
+                for (RtmpMessage message : received) {
+                    synchronized (this) {
+                        messages.add(message);
+                    }
+                    if (message.type == RtmpMessage.COMMAND_AMF0) {
+                        answer(Amf0.read(message.payload), output);
+                    }
+                }
+                if (stallAfterPublish && published.getCount() == 0) {
+                    break;
+                }
+            }
+        } catch (IOException e) {
+            // The test closed the server
+        } finally {
+            closed.countDown();
+        }
+    }
+
+    private void handshake(DataInputStream input, OutputStream output) throws IOException {
+        byte[] c0c1 = new byte[1 + HANDSHAKE_SIZE];
+        input.readFully(c0c1);
+        byte[] s0s1s2 = new byte[1 + 2 * HANDSHAKE_SIZE];
+        s0s1s2[0] = 3;
+        System.arraycopy(c0c1, 1, s0s1s2, 1 + HANDSHAKE_SIZE, HANDSHAKE_SIZE);
+        output.write(s0s1s2);
+        input.readFully(new byte[HANDSHAKE_SIZE]);
+    }
+
+    private void answer(List<Object> command, OutputStream output) throws IOException {
+        Object name = command.get(0);
+        Object transactionId = command.get(1);
+        if ("connect".equals(name)) {
+            Map<String, Object> info = new LinkedHashMap<String, Object>();
+            info.put("level", "status");
+            info.put("code", "NetConnection.Connect.Success");
+            send(output, RtmpMessage.command(new Amf0().put("_result").put(transactionId).put(null).put(info)), 0);
+        } else if ("createStream".equals(name)) {
+            send(output, RtmpMessage.command(new Amf0().put("_result").put(transactionId).put(null).put(1)), 0);
+        } else if ("publish".equals(name)) {
+            Map<String, Object> info = new LinkedHashMap<String, Object>();
+            info.put("level", "status");
+            info.put("code", "NetStream.Publish.Start");
+            if (pingBeforePublish) {
+                ByteBuffer ping = ByteBuffer.allocate(6);
+                ping.putShort(0, (short) 6).putInt(2, 1234);
+                send(output, new RtmpMessage(RtmpMessage.USER_CONTROL, 0, ping), 0);
+            }
+            send(output, RtmpMessage.command(new Amf0().put("onStatus").put(0).put(null).put(info)), 1);
+            published.countDown();
+        }
+    }
+
+    private void send(OutputStream output, RtmpMessage message, int streamId) throws IOException {
+        message.streamId = streamId;
+        RtmpChunkWriter writer = new RtmpChunkWriter();
+        ByteBuffer data = ByteBuffer.allocate(message.size() * 2 + 64);
+        writer.begin(message);
+        writer.writeTo(data);
+        output.write(data.array(), 0, data.position());
+        output.flush();
+    }
+}
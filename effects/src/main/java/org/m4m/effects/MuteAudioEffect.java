@@ -27,8 +27,9 @@ public class MuteAudioEffect extends AudioEffect {
     @Override
     public void applyEffect(ByteBuffer input, long timeProgress) {
         if (isMute) {
-            input.rewind();
-            input.put(new byte[input.array().length]);
+            for (int i = 0; i < input.capacity(); i++) {
+                input.put(i, (byte) 0);
+            }
         }
     }
 